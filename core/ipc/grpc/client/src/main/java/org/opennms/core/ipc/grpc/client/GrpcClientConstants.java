@@ -34,4 +34,8 @@ public interface GrpcClientConstants {
     String CLIENT_CERTIFICATE_FILE_PATH = "client.cert.filepath";
     String CLIENT_PRIVATE_KEY_FILE_PATH = "client.private.key.filepath";
     String TRUST_CERTIFICATE_FILE_PATH = "trust.cert.filepath";
+    String SINK_STREAMS = "sink.streams";
+    int DEFAULT_SINK_STREAMS = 1;
+    String SINK_STREAM_PER_MODULE = "sink.stream.per.module";
+    String SINK_COMPRESSION = "sink.compression";
 }
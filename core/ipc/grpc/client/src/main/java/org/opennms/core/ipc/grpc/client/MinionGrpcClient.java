@@ -26,10 +26,14 @@ import static org.opennms.core.ipc.grpc.client.GrpcClientConstants.CLIENT_PRIVAT
 import static org.opennms.core.ipc.grpc.client.GrpcClientConstants.DEFAULT_GRPC_HOST;
 import static org.opennms.core.ipc.grpc.client.GrpcClientConstants.DEFAULT_GRPC_PORT;
 import static org.opennms.core.ipc.grpc.client.GrpcClientConstants.DEFAULT_MESSAGE_SIZE;
+import static org.opennms.core.ipc.grpc.client.GrpcClientConstants.DEFAULT_SINK_STREAMS;
 import static org.opennms.core.ipc.grpc.client.GrpcClientConstants.GRPC_CLIENT_PID;
 import static org.opennms.core.ipc.grpc.client.GrpcClientConstants.GRPC_HOST;
 import static org.opennms.core.ipc.grpc.client.GrpcClientConstants.GRPC_MAX_INBOUND_SIZE;
 import static org.opennms.core.ipc.grpc.client.GrpcClientConstants.GRPC_PORT;
+import static org.opennms.core.ipc.grpc.client.GrpcClientConstants.SINK_COMPRESSION;
+import static org.opennms.core.ipc.grpc.client.GrpcClientConstants.SINK_STREAMS;
+import static org.opennms.core.ipc.grpc.client.GrpcClientConstants.SINK_STREAM_PER_MODULE;
 import static org.opennms.core.ipc.grpc.client.GrpcClientConstants.TLS_ENABLED;
 import static org.opennms.core.ipc.grpc.client.GrpcClientConstants.TRUST_CERTIFICATE_FILE_PATH;
 import static org.opennms.core.ipc.sink.api.Message.SINK_METRIC_PRODUCER_DOMAIN;
@@ -48,6 +52,7 @@ import java.util.Properties;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -111,6 +116,9 @@ import io.opentracing.util.GlobalTracer;
  * <p>
  * Sink: Sink runs in uni-directional streaming mode. If the sink module is async and OpenNMS Server is not active, the
  * messages are buffered and blocked till minion is able to connect to OpenNMS.
+ * Messages are spread over a configurable number of sink streams by module, or sent on a dedicated stream per module,
+ * so that a busy module does not hold back the others. Each stream honors the gRPC flow control, senders wait until
+ * the stream is ready instead of buffering messages in the transport.
  */
 public class MinionGrpcClient extends AbstractMessageDispatcherFactory<String> {
 
@@ -124,7 +132,13 @@ public class MinionGrpcClient extends AbstractMessageDispatcherFactory<String> {
     private MinionIdentity minionIdentity;
     private ConfigurationAdmin configAdmin;
     private StreamObserver<RpcResponseProto> rpcStream;
-    private StreamObserver<SinkMessage> sinkStream;
+    private OpenNMSIpcGrpc.OpenNMSIpcStub sinkStub;
+    private int numSinkStreams = DEFAULT_SINK_STREAMS;
+    private boolean sinkStreamPerModule = false;
+    // Streams shared by all modules, sharded by module id
+    private volatile SinkStream[] sinkStreams;
+    // Dedicated streams by module id, when sinkStreamPerModule is set
+    private final ConcurrentMap<String, SinkStream> sinkStreamsByModuleId = new ConcurrentHashMap<>();
     private ConnectivityState currentChannelState;
     private MetricRegistry metrics;
     private TracerRegistry tracerRegistry;
@@ -155,6 +169,9 @@ public class MinionGrpcClient extends AbstractMessageDispatcherFactory<String> {
         int port = PropertiesUtils.getProperty(properties, GRPC_PORT, DEFAULT_GRPC_PORT);
         boolean tlsEnabled = PropertiesUtils.getProperty(properties, TLS_ENABLED, false);
         int maxInboundMessageSize = PropertiesUtils.getProperty(properties, GRPC_MAX_INBOUND_SIZE, DEFAULT_MESSAGE_SIZE);
+        numSinkStreams = Math.max(1, PropertiesUtils.getProperty(properties, SINK_STREAMS, DEFAULT_SINK_STREAMS));
+        sinkStreamPerModule = PropertiesUtils.getProperty(properties, SINK_STREAM_PER_MODULE, false);
+        String sinkCompression = properties.getProperty(SINK_COMPRESSION);
 
         NettyChannelBuilder channelBuilder = NettyChannelBuilder.forAddress(host, port)
                 .keepAliveWithoutCalls(true)
@@ -171,6 +188,12 @@ public class MinionGrpcClient extends AbstractMessageDispatcherFactory<String> {
         }
 
         asyncStub = OpenNMSIpcGrpc.newStub(channel);
+        if (Strings.isNullOrEmpty(sinkCompression)) {
+            sinkStub = asyncStub;
+        } else {
+            sinkStub = asyncStub.withCompression(sinkCompression);
+            LOG.info("Using {} compression for Sink messages", sinkCompression);
+        }
         initializeRpcStub();
         initializeSinkStub();
         if (tracerRegistry != null) {
@@ -208,13 +231,72 @@ public class MinionGrpcClient extends AbstractMessageDispatcherFactory<String> {
 
     private void initializeSinkStub() {
         if (getChannelState().equals(ConnectivityState.READY)) {
-            sinkStream = asyncStub.sinkStreaming(new EmptyMessageReceiver());
-            LOG.info("Initialized Sink stream");
+            closeSinkStreams();
+            if (sinkStreamPerModule) {
+                // Streams get opened on the first message of each module
+                sinkStreams = new SinkStream[0];
+                LOG.info("Initialized Sink streams, using one stream per module");
+            } else {
+                final SinkStream[] streams = new SinkStream[numSinkStreams];
+                for (int i = 0; i < streams.length; i++) {
+                    streams[i] = openSinkStream();
+                }
+                sinkStreams = streams;
+                LOG.info("Initialized {} Sink stream(s)", streams.length);
+            }
         } else {
             LOG.warn("gRPC IPC server is not in ready state");
         }
     }
 
+    private SinkStream openSinkStream() {
+        final SinkStream sinkStream = new SinkStream();
+        sinkStub.sinkStreaming(sinkStream);
+        return sinkStream;
+    }
+
+    private void closeSinkStreams() {
+        final SinkStream[] streams = sinkStreams;
+        sinkStreams = null;
+        if (streams != null) {
+            for (SinkStream stream : streams) {
+                stream.close();
+            }
+        }
+        sinkStreamsByModuleId.values().forEach(SinkStream::close);
+        sinkStreamsByModuleId.clear();
+    }
+
+    private boolean hasSinkStreams() {
+        final SinkStream[] streams = sinkStreams;
+        if (streams == null) {
+            return false;
+        }
+        for (SinkStream stream : streams) {
+            if (stream.isClosed()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private SinkStream getSinkStream(SinkMessage sinkMessage) {
+        final SinkStream[] streams = sinkStreams;
+        if (streams == null) {
+            return null;
+        }
+        if (sinkStreamPerModule) {
+            final SinkStream stream = sinkStreamsByModuleId.get(sinkMessage.getModuleId());
+            if (stream != null && !stream.isClosed()) {
+                return stream;
+            }
+            // Open, or reopen the stream for this module only
+            return sinkStreamsByModuleId.compute(sinkMessage.getModuleId(),
+                    (moduleId, existing) -> existing == null || existing.isClosed() ? openSinkStream() : existing);
+        }
+        return streams[Math.floorMod(sinkMessage.getModuleId().hashCode(), streams.length)];
+    }
+
 
     @SuppressWarnings({"rawtypes", "unchecked"})
     public void bind(RpcModule module) throws Exception {
@@ -250,6 +332,7 @@ public class MinionGrpcClient extends AbstractMessageDispatcherFactory<String> {
         if (rpcStream != null) {
             rpcStream.onCompleted();
         }
+        closeSinkStreams();
         channel.shutdown();
         LOG.info("Minion at location {} with systemId {} stopped", minionIdentity.getLocation(), minionIdentity.getId());
     }
@@ -315,7 +398,7 @@ public class MinionGrpcClient extends AbstractMessageDispatcherFactory<String> {
                     .setContent(ByteString.copyFrom(sinkMessageContent));
 
             if (module.getId().equals(HEARTBEAT_MODULE_ID)) {
-                if (rpcStream == null || sinkStream == null || hasChangedToReadyState()) {
+                if (rpcStream == null || !hasSinkStreams() || hasChangedToReadyState()) {
                     initializeSinkStub();
                     initializeRpcStub();
                 }
@@ -355,12 +438,16 @@ public class MinionGrpcClient extends AbstractMessageDispatcherFactory<String> {
     }
 
 
-    private synchronized boolean sendSinkMessage(SinkMessage sinkMessage) {
+    private boolean sendSinkMessage(SinkMessage sinkMessage) {
         if (getChannelState().equals(ConnectivityState.READY)) {
+            final SinkStream sinkStream = getSinkStream(sinkMessage);
             if (sinkStream != null) {
                 try {
-                    sinkStream.onNext(sinkMessage);
-                    return true;
+                    // Wait for the flow control, this blocks the dispatcher threads when OpenNMS can not keep up
+                    return sinkStream.send(sinkMessage, SINK_BLOCKING_TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOG.warn("Interrupted while sending sinkMessage to gRPC IPC server");
                 } catch (Throwable e) {
                     LOG.error("Exception while sending sinkMessage to gRPC IPC server", e);
                 }
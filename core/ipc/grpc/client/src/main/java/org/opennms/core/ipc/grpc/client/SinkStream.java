@@ -0,0 +1,112 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.core.ipc.grpc.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.ipc.grpc.common.Empty;
+import org.opennms.core.ipc.grpc.common.SinkMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+
+/**
+ * A single sink stream to the gRPC server which honors the gRPC flow control.
+ * <p>
+ * Senders wait until the transport is ready to accept more messages instead of
+ * buffering them in Netty, which pushes back into the dispatcher queues when
+ * OpenNMS can not keep up. Writes on the stream are serialized, but different
+ * streams can be written to in parallel.
+ */
+class SinkStream extends EmptyMessageReceiver implements ClientResponseObserver<SinkMessage, Empty> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SinkStream.class);
+
+    private ClientCallStreamObserver<SinkMessage> requestStream;
+
+    private boolean closed = false;
+
+    @Override
+    public void beforeStart(ClientCallStreamObserver<SinkMessage> requestStream) {
+        this.requestStream = requestStream;
+        requestStream.setOnReadyHandler(this::onReady);
+    }
+
+    private synchronized void onReady() {
+        notifyAll();
+    }
+
+    /**
+     * Sends the message once the stream is ready.
+     *
+     * @return false if the stream was not ready within the given timeout or is closed
+     */
+    synchronized boolean send(SinkMessage sinkMessage, long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!closed && !requestStream.isReady()) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                LOG.debug("Sink stream is not ready, message with id {} from module {} was not sent",
+                        sinkMessage.getMessageId(), sinkMessage.getModuleId());
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        if (closed) {
+            return false;
+        }
+        requestStream.onNext(sinkMessage);
+        return true;
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    synchronized void close() {
+        if (!closed) {
+            closed = true;
+            notifyAll();
+            try {
+                requestStream.onCompleted();
+            } catch (RuntimeException e) {
+                // The call may already have failed
+                LOG.debug("Failed to complete sink stream", e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onError(Throwable throwable) {
+        LOG.warn("Sink stream closed with error: {}", throwable.getMessage());
+        closed = true;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void onCompleted() {
+        closed = true;
+        notifyAll();
+    }
+}
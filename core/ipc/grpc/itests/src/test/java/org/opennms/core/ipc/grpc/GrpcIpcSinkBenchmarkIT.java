@@ -0,0 +1,246 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.core.ipc.grpc;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.opennms.core.ipc.grpc.GrpcIpcRpcIT.getAvailablePort;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.core.grpc.common.GrpcIpcServer;
+import org.opennms.core.grpc.common.GrpcIpcServerBuilder;
+import org.opennms.core.ipc.grpc.client.GrpcClientConstants;
+import org.opennms.core.ipc.grpc.client.MinionGrpcClient;
+import org.opennms.core.ipc.grpc.server.GrpcServerConstants;
+import org.opennms.core.ipc.grpc.server.OpennmsGrpcServer;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformReservoir;
+
+/**
+ * Measures the sink throughput and the dispatch latency of the gRPC IPC with a mix of modules:
+ * one busy module with a slow consumer, and two light modules which should not be held back by it.
+ * Every message sent must be delivered to the consumer of its module, the results are logged.
+ */
+public class GrpcIpcSinkBenchmarkIT {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GrpcIpcSinkBenchmarkIT.class);
+
+    private static final String REMOTE_LOCATION_NAME = "remote";
+
+    private static final int HOT_MESSAGES = 20000;
+    private static final int HOT_THREADS = 4;
+    private static final int LIGHT_MESSAGES = 2000;
+
+    private MinionGrpcClient grpcClient;
+    private OpennmsGrpcServer server;
+
+    @Test(timeout = 300000)
+    public void singleStream() throws Exception {
+        runBenchmark("1 stream", "1", "false");
+    }
+
+    @Test(timeout = 300000)
+    public void multipleStreams() throws Exception {
+        runBenchmark("4 streams", "4", "false");
+    }
+
+    @Test(timeout = 300000)
+    public void streamPerModule() throws Exception {
+        runBenchmark("stream per module", "1", "true");
+    }
+
+    private void runBenchmark(String name, String streams, String streamPerModule) throws Exception {
+        startClientAndServer(streams, streamPerModule);
+
+        final NamedModule hotModule = new NamedModule("Flows");
+        final List<NamedModule> lightModules = new ArrayList<>();
+        lightModules.add(new NamedModule("Traps"));
+        lightModules.add(new NamedModule("Syslog"));
+
+        final Meter hotMeter = new Meter();
+        server.registerConsumer(new SlowConsumer(hotModule, hotMeter, TimeUnit.MICROSECONDS.toNanos(200)));
+        final List<Meter> lightMeters = new ArrayList<>();
+        for (NamedModule module : lightModules) {
+            final Meter lightMeter = new Meter();
+            server.registerConsumer(new HeartbeatConsumer(module, lightMeter));
+            lightMeters.add(lightMeter);
+        }
+
+        // Wait for the streams to be initialized
+        final Meter heartbeatMeter = new Meter();
+        final HeartbeatModule heartbeatModule = new HeartbeatModule();
+        server.registerConsumer(new HeartbeatConsumer(heartbeatModule, heartbeatMeter));
+        await().atMost(30, TimeUnit.SECONDS).pollInterval(1, TimeUnit.SECONDS)
+                .until(() -> {
+                    grpcClient.dispatch(heartbeatModule, null, new Heartbeat());
+                    return heartbeatMeter.getCount();
+                }, Matchers.greaterThan(0L));
+
+        final Histogram hotLatency = new Histogram(new UniformReservoir());
+        final Histogram lightLatency = new Histogram(new UniformReservoir());
+        final ExecutorService executor = Executors.newFixedThreadPool(HOT_THREADS + lightModules.size());
+        final long start = System.nanoTime();
+        try {
+            final List<Future<?>> senders = new ArrayList<>();
+            for (int i = 0; i < HOT_THREADS; i++) {
+                senders.add(executor.submit(() -> send(hotModule, HOT_MESSAGES / HOT_THREADS, hotLatency)));
+            }
+            for (NamedModule module : lightModules) {
+                senders.add(executor.submit(() -> send(module, LIGHT_MESSAGES, lightLatency)));
+            }
+            for (Future<?> sender : senders) {
+                sender.get();
+            }
+            await().atMost(2, TimeUnit.MINUTES).until(() -> hotMeter.getCount() + getCount(lightMeters),
+                    Matchers.greaterThanOrEqualTo((long) HOT_MESSAGES + LIGHT_MESSAGES * lightModules.size()));
+        } finally {
+            executor.shutdownNow();
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        // Each message was dispatched once and delivered once, to the consumer of its own module
+        assertEquals(HOT_MESSAGES, hotLatency.getCount());
+        assertEquals(LIGHT_MESSAGES * lightModules.size(), lightLatency.getCount());
+        assertEquals(HOT_MESSAGES, hotMeter.getCount());
+        for (Meter lightMeter : lightMeters) {
+            assertEquals(LIGHT_MESSAGES, lightMeter.getCount());
+        }
+
+        LOG.info("{}: {} msgs/sec", name, String.format("%.0f", (HOT_MESSAGES + LIGHT_MESSAGES * lightModules.size()) / seconds));
+        log(name + " busy module dispatch", hotLatency.getSnapshot());
+        log(name + " light modules dispatch", lightLatency.getSnapshot());
+    }
+
+    private static long getCount(List<Meter> meters) {
+        long count = 0;
+        for (Meter meter : meters) {
+            count += meter.getCount();
+        }
+        return count;
+    }
+
+    private void send(NamedModule module, int count, Histogram latency) {
+        for (int i = 0; i < count; i++) {
+            final long start = System.nanoTime();
+            grpcClient.dispatch(module, null, new Heartbeat());
+            latency.update(System.nanoTime() - start);
+        }
+    }
+
+    private static void log(String name, Snapshot snapshot) {
+        LOG.info("{} latency (ms): {}", name, String.format("median=%.3f p99=%.3f p999=%.3f max=%.3f",
+                snapshot.getMedian() / 1e6, snapshot.get99thPercentile() / 1e6,
+                snapshot.get999thPercentile() / 1e6, snapshot.getMax() / 1e6));
+    }
+
+    private void startClientAndServer(String streams, String streamPerModule) throws Exception {
+        Hashtable<String, Object> serverConfig = new Hashtable<>();
+        int port = getAvailablePort(new AtomicInteger(GrpcServerConstants.DEFAULT_GRPC_PORT), 9090);
+        serverConfig.put(GrpcServerConstants.GRPC_SERVER_PORT, String.valueOf(port));
+        serverConfig.put(GrpcServerConstants.TLS_ENABLED, false);
+        Hashtable<String, Object> clientConfig = new Hashtable<>();
+        clientConfig.put(GrpcClientConstants.GRPC_PORT, String.valueOf(port));
+        clientConfig.put(GrpcClientConstants.GRPC_HOST, "localhost");
+        clientConfig.put(GrpcClientConstants.TLS_ENABLED, false);
+        clientConfig.put(GrpcClientConstants.SINK_STREAMS, streams);
+        clientConfig.put(GrpcClientConstants.SINK_STREAM_PER_MODULE, streamPerModule);
+        ConfigurationAdmin configAdmin = mock(ConfigurationAdmin.class, RETURNS_DEEP_STUBS);
+        when(configAdmin.getConfiguration(GrpcServerConstants.GRPC_SERVER_PID).getProperties()).thenReturn(serverConfig);
+        when(configAdmin.getConfiguration(GrpcClientConstants.GRPC_CLIENT_PID).getProperties()).thenReturn(clientConfig);
+
+        grpcClient = new MinionGrpcClient(new MockMinionIdentity(REMOTE_LOCATION_NAME), configAdmin);
+        GrpcIpcServer grpcIpcServer = new GrpcIpcServerBuilder(configAdmin, port, "PT0S");
+        server = new OpennmsGrpcServer(grpcIpcServer);
+        server.start();
+        grpcClient.start();
+    }
+
+    @After
+    public void shutdown() throws Exception {
+        if (grpcClient != null) {
+            grpcClient.shutdown();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    private static class NamedModule extends HeartbeatModule {
+        private final String id;
+
+        private NamedModule(String id) {
+            super(true);
+            this.id = id;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return super.equals(obj) && id.equals(((NamedModule) obj).id);
+        }
+
+        @Override
+        public int hashCode() {
+            return super.hashCode();
+        }
+    }
+
+    private static class SlowConsumer extends HeartbeatConsumer {
+        private final long delayNanos;
+
+        private SlowConsumer(HeartbeatModule module, Meter meter, long delayNanos) {
+            super(module, meter);
+            this.delayNanos = delayNanos;
+        }
+
+        @Override
+        public void handleMessage(Heartbeat heartbeat) {
+            LockSupport.parkNanos(delayNanos);
+            super.handleMessage(heartbeat);
+        }
+    }
+}
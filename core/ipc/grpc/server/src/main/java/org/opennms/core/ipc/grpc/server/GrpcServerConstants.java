@@ -34,4 +34,6 @@ public interface GrpcServerConstants {
     String SERVER_CERTIFICATE_FILE_PATH = "server.cert.filepath";
     String PRIVATE_KEY_FILE_PATH = "server.private.key.filepath";
     String TRUST_CERTIFICATE_FILE_PATH = "trust.cert.filepath";
+    // Number of sink messages per stream which may be waiting to be consumed
+    int SINK_STREAM_MAX_IN_FLIGHT = 200;
 }
@@ -23,6 +23,7 @@ package org.opennms.core.ipc.grpc.server;
 
 import static org.opennms.core.ipc.grpc.server.GrpcServerConstants.DEFAULT_GRPC_TTL;
 import static org.opennms.core.ipc.grpc.server.GrpcServerConstants.GRPC_TTL_PROPERTY;
+import static org.opennms.core.ipc.grpc.server.GrpcServerConstants.SINK_STREAM_MAX_IN_FLIGHT;
 import static org.opennms.core.ipc.sink.api.Message.SINK_METRIC_CONSUMER_DOMAIN;
 import static org.opennms.core.rpc.api.RpcModule.MINION_HEADERS_MODULE;
 import static org.opennms.core.tracing.api.TracerConstants.TAG_LOCATION;
@@ -42,6 +43,7 @@ import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -85,6 +87,7 @@ import com.google.common.collect.Multimap;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.ByteString;
 
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import io.opentracing.References;
 import io.opentracing.Scope;
@@ -506,6 +509,11 @@ public class OpennmsGrpcServer extends AbstractMessageConsumerManager implements
         public io.grpc.stub.StreamObserver<SinkMessage> sinkStreaming(
                 io.grpc.stub.StreamObserver<Empty> responseObserver) {
 
+            // Only read more messages from the stream once the dispatched ones are consumed, so that
+            // minions which send faster than the consumers can handle are held back by the flow control
+            final ServerCallStreamObserver<Empty> serverCallStreamObserver = (ServerCallStreamObserver<Empty>) responseObserver;
+            serverCallStreamObserver.disableAutoRequest();
+            serverCallStreamObserver.request(SINK_STREAM_MAX_IN_FLIGHT);
 
             return new StreamObserver<SinkMessage>() {
 
@@ -515,9 +523,27 @@ public class OpennmsGrpcServer extends AbstractMessageConsumerManager implements
                     if (!Strings.isNullOrEmpty(sinkMessage.getModuleId())) {
                         ExecutorService sinkModuleExecutor = sinkConsumersByModuleId.get(sinkMessage.getModuleId());
                         if(sinkModuleExecutor != null) {
-                            sinkModuleExecutor.execute(() -> dispatchSinkMessage(sinkMessage));
+                            try {
+                                sinkModuleExecutor.execute(() -> {
+                                    try {
+                                        dispatchSinkMessage(sinkMessage);
+                                    } finally {
+                                        requestNext();
+                                    }
+                                });
+                                return;
+                            } catch (RejectedExecutionException e) {
+                                LOG.debug("Sink consumer for module {} is shut down", sinkMessage.getModuleId());
+                            }
                         }
                     }
+                    requestNext();
+                }
+
+                private void requestNext() {
+                    synchronized (serverCallStreamObserver) {
+                        serverCallStreamObserver.request(1);
+                    }
                 }
 
 
@@ -528,7 +554,8 @@ public class OpennmsGrpcServer extends AbstractMessageConsumerManager implements
 
                 @Override
                 public void onCompleted() {
-
+                    // Minions may open several sink streams, close each one when the minion is done with it
+                    responseObserver.onCompleted();
                 }
             };
         }
@@ -54,6 +54,11 @@ public class OsgiTwinPublisher implements TwinPublisher {
         return this.getDelegate().register(key, clazz, location);
     }
 
+    @Override
+    public <V> KeyedSession<V> registerKeyed(String key, Class<V> clazz, String location) throws IOException {
+        return this.getDelegate().registerKeyed(key, clazz, location);
+    }
+
     @Override
     public void close() throws IOException {
         this.getDelegate().close();
@@ -141,8 +141,7 @@ public class KafkaRpcClientFactory implements RpcClientFactory {
     private KafkaConsumerRunner kafkaConsumerRunner;
     private DelayQueue<ResponseCallback> delayQueue = new DelayQueue<>();
     // Used to cache responses when large message are involved.
-    private Map<String, ByteString> messageCache = new ConcurrentHashMap<>();
-    private Map<String, Integer> currentChunkCache = new ConcurrentHashMap<>();
+    private final RpcMessageChunks messageChunks = new RpcMessageChunks();
     private MetricRegistry metrics;
     private KafkaTopicProvider topicProvider = new KafkaTopicProvider();
     private JmxReporter metricsReporter = null;
@@ -195,7 +194,7 @@ public class KafkaRpcClientFactory implements RpcClientFactory {
                 for (int chunk = 0; chunk < totalChunks; chunk++) {
                     // Calculate remaining bufferSize for each chunk.
                     int bufferSize = KafkaRpcConstants.getBufferSize(messageInBytes.length, maxBufferSize, chunk);
-                    ByteString byteString = ByteString.copyFrom(messageInBytes, chunk * maxBufferSize, bufferSize);
+                    ByteString byteString = RpcMessageChunks.slice(messageInBytes, chunk * maxBufferSize, bufferSize);
                     int chunkNum = chunk;
                     // Add tracing info to message builder.
                     addTracingInfo(request, span, builder);
@@ -204,6 +203,7 @@ public class KafkaRpcClientFactory implements RpcClientFactory {
                             .setCurrentChunkNumber(chunk)
                             .setTotalChunks(totalChunks)
                             .build();
+                    final byte[] rpcMessageInBytes = rpcMessage.toByteArray();
                     // Initialize kafka producer callback.
                     Callback sendCallback = (recordMetadata, e) -> {
                         if (e != null) {
@@ -222,13 +222,13 @@ public class KafkaRpcClientFactory implements RpcClientFactory {
                         partitionInfo.forEach(partition -> {
                             // Use rpc Id as key.
                             final ProducerRecord<String, byte[]> record = new ProducerRecord<>(requestTopic,
-                                    partition.partition(), rpcId, rpcMessage.toByteArray());
+                                    partition.partition(), rpcId, rpcMessageInBytes);
                             producer.send(record, sendCallback);
                         });
                     } else {
                         // Use rpc Id as key.
                         final ProducerRecord<String, byte[]> record = new ProducerRecord<>(requestTopic,
-                                rpcId, rpcMessage.toByteArray());
+                                rpcId, rpcMessageInBytes);
                         producer.send(record, sendCallback);
                     }
                 }
@@ -419,8 +419,7 @@ public class KafkaRpcClientFactory implements RpcClientFactory {
                     span.setTag(TAG_TIMEOUT, "true");
                     failedMeter.mark();
                     rpcResponseMap.remove(rpcId);
-                    messageCache.remove(rpcId);
-                    currentChunkCache.remove(rpcId);
+                    messageChunks.remove(rpcId);
                 }
                 rpcDuration.update(System.currentTimeMillis() - requestCreationTime);
                 span.finish();
@@ -490,27 +489,26 @@ public class KafkaRpcClientFactory implements RpcClientFactory {
                         // Get Response callback from key and send rpc content to callback.
                         ResponseCallback responseCb = rpcResponseMap.get(record.key());
                         if (responseCb != null) {
-                            RpcMessageProto rpcMessage = RpcMessageProto.parseFrom(record.value());
+                            RpcMessageProto rpcMessage = RpcMessageChunks.parse(record.value());
                             ByteString rpcContent = rpcMessage.getRpcContent();
                             String rpcId = rpcMessage.getRpcId();
                             // For larger messages which get split into multiple chunks, cache them until all of them arrive.
                             if (rpcMessage.getTotalChunks() > 1) {
-                                boolean allChunksReceived = handleChunks(rpcMessage);
-                                if (!allChunksReceived) {
+                                rpcContent = messageChunks.add(rpcMessage);
+                                if (rpcContent == null) {
                                     continue;
                                 }
-                                rpcContent = messageCache.get(rpcId);
                             }
                             if (LOG.isTraceEnabled()) {
                                 LOG.trace("Received RPC response for id {}", rpcMessage.getRpcId());
                             }
-                            final String rpcMessageContent = rpcContent.toStringUtf8();
+                            // Decode the response in the handler thread, large responses would otherwise hold up the consumer.
+                            final ByteString rpcMessageContent = rpcContent;
                             responseHandlerExecutor.execute(() ->
-                                    responseCb.sendResponse(rpcMessageContent));
+                                    responseCb.sendResponse(rpcMessageContent.toStringUtf8()));
                             // Remove rpcId from the maps so that duplicate response will not be handled.
                             rpcResponseMap.remove(rpcId);
-                            messageCache.remove(rpcId);
-                            currentChunkCache.remove(rpcId);
+                            messageChunks.remove(rpcId);
                         } else {
                             LOG.debug("Received a response for request with ID:{}, but no outstanding request was found with this id." +
                                     "The request may have timed out or the response may be a duplicate.", record.key());
@@ -533,25 +531,6 @@ public class KafkaRpcClientFactory implements RpcClientFactory {
             consumer.wakeup();
         }
 
-        private boolean handleChunks(RpcMessageProto rpcMessage) {
-            // Avoid duplicate chunks. discard if chunk is repeated or not in order.
-            String rpcId = rpcMessage.getRpcId();
-            currentChunkCache.putIfAbsent(rpcId, 0);
-            Integer chunkNumber = currentChunkCache.get(rpcId);
-            if (chunkNumber != rpcMessage.getCurrentChunkNumber()) {
-                LOG.debug("Expected chunk = {} but got chunk = {}, ignoring.", chunkNumber, rpcMessage.getCurrentChunkNumber());
-                return false;
-            }
-            ByteString byteString = messageCache.get(rpcId);
-            if (byteString != null) {
-                messageCache.put(rpcId, byteString.concat(rpcMessage.getRpcContent()));
-            } else {
-                messageCache.put(rpcId, rpcMessage.getRpcContent());
-            }
-            currentChunkCache.put(rpcId, ++chunkNumber);
-            return rpcMessage.getTotalChunks() == chunkNumber;
-        }
-
         private void waitTillFirstTopicIsAdded() {
             while (!topicAdded.get()) {
                 try {
@@ -126,12 +126,11 @@ public class KafkaRpcServerManager {
     private final ExecutorService requestExecutor = Executors.newCachedThreadPool(requestExecutorThreadFactory);
     private Map<String, KafkaConsumerRunner> kafkaConsumersByTopic = new ConcurrentHashMap<>();
     private Map<String, RpcModule<RpcRequest, RpcResponse>> rpcModulesById = new ConcurrentHashMap<>();
-    // cache to hold rpcId and ByteString when there are multiple chunks for the message.
-    private Map<String, ByteString> messageCache = new ConcurrentHashMap<>();
+    // Holds the chunks of the messages which were split into multiple chunks until all of them arrive.
+    private final RpcMessageChunks messageChunks = new RpcMessageChunks();
     // Delay queue which caches rpcId and removes when rpcId reaches expiration time.
     private DelayQueue<RpcId> rpcIdQueue = new DelayQueue<>();
     private ExecutorService delayQueueExecutor = Executors.newSingleThreadExecutor();
-    private Map<String, Integer> currentChunkCache = new ConcurrentHashMap<>();
     private final TracerRegistry tracerRegistry;
     private KafkaTopicProvider kafkaRpcTopicProvider = new KafkaTopicProvider();
     private Bulkhead bulkhead;
@@ -226,8 +225,7 @@ public class KafkaRpcServerManager {
         while (true) {
             try {
                 RpcId rpcId = rpcIdQueue.take();
-                messageCache.remove(rpcId.getRpcId());
-                currentChunkCache.remove(rpcId.getRpcId());
+                messageChunks.remove(rpcId.getRpcId());
             } catch (InterruptedException e) {
                 LOG.error("Delay Queue has been interrupted ", e);
                 break;
@@ -239,7 +237,7 @@ public class KafkaRpcServerManager {
         if (producer != null) {
             producer.close();
         }
-        messageCache.clear();
+        messageChunks.clear();
         kafkaConsumersByTopic.forEach((topic, kafkaConsumerRunner) ->
                 kafkaConsumerRunner.shutdown());
         executor.shutdown();
@@ -274,8 +272,7 @@ public class KafkaRpcServerManager {
                     ConsumerRecords<String, byte[]> records = consumer.poll(java.time.Duration.ofMillis(Long.MAX_VALUE));
                     for (ConsumerRecord<String, byte[]> record : records) {
                         try {
-                            RpcMessageProto rpcMessage = RpcMessageProto.parseFrom(record.value());
-                            String rpcId = rpcMessage.getRpcId();
+                            RpcMessageProto rpcMessage = RpcMessageChunks.parse(record.value());
                             long expirationTime = rpcMessage.getExpirationTime();
                             if (expirationTime < System.currentTimeMillis()) {
                                 LOG.warn("ttl already expired for the request id = {}, won't process.", rpcMessage.getRpcId());
@@ -299,14 +296,10 @@ public class KafkaRpcServerManager {
                             // For larger messages which get split into multiple chunks, cache them until all of them arrive.
                             if (rpcMessage.getTotalChunks() > 1) {
                                 // Handle multiple chunks
-                                boolean allChunksReceived = handleChunks(rpcMessage);
-                                if (!allChunksReceived) {
+                                rpcContent = messageChunks.add(rpcMessage);
+                                if (rpcContent == null) {
                                     continue;
                                 }
-                                rpcContent = messageCache.get(rpcId);
-                                //Remove rpcId from cache.
-                                messageCache.remove(rpcId);
-                                currentChunkCache.remove(rpcId);
                             }
                             final RpcModule module = modulesById.get(rpcMessage.getModuleId());
                             if (module == null) {
@@ -403,7 +396,7 @@ public class KafkaRpcServerManager {
                 for (int chunk = 0; chunk < totalChunks; chunk++) {
                     // Calculate remaining bufferSize for each chunk.
                     int bufferSize = KafkaRpcConstants.getBufferSize(messageInBytes.length, maxBufferSize, chunk);
-                    ByteString byteString = ByteString.copyFrom(messageInBytes, chunk * maxBufferSize, bufferSize);
+                    ByteString byteString = RpcMessageChunks.slice(messageInBytes, chunk * maxBufferSize, bufferSize);
                     RpcMessageProto rpcMessage = builder.setCurrentChunkNumber(chunk)
                             .setRpcContent(byteString)
                             .build();
@@ -447,26 +440,6 @@ public class KafkaRpcServerManager {
             return false;
         }
 
-        private boolean handleChunks(RpcMessageProto rpcMessage) {
-            // Avoid duplicate chunks. discard if chunk is repeated.
-            String rpcId = rpcMessage.getRpcId();
-            currentChunkCache.putIfAbsent(rpcId, 0);
-            Integer chunkNumber = currentChunkCache.get(rpcId);
-            if (chunkNumber != rpcMessage.getCurrentChunkNumber()) {
-                LOG.debug("Expected chunk = {} but got chunk = {}, ignoring.", chunkNumber, rpcMessage.getCurrentChunkNumber());
-                return false;
-            }
-            ByteString byteString = messageCache.get(rpcId);
-            if (byteString != null) {
-                messageCache.put(rpcId, byteString.concat(rpcMessage.getRpcContent()));
-            } else {
-                messageCache.put(rpcId, rpcMessage.getRpcContent());
-            }
-            currentChunkCache.put(rpcId, ++chunkNumber);
-
-            return rpcMessage.getTotalChunks() == chunkNumber;
-        }
-
         private Tracer.SpanBuilder buildSpanFromRpcMessage(RpcMessageProto rpcMessage) {
             // Initializer tracer and extract parent tracer context from TracingInfo
             final Tracer tracer = tracerRegistry.getTracer();
@@ -558,8 +531,8 @@ public class KafkaRpcServerManager {
         return kafkaConfig;
     }
 
-    Map<String, ByteString> getMessageCache() {
-        return messageCache;
+    RpcMessageChunks getMessageChunks() {
+        return messageChunks;
     }
 
 
@@ -0,0 +1,107 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.core.ipc.rpc.kafka;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opennms.core.ipc.rpc.kafka.model.RpcMessageProto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
+
+/**
+ * Reassembles RPC messages which were split into multiple chunks.
+ * <p>
+ * The chunks of a message are kept as they were received, the contents of the message
+ * are only joined into a single (rope) {@link ByteString} once the last chunk arrived,
+ * so that the payload is not copied for every chunk.
+ */
+class RpcMessageChunks {
+    private static final Logger LOG = LoggerFactory.getLogger(RpcMessageChunks.class);
+
+    private final Map<String, Chunks> chunksByRpcId = new ConcurrentHashMap<>();
+
+    /**
+     * Adds the given chunk to the message it belongs to. Chunks which are repeated or
+     * not in order are discarded.
+     *
+     * @return the complete contents of the message once all of its chunks were received, {@code null} otherwise
+     */
+    ByteString add(RpcMessageProto rpcMessage) {
+        final String rpcId = rpcMessage.getRpcId();
+        final Chunks chunks = chunksByRpcId.computeIfAbsent(rpcId, id -> new Chunks(rpcMessage.getTotalChunks()));
+        if (chunks.next != rpcMessage.getCurrentChunkNumber() || chunks.next >= chunks.contents.length) {
+            LOG.debug("Expected chunk = {} but got chunk = {}, ignoring.", chunks.next, rpcMessage.getCurrentChunkNumber());
+            return null;
+        }
+        chunks.contents[chunks.next++] = rpcMessage.getRpcContent();
+        if (chunks.next < chunks.contents.length) {
+            return null;
+        }
+        chunksByRpcId.remove(rpcId);
+        return ByteString.copyFrom(Arrays.asList(chunks.contents));
+    }
+
+    void remove(String rpcId) {
+        chunksByRpcId.remove(rpcId);
+    }
+
+    void clear() {
+        chunksByRpcId.clear();
+    }
+
+    int size() {
+        return chunksByRpcId.size();
+    }
+
+    /**
+     * Parses a message received from Kafka. The contents of the parsed message share the given array instead of
+     * holding a copy of it, the array must therefore not be modified afterwards.
+     */
+    static RpcMessageProto parse(byte[] bytes) throws InvalidProtocolBufferException {
+        final CodedInputStream input = CodedInputStream.newInstance(bytes);
+        input.enableAliasing(true);
+        return RpcMessageProto.parser().parseFrom(input);
+    }
+
+    /**
+     * Returns the given range of the message to send without copying it, the array must not be modified afterwards.
+     */
+    static ByteString slice(byte[] bytes, int offset, int length) {
+        return UnsafeByteOperations.unsafeWrap(bytes, offset, length);
+    }
+
+    private static class Chunks {
+        private final ByteString[] contents;
+        private int next = 0;
+
+        private Chunks(int totalChunks) {
+            this.contents = new ByteString[totalChunks];
+        }
+    }
+}
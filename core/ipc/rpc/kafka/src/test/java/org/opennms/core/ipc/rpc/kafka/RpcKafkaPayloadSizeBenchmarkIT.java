@@ -0,0 +1,157 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.core.ipc.rpc.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.core.ipc.common.kafka.KafkaRpcConstants;
+import org.opennms.core.ipc.common.kafka.OsgiKafkaConfigProvider;
+import org.opennms.core.rpc.echo.EchoRequest;
+import org.opennms.core.rpc.echo.EchoResponse;
+import org.opennms.core.rpc.echo.EchoRpcModule;
+import org.opennms.core.test.kafka.JUnitKafkaServer;
+import org.opennms.core.tracing.api.TracerRegistry;
+import org.opennms.distributed.core.api.MinionIdentity;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Strings;
+
+import io.opentracing.Tracer;
+import io.opentracing.util.GlobalTracer;
+
+/**
+ * Measures the round-trip time of echo requests with 1 KB, 1 MB and 50 MB payloads,
+ * which cover the single chunk and the chunked request / response paths.
+ */
+public class RpcKafkaPayloadSizeBenchmarkIT {
+    private static final Logger LOG = LoggerFactory.getLogger(RpcKafkaPayloadSizeBenchmarkIT.class);
+
+    private static final String KAFKA_CONFIG_PID = "org.opennms.core.ipc.rpc.kafka.";
+    private static final String REMOTE_LOCATION_NAME = "remote";
+    private static final int KB = 1024;
+    private static final int MB = 1024 * KB;
+
+    @Rule
+    public JUnitKafkaServer kafkaServer = new JUnitKafkaServer();
+
+    private KafkaRpcClientFactory rpcClient;
+
+    private KafkaRpcServerManager kafkaRpcServer;
+
+    private MockEchoClient echoClient;
+
+    private EchoRpcModule echoRpcModule = new EchoRpcModule();
+
+    private Hashtable<String, Object> kafkaConfig = new Hashtable<>();
+
+    private TracerRegistry tracerRegistry = new TracerRegistry() {
+        @Override
+        public Tracer getTracer() {
+            return GlobalTracer.get();
+        }
+
+        @Override
+        public void init(String serviceName) {
+        }
+    };
+
+    @Before
+    public void setup() throws Exception {
+        System.setProperty(String.format("%s%s", KAFKA_CONFIG_PID, ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG), kafkaServer.getKafkaConnectString());
+        System.setProperty(String.format("%s%s", KAFKA_CONFIG_PID, ConsumerConfig.AUTO_OFFSET_RESET_CONFIG), "earliest");
+        kafkaConfig.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaServer.getKafkaConnectString());
+        kafkaConfig.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        ConfigurationAdmin configAdmin = mock(ConfigurationAdmin.class, RETURNS_DEEP_STUBS);
+        when(configAdmin.getConfiguration(KafkaRpcConstants.KAFKA_RPC_CONFIG_PID).getProperties())
+                .thenReturn(kafkaConfig);
+        rpcClient = new KafkaRpcClientFactory();
+        rpcClient.setTracerRegistry(tracerRegistry);
+        echoClient = new MockEchoClient(rpcClient);
+        rpcClient.start();
+        MinionIdentity minionIdentity = new MockMinionIdentity(REMOTE_LOCATION_NAME);
+        kafkaRpcServer = new KafkaRpcServerManager(new OsgiKafkaConfigProvider(KafkaRpcConstants.KAFKA_RPC_CONFIG_PID, configAdmin),
+                minionIdentity, tracerRegistry, new MetricRegistry());
+        kafkaRpcServer.init();
+        kafkaRpcServer.bind(echoRpcModule);
+    }
+
+    @Test(timeout = 60000)
+    public void benchmark1KbPayload() throws Exception {
+        roundTrip(KB, 100);
+    }
+
+    @Test(timeout = 120000)
+    public void benchmark1MbPayload() throws Exception {
+        roundTrip(MB, 20);
+    }
+
+    @Test(timeout = 300000)
+    public void benchmark50MbPayload() throws Exception {
+        roundTrip(50 * MB, 3);
+    }
+
+    private void roundTrip(int payloadSize, int iterations) throws Exception {
+        final String message = Strings.repeat("x", payloadSize);
+        // Warm up, this also subscribes the consumers
+        execute(message);
+
+        long totalNanos = 0;
+        for (int i = 0; i < iterations; i++) {
+            final long start = System.nanoTime();
+            execute(message);
+            totalNanos += System.nanoTime() - start;
+        }
+        LOG.info("Average round-trip time for a payload of {} bytes: {} ms over {} iterations.",
+                payloadSize, TimeUnit.NANOSECONDS.toMillis(totalNanos / iterations), iterations);
+        assertEquals(0, kafkaRpcServer.getMessageChunks().size());
+    }
+
+    private void execute(String message) throws Exception {
+        final EchoRequest request = new EchoRequest();
+        request.setLocation(REMOTE_LOCATION_NAME);
+        request.setTimeToLiveMs(60000L);
+        request.setBody(message);
+        final EchoResponse response = echoClient.execute(request).get();
+        assertEquals(message.length(), response.getBody().length());
+    }
+
+    @After
+    public void destroy() throws Exception {
+        kafkaRpcServer.unbind(echoRpcModule);
+        kafkaRpcServer.destroy();
+        rpcClient.stop();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.core.ipc.rpc.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.opennms.core.ipc.rpc.kafka.model.RpcMessageProto;
+
+import com.google.protobuf.ByteString;
+
+public class RpcMessageChunksTest {
+
+    @Test
+    public void canReassembleChunksInOrder() throws Exception {
+        final RpcMessageChunks chunks = new RpcMessageChunks();
+        final byte[] message = "chunk-0|chunk-1|chunk-2".getBytes(StandardCharsets.UTF_8);
+
+        assertNull(chunks.add(chunk("rpc", message, 0, 3)));
+        // Repeated and out of order chunks are discarded
+        assertNull(chunks.add(chunk("rpc", message, 0, 3)));
+        assertNull(chunks.add(chunk("rpc", message, 2, 3)));
+        assertNull(chunks.add(chunk("rpc", message, 1, 3)));
+        assertEquals(1, chunks.size());
+
+        final ByteString content = chunks.add(chunk("rpc", message, 2, 3));
+        assertEquals("chunk-0|chunk-1|chunk-2", content.toStringUtf8());
+        assertEquals(0, chunks.size());
+    }
+
+    @Test
+    public void canRemoveIncompleteMessages() throws Exception {
+        final RpcMessageChunks chunks = new RpcMessageChunks();
+        final byte[] message = "chunk-0|chunk-1|".getBytes(StandardCharsets.UTF_8);
+
+        assertNull(chunks.add(chunk("rpc", message, 0, 2)));
+        chunks.remove("rpc");
+        assertEquals(0, chunks.size());
+
+        // Starts over with the first chunk
+        assertNull(chunks.add(chunk("rpc", message, 1, 2)));
+        assertNull(chunks.add(chunk("rpc", message, 0, 2)));
+        assertEquals("chunk-0|chunk-1|", chunks.add(chunk("rpc", message, 1, 2)).toStringUtf8());
+    }
+
+    /**
+     * Builds the given chunk of the message, sends it through the wire format and parses it back.
+     */
+    private static RpcMessageProto chunk(String rpcId, byte[] message, int chunk, int totalChunks) throws Exception {
+        final int chunkSize = message.length / totalChunks;
+        final byte[] bytes = RpcMessageProto.newBuilder()
+                .setRpcId(rpcId)
+                .setRpcContent(RpcMessageChunks.slice(message, chunk * chunkSize, chunkSize))
+                .setCurrentChunkNumber(chunk)
+                .setTotalChunks(totalChunks)
+                .build()
+                .toByteArray();
+        return RpcMessageChunks.parse(bytes);
+    }
+}
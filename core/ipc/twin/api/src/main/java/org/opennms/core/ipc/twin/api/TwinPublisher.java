@@ -23,6 +23,8 @@ package org.opennms.core.ipc.twin.api;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * TwinPublisher lives on OpenNMS that handles all the Objects that need to be replicated.
@@ -44,6 +46,31 @@ public interface TwinPublisher extends Closeable {
         void publish(T obj) throws IOException;
     }
 
+    /**
+     * Session that replicates a keyed collection of entries.
+     * Changes to single entries are sent as small deltas instead of the whole collection.
+     * Subscribers receive the collection as a {@link Map} of entry key to value.
+     *
+     * @param <V> type of the entries that are getting replicated.
+     */
+    interface KeyedSession<V> extends Closeable {
+        /**
+         * @param entryKey key of the entry to add or update
+         * @param value    new value of the entry
+         */
+        void put(String entryKey, V value) throws IOException;
+
+        /**
+         * @param entryKey key of the entry to remove
+         */
+        void remove(String entryKey) throws IOException;
+
+        /**
+         * @param entries entries which replace all existing entries
+         */
+        void replace(Map<String, V> entries) throws IOException;
+    }
+
     /**
      * @param <T>      type of object for replication
      * @param key      unique key for the object.
@@ -56,5 +83,51 @@ public interface TwinPublisher extends Closeable {
     default <T> Session<T> register(String key, Class<T> clazz) throws IOException {
         return register(key, clazz, null);
     }
+
+    /**
+     * Registers a keyed collection. The default implementation publishes the whole collection on every change.
+     *
+     * @param <V>      type of the entries for replication
+     * @param key      unique key for the collection.
+     * @param clazz    a class used for serialization of the entries.
+     * @param location targeted Minion location for the collection, set null for all locations.
+     * @return KeyedSession which provides updates to the entries.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    default <V> KeyedSession<V> registerKeyed(String key, Class<V> clazz, String location) throws IOException {
+        final Session<Map> session = register(key, Map.class, location);
+        return new KeyedSession<V>() {
+            private final Map<String, V> entries = new LinkedHashMap<>();
+
+            @Override
+            public synchronized void put(String entryKey, V value) throws IOException {
+                entries.put(entryKey, value);
+                session.publish(new LinkedHashMap<>(entries));
+            }
+
+            @Override
+            public synchronized void remove(String entryKey) throws IOException {
+                if (entries.remove(entryKey) != null) {
+                    session.publish(new LinkedHashMap<>(entries));
+                }
+            }
+
+            @Override
+            public synchronized void replace(Map<String, V> replacement) throws IOException {
+                entries.clear();
+                entries.putAll(replacement);
+                session.publish(new LinkedHashMap<>(entries));
+            }
+
+            @Override
+            public void close() throws IOException {
+                session.close();
+            }
+        };
+    }
+
+    default <V> KeyedSession<V> registerKeyed(String key, Class<V> clazz) throws IOException {
+        return registerKeyed(key, clazz, null);
+    }
 }
 
@@ -22,6 +22,7 @@
 package org.opennms.core.ipc.twin.api;
 
 import java.io.Closeable;
+import java.util.Map;
 import java.util.function.Consumer;
 
 /**
@@ -39,4 +40,18 @@ public interface TwinSubscriber extends Closeable {
      * @return Closeable to close the subscription of T.
      */
     <T> Closeable subscribe(String key, Class<T> clazz, Consumer<T> consumer);
+
+    /**
+     * Subscribes to a collection published by a {@link TwinPublisher.KeyedSession}.
+     *
+     * @param key      Unique key for the collection.
+     * @param clazz    Specific bean class of V to marshal/unmarshal the entries.
+     * @param consumer Consumer of the collection for subsequent updates to the collection.
+     * @param <V>      V is the type of the entries that are replicated from OpenNMS to Minion.
+     * @return Closeable to close the subscription of the collection.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    default <V> Closeable subscribeKeyed(String key, Class<V> clazz, Consumer<Map<String, V>> consumer) {
+        return subscribe(key, Map.class, (Consumer) consumer);
+    }
 }
@@ -23,6 +23,7 @@ package org.opennms.core.ipc.twin.common;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.fge.jsonpatch.diff.JsonDiff;
@@ -42,10 +43,13 @@ import org.opennms.core.utils.SystemInfoUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.function.BiConsumer;
@@ -96,7 +100,16 @@ public abstract class AbstractTwinPublisher implements TwinPublisher {
         }
     }
 
-    protected TwinUpdate getTwin(TwinRequest twinRequest) {
+    @Override
+    public <V> KeyedSession<V> registerKeyed(String key, Class<V> clazz, String location) throws IOException {
+        try (Logging.MDCCloseable mdc = Logging.withPrefixCloseable(TwinStrategy.LOG_PREFIX)) {
+            SessionKey sessionKey = new SessionKey(key, location);
+            LOG.info("Registered a keyed session with key {}", sessionKey);
+            return new KeyedSessionImpl<>(sessionKey);
+        }
+    }
+
+    protected synchronized TwinUpdate getTwin(TwinRequest twinRequest) {
         TwinTracker twinTracker = getTwinTracker(twinRequest.getKey(), twinRequest.getLocation());
         TwinUpdate twinUpdate;
         if (twinTracker == null) {
@@ -135,7 +148,8 @@ public abstract class AbstractTwinPublisher implements TwinPublisher {
         }
         builder.setConsumerKey(twinUpdate.getKey());
         if (twinUpdate.getObject() != null) {
-            builder.setTwinObject(ByteString.copyFrom(twinUpdate.getObject()));
+            final byte[] twinObject = twinUpdate.isPatch() ? twinUpdate.getObject() : TwinCompression.compress(twinUpdate.getObject());
+            builder.setTwinObject(ByteString.copyFrom(twinObject));
         }
         builder.setIsPatchObject(twinUpdate.isPatch());
         builder.setVersion(twinUpdate.getVersion());
@@ -200,6 +214,66 @@ public abstract class AbstractTwinPublisher implements TwinPublisher {
         return null;
     }
 
+    /**
+     * Creates the update for a change of a keyed session. The whole object is only sent when there is no previous
+     * version or when all the entries were replaced, otherwise the update consists of the given patch.
+     */
+    private synchronized TwinUpdate getTwinUpdateFromEntries(Map<String, byte[]> entries, byte[] patch, SessionKey sessionKey) {
+        TwinTracker twinTracker = twinTrackerMap.get(sessionKey);
+        TwinUpdate twinUpdate = new TwinUpdate(sessionKey.key, sessionKey.location);
+        if (twinTracker == null) {
+            twinTracker = new TwinTracker(() -> writeEntries(entries));
+            twinTrackerMap.put(sessionKey, twinTracker);
+            twinUpdate.setObject(twinTracker.getObj());
+        } else {
+            twinTracker.update(() -> writeEntries(entries));
+            if (patch != null) {
+                twinUpdate.setObject(patch);
+                twinUpdate.setPatch(true);
+            } else {
+                twinUpdate.setObject(twinTracker.getObj());
+            }
+        }
+        twinUpdate.setVersion(twinTracker.getVersion());
+        twinUpdate.setSessionId(twinTracker.getSessionId());
+        return twinUpdate;
+    }
+
+    private byte[] writeEntries(Map<String, byte[]> entries) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.writeStartObject();
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                generator.writeFieldName(entry.getKey());
+                generator.writeRawValue(new String(entry.getValue(), StandardCharsets.UTF_8));
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a JSON patch with a single operation on the member of the object with the given entry key.
+     */
+    private byte[] writeEntryPatch(String op, String entryKey, byte[] value) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.writeStartArray();
+            generator.writeStartObject();
+            generator.writeStringField("op", op);
+            generator.writeStringField("path", "/" + entryKey.replace("~", "~0").replace("/", "~1"));
+            if (value != null) {
+                generator.writeFieldName("value");
+                generator.writeRawValue(new String(value, StandardCharsets.UTF_8));
+            }
+            generator.writeEndObject();
+            generator.writeEndArray();
+        }
+        return out.toByteArray();
+    }
+
     private byte[] getPatchValue(byte[] originalObj, byte[] updatedObj, SessionKey sessionKey) {
         try {
             JsonNode sourceNode = objectMapper.readTree(originalObj);
@@ -241,21 +315,7 @@ public abstract class AbstractTwinPublisher implements TwinPublisher {
                 byte[] objInBytes = objectMapper.writeValueAsBytes(obj);
                 TwinUpdate twinUpdate = getTwinUpdateFromUpdatedObj(objInBytes, sessionKey);
                 if (twinUpdate != null) {
-                    TracingInfoCarrier.updateTracingMetadata(AbstractTwinPublisher.this.tracer, span, twinUpdate::addTracingInfo);
-                    // Send update to local subscriber and on sink path.
-                    span.setTag(TAG_TWIN_SINK, true);
-                    if (sessionKey.location != null) {
-                        span.setTag(TAG_LOCATION, sessionKey.location);
-                    }
-                    span.setTag(TAG_VERSION, twinUpdate.getVersion());
-                    span.setTag(TAG_SESSION_ID, twinUpdate.getSessionId());
-                    handleSinkUpdate(twinUpdate);
-                    String sinkUpdateMetricName = sessionKey.location != null ?
-                            MetricRegistry.name(sessionKey.location, sessionKey.key, SINK_UPDATE_SENT) :
-                            MetricRegistry.name(sessionKey.key, SINK_UPDATE_SENT);
-                    localTwinSubscriber.accept(twinUpdate);
-                    // JMX Metrics
-                    updateCounter(sinkUpdateMetricName);
+                    sendUpdate(twinUpdate, sessionKey, span);
                 }
                 span.finish();
             }
@@ -268,6 +328,100 @@ public abstract class AbstractTwinPublisher implements TwinPublisher {
         }
     }
 
+    private void sendUpdate(TwinUpdate twinUpdate, SessionKey sessionKey, Span span) {
+        TracingInfoCarrier.updateTracingMetadata(tracer, span, twinUpdate::addTracingInfo);
+        // Send update to local subscriber and on sink path.
+        span.setTag(TAG_TWIN_SINK, true);
+        if (sessionKey.location != null) {
+            span.setTag(TAG_LOCATION, sessionKey.location);
+        }
+        span.setTag(TAG_VERSION, twinUpdate.getVersion());
+        span.setTag(TAG_SESSION_ID, twinUpdate.getSessionId());
+        span.setTag(TAG_PATCH, twinUpdate.isPatch());
+        handleSinkUpdate(twinUpdate);
+        String sinkUpdateMetricName = sessionKey.location != null ?
+                MetricRegistry.name(sessionKey.location, sessionKey.key, SINK_UPDATE_SENT) :
+                MetricRegistry.name(sessionKey.key, SINK_UPDATE_SENT);
+        localTwinSubscriber.accept(twinUpdate);
+        // JMX Metrics
+        updateCounter(sinkUpdateMetricName);
+    }
+
+    /**
+     * Keeps the marshalled entries of a keyed collection and publishes changes of single entries as JSON patches,
+     * which are built from the changed entry only.
+     */
+    private class KeyedSessionImpl<V> implements KeyedSession<V> {
+
+        private final SessionKey sessionKey;
+
+        // Guarded by the publisher, the whole object is built from these entries on demand.
+        private final Map<String, byte[]> entries = new LinkedHashMap<>();
+
+        public KeyedSessionImpl(SessionKey sessionKey) {
+            this.sessionKey = sessionKey;
+        }
+
+        @Override
+        public void put(String entryKey, V value) throws IOException {
+            Objects.requireNonNull(entryKey);
+            final byte[] entry = objectMapper.writeValueAsBytes(value);
+            final byte[] patch = writeEntryPatch("add", entryKey, entry);
+            final TwinUpdate twinUpdate;
+            synchronized (AbstractTwinPublisher.this) {
+                final byte[] previous = entries.put(entryKey, entry);
+                if (Arrays.equals(previous, entry)) {
+                    return;
+                }
+                twinUpdate = getTwinUpdateFromEntries(entries, patch, sessionKey);
+            }
+            publish(twinUpdate);
+        }
+
+        @Override
+        public void remove(String entryKey) throws IOException {
+            final byte[] patch = writeEntryPatch("remove", entryKey, null);
+            final TwinUpdate twinUpdate;
+            synchronized (AbstractTwinPublisher.this) {
+                if (entries.remove(entryKey) == null) {
+                    return;
+                }
+                twinUpdate = getTwinUpdateFromEntries(entries, patch, sessionKey);
+            }
+            publish(twinUpdate);
+        }
+
+        @Override
+        public void replace(Map<String, V> replacement) throws IOException {
+            final Map<String, byte[]> marshalled = new LinkedHashMap<>();
+            for (Map.Entry<String, V> entry : replacement.entrySet()) {
+                marshalled.put(Objects.requireNonNull(entry.getKey()), objectMapper.writeValueAsBytes(entry.getValue()));
+            }
+            final TwinUpdate twinUpdate;
+            synchronized (AbstractTwinPublisher.this) {
+                entries.clear();
+                entries.putAll(marshalled);
+                twinUpdate = getTwinUpdateFromEntries(entries, null, sessionKey);
+            }
+            publish(twinUpdate);
+        }
+
+        private void publish(TwinUpdate twinUpdate) {
+            try (Logging.MDCCloseable mdc = Logging.withPrefixCloseable(TwinStrategy.LOG_PREFIX)) {
+                LOG.debug("Published an update of the entries for the session with key {}", sessionKey);
+                Span span = tracer.buildSpan(generateTracingOperationKey(sessionKey.location, sessionKey.key)).start();
+                sendUpdate(twinUpdate, sessionKey, span);
+                span.finish();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            removeSessionKey(sessionKey);
+            LOG.info("Closed keyed session with key {} ", sessionKey);
+        }
+    }
+
     public static class SessionKey {
 
         public final String key;
@@ -25,12 +25,13 @@ import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.fge.jsonpatch.JsonPatch;
 import com.github.fge.jsonpatch.JsonPatchException;
 import com.google.common.base.Strings;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
-import com.google.protobuf.InvalidProtocolBufferException;
 import io.opentracing.References;
 import io.opentracing.Scope;
 import io.opentracing.Span;
@@ -47,6 +48,10 @@ import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -107,6 +112,16 @@ public abstract class AbstractTwinSubscriber implements TwinSubscriber {
         return subscription.consume(clazz, consumer);
     }
 
+    @Override
+    public <V> Closeable subscribeKeyed(final String key, final Class<V> clazz, final Consumer<Map<String, V>> consumer) {
+        if (this.executorService.isShutdown()) {
+            throw new IllegalStateException("Subscriber is already closed");
+        }
+
+        final var subscription = this.subscriptions.computeIfAbsent(key, Subscription::new);
+        return subscription.consumeKeyed(clazz, consumer);
+    }
+
     protected void accept(final TwinUpdate twinUpdate) {
         // Ignore update if not broadcast but foreign location
         if (twinUpdate.getLocation() != null && !twinUpdate.getLocation().equals(this.identity.getLocation())) {
@@ -160,13 +175,13 @@ public abstract class AbstractTwinSubscriber implements TwinSubscriber {
             }
             twinUpdate.setKey(twinResponseProto.getConsumerKey());
             if (!twinResponseProto.getTwinObject().isEmpty()) {
-                twinUpdate.setObject(twinResponseProto.getTwinObject().toByteArray());
+                twinUpdate.setObject(TwinCompression.decompress(twinResponseProto.getTwinObject().toByteArray()));
             }
             twinUpdate.setPatch(twinResponseProto.getIsPatchObject());
             twinUpdate.setVersion(twinResponseProto.getVersion());
             twinResponseProto.getTracingInfoMap().forEach(twinUpdate::addTracingInfo);
             return twinUpdate;
-        } catch (InvalidProtocolBufferException e) {
+        } catch (IOException e) {
             LOG.error("Failed to parse response from proto", e);
             throw new RuntimeException(e);
         }
@@ -202,25 +217,109 @@ public abstract class AbstractTwinSubscriber implements TwinSubscriber {
         return this.identity;
     }
 
+    /**
+     * Applies a patch to the current value.
+     *
+     * Patches which only add, replace or remove members of an object, as published by keyed sessions, are applied to
+     * a shallow copy of the object and the changed members are remembered, so that keyed consumers only need to
+     * deserialize these. All other patches are applied by {@link JsonPatch}.
+     */
+    private Value applyPatch(final Value current, final TwinUpdate update) throws IOException {
+        final var patch = this.objectMapper.readTree(update.getObject());
+        if (current.value.isObject() && isMemberPatch(patch)) {
+            final ObjectNode value = this.objectMapper.createObjectNode();
+            value.setAll((ObjectNode) current.value);
+            final Set<String> changes = new HashSet<>();
+            for (final JsonNode operation : patch) {
+                final String op = operation.get("op").asText();
+                final String member = operation.get("path").asText().substring(1).replace("~1", "/").replace("~0", "~");
+                if (!"add".equals(op) && !value.has(member)) {
+                    throw new IOException("Unable to apply patch, no such member: " + member);
+                }
+                if ("remove".equals(op)) {
+                    value.remove(member);
+                } else {
+                    value.set(member, operation.get("value"));
+                }
+                changes.add(member);
+            }
+            return new Value(update.getSessionId(), update.getVersion(), value, changes);
+        }
+        try {
+            return new Value(update.getSessionId(), update.getVersion(), JsonPatch.fromJson(patch).apply(current.value));
+        } catch (JsonPatchException e) {
+            throw new IOException("Unable to apply patch", e);
+        }
+    }
+
+    private static boolean isMemberPatch(final JsonNode patch) {
+        if (!patch.isArray()) {
+            return false;
+        }
+        for (final JsonNode operation : patch) {
+            final JsonNode op = operation.get("op");
+            final JsonNode path = operation.get("path");
+            if (op == null || path == null || !path.isTextual()
+                    || !path.asText().startsWith("/") || path.asText().indexOf('/', 1) >= 0) {
+                return false;
+            }
+            switch (op.asText()) {
+                case "add":
+                case "replace":
+                    if (!operation.has("value")) {
+                        return false;
+                    }
+                    break;
+                case "remove":
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
     private static class Value {
         public final String sessionId;
         public final int version;
 
         public final JsonNode value;
 
+        /**
+         * The members of the object changed by the patch which led to this value or {@code null} if unknown.
+         */
+        public final Set<String> changes;
+
         private Value(final String sessionId,
                       final int version,
                       final JsonNode value) {
+            this(sessionId, version, value, null);
+        }
+
+        private Value(final String sessionId,
+                      final int version,
+                      final JsonNode value,
+                      final Set<String> changes) {
             this.sessionId = Objects.requireNonNull(sessionId);
             this.version = version;
             this.value = Objects.requireNonNull(value);
+            this.changes = changes;
         }
     }
 
+    @FunctionalInterface
+    private interface ValueConsumer {
+        /**
+         * @param value   the new value
+         * @param changes the members changed since the previous value passed to this consumer, {@code null} if unknown
+         */
+        void accept(JsonNode value, Set<String> changes);
+    }
+
     private class Subscription {
         private final String key;
 
-        private final Set<Consumer<JsonNode>> consumers = Sets.newConcurrentHashSet();
+        private final Set<ValueConsumer> consumers = Sets.newConcurrentHashSet();
 
         private Value value = null;
 
@@ -250,7 +349,7 @@ public abstract class AbstractTwinSubscriber implements TwinSubscriber {
          * @return a Closable, stopping the consumption when closed
          */
         public synchronized <T> Closeable consume(final Class<T> clazz, final Consumer<T> consumer) {
-            final Consumer<JsonNode> jsonConsumer = (json) -> {
+            final ValueConsumer jsonConsumer = (json, changes) -> {
                 try {
                     // Deserialize to the final class
                     final var value = AbstractTwinSubscriber.this.objectMapper.treeToValue(json, clazz);
@@ -263,6 +362,62 @@ public abstract class AbstractTwinSubscriber implements TwinSubscriber {
                 }
             };
 
+            return this.consume(jsonConsumer);
+        }
+
+        /**
+         * Consume the subscription as a keyed collection.
+         *
+         * Entries are only deserialized again when they were changed by the update.
+         *
+         * @param clazz The class of the entries to consume
+         * @param consumer The consumer accepting the entries
+         * @param <V> The class of the entries to consume
+         * @return a Closable, stopping the consumption when closed
+         */
+        public synchronized <V> Closeable consumeKeyed(final Class<V> clazz, final Consumer<Map<String, V>> consumer) {
+            final ObjectReader reader = AbstractTwinSubscriber.this.objectMapper.readerFor(clazz);
+            final ValueConsumer jsonConsumer = new ValueConsumer() {
+                private Map<String, V> entries = null;
+
+                @Override
+                public void accept(final JsonNode json, final Set<String> changes) {
+                    try {
+                        final Map<String, V> updated;
+                        if (this.entries == null || changes == null) {
+                            updated = new LinkedHashMap<>();
+                            final Iterator<Map.Entry<String, JsonNode>> fields = json.fields();
+                            while (fields.hasNext()) {
+                                final var field = fields.next();
+                                updated.put(field.getKey(), reader.readValue(field.getValue()));
+                            }
+                        } else {
+                            updated = new LinkedHashMap<>(this.entries);
+                            for (final String member : changes) {
+                                final JsonNode entry = json.get(member);
+                                if (entry == null) {
+                                    updated.remove(member);
+                                } else {
+                                    updated.put(member, reader.readValue(entry));
+                                }
+                            }
+                        }
+                        this.entries = updated;
+
+                        // Forward to typed consumer
+                        consumer.accept(Collections.unmodifiableMap(updated));
+
+                    } catch (final Exception e) {
+                        this.entries = null;
+                        LOG.error("Processing twin update failed: {} as entries of {}", Subscription.this.key, clazz, e);
+                    }
+                }
+            };
+
+            return this.consume(jsonConsumer);
+        }
+
+        private Closeable consume(final ValueConsumer jsonConsumer) {
             if (this.value == null) {
                 // Initially request value
 
@@ -272,7 +427,7 @@ public abstract class AbstractTwinSubscriber implements TwinSubscriber {
                 }
             } else {
                 // If value already exists, forward to consumer without requesting
-                jsonConsumer.accept(this.value.value);
+                jsonConsumer.accept(this.value.value, null);
             }
 
             // Add the consumer to the subscription
@@ -285,9 +440,18 @@ public abstract class AbstractTwinSubscriber implements TwinSubscriber {
         private synchronized void accept(final Value value) {
             Objects.requireNonNull(value);
 
-            // Call all consumers if value has changed
-            if (!(this.value != null && Objects.equals(this.value.value, value.value))) {
-                this.consumers.forEach(c -> c.accept(value.value));
+            // Call all consumers if value has changed, patched values only need to compare the changed members
+            final boolean changed;
+            if (this.value == null) {
+                changed = true;
+            } else if (value.changes != null) {
+                final var previous = this.value.value;
+                changed = value.changes.stream().anyMatch(member -> !Objects.equals(previous.get(member), value.value.get(member)));
+            } else {
+                changed = !Objects.equals(this.value.value, value.value);
+            }
+            if (changed) {
+                this.consumers.forEach(c -> c.accept(value.value, value.changes));
                 // JMX Metrics
                 updateCounter(MetricRegistry.name(this.key, TWIN_UPDATE_RECEIVED));
             }
@@ -352,17 +516,7 @@ public abstract class AbstractTwinSubscriber implements TwinSubscriber {
                 } else {
                     if (update.getVersion() == this.value.version + 1) {
                         // Version advanced - apply path
-                        try {
-                            final var patchObj = AbstractTwinSubscriber.this.objectMapper.readTree(update.getObject());
-                            final var patch = JsonPatch.fromJson(patchObj);
-
-                            final var value = patch.apply(this.value.value);
-
-                            this.accept(new Value(update.getSessionId(), update.getVersion(), value));
-
-                        } catch (JsonPatchException e) {
-                            throw new IOException("Unable to apply patch", e);
-                        }
+                        this.accept(AbstractTwinSubscriber.this.applyPatch(this.value, update));
 
                     } else {
                         // Version jumped
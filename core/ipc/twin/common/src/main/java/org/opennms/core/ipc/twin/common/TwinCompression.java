@@ -0,0 +1,80 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.core.ipc.twin.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses whole twin objects before they are sent to the subscribers.
+ * Compressed objects are recognized by the GZIP header, which can not be the start of a JSON document.
+ * Patches are small and are always sent as they are.
+ * The compression is disabled by default since subscribers running an older version can not
+ * decompress the objects, it should only be enabled once all of them were upgraded.
+ */
+public final class TwinCompression {
+
+    public static final String COMPRESSION_THRESHOLD_PROPERTY = "org.opennms.core.ipc.twin.compression.threshold";
+
+    private TwinCompression() {
+    }
+
+    /**
+     * Objects smaller than this number of bytes are not compressed, a negative value disables the compression.
+     */
+    private static int getCompressionThreshold() {
+        return Integer.getInteger(COMPRESSION_THRESHOLD_PROPERTY, -1);
+    }
+
+    public static byte[] compress(byte[] obj) {
+        final int threshold = getCompressionThreshold();
+        if (obj == null || threshold < 0 || obj.length < threshold) {
+            return obj;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(obj.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(obj);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static byte[] decompress(byte[] obj) throws IOException {
+        if (!isCompressed(obj)) {
+            return obj;
+        }
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(obj))) {
+            return gzip.readAllBytes();
+        }
+    }
+
+    public static boolean isCompressed(byte[] obj) {
+        return obj != null && obj.length >= 2
+                && obj[0] == (byte) GZIPInputStream.GZIP_MAGIC
+                && obj[1] == (byte) (GZIPInputStream.GZIP_MAGIC >> 8);
+    }
+}
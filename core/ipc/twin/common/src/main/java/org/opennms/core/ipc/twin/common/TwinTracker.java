@@ -24,6 +24,7 @@ package org.opennms.core.ipc.twin.common;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * This Tracks Twin Object Updates for a given SessionKey (key, location).
@@ -32,16 +33,23 @@ import java.util.concurrent.atomic.AtomicInteger;
  * sessionId is created only once per a SessionKey.
  * TwinTracker is created and updated by publisher and only consumed by Subscriber.
  * Subscriber will ignore any stale updates based on version but resets version whenever there is new SessionId.
+ * For keyed sessions, the marshalled object is only built from its entries when it is requested.
  */
 public class TwinTracker {
 
     private final AtomicInteger version;
     private byte[] obj;
+    private Supplier<byte[]> objSupplier;
     private final String sessionId;
 
     public TwinTracker(byte[] obj) {
         this(obj, 0, UUID.randomUUID().toString());
     }
+    public TwinTracker(Supplier<byte[]> objSupplier) {
+        this((byte[]) null);
+        this.objSupplier = objSupplier;
+    }
+
     public TwinTracker(byte[] obj, int version, String sessionId) {
         this.obj = obj;
         this.version = new AtomicInteger(version);
@@ -52,7 +60,10 @@ public class TwinTracker {
         return version.get();
     }
 
-    public byte[] getObj() {
+    public synchronized byte[] getObj() {
+        if (obj == null && objSupplier != null) {
+            obj = objSupplier.get();
+        }
         return obj;
     }
 
@@ -61,8 +72,18 @@ public class TwinTracker {
     }
 
 
-    public int update(byte[] obj) {
+    public synchronized int update(byte[] obj) {
         this.obj = obj;
+        this.objSupplier = null;
+        return version.incrementAndGet();
+    }
+
+    /**
+     * @param objSupplier builds the marshalled object on demand, the result is kept until the next update.
+     */
+    public synchronized int update(Supplier<byte[]> objSupplier) {
+        this.obj = null;
+        this.objSupplier = objSupplier;
         return version.incrementAndGet();
     }
 }
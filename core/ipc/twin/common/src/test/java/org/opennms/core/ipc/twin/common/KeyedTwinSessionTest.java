@@ -0,0 +1,273 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.core.ipc.twin.common;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.tracing.api.TracerRegistry;
+import org.opennms.distributed.core.api.Identity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.MetricRegistry;
+
+import io.opentracing.Tracer;
+import io.opentracing.util.GlobalTracer;
+
+/**
+ * Compares the keyed sessions with whole object sessions for a twin with 100k entries, the updates are passed
+ * through the protobuf messages used by the brokers.
+ */
+public class KeyedTwinSessionTest {
+    private static final Logger LOG = LoggerFactory.getLogger(KeyedTwinSessionTest.class);
+
+    private static final int ENTRIES = 100_000;
+    private static final int UPDATES = 10;
+
+    private final TracerRegistry tracerRegistry = new TracerRegistry() {
+        @Override
+        public Tracer getTracer() {
+            return GlobalTracer.get();
+        }
+
+        @Override
+        public void init(String serviceName) {
+        }
+    };
+
+    private final Identity identity = new Identity() {
+        @Override
+        public String getId() {
+            return "minion";
+        }
+
+        @Override
+        public String getLocation() {
+            return "remote";
+        }
+
+        @Override
+        public String getType() {
+            return "Minion";
+        }
+    };
+
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    private LocalTwinSubscriberImpl localSubscriber;
+
+    private TestPublisher publisher;
+
+    private TestSubscriber subscriber;
+
+    @Before
+    public void setUp() {
+        final MetricRegistry metrics = new MetricRegistry();
+        localSubscriber = new LocalTwinSubscriberImpl(identity, tracerRegistry, metrics);
+        publisher = new TestPublisher(localSubscriber, metrics);
+        subscriber = new TestSubscriber(metrics);
+        publisher.subscriber = subscriber;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        subscriber.close();
+        localSubscriber.close();
+        publisher.close();
+    }
+
+    @Test
+    public void canApplyKeyedUpdates() throws Exception {
+        final var session = publisher.registerKeyed("keyed", Entry.class);
+        final Map<String, Entry> entries = createEntries();
+        session.replace(entries);
+
+        final AtomicReference<Map<String, Entry>> received = new AtomicReference<>();
+        subscriber.subscribeKeyed("keyed", Entry.class, received::set);
+        await().atMost(30, TimeUnit.SECONDS).until(() -> entries.equals(received.get()));
+
+        bytesSent.set(0);
+        final long start = System.nanoTime();
+        for (int i = 0; i < UPDATES; i++) {
+            final String key = "entry-" + i;
+            final Entry entry = new Entry("updated-" + i, i);
+            entries.put(key, entry);
+            session.put(key, entry);
+            await().atMost(30, TimeUnit.SECONDS).until(() -> entry.equals(received.get().get(key)));
+        }
+        final long keyedNanos = System.nanoTime() - start;
+        final long keyedBytes = bytesSent.get();
+
+        session.remove("entry-0");
+        entries.remove("entry-0");
+        await().atMost(30, TimeUnit.SECONDS).until(() -> !received.get().containsKey("entry-0"));
+        assertEquals(entries, received.get());
+
+        LOG.info("Keyed session: {} updates of a twin with {} entries took {} ms and {} bytes.",
+                UPDATES, ENTRIES, TimeUnit.NANOSECONDS.toMillis(keyedNanos), keyedBytes);
+        assertTrue(keyedBytes < 1024 * UPDATES);
+    }
+
+    @Test
+    public void canApplyWholeObjectUpdatesAsPatches() throws Exception {
+        final var session = publisher.register("whole", Map.class);
+        final Map<String, Entry> entries = createEntries();
+        session.publish(entries);
+
+        final AtomicReference<Map<String, Entry>> received = new AtomicReference<>();
+        subscriber.subscribeKeyed("whole", Entry.class, received::set);
+        await().atMost(30, TimeUnit.SECONDS).until(() -> entries.equals(received.get()));
+
+        bytesSent.set(0);
+        final long start = System.nanoTime();
+        for (int i = 0; i < UPDATES; i++) {
+            final String key = "entry-" + i;
+            final Entry entry = new Entry("updated-" + i, i);
+            entries.put(key, entry);
+            session.publish(entries);
+            await().atMost(60, TimeUnit.SECONDS).until(() -> entry.equals(received.get().get(key)));
+        }
+        final long wholeNanos = System.nanoTime() - start;
+        final long wholeBytes = bytesSent.get();
+        assertEquals(entries, received.get());
+
+        LOG.info("Whole object session: {} updates of a twin with {} entries took {} ms and {} bytes.",
+                UPDATES, ENTRIES, TimeUnit.NANOSECONDS.toMillis(wholeNanos), wholeBytes);
+        // Only the difference to the previous object is sent, but it has to be computed over all entries
+        assertTrue(wholeBytes < 1024 * UPDATES);
+    }
+
+    @Test
+    public void canCompressSnapshots() throws Exception {
+        final var session = publisher.registerKeyed("keyed", Entry.class);
+        session.replace(createEntries());
+        final var twin = publisher.getTwin(new TwinRequest("keyed", "remote"));
+
+        // Disabled by default
+        assertFalse(TwinCompression.isCompressed(publisher.mapTwinResponse(twin).getTwinObject().toByteArray()));
+
+        System.setProperty(TwinCompression.COMPRESSION_THRESHOLD_PROPERTY, String.valueOf(64 * 1024));
+        try {
+            final byte[] wire = publisher.mapTwinResponse(twin).getTwinObject().toByteArray();
+            assertTrue(TwinCompression.isCompressed(wire));
+            assertTrue(wire.length < twin.getObject().length / 4);
+            assertEquals(twin.getObject().length, TwinCompression.decompress(wire).length);
+            LOG.info("Snapshot of a twin with {} entries: {} bytes, {} bytes compressed.", ENTRIES, twin.getObject().length, wire.length);
+        } finally {
+            System.clearProperty(TwinCompression.COMPRESSION_THRESHOLD_PROPERTY);
+        }
+    }
+
+    private static Map<String, Entry> createEntries() {
+        final Map<String, Entry> entries = new LinkedHashMap<>();
+        for (int i = 0; i < ENTRIES; i++) {
+            entries.put("entry-" + i, new Entry("entry-" + i, i));
+        }
+        return entries;
+    }
+
+    private class TestPublisher extends AbstractTwinPublisher {
+        private TestSubscriber subscriber;
+
+        private TestPublisher(LocalTwinSubscriber localTwinSubscriber, MetricRegistry metrics) {
+            super(localTwinSubscriber, tracerRegistry, metrics);
+        }
+
+        @Override
+        protected void handleSinkUpdate(TwinUpdate sinkUpdate) {
+            final byte[] bytes = mapTwinResponse(sinkUpdate).toByteArray();
+            bytesSent.addAndGet(bytes.length);
+            subscriber.accept(subscriber.mapTwinResponseToProto(bytes));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private class TestSubscriber extends AbstractTwinSubscriber {
+
+        private TestSubscriber(MetricRegistry metrics) {
+            super(identity, tracerRegistry, metrics);
+        }
+
+        @Override
+        protected void sendRpcRequest(TwinRequest twinRequest) {
+            final byte[] bytes = publisher.mapTwinResponse(publisher.getTwin(twinRequest)).toByteArray();
+            accept(mapTwinResponseToProto(bytes));
+        }
+    }
+
+    public static class Entry {
+        private String name;
+        private int value;
+
+        public Entry() {
+        }
+
+        public Entry(String name, int value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getValue() {
+            return value;
+        }
+
+        public void setValue(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Entry)) return false;
+            final Entry entry = (Entry) o;
+            return value == entry.value && name.equals(entry.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() * 31 + value;
+        }
+    }
+}
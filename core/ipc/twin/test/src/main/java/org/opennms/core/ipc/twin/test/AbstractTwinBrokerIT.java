@@ -32,6 +32,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import org.junit.After;
@@ -96,6 +97,29 @@ public abstract class AbstractTwinBrokerIT {
         await().until(tracker::getLog, contains("Test1", "Test2", "Test3"));
     }
 
+    /**
+     * Tests that the entries of a keyed session are received as a map and that changes to single entries are applied.
+     */
+    @Test
+    public void testKeyedUpdates() throws Exception {
+        final var session = this.publisher.registerKeyed("keyed", String.class);
+        session.put("a", "A1");
+        session.put("b/c", "B1");
+
+        final var tracker = Tracker.subscribeKeyed(this.subscriber, "keyed", String.class);
+        await().until(tracker::getLog, contains(Map.of("a", "A1", "b/c", "B1")));
+
+        session.put("a", "A2");
+        await().until(tracker::getLog, hasItem(Map.of("a", "A2", "b/c", "B1")));
+
+        session.remove("b/c");
+        session.put("d~", "D1");
+        await().until(tracker::getLog, hasItem(Map.of("a", "A2", "d~", "D1")));
+
+        session.replace(Map.of("e", "E1"));
+        await().until(tracker::getLog, hasItem(Map.of("e", "E1")));
+    }
+
     /**
      * Tests that a subscriber can register before a publisher exists.
      */
@@ -283,5 +307,12 @@ public abstract class AbstractTwinBrokerIT {
 
             return new Tracker<>(log, subscription);
         }
+
+        public static <V> Tracker<Map<String, V>> subscribeKeyed(final TwinSubscriber subscriber, final String key, final Class<V> clazz) {
+            final var log = new ArrayList<Map<String, V>>();
+            final var subscription = subscriber.subscribeKeyed(key, clazz, log::add);
+
+            return new Tracker<>(log, subscription);
+        }
     }
 }
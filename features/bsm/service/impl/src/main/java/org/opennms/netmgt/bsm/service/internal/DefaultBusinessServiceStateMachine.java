@@ -27,8 +27,10 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -36,11 +38,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
-import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import javax.imageio.ImageIO;
@@ -70,6 +75,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import edu.uci.ics.jung.algorithms.layout.KKLayout;
 import edu.uci.ics.jung.algorithms.layout.Layout;
@@ -79,6 +85,10 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
     private static final Logger LOG = LoggerFactory.getLogger(DefaultBusinessServiceStateMachine.class);
     public static final Status MIN_SEVERITY = Status.NORMAL;
 
+    private static final long DEFAULT_PROPAGATION_DELAY = 0;
+
+    private static final String PROPAGATION_DELAY_KEY = "org.opennms.features.bsm.propagationDelay";
+
     @Autowired
     private AlarmProvider m_alarmProvider;
 
@@ -86,26 +96,30 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
     private final ReadWriteLock m_rwLock = new ReentrantReadWriteLock();
     private BusinessServiceGraph m_g = new BusinessServiceGraphImpl(Collections.emptyList());
 
-    private boolean m_recordAndDeferStatusUpdates = false;
-    private final Map<GraphVertex, StatusUpdate> m_statusUpdatesByVertex = new LinkedHashMap<>();
+    private volatile long m_propagationDelay = getDefaultPropagationDelay();
+    private final Object m_pendingStatusesLock = new Object();
+    private Map<String, Status> m_pendingStatusesByReductionKey = new LinkedHashMap<>();
+    private boolean m_propagationScheduled = false;
+    private ScheduledExecutorService m_propagationExecutor;
 
     @Override
     public void setBusinessServices(List<BusinessService> businessServices) {
         m_rwLock.writeLock().lock();
         try {
-            // Defer status updates until we've processed the whole graph
-            m_recordAndDeferStatusUpdates = true;
+            // Apply the pending updates to the current graph before we prime the new graph with its state
+            propagatePendingStatuses();
 
             // Create a new graph
             BusinessServiceGraph g = new BusinessServiceGraphImpl(businessServices);
 
             // Prime the graph with the state from the previous graph and
             // keep track of the new reductions keys
+            final Map<GraphVertex, Status> statusesByVertex = new LinkedHashMap<>();
             Set<String> reductionsKeysToLookup = Sets.newHashSet();
             for (String reductionKey : g.getReductionKeys()) {
                 GraphVertex reductionKeyVertex = m_g.getVertexByReductionKey(reductionKey);
                 if (reductionKeyVertex != null) {
-                    updateAndPropagateVertex(g, g.getVertexByReductionKey(reductionKey), reductionKeyVertex.getStatus());
+                    statusesByVertex.put(g.getVertexByReductionKey(reductionKey), reductionKeyVertex.getStatus());
                 } else {
                     reductionsKeysToLookup.add(reductionKey);
                 }
@@ -120,21 +134,29 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
                     // graph without having to wait for calls to handleNewOrUpdatedAlarm()
                     final Map<String, AlarmWrapper> lookup = m_alarmProvider.lookup(reductionsKeysToLookup);
                     for (Entry<String, AlarmWrapper> eachEntry : lookup.entrySet()) {
-                        updateAndPropagateVertex(g, g.getVertexByReductionKey(eachEntry.getKey()), eachEntry.getValue().getStatus());
+                        statusesByVertex.put(g.getVertexByReductionKey(eachEntry.getKey()), eachEntry.getValue().getStatus());
                     }
                 }
             }
-            m_g = g;
 
-            // Stop recording, and release the status updates
-            m_recordAndDeferStatusUpdates = false;
-            for (StatusUpdate statusUpdate : m_statusUpdatesByVertex.values()) {
-                for (BusinessServiceStateChangeHandler handler : m_handlers) {
-                    handler.handleBusinessServiceStateChanged(statusUpdate.graph, statusUpdate.vertex.getBusinessService(),
-                            statusUpdate.vertex.getStatus(), statusUpdate.previousStatus);
+            // Propagate the status through the new graph
+            final Map<GraphVertex, Status> previousStatusesByVertex = propagate(g, statusesByVertex);
+
+            // Only send status updates when the new status is different
+            // than the one in the previous graph
+            final List<StatusUpdate> statusUpdates = Lists.newArrayList();
+            for (Entry<GraphVertex, Status> entry : previousStatusesByVertex.entrySet()) {
+                final GraphVertex vertex = entry.getKey();
+                final GraphVertex previousVertex = m_g.getVertexByBusinessServiceId(vertex.getBusinessService().getId());
+                if (previousVertex == null || !vertex.getStatus().equals(previousVertex.getStatus())) {
+                    statusUpdates.add(new StatusUpdate(g, vertex, entry.getValue()));
                 }
             }
-            m_statusUpdatesByVertex.clear();
+            m_g = g;
+
+            for (StatusUpdate statusUpdate : statusUpdates) {
+                notifyHandlers(statusUpdate.graph, statusUpdate.vertex, statusUpdate.previousStatus);
+            }
         } finally {
             m_rwLock.writeLock().unlock();
         }
@@ -142,10 +164,21 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
 
     @Override
     public void handleNewOrUpdatedAlarm(AlarmWrapper alarm) {
+        if (m_propagationDelay > 0) {
+            // Coalesce the updates, and propagate them all at once when the delay expires
+            synchronized (m_pendingStatusesLock) {
+                m_pendingStatusesByReductionKey.put(alarm.getReductionKey(), alarm.getStatus());
+                if (!m_propagationScheduled) {
+                    getPropagationExecutor().schedule(this::propagatePendingStatusesNow, m_propagationDelay, TimeUnit.MILLISECONDS);
+                    m_propagationScheduled = true;
+                }
+            }
+            return;
+        }
+
         m_rwLock.writeLock().lock();
         try {
-            // Recursively propagate the status
-            updateAndPropagateVertex(m_g, m_g.getVertexByReductionKey(alarm.getReductionKey()), alarm.getStatus());
+            propagateAndNotify(Collections.singletonMap(m_g.getVertexByReductionKey(alarm.getReductionKey()), alarm.getStatus()));
         } finally {
             m_rwLock.writeLock().unlock();
         }
@@ -156,9 +189,14 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
         final Set<String> reductionKeysFromGivenAlarms = new HashSet<>(alarms.size());
         m_rwLock.writeLock().lock();
         try {
+            // The snapshot supersedes any update we haven't propagated yet
+            synchronized (m_pendingStatusesLock) {
+                m_pendingStatusesByReductionKey.clear();
+            }
+
+            final Map<GraphVertex, Status> statusesByVertex = new LinkedHashMap<>();
             for (AlarmWrapper alarm : alarms) {
-                // Recursively propagate the status for all of the given alarms
-                updateAndPropagateVertex(m_g, m_g.getVertexByReductionKey(alarm.getReductionKey()), alarm.getStatus());
+                statusesByVertex.put(m_g.getVertexByReductionKey(alarm.getReductionKey()), alarm.getStatus());
                 // Keep track of the reduction keys that have been processed
                 reductionKeysFromGivenAlarms.add(alarm.getReductionKey());
             }
@@ -166,88 +204,173 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
             for (String missingReductionKey : Sets.difference(m_g.getReductionKeys(), reductionKeysFromGivenAlarms)) {
                 // There is a vertex on the graph that corresponds to this reduction key
                 // but no alarm with this reduction key exists
-                updateAndPropagateVertex(m_g, m_g.getVertexByReductionKey(missingReductionKey), Status.INDETERMINATE);
+                statusesByVertex.put(m_g.getVertexByReductionKey(missingReductionKey), Status.INDETERMINATE);
             }
+
+            propagateAndNotify(statusesByVertex);
         } finally {
             m_rwLock.writeLock().unlock();
         }
     }
 
-    private void updateAndPropagateVertex(BusinessServiceGraph graph, GraphVertex vertex, Status newStatus) {
-        if (vertex == null) {
-            // Nothing to do here
-            return;
+    /**
+     * Propagates all of the updates that were deferred by {@link #handleNewOrUpdatedAlarm(AlarmWrapper)}.
+     */
+    void propagatePendingStatusesNow() {
+        m_rwLock.writeLock().lock();
+        try {
+            propagatePendingStatuses();
+        } catch (RuntimeException e) {
+            LOG.error("Failed to propagate the pending status updates.", e);
+        } finally {
+            m_rwLock.writeLock().unlock();
+        }
+    }
+
+    private void propagatePendingStatuses() {
+        final Map<String, Status> pendingStatusesByReductionKey;
+        synchronized (m_pendingStatusesLock) {
+            m_propagationScheduled = false;
+            if (m_pendingStatusesByReductionKey.isEmpty()) {
+                return;
+            }
+            pendingStatusesByReductionKey = m_pendingStatusesByReductionKey;
+            m_pendingStatusesByReductionKey = new LinkedHashMap<>();
         }
 
-        // Apply lower bound
-        newStatus = newStatus.isLessThan(MIN_SEVERITY) ? MIN_SEVERITY : newStatus;
+        final Map<GraphVertex, Status> statusesByVertex = new LinkedHashMap<>();
+        for (Entry<String, Status> entry : pendingStatusesByReductionKey.entrySet()) {
+            statusesByVertex.put(m_g.getVertexByReductionKey(entry.getKey()), entry.getValue());
+        }
+        LOG.debug("Propagating {} coalesced status updates.", pendingStatusesByReductionKey.size());
+        propagateAndNotify(statusesByVertex);
+    }
 
-        // Update the status if necessary
-        Status previousStatus = vertex.getStatus();
-        if (previousStatus.equals(newStatus)) {
-            // The status hasn't changed, there's nothing to propagate
-            return;
+    private void propagateAndNotify(Map<GraphVertex, Status> statusesByVertex) {
+        for (Entry<GraphVertex, Status> entry : propagate(m_g, statusesByVertex).entrySet()) {
+            notifyHandlers(m_g, entry.getKey(), entry.getValue());
         }
-        vertex.setStatus(newStatus);
+    }
 
-        // Notify the listeners
-        onStatusUpdated(graph, vertex, previousStatus);
-
-        // Update the edges with the mapped status
-        List<GraphEdge> updatedEges = Lists.newArrayList();
-        for (GraphEdge edge : graph.getInEdges(vertex)) {
-            Status mappedStatus = newStatus;
-            if (newStatus.isGreaterThan(MIN_SEVERITY)) {
-                // Only apply the map function when the status is > the minimum
-                mappedStatus = edge.getMapFunction().map(newStatus).orElse(MIN_SEVERITY);
-            } else {
-                mappedStatus = newStatus;
-            }
+    private void notifyHandlers(BusinessServiceGraph graph, GraphVertex vertex, Status previousStatus) {
+        for (BusinessServiceStateChangeHandler handler : m_handlers) {
+            handler.handleBusinessServiceStateChanged(graph, vertex.getBusinessService(), vertex.getStatus(), previousStatus);
+        }
+    }
 
-            if (mappedStatus.equals(edge.getStatus())) {
-                // The status hasn't changed
+    /**
+     * Updates the status of the given (reduction key) vertices and re-evaluates every vertex
+     * impacted by these updates.
+     *
+     * The impacted vertices are evaluated in reverse topological order: the children of a vertex
+     * are always on a higher level than the vertex itself, so by visiting the vertices with the
+     * highest level first, every vertex is reduced at most once, after all of its children
+     * reached their final status.
+     *
+     * @return the status the business service vertices had before the update, for all of the
+     *         business services with a different status after the update
+     */
+    private static Map<GraphVertex, Status> propagate(BusinessServiceGraph graph, Map<GraphVertex, Status> statusesByVertex) {
+        final Queue<GraphVertex> verticesToVisit = new PriorityQueue<>(Comparator.comparingInt(GraphVertex::getLevel).reversed());
+        final Set<GraphVertex> visited = new HashSet<>();
+        final Set<GraphVertex> verticesToReduce = new HashSet<>();
+        final Map<GraphVertex, Status> previousStatusesByVertex = new LinkedHashMap<>();
+
+        for (Entry<GraphVertex, Status> entry : statusesByVertex.entrySet()) {
+            final GraphVertex vertex = entry.getKey();
+            if (vertex == null) {
+                // Nothing to do here
                 continue;
             }
 
-            // Update the status and add it to the list of edges to propagate
-            edge.setStatus(mappedStatus);
-            updatedEges.add(edge);
+            // Apply lower bound
+            final Status newStatus = entry.getValue().isLessThan(MIN_SEVERITY) ? MIN_SEVERITY : entry.getValue();
+            if (!updateStatus(vertex, newStatus, previousStatusesByVertex)) {
+                // The status hasn't changed, there's nothing to propagate
+                continue;
+            }
+            if (visited.add(vertex)) {
+                verticesToVisit.add(vertex);
+            }
         }
 
-        // Propagate once all of the edges have been updated
-        for (GraphEdge edge : updatedEges) {
-            reduceUpdateAndPropagateVertex(graph, graph.getOpposite(vertex, edge));
+        GraphVertex vertex;
+        while ((vertex = verticesToVisit.poll()) != null) {
+            if (verticesToReduce.contains(vertex) && !updateStatus(vertex, reduce(graph, vertex), previousStatusesByVertex)) {
+                // The status hasn't changed, there's nothing to propagate
+                continue;
+            }
+
+            // Update the edges with the mapped status
+            final Status status = vertex.getStatus();
+            for (GraphEdge edge : graph.getInEdges(vertex)) {
+                final Status mappedStatus;
+                if (status.isGreaterThan(MIN_SEVERITY)) {
+                    // Only apply the map function when the status is > the minimum
+                    mappedStatus = edge.getMapFunction().map(status).orElse(MIN_SEVERITY);
+                } else {
+                    mappedStatus = status;
+                }
+
+                if (mappedStatus.equals(edge.getStatus())) {
+                    // The status hasn't changed
+                    continue;
+                }
+
+                // Update the status and reduce the parent once all of its children were visited
+                edge.setStatus(mappedStatus);
+                final GraphVertex parent = graph.getOpposite(vertex, edge);
+                verticesToReduce.add(parent);
+                if (visited.add(parent)) {
+                    verticesToVisit.add(parent);
+                }
+            }
         }
+
+        // Only keep the business services which changed
+        previousStatusesByVertex.entrySet().removeIf(e -> e.getKey().getBusinessService() == null
+                || e.getKey().getStatus().equals(e.getValue()));
+        return previousStatusesByVertex;
     }
 
-    private void reduceUpdateAndPropagateVertex(BusinessServiceGraph graph, GraphVertex vertex) {
-        if (vertex == null) {
-            // Nothing to do here
-            return;
+    private static boolean updateStatus(GraphVertex vertex, Status newStatus, Map<GraphVertex, Status> previousStatusesByVertex) {
+        final Status previousStatus = vertex.getStatus();
+        if (previousStatus.equals(newStatus)) {
+            return false;
         }
+        previousStatusesByVertex.putIfAbsent(vertex, previousStatus);
+        vertex.setStatus(newStatus);
+        return true;
+    }
 
+    private static Status reduce(BusinessServiceGraph graph, GraphVertex vertex) {
         // Calculate the weighed statuses from the child edges
         List<StatusWithIndex> statuses = weighEdges(graph.getOutEdges(vertex));
 
         // Reduce
-        Optional<StatusWithIndices> reducedStatus = vertex.getReductionFunction().reduce(statuses);
-
-        Status newStatus;
-        if (reducedStatus.isPresent()) {
-            newStatus = reducedStatus.get().getStatus();
-        } else {
-            newStatus = MIN_SEVERITY;
-        }
-
-        // Update and propagate
-        updateAndPropagateVertex(graph, vertex, newStatus);
+        return vertex.getReductionFunction().reduce(statuses)
+                .map(StatusWithIndices::getStatus)
+                .orElse(MIN_SEVERITY);
     }
 
     public static List<StatusWithIndex> weighEdges(Collection<GraphEdge> edges) {
-        return weighStatuses(edges.stream()
-                .collect(Collectors.toMap(Function.identity(), GraphEdge::getStatus,
-                        (u,v) -> { throw new IllegalStateException(String.format("Duplicate key %s", u)); },
-                        LinkedHashMap::new)));
+        // Find the greatest common divisor of all the weights
+        int gcd = 0;
+        for (GraphEdge edge : edges) {
+            gcd = gcd(gcd, edge.getWeight());
+        }
+
+        // Multiply the statuses based on their relative weight
+        List<StatusWithIndex> statuses = new ArrayList<>(edges.size());
+        int k = 0;
+        for (GraphEdge edge : edges) {
+            int relativeWeight = Math.floorDiv(edge.getWeight(), gcd);
+            for (int i = 0; i < relativeWeight; i++) {
+                statuses.add(new StatusWithIndex(edge.getStatus(), k));
+            }
+            k++;
+        }
+        return statuses;
     }
 
     /**
@@ -279,34 +402,15 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
         return statuses;
     }
 
-    private void onStatusUpdated(BusinessServiceGraph graph, GraphVertex vertex, Status previousStatus) {
-        BusinessService businessService = vertex.getBusinessService();
-        if (businessService == null) {
-            // Only send updates for business services (and not for reduction keys)
-            return;
-        }
-
-        if (graph != m_g) {
-            // We're working with a new graph, only send a status update if the new status is different
-            // than the one in the previous graph
-            GraphVertex previousVertex = m_g.getVertexByBusinessServiceId(businessService.getId());
-            if (previousVertex != null && vertex.getStatus().equals(previousVertex.getStatus())) {
-                // The vertex for this business service in the previous graph
-                // had the same status, don't issue any notifications
-                if (m_recordAndDeferStatusUpdates) {
-                    m_statusUpdatesByVertex.remove(vertex);
-                }
-                return;
-            }
-        }
-
-        if (m_recordAndDeferStatusUpdates) {
-            m_statusUpdatesByVertex.computeIfAbsent(vertex, v -> new StatusUpdate(graph, v, previousStatus));
-        } else {
-            for (BusinessServiceStateChangeHandler handler : m_handlers) {
-                handler.handleBusinessServiceStateChanged(graph, businessService, vertex.getStatus(), previousStatus);
-            }
+    private static int gcd(int a, int b) {
+        a = Math.abs(a);
+        b = Math.abs(b);
+        while (b != 0) {
+            final int t = a % b;
+            a = b;
+            b = t;
         }
+        return a;
     }
 
     @Override
@@ -366,6 +470,44 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
         }
     }
 
+    /**
+     * Sets the delay, in milliseconds, during which alarm updates are coalesced
+     * before being propagated through the graph. Updates are propagated
+     * immediately when the delay is 0.
+     */
+    public void setPropagationDelay(long propagationDelay) {
+        m_propagationDelay = propagationDelay;
+    }
+
+    public long getPropagationDelay() {
+        return m_propagationDelay;
+    }
+
+    private ScheduledExecutorService getPropagationExecutor() {
+        if (m_propagationExecutor == null) {
+            m_propagationExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("bsm-status-propagation-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+        return m_propagationExecutor;
+    }
+
+    private static long getDefaultPropagationDelay() {
+        final String propagationDelayProperty = System.getProperty(PROPAGATION_DELAY_KEY, Long.toString(DEFAULT_PROPAGATION_DELAY));
+        try {
+            final long propagationDelay = Long.parseLong(propagationDelayProperty);
+            if (propagationDelay < 0) {
+                LOG.warn("Defined propagation delay must be greater than or equal to 0, but was {}. Falling back to default: {}", propagationDelay, DEFAULT_PROPAGATION_DELAY);
+                return DEFAULT_PROPAGATION_DELAY;
+            }
+            return propagationDelay;
+        } catch (NumberFormatException ex) {
+            LOG.warn("The defined propagation delay {} could not be interpreted as long value. Falling back to default: {}", propagationDelayProperty, DEFAULT_PROPAGATION_DELAY);
+            return DEFAULT_PROPAGATION_DELAY;
+        }
+    }
+
     public void setAlarmProvider(AlarmProvider alarmProvider) {
         m_rwLock.writeLock().lock();
         try {
@@ -456,7 +598,9 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
     public BusinessServiceStateMachine clone(boolean preserveState) {
         m_rwLock.readLock().lock();
         try {
-            final BusinessServiceStateMachine sm = new DefaultBusinessServiceStateMachine();
+            final DefaultBusinessServiceStateMachine sm = new DefaultBusinessServiceStateMachine();
+            // Simulations need to reflect the updates immediately
+            sm.setPropagationDelay(0);
 
             // Rebuild the graph using the business services from the existing state machine
             final BusinessServiceGraph graph = getGraph();
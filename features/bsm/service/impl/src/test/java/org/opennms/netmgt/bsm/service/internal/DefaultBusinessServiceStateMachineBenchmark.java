@@ -0,0 +1,136 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.bsm.service.internal;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.netmgt.bsm.mock.MockAlarmWrapper;
+import org.opennms.netmgt.bsm.mock.MockBusinessServiceHierarchy;
+import org.opennms.netmgt.bsm.service.model.AlarmWrapper;
+import org.opennms.netmgt.bsm.service.model.Status;
+
+/**
+ * Use the Java Microbenchmarking Harness (JMH) to measure the status propagation performance.
+ * <p>
+ * The generated hierarchy has about 50k vertices: 10 top level business services with 100 child business services
+ * each, and 49 reduction keys per child business service. All of the children of a top level business service also
+ * share a reduction key, like they would when depending on the same IP service. A tenth of the alarms hit these
+ * shared reduction keys.
+ */
+public class DefaultBusinessServiceStateMachineBenchmark {
+
+    // the number of alarms handled in a single benchmark method call, this is the number of alarms
+    // received in a 100ms window at a rate of 10k alarms per second
+    // -> the benchmark keeps up with that rate as long as the reported number of operations per second
+    //    is greater than 10
+    private static final int WINDOW_SIZE = 1000;
+
+    private static final int WINDOWS = 16;
+
+    private static final int TOP_LEVEL_BUSINESS_SERVICES = 10;
+
+    private static final int CHILD_BUSINESS_SERVICES = 100;
+
+    private static final int REDUCTION_KEYS = 49;
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"false", "true"})
+        public boolean coalesce;
+
+        private DefaultBusinessServiceStateMachine stateMachine;
+        private AlarmWrapper[][] windows;
+        private int window = 0;
+
+        @Setup
+        public void setup() {
+            long id = 0;
+            final MockBusinessServiceHierarchy.HierarchyBuilder builder = MockBusinessServiceHierarchy.builder();
+            for (int i = 0; i < TOP_LEVEL_BUSINESS_SERVICES; i++) {
+                final MockBusinessServiceHierarchy.HierarchyBuilder.BusinessServiceBuilder topLevel = builder.withBusinessService(++id);
+                for (int j = 0; j < CHILD_BUSINESS_SERVICES; j++) {
+                    final MockBusinessServiceHierarchy.HierarchyBuilder.BusinessServiceBuilder child = topLevel.withBusinessService(++id);
+                    child.withReductionKey(++id, sharedReductionKey(i));
+                    for (int k = 0; k < REDUCTION_KEYS; k++) {
+                        child.withReductionKey(++id, reductionKey(i, j, k));
+                    }
+                    child.commit();
+                }
+                topLevel.commit();
+            }
+
+            stateMachine = new DefaultBusinessServiceStateMachine();
+            stateMachine.setPropagationDelay(coalesce ? Long.MAX_VALUE : 0);
+            stateMachine.setBusinessServices(builder.build().getBusinessServices());
+
+            final Random random = new Random(123456L);
+            final Status[] statuses = Status.values();
+            windows = new AlarmWrapper[WINDOWS][WINDOW_SIZE];
+            for (int w = 0; w < WINDOWS; w++) {
+                for (int a = 0; a < WINDOW_SIZE; a++) {
+                    final int i = random.nextInt(TOP_LEVEL_BUSINESS_SERVICES);
+                    final String reductionKey = random.nextInt(10) == 0 ? sharedReductionKey(i)
+                            : reductionKey(i, random.nextInt(CHILD_BUSINESS_SERVICES), random.nextInt(REDUCTION_KEYS));
+                    windows[w][a] = new MockAlarmWrapper(reductionKey, statuses[random.nextInt(statuses.length)]);
+                }
+            }
+        }
+
+        private static String sharedReductionKey(int i) {
+            return String.format("shared-%d", i);
+        }
+
+        private static String reductionKey(int i, int j, int k) {
+            return String.format("rk-%d-%d-%d", i, j, k);
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(1)
+    public void handleAlarms(BState state) {
+        final AlarmWrapper[] alarms = state.windows[state.window];
+        state.window = (state.window + 1) % WINDOWS;
+        for (AlarmWrapper alarm : alarms) {
+            state.stateMachine.handleNewOrUpdatedAlarm(alarm);
+        }
+        if (state.coalesce) {
+            state.stateMachine.propagatePendingStatusesNow();
+        }
+    }
+}
@@ -30,6 +30,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -234,6 +235,71 @@ public class DefaultBusinessServiceStateMachineTest {
         assertEquals("b1", impacts.get(0).getBusinessService().getName());
     }
 
+    @Test
+    public void canCoalesceStatusUpdates() {
+        // Create a hierarchy where b1 depends on b2 and b3, which share a1
+        MockBusinessServiceHierarchy h = MockBusinessServiceHierarchy.builder()
+                .withBusinessService(1)
+                    .withBusinessService(2)
+                        .withReductionKey(21, "a1")
+                        .withReductionKey(22, "a2")
+                    .commit()
+                    .withBusinessService(3)
+                        .withReductionKey(31, "a1")
+                        .withReductionKey(33, "a3")
+                    .commit()
+                .commit()
+                .build();
+        BusinessService b1 = h.getBusinessServiceById(1);
+        BusinessService b2 = h.getBusinessServiceById(2);
+        BusinessService b3 = h.getBusinessServiceById(3);
+
+        // Setup the state machine, and make sure the updates are only propagated when we ask for it
+        DefaultBusinessServiceStateMachine stateMachine = new DefaultBusinessServiceStateMachine();
+        stateMachine.setPropagationDelay(TimeUnit.HOURS.toMillis(1));
+        LoggingStateChangeHandler stateChangeHandler = new LoggingStateChangeHandler();
+        stateMachine.addHandler(stateChangeHandler, Maps.newHashMap());
+        stateMachine.setBusinessServices(h.getBusinessServices());
+
+        // Flap a1 and raise a2
+        stateMachine.handleNewOrUpdatedAlarm(new MockAlarmWrapper("a1", Status.CRITICAL));
+        stateMachine.handleNewOrUpdatedAlarm(new MockAlarmWrapper("a2", Status.MINOR));
+        stateMachine.handleNewOrUpdatedAlarm(new MockAlarmWrapper("a1", Status.NORMAL));
+
+        // Nothing should have been propagated yet
+        assertEquals(Status.NORMAL, stateMachine.getOperationalStatus(b1));
+        assertEquals(Status.NORMAL, stateMachine.getOperationalStatus("a1"));
+        assertEquals(0, stateChangeHandler.getStateChanges().size());
+
+        // Propagate
+        stateMachine.propagatePendingStatusesNow();
+        assertEquals(Status.MINOR, stateMachine.getOperationalStatus(b1));
+        assertEquals(Status.MINOR, stateMachine.getOperationalStatus(b2));
+        assertEquals(Status.NORMAL, stateMachine.getOperationalStatus(b3));
+
+        // Only the net changes should have been notified, the flapping of a1 is never seen
+        assertEquals(2, stateChangeHandler.getStateChanges().size());
+        for (LoggingStateChangeHandler.StateChange stateChange : stateChangeHandler.getStateChanges()) {
+            assertTrue(stateChange.getBusinessService() == b1 || stateChange.getBusinessService() == b2);
+            assertEquals(Status.NORMAL, stateChange.getPrevSeverity());
+            assertEquals(Status.MINOR, stateChange.getNewSeverity());
+        }
+
+        // A shared reduction key impacting both branches only notifies b1 once
+        stateMachine.handleNewOrUpdatedAlarm(new MockAlarmWrapper("a1", Status.MAJOR));
+        stateMachine.propagatePendingStatusesNow();
+        assertEquals(Status.MAJOR, stateMachine.getOperationalStatus(b1));
+        assertEquals(Status.MAJOR, stateMachine.getOperationalStatus(b2));
+        assertEquals(Status.MAJOR, stateMachine.getOperationalStatus(b3));
+        assertEquals(5, stateChangeHandler.getStateChanges().size());
+
+        // Reloading propagates the pending updates before priming the new graph
+        stateMachine.handleNewOrUpdatedAlarm(new MockAlarmWrapper("a1", Status.NORMAL));
+        stateMachine.setBusinessServices(h.getBusinessServices());
+        assertEquals(Status.MINOR, stateMachine.getOperationalStatus(b1));
+        assertEquals(Status.NORMAL, stateMachine.getOperationalStatus(b3));
+    }
+
     @Test
     public void canRenderGraphToPng() {
         // Create a simple hierarchy
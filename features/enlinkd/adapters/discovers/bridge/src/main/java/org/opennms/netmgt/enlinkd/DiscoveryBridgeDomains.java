@@ -22,6 +22,7 @@
 package org.opennms.netmgt.enlinkd;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -31,7 +32,7 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 
 import org.opennms.netmgt.scheduler.Schedulable;
@@ -40,6 +41,8 @@ import org.opennms.netmgt.enlinkd.service.api.BridgeTopologyException;
 import org.opennms.netmgt.enlinkd.service.api.BridgeTopologyService;
 import org.opennms.netmgt.enlinkd.service.api.BroadcastDomain;
 import org.opennms.netmgt.enlinkd.service.api.DiscoveryBridgeTopology;
+import org.opennms.netmgt.enlinkd.service.api.MacAddresses;
+import org.opennms.netmgt.enlinkd.service.api.PackedMacMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -62,12 +65,29 @@ public class DiscoveryBridgeDomains extends Schedulable {
     }
 
     public static boolean checkMacSets(Set<String> setA, Set<String> setB) {
-        Set<String> retainedSet = new HashSet<>(setB);
-        retainedSet.retainAll(setA);
+        // count the intersection walking the smaller set, no copy needed
+        final Set<String> smaller = setA.size() <= setB.size() ? setA : setB;
+        final Set<String> larger = smaller == setA ? setB : setA;
+        int retained = 0;
+        for (String mac : smaller) {
+            if (larger.contains(mac)) {
+                retained++;
+            }
+        }
         // should contain at list 20 or 50% of the all size
-        return retainedSet.size() > DOMAIN_MATCH_MIN_SIZE
-                || retainedSet.size() > setA.size() * DOMAIN_MATCH_MIN_RATIO
-                || retainedSet.size() > setB.size() * DOMAIN_MATCH_MIN_RATIO;
+        return retained > DOMAIN_MATCH_MIN_SIZE
+                || retained > setA.size() * DOMAIN_MATCH_MIN_RATIO
+                || retained > setB.size() * DOMAIN_MATCH_MIN_RATIO;
+    }
+
+    // same as above on macs numbered by a shared dictionary
+    public static boolean checkMacSets(BitSet setA, BitSet setB) {
+        final BitSet common = (BitSet) setA.clone();
+        common.and(setB);
+        final int retained = common.cardinality();
+        return retained > DOMAIN_MATCH_MIN_SIZE
+                || retained > setA.cardinality() * DOMAIN_MATCH_MIN_RATIO
+                || retained > setB.cardinality() * DOMAIN_MATCH_MIN_RATIO;
     }
 
     private BroadcastDomain find(Set<Integer> nodes, Set<String> setA) throws BridgeTopologyException {
@@ -123,6 +143,10 @@ public class DiscoveryBridgeDomains extends Schedulable {
             = new HashMap<>();
         Map<Integer, Set<String>> nodeMacs 
         = new HashMap<>();
+        // every node is compared with every other one: number the macs once
+        // and compare the nodes as bit sets
+        PackedMacMap macOrdinals = new PackedMacMap();
+        Map<Integer, BitSet> nodeMacBits = new HashMap<>();
 
         Set<Integer> nodeids 
         = new HashSet<>(
@@ -139,11 +163,17 @@ public class DiscoveryBridgeDomains extends Schedulable {
             }
             nodeBft.put(nodeid, links);
             Set<String> macs = new HashSet<>();
+            BitSet macBits = new BitSet();
             for (BridgeForwardingTableEntry link : links) {
                 macs.add(link.getMacAddress());
+                long mac = MacAddresses.pack(link.getMacAddress());
+                if (mac != MacAddresses.INVALID) {
+                    macBits.set(macOrdinals.put(mac, 0));
+                }
             }
             LOG.debug("run: node:[{}]. macs:{}", nodeid, macs);
             nodeMacs.put(nodeid, macs);
+            nodeMacBits.put(nodeid, macBits);
         }
 
         Set<Integer> parsed = new HashSet<>();
@@ -160,8 +190,8 @@ public class DiscoveryBridgeDomains extends Schedulable {
                 if (parsed.contains(nodeidB)) {
                     continue;
                 }
-                if (checkMacSets(nodeMacs.get(nodeidA),
-                                                 nodeMacs.get(nodeidB))) {
+                if (checkMacSets(nodeMacBits.get(nodeidA),
+                                                 nodeMacBits.get(nodeidB))) {
                     nodeondomainbft.get(nodeidA).put(nodeidB,
                                                      nodeBft.get(nodeidB));
                     parsed.add(nodeidB);
@@ -214,7 +244,8 @@ public class DiscoveryBridgeDomains extends Schedulable {
 
         if (n > 0) {
             LOG.debug("run: creating executorService with {} Threads", n);
-            ExecutorService executorService = Executors.newFixedThreadPool(n);
+            // domains share no bridge, so they are calculated independently
+            ExecutorService executorService = new ForkJoinPool(n);
             LOG.debug("run: created executorService with {} Threads", n);
 
             try {
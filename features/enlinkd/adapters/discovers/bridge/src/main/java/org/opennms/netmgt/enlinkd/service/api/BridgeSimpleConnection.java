@@ -21,7 +21,6 @@
  */
 package org.opennms.netmgt.enlinkd.service.api;
 
-import java.util.HashSet;
 import java.util.Set;
 
 import org.slf4j.Logger;
@@ -321,13 +320,7 @@ public class BridgeSimpleConnection implements Topology {
             BridgeForwardingTable bftB,
             BridgePort pba) {
 
-        for (String mac : bftA.getBftMacs()) {
-            if (!bftB.getBftMacs().contains(mac) || pba.equals(bftB.getMactoport().get(mac))) {
-                continue;
-            }
-            return bftA.getMactoport().get(mac);
-        }
-        return null;
+        return bftA.getMacIndex().findPort(bftB.getMacIndex(), pba);
     }
 
     // if exists m_1 and m_2, p1 and p2 on Y pxy on X :      m_1 belongs to BFT(py1,Y) BFT(pxy,X)
@@ -336,32 +329,11 @@ public class BridgeSimpleConnection implements Topology {
             BridgeForwardingTable bftA,
             BridgeForwardingTable bftB) {
 
-        Set<String> commonLearnedMacs = new HashSet<>(bftA.getBftMacs());
-        commonLearnedMacs.retainAll(new HashSet<>(bftB.getBftMacs()));
-        String[] array = commonLearnedMacs.toArray(new String[0]);
-
-        for (int i=0; i < array.length; i++) {
-            BridgePort pab = bftA.getMactoport().get(array[i]);
-            BridgePort pb1 = bftB.getMactoport().get(array[i]);
-            for (int j=i+1; j < array.length; j++) {
-                if (bftB.getMactoport().get(array[j]).getBridgePort().intValue() == pb1.getBridgePort().intValue()) {
-                    continue;
-                }
-                if (bftA.getMactoport().get(array[j]).getBridgePort().intValue() == pab.getBridgePort().intValue()) {
-                    return pab;
-                }
-            }
-        }
-        return null;
+        return bftA.getMacIndex().findSharedPort(bftB.getMacIndex());
     }
 
     private static BridgePort findPortUsingBridgeIdentifiers(BridgeForwardingTable bft, Set<String> identifiers) {
-        for (String mac: identifiers) {
-            if (bft.getMactoport().containsKey(mac)) {
-                return bft.getMactoport().get(mac);
-            }
-        }
-        return null;
+        return bft.getMacIndex().findPort(identifiers);
     }
 
     public static BridgeSimpleConnection create(BridgeForwardingTable xBridge,
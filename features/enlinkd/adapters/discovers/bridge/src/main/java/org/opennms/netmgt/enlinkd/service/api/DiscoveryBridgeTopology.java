@@ -123,9 +123,10 @@ public class DiscoveryBridgeTopology {
 
             BridgePortWithMacs bpwm = bridgeFt.getBridgePortWithMacs(bridgeport);
             if (bpwm == null ) {
-                bridgeFt.getPorttomac().add(new BridgePortWithMacs(bridgeport, new HashSet<>()));
+                bpwm = new BridgePortWithMacs(bridgeport, new HashSet<>());
+                bridgeFt.addBridgePortWithMacs(bpwm);
             }
-            bridgeFt.getBridgePortWithMacs(bridgeport).getMacs().add(link.getMacAddress());
+            bpwm.getMacs().add(link.getMacAddress());
 
             if (bridgeFt.getMactoport().containsKey(link.getMacAddress())) {
                 bridgeFt.getDuplicated().put(link.getMacAddress(), new HashSet<>());
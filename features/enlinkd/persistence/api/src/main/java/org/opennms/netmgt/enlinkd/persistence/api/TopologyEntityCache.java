@@ -54,4 +54,29 @@ public interface TopologyEntityCache {
     List<IpInterfaceTopologyEntity> getIpInterfaceTopologyEntities();
     void refresh();
 
+    /**
+     * Reloads node, ip interface and snmp interface entities only.
+     */
+    void refreshNodeTopologyEntities();
+
+    /**
+     * Reloads lldp element and lldp link entities only.
+     */
+    void refreshLldpTopologyEntities();
+
+    /**
+     * Reloads cdp element and cdp link entities only.
+     */
+    void refreshCdpTopologyEntities();
+
+    /**
+     * Reloads ospf area and ospf link entities only.
+     */
+    void refreshOspfTopologyEntities();
+
+    /**
+     * Reloads is-is element and is-is link entities only.
+     */
+    void refreshIsIsTopologyEntities();
+
 }
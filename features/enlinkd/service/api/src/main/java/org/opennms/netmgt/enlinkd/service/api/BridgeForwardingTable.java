@@ -22,6 +22,7 @@
 package org.opennms.netmgt.enlinkd.service.api;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -38,6 +39,8 @@ public class BridgeForwardingTable implements Topology {
     private Map<String, BridgePort> m_mactoport = new HashMap<>();
     private Map<String, Set<BridgePort>> m_duplicated = new HashMap<>();
     private final Set<BridgePortWithMacs> m_porttomac = new HashSet<>();
+    private final Map<BridgePort, BridgePortWithMacs> m_portindex = new HashMap<>();
+    private BridgeMacIndex m_macindex;
 
     public BridgeForwardingTable(Bridge bridge, Set<BridgeForwardingTableEntry> entries) {
         m_bridge = bridge;
@@ -45,16 +48,17 @@ public class BridgeForwardingTable implements Topology {
     }
 
     public Set<BridgePortWithMacs> getPorttomac() {
-        return m_porttomac;
+        return Collections.unmodifiableSet(m_porttomac);
     }
 
-    public BridgePortWithMacs getBridgePortWithMacs(BridgePort port) {
-        for (BridgePortWithMacs bpmx: m_porttomac) {
-            if (bpmx.getPort().equals(port)) {
-                return bpmx;
-            }
+    public void addBridgePortWithMacs(BridgePortWithMacs bpwm) {
+        if (m_porttomac.add(bpwm)) {
+            m_portindex.put(bpwm.getPort(), bpwm);
         }
-        return null;
+    }
+
+    public BridgePortWithMacs getBridgePortWithMacs(BridgePort port) {
+        return m_portindex.get(port);
     }
     
     public Map<String, BridgePort> getMactoport() {
@@ -64,6 +68,18 @@ public class BridgeForwardingTable implements Topology {
 
     public void setMactoport(Map<String, BridgePort> mactoport) {
         m_mactoport = mactoport;
+        m_macindex = null;
+    }
+
+    /**
+     * The packed index of {@link #getMactoport()}, built on first use:
+     * call it once the forwarding table is complete.
+     */
+    public BridgeMacIndex getMacIndex() {
+        if (m_macindex == null) {
+            m_macindex = new BridgeMacIndex(m_mactoport);
+        }
+        return m_macindex;
     }
 
     public Map<String, Set<BridgePort>> getDuplicated() {
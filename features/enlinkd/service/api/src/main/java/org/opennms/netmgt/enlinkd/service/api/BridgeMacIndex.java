@@ -0,0 +1,145 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.enlinkd.service.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The learned macs of a {@link BridgeForwardingTable} packed into a
+ * {@link PackedMacMap}: every mac points to the ordinal of its bridge port.
+ * Macs keep the iteration order of {@link BridgeForwardingTable#getMactoport()}.
+ * Macs that are not 12 hex digits cannot be packed and are not indexed.
+ */
+public class BridgeMacIndex {
+
+    private final PackedMacMap m_macs;
+    private final BridgePort[] m_ports;
+
+    public BridgeMacIndex(Map<String, BridgePort> mactoport) {
+        m_macs = new PackedMacMap(mactoport.size());
+        final Map<BridgePort, Integer> ordinals = new HashMap<>();
+        final List<BridgePort> ports = new ArrayList<>();
+        mactoport.forEach((mac, port) -> {
+            final long packed = MacAddresses.pack(mac);
+            if (packed == MacAddresses.INVALID) {
+                return;
+            }
+            final Integer ordinal = ordinals.computeIfAbsent(port, p -> {
+                ports.add(p);
+                return ports.size() - 1;
+            });
+            m_macs.put(packed, ordinal);
+        });
+        m_ports = ports.toArray(new BridgePort[0]);
+    }
+
+    public int size() {
+        return m_macs.size();
+    }
+
+    public BridgePort getPort(String mac) {
+        final long packed = MacAddresses.pack(mac);
+        return packed == MacAddresses.INVALID ? null : getPort(packed);
+    }
+
+    public BridgePort getPort(long mac) {
+        final int port = m_macs.get(mac);
+        return port == PackedMacMap.NOT_FOUND ? null : m_ports[port];
+    }
+
+    /**
+     * @return the port of the first identifier found in the index
+     */
+    public BridgePort findPort(Set<String> identifiers) {
+        for (String mac : identifiers) {
+            final BridgePort port = getPort(mac);
+            if (port != null) {
+                return port;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the port of the first mac also learned by other on a port
+     * different from excluded.
+     */
+    public BridgePort findPort(BridgeMacIndex other, BridgePort excluded) {
+        for (int i = 0; i < m_macs.size(); i++) {
+            final BridgePort otherPort = other.getPort(m_macs.macAt(i));
+            if (otherPort == null || excluded.equals(otherPort)) {
+                continue;
+            }
+            return m_ports[m_macs.valueAt(i)];
+        }
+        return null;
+    }
+
+    /**
+     * Walking the macs learned by both bridges in order,
+     * finds the first mac m_1 such that a later mac m_2 is learned on the
+     * same port here and on a different port on other.
+     * The common macs are walked once from the last one, remembering for
+     * every port the other port found first and whether more than one
+     * other port was found.
+     *
+     * @return the port of m_1
+     */
+    public BridgePort findSharedPort(BridgeMacIndex other) {
+        final int[] common = new int[m_macs.size()];
+        final int[] otherPorts = new int[m_macs.size()];
+        int size = 0;
+        for (int i = 0; i < m_macs.size(); i++) {
+            final int otherPort = other.m_macs.get(m_macs.macAt(i));
+            if (otherPort == PackedMacMap.NOT_FOUND) {
+                continue;
+            }
+            common[size] = i;
+            otherPorts[size] = otherPort;
+            size++;
+        }
+
+        final int[] firstOtherPort = new int[m_ports.length];
+        Arrays.fill(firstOtherPort, PackedMacMap.NOT_FOUND);
+        final BitSet manyOtherPorts = new BitSet(m_ports.length);
+        int found = PackedMacMap.NOT_FOUND;
+        for (int k = size - 1; k >= 0; k--) {
+            final int port = m_macs.valueAt(common[k]);
+            final int otherPort = otherPorts[k];
+            if (manyOtherPorts.get(port)) {
+                found = k;
+            } else if (firstOtherPort[port] == PackedMacMap.NOT_FOUND) {
+                firstOtherPort[port] = otherPort;
+            } else if (firstOtherPort[port] != otherPort) {
+                manyOtherPorts.set(port);
+                found = k;
+            }
+        }
+        return found == PackedMacMap.NOT_FOUND ? null : m_ports[m_macs.valueAt(common[found])];
+    }
+}
@@ -77,30 +77,27 @@ public class BroadcastDomain implements Topology {
         });
 
         //Add macs from forwarders
+        // there is at most one forwarder for each port, so a mac can only
+        // be found on every port of the segment once all ports are counted
+        Map<BridgePort, BridgePortWithMacs> forwarders = getForwardingByPort();
         Map<String, Integer> forfpmacs = new HashMap<>();
         upsegment.getBridgePortsOnSegment().forEach(port ->
         {
-            getForwarders(port.getNodeId()).stream().filter(forward -> forward.getPort().equals(port)).
-            forEach( forward ->
-                    forward.getMacs().forEach(mac -> {
-                        int itemsfound=1;
-                        if (forfpmacs.containsKey(mac)) {
-                            itemsfound = forfpmacs.get(mac);
-                            itemsfound++;
-                        }
-                        forfpmacs.put(mac, itemsfound);
-                    }));
-
-            Set<String> clearmacs = new HashSet<>();
-            forfpmacs.keySet().forEach(mac -> {
-                if (forfpmacs.get(mac) == upsegment.getBridgePortsOnSegment().size()) {
-                    upsegment.getMacsOnSegment().add(mac);
-                    clearmacs.add(mac);
-                }
-            });
-            cleanForwarders(clearmacs);
+            BridgePortWithMacs forward = forwarders.get(port);
+            if (forward == null) {
+                return;
+            }
+            forward.getMacs().forEach(mac -> forfpmacs.merge(mac, 1, Integer::sum));
+        });
 
+        Set<String> clearmacs = new HashSet<>();
+        forfpmacs.forEach((mac, itemsfound) -> {
+            if (itemsfound == upsegment.getBridgePortsOnSegment().size()) {
+                upsegment.getMacsOnSegment().add(mac);
+                clearmacs.add(mac);
+            }
         });
+        cleanForwarders(clearmacs);
 
         upsegment.getBridgePortsOnSegment().add(rootport);
         upsegment.getMacsOnSegment().retainAll(macsonsegment);
@@ -298,13 +295,20 @@ public class BroadcastDomain implements Topology {
     }
 
     public void addforwarders(BridgeForwardingTable bridgeFT) {
-        Set<String> macs = new HashSet<>(getMacsOnSegments());
+        Set<String> macs = getMacsOnSegments();
         cleanForwarders(bridgeFT.getNodeId());
-        for (String forward :  bridgeFT.getMactoport().keySet()) {
-            if (macs.contains(forward)) {
+        Map<BridgePort, BridgePortWithMacs> forwarders = getForwardingByPort();
+        for (Map.Entry<String, BridgePort> forward :  bridgeFT.getMactoport().entrySet()) {
+            if (macs.contains(forward.getKey())) {
                 continue;
             }
-            addForwarding(bridgeFT.getMactoport().get(forward), forward);
+            BridgePortWithMacs bpm = forwarders.get(forward.getValue());
+            if (bpm == null) {
+                bpm = new BridgePortWithMacs(forward.getValue(), new HashSet<>());
+                forwarders.put(forward.getValue(), bpm);
+                m_forwarding.add(bpm);
+            }
+            bpm.getMacs().add(forward.getKey());
         }
     }
 
@@ -346,6 +350,12 @@ public class BroadcastDomain implements Topology {
         return m_forwarding;
     }
 
+    private Map<BridgePort, BridgePortWithMacs> getForwardingByPort() {
+        Map<BridgePort, BridgePortWithMacs> forwarders = new HashMap<>(m_forwarding.size());
+        m_forwarding.forEach(bpm -> forwarders.put(bpm.getPort(), bpm));
+        return forwarders;
+    }
+
     public Set<BridgePortWithMacs> getForwarders(Integer bridgeId) {
         Set<BridgePortWithMacs> bridgeforwarders = new HashSet<>();
         m_forwarding.stream().filter(bfm -> Objects.equals(bfm.getPort().getNodeId(), bridgeId)).forEach(bridgeforwarders::add);
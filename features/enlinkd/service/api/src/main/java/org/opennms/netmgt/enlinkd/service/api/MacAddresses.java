@@ -0,0 +1,65 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.enlinkd.service.api;
+
+/**
+ * Packs the 12 hex digit bridge addresses used by the forwarding tables into
+ * the low 48 bits of a <code>long</code>, so the topology calculation can
+ * compare macs without hashing strings.
+ */
+public final class MacAddresses {
+
+    /** returned by {@link #pack(String)} for anything but 12 hex digits */
+    public static final long INVALID = -1L;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private MacAddresses() {
+    }
+
+    public static long pack(String mac) {
+        if (mac == null || mac.length() != 12) {
+            return INVALID;
+        }
+        long packed = 0L;
+        for (int i = 0; i < 12; i++) {
+            int digit = Character.digit(mac.charAt(i), 16);
+            if (digit < 0) {
+                return INVALID;
+            }
+            packed = packed << 4 | digit;
+        }
+        return packed;
+    }
+
+    public static String unpack(long packed) {
+        if (packed < 0 || packed >>> 48 != 0) {
+            throw new IllegalArgumentException("not a packed mac address: " + packed);
+        }
+        final char[] mac = new char[12];
+        for (int i = 11; i >= 0; i--) {
+            mac[i] = HEX[(int) (packed & 0xf)];
+            packed >>>= 4;
+        }
+        return new String(mac);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.enlinkd.service.api;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map from packed mac addresses (see {@link MacAddresses}) to
+ * <code>int</code> values. Macs are numbered in insertion order, so the map
+ * also works as a dictionary giving each mac a dense ordinal.
+ * Not thread safe.
+ */
+public class PackedMacMap {
+
+    public static final int NOT_FOUND = -1;
+
+    // slots hold mac + 1, so that 0 marks an empty slot
+    private long[] m_slots;
+    private int[] m_ordinals;
+    private long[] m_macs;
+    private int[] m_values;
+    private int m_size;
+
+    public PackedMacMap() {
+        this(16);
+    }
+
+    public PackedMacMap(int expected) {
+        final int capacity = tableSizeFor(expected);
+        m_slots = new long[capacity];
+        m_ordinals = new int[capacity];
+        m_macs = new long[Math.max(expected, 4)];
+        m_values = new int[m_macs.length];
+    }
+
+    /**
+     * @return the ordinal of the mac, {@link #NOT_FOUND} if the mac is not
+     * in the map.
+     */
+    public int indexOf(long mac) {
+        final long key = mac + 1;
+        final int mask = m_slots.length - 1;
+        for (int slot = hash(key) & mask; m_slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (m_slots[slot] == key) {
+                return m_ordinals[slot];
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    public boolean contains(long mac) {
+        return indexOf(mac) != NOT_FOUND;
+    }
+
+    /**
+     * @return the value of the mac, {@link #NOT_FOUND} if the mac is not in
+     * the map.
+     */
+    public int get(long mac) {
+        final int ordinal = indexOf(mac);
+        return ordinal == NOT_FOUND ? NOT_FOUND : m_values[ordinal];
+    }
+
+    /**
+     * Maps the mac to the value, keeping the ordinal of a mac already in the map.
+     *
+     * @return the ordinal of the mac
+     */
+    public int put(long mac, int value) {
+        if (mac < 0 || mac >>> 48 != 0) {
+            throw new IllegalArgumentException("not a packed mac address: " + mac);
+        }
+        final long key = mac + 1;
+        final int mask = m_slots.length - 1;
+        int slot = hash(key) & mask;
+        for (; m_slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (m_slots[slot] == key) {
+                m_values[m_ordinals[slot]] = value;
+                return m_ordinals[slot];
+            }
+        }
+        final int ordinal = m_size++;
+        if (ordinal == m_macs.length) {
+            m_macs = Arrays.copyOf(m_macs, ordinal * 2);
+            m_values = Arrays.copyOf(m_values, ordinal * 2);
+        }
+        m_macs[ordinal] = mac;
+        m_values[ordinal] = value;
+        m_slots[slot] = key;
+        m_ordinals[slot] = ordinal;
+        // keep the load factor under 1/2
+        if (m_size * 2 > m_slots.length) {
+            rehash(m_slots.length * 2);
+        }
+        return ordinal;
+    }
+
+    public int size() {
+        return m_size;
+    }
+
+    public long macAt(int ordinal) {
+        return m_macs[ordinal];
+    }
+
+    public int valueAt(int ordinal) {
+        return m_values[ordinal];
+    }
+
+    private void rehash(int capacity) {
+        m_slots = new long[capacity];
+        m_ordinals = new int[capacity];
+        final int mask = capacity - 1;
+        for (int ordinal = 0; ordinal < m_size; ordinal++) {
+            final long key = m_macs[ordinal] + 1;
+            int slot = hash(key) & mask;
+            while (m_slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            m_slots[slot] = key;
+            m_ordinals[slot] = ordinal;
+        }
+    }
+
+    private static int tableSizeFor(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    // vendor prefixes repeat, so mix the bits before masking
+    private static int hash(long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
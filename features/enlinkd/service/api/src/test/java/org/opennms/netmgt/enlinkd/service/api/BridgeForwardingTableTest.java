@@ -0,0 +1,102 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.enlinkd.service.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class BridgeForwardingTableTest {
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testPorttomacIsReadOnly() {
+        BridgeForwardingTable bft = new BridgeForwardingTable(new Bridge(1), new HashSet<>());
+        bft.getPorttomac().add(new BridgePortWithMacs(port(1, 1), Sets.newHashSet("000000000001")));
+    }
+
+    @Test
+    public void testGetBridgePortWithMacs() {
+        BridgeForwardingTable bft = new BridgeForwardingTable(new Bridge(1), new HashSet<>());
+        BridgePortWithMacs bpwm1 = new BridgePortWithMacs(port(1, 1), Sets.newHashSet("000000000001"));
+        BridgePortWithMacs bpwm2 = new BridgePortWithMacs(port(1, 2), Sets.newHashSet("000000000002", "000000000003"));
+        bft.addBridgePortWithMacs(bpwm1);
+        bft.addBridgePortWithMacs(bpwm2);
+
+        // the same port must not replace the indexed one
+        bft.addBridgePortWithMacs(new BridgePortWithMacs(port(1, 1), Sets.newHashSet("000000000004")));
+
+        assertEquals(2, bft.getPorttomac().size());
+        // lookups are by node and bridge port, not by identity
+        assertSame(bpwm1, bft.getBridgePortWithMacs(port(1, 1)));
+        assertSame(bpwm2, bft.getBridgePortWithMacs(port(1, 2)));
+        assertEquals(Sets.newHashSet("000000000001"), bft.getBridgePortWithMacs(port(1, 1)).getMacs());
+        assertNull(bft.getBridgePortWithMacs(port(1, 3)));
+        assertNull(bft.getBridgePortWithMacs(port(2, 1)));
+    }
+
+    @Test
+    public void testAddForwarders() {
+        BroadcastDomain domain = new BroadcastDomain();
+        domain.add(new BridgePortWithMacs(port(1, 1), Sets.newHashSet("000000000001")));
+        domain.addForwarding(port(2, 5), "00000000000f");
+        domain.addForwarding(port(3, 1), "00000000000e");
+
+        Map<String, BridgePort> mactoport = new HashMap<>();
+        mactoport.put("000000000001", port(2, 1));
+        mactoport.put("000000000002", port(2, 1));
+        mactoport.put("000000000003", port(2, 1));
+        mactoport.put("000000000004", port(2, 2));
+        BridgeForwardingTable bft = new BridgeForwardingTable(new Bridge(2), new HashSet<>());
+        bft.setMactoport(mactoport);
+
+        domain.addforwarders(bft);
+        // calculating again must give the same forwarders
+        domain.addforwarders(bft);
+
+        Set<BridgePortWithMacs> forwarders = domain.getForwarders(2);
+        assertEquals(2, forwarders.size());
+        Map<BridgePort, Set<String>> macsByPort = new HashMap<>();
+        forwarders.forEach(bpwm -> macsByPort.put(bpwm.getPort(), bpwm.getMacs()));
+        // macs already on a segment are not forwarders, the previous forwarders of the bridge are replaced
+        assertEquals(Sets.newHashSet("000000000002", "000000000003"), macsByPort.get(port(2, 1)));
+        assertEquals(Sets.newHashSet("000000000004"), macsByPort.get(port(2, 2)));
+        assertEquals(1, domain.getForwarders(3).size());
+        assertEquals(Sets.newHashSet("00000000000e"), domain.getForwarders(3).iterator().next().getMacs());
+    }
+
+    private static BridgePort port(int nodeId, int bridgePort) {
+        BridgePort bp = new BridgePort();
+        bp.setNodeId(nodeId);
+        bp.setBridgePort(bridgePort);
+        bp.setBridgePortIfIndex(bridgePort);
+        return bp;
+    }
+}
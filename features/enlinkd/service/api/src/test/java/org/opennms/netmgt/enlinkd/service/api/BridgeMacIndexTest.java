@@ -0,0 +1,165 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.enlinkd.service.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class BridgeMacIndexTest {
+
+    @Test
+    public void testPackMacAddresses() {
+        assertEquals(0L, MacAddresses.pack("000000000000"));
+        assertEquals(0xffffffffffffL, MacAddresses.pack("ffffffffffff"));
+        assertEquals(0x001b2bd4c701L, MacAddresses.pack("001B2BD4C701"));
+        assertEquals("001b2bd4c701", MacAddresses.unpack(MacAddresses.pack("001b2bd4c701")));
+        assertEquals("000000000001", MacAddresses.unpack(1L));
+
+        assertEquals(MacAddresses.INVALID, MacAddresses.pack(null));
+        assertEquals(MacAddresses.INVALID, MacAddresses.pack("00:1b:2b:d4:c7:01"));
+        assertEquals(MacAddresses.INVALID, MacAddresses.pack("001b2bd4c7"));
+        assertEquals(MacAddresses.INVALID, MacAddresses.pack("001b2bd4c7zz"));
+    }
+
+    @Test
+    public void testPackedMacMap() {
+        PackedMacMap map = new PackedMacMap(2);
+        for (int i = 0; i < 1000; i++) {
+            // macs sharing the vendor prefix, as on a real bridge
+            assertEquals(i, map.put(0x001b2b000000L + i, i % 7));
+        }
+        // a mac already in the map keeps its ordinal
+        assertEquals(10, map.put(0x001b2b00000aL, 42));
+
+        assertEquals(1000, map.size());
+        assertEquals(42, map.get(0x001b2b00000aL));
+        assertEquals(999 % 7, map.get(0x001b2b0003e7L));
+        assertEquals(0x001b2b000005L, map.macAt(5));
+        assertEquals(5, map.indexOf(0x001b2b000005L));
+        // 0 is a mac as any other
+        assertFalse(map.contains(0L));
+        map.put(0L, 3);
+        assertTrue(map.contains(0L));
+        assertEquals(PackedMacMap.NOT_FOUND, map.get(0x001b2c000000L));
+    }
+
+    @Test
+    public void testFindPort() {
+        Map<String, BridgePort> mactoportX = new LinkedHashMap<>();
+        mactoportX.put("000000000001", port(1, 1));
+        mactoportX.put("000000000002", port(1, 2));
+        mactoportX.put("000000000003", port(1, 2));
+        mactoportX.put("not a mac", port(1, 3));
+        BridgeMacIndex x = new BridgeMacIndex(mactoportX);
+
+        Map<String, BridgePort> mactoportY = new LinkedHashMap<>();
+        mactoportY.put("000000000001", port(2, 5));
+        mactoportY.put("000000000003", port(2, 6));
+        BridgeMacIndex y = new BridgeMacIndex(mactoportY);
+
+        assertEquals(3, x.size());
+        assertEquals(port(1, 2), x.getPort("000000000003"));
+        assertNull(x.getPort("not a mac"));
+        assertEquals(port(1, 2), x.findPort(Sets.newLinkedHashSet(Arrays.asList("00000000000f", "000000000002"))));
+        assertNull(x.findPort(Sets.newHashSet("00000000000f")));
+
+        // first mac learned by Y not on the excluded port
+        assertEquals(port(1, 1), x.findPort(y, port(2, 6)));
+        assertEquals(port(1, 2), x.findPort(y, port(2, 5)));
+        assertNull(x.findPort(new BridgeMacIndex(new LinkedHashMap<>()), port(2, 5)));
+    }
+
+    @Test
+    public void testFindSharedPort() {
+        // m_1 and m_2 on the same port of X, on different ports of Y
+        Map<String, BridgePort> mactoportX = new LinkedHashMap<>();
+        mactoportX.put("000000000001", port(1, 1));
+        mactoportX.put("000000000002", port(1, 2));
+        mactoportX.put("000000000003", port(1, 2));
+        Map<String, BridgePort> mactoportY = new LinkedHashMap<>();
+        mactoportY.put("000000000001", port(2, 1));
+        mactoportY.put("000000000002", port(2, 1));
+        mactoportY.put("000000000003", port(2, 2));
+
+        assertEquals(port(1, 2), new BridgeMacIndex(mactoportX).findSharedPort(new BridgeMacIndex(mactoportY)));
+        assertEquals(port(2, 1), new BridgeMacIndex(mactoportY).findSharedPort(new BridgeMacIndex(mactoportX)));
+
+        // the common macs are all behind one port of Y
+        mactoportY.put("000000000003", port(2, 1));
+        assertNull(new BridgeMacIndex(mactoportX).findSharedPort(new BridgeMacIndex(mactoportY)));
+    }
+
+    @Test
+    public void testFindSharedPortAsPairwiseSearch() {
+        Random random = new Random(26);
+        for (int round = 0; round < 200; round++) {
+            Map<String, BridgePort> mactoportX = new LinkedHashMap<>();
+            Map<String, BridgePort> mactoportY = new LinkedHashMap<>();
+            for (int i = 0; i < 40; i++) {
+                String mac = MacAddresses.unpack(random.nextInt(60));
+                if (random.nextBoolean()) {
+                    mactoportX.put(mac, port(1, random.nextInt(6)));
+                }
+                if (random.nextBoolean()) {
+                    mactoportY.put(mac, port(2, random.nextInt(6)));
+                }
+            }
+            assertEquals(findSharedPort(mactoportX, mactoportY),
+                       new BridgeMacIndex(mactoportX).findSharedPort(new BridgeMacIndex(mactoportY)));
+        }
+    }
+
+    // the pairwise search, walking the common macs in the order of X
+    private static BridgePort findSharedPort(Map<String, BridgePort> x, Map<String, BridgePort> y) {
+        String[] common = x.keySet().stream().filter(y::containsKey).toArray(String[]::new);
+        for (int i = 0; i < common.length; i++) {
+            for (int j = i + 1; j < common.length; j++) {
+                if (y.get(common[j]).equals(y.get(common[i]))) {
+                    continue;
+                }
+                if (x.get(common[j]).equals(x.get(common[i]))) {
+                    return x.get(common[i]);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static BridgePort port(int nodeId, int bridgePort) {
+        BridgePort bp = new BridgePort();
+        bp.setNodeId(nodeId);
+        bp.setBridgePort(bridgePort);
+        bp.setBridgePortIfIndex(bridgePort);
+        return bp;
+    }
+}
@@ -147,6 +147,12 @@ public class CdpTopologyServiceImpl extends TopologyServiceImpl implements CdpTo
         }.execute();
     }
 
+    @Override
+    public void refresh() {
+        getTopologyEntityCache().refreshNodeTopologyEntities();
+        getTopologyEntityCache().refreshCdpTopologyEntities();
+    }
+
     @Override
     public List<TopologyConnection<CdpLinkTopologyEntity, CdpLinkTopologyEntity>> match() {
 
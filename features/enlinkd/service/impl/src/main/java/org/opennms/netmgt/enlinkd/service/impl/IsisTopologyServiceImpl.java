@@ -169,6 +169,12 @@ public class IsisTopologyServiceImpl extends TopologyServiceImpl implements Isis
         return getTopologyEntityCache().getIsIsElementTopologyEntities();
     }
 
+    @Override
+    public void refresh() {
+        getTopologyEntityCache().refreshNodeTopologyEntities();
+        getTopologyEntityCache().refreshIsIsTopologyEntities();
+    }
+
     @Override
     public List<TopologyConnection<IsIsLinkTopologyEntity, IsIsLinkTopologyEntity>> match() {
         List<IsIsElementTopologyEntity> elements = getTopologyEntityCache().getIsIsElementTopologyEntities();
@@ -170,6 +170,12 @@ public class LldpTopologyServiceImpl extends TopologyServiceImpl implements Lldp
         return getTopologyEntityCache().getLldpElementTopologyEntities();
     }
 
+    @Override
+    public void refresh() {
+        getTopologyEntityCache().refreshNodeTopologyEntities();
+        getTopologyEntityCache().refreshLldpTopologyEntities();
+    }
+
     @Override
     public List<TopologyConnection<LldpLinkTopologyEntity, LldpLinkTopologyEntity>> match() {
 
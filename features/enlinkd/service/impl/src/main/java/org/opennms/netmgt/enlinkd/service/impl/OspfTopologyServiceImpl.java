@@ -228,6 +228,12 @@ public class OspfTopologyServiceImpl extends TopologyServiceImpl implements Ospf
         return getTopologyEntityCache().getOspfAreaTopologyEntities();
     }
 
+    @Override
+    public void refresh() {
+        getTopologyEntityCache().refreshNodeTopologyEntities();
+        getTopologyEntityCache().refreshOspfTopologyEntities();
+    }
+
     @Override
     public List<TopologyConnection<OspfLinkTopologyEntity, OspfLinkTopologyEntity>> match() {
         List<OspfLinkTopologyEntity> allLinks = getTopologyEntityCache().getOspfLinkTopologyEntities();
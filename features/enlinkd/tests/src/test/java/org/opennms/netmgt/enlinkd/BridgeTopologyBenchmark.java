@@ -0,0 +1,163 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.enlinkd;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.netmgt.enlinkd.model.BridgeElement;
+import org.opennms.netmgt.enlinkd.service.api.BridgeForwardingTableEntry;
+import org.opennms.netmgt.enlinkd.service.api.BroadcastDomain;
+import org.opennms.netmgt.enlinkd.service.api.DiscoveryBridgeTopology;
+import org.opennms.netmgt.enlinkd.service.api.MacAddresses;
+import org.opennms.netmgt.enlinkd.service.api.PackedMacMap;
+
+/**
+ * Use the Java Microbenchmarking Harness (JMH) to measure a full rediscovery
+ * of the largest {@link BroadcastDomainTest} topologies: every bridge
+ * forwarding table is added to an empty domain and the topology is calculated.
+ * The grouping benchmarks compare every pair of bridges as
+ * {@link DiscoveryBridgeDomains} does, on mac strings and on packed mac bit sets.
+ * <p>
+ * Run with <code>-prof gc</code> to see the heap allocated per rediscovery.
+ */
+public class BridgeTopologyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState extends EnLinkdTestHelper {
+
+        @Param({"five", "twenty"})
+        public String topology;
+
+        private final Map<Integer, Set<BridgeForwardingTableEntry>> bfts = new LinkedHashMap<>();
+        private List<BridgeElement> elements;
+        private final List<Set<String>> macs = new ArrayList<>();
+        private final List<BitSet> macBits = new ArrayList<>();
+
+        @Setup
+        public void setUp() {
+            if ("five".equals(topology)) {
+                final FiveSwitchTopology five = new FiveSwitchTopology();
+                bfts.put(five.nodeAId, five.bftA);
+                bfts.put(five.nodeBId, five.bftB);
+                bfts.put(five.nodeCId, five.bftC);
+                bfts.put(five.nodeDId, five.bftD);
+                bfts.put(five.nodeEId, five.bftE);
+                elements = five.elemlist;
+            } else {
+                final TwentyNodeTopology twenty = new TwentyNodeTopology();
+                bfts.put(twenty.spiazzofasw01Id, twenty.bftspiazzofasw01);
+                bfts.put(twenty.spiasvigasw01Id, twenty.bftspiasvigasw01);
+                bfts.put(twenty.daremunalv01Id, twenty.bftdaremunalv01);
+                bfts.put(twenty.villpizzasw01Id, twenty.bftvillpizzasw01);
+                bfts.put(twenty.rsaspiazzowl1Id, twenty.bftrsaspiazzowl1);
+                bfts.put(twenty.vigrenmualv01Id, twenty.bftvigrenmualv01);
+                bfts.put(twenty.vigrenmualv02Id, twenty.bftvigrenmualv02);
+                bfts.put(twenty.vrendmunalv02Id, twenty.bftvrendmunalv02);
+                bfts.put(twenty.daremunasw01Id, twenty.bftdaremunasw01);
+                bfts.put(twenty.spiazzomepe01Id, twenty.bftspiazzomepe01);
+                bfts.put(twenty.comunespiazzowl1Id, twenty.bftcomunespiazzowl1);
+                bfts.put(twenty.vrendmunasw01Id, twenty.bftvrendmunasw01);
+                bfts.put(twenty.vigrenmuasw01Id, twenty.bftvigrenmuasw01);
+                bfts.put(twenty.comunevillarendenawl1Id, twenty.bftcomunevillarendenawl1);
+                elements = twenty.elemlist;
+            }
+            final PackedMacMap macOrdinals = new PackedMacMap();
+            bfts.values().forEach(bft -> {
+                final Set<String> nodeMacs = new HashSet<>();
+                final BitSet nodeMacBits = new BitSet();
+                bft.forEach(link -> {
+                    nodeMacs.add(link.getMacAddress());
+                    nodeMacBits.set(macOrdinals.put(MacAddresses.pack(link.getMacAddress()), 0));
+                });
+                macs.add(nodeMacs);
+                macBits.add(nodeMacBits);
+            });
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(4)
+    public BroadcastDomain rediscover(BState state) {
+        final BroadcastDomain domain = new BroadcastDomain();
+        state.bfts.keySet().forEach(nodeId -> DiscoveryBridgeTopology.create(domain, nodeId));
+        state.setBridgeElements(domain, state.elements);
+
+        final DiscoveryBridgeTopology ndbt = new DiscoveryBridgeTopology(domain);
+        state.bfts.forEach((nodeId, bft) -> ndbt.addUpdatedBFT(nodeId, new HashSet<>(bft)));
+        ndbt.calculate();
+        return ndbt.getDomain();
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    public int groupByMacStrings(BState state) {
+        int matches = 0;
+        for (int i = 0; i < state.macs.size(); i++) {
+            for (int j = i + 1; j < state.macs.size(); j++) {
+                if (DiscoveryBridgeDomains.checkMacSets(state.macs.get(i), state.macs.get(j))) {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    public int groupByMacBits(BState state) {
+        int matches = 0;
+        for (int i = 0; i < state.macBits.size(); i++) {
+            for (int j = i + 1; j < state.macBits.size(); j++) {
+                if (DiscoveryBridgeDomains.checkMacSets(state.macBits.get(i), state.macBits.get(j))) {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+}
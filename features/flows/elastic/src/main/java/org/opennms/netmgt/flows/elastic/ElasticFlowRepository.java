@@ -23,18 +23,25 @@ package org.opennms.netmgt.flows.elastic;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.TimerTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.opennms.core.tracing.api.TracerConstants;
 import org.opennms.core.tracing.api.TracerRegistry;
 import org.opennms.distributed.core.api.Identity;
 import org.opennms.features.jest.client.JestClientWithCircuitBreaker;
+import org.opennms.features.jest.client.bulk.AsyncBulkRequest;
 import org.opennms.features.jest.client.bulk.BulkException;
 import org.opennms.features.jest.client.bulk.BulkRequest;
 import org.opennms.features.jest.client.bulk.BulkWrapper;
@@ -46,11 +53,14 @@ import org.opennms.integration.api.v1.flows.FlowRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
 
 import io.opentracing.Scope;
 import io.opentracing.Tracer;
@@ -80,6 +90,18 @@ public class ElasticFlowRepository implements FlowRepository {
      */
     private final Timer logPersistingTimer;
 
+    /**
+     * Flows/second which could not be persisted by asynchronous bulks
+     */
+    private final Meter flowsRejectedMeter;
+
+    /**
+     * Bytes/second sent to Elasticsearch by the bulks
+     */
+    private final Meter bulkBytesMeter;
+
+    private final AtomicInteger bulksInFlight = new AtomicInteger(0);
+
     // An OpenNMS or Sentinel Identity.
     private final Identity identity;
     private final TracerRegistry tracerRegistry;
@@ -89,6 +111,14 @@ public class ElasticFlowRepository implements FlowRepository {
     private int bulkSize = 1000;
     private int bulkRetryCount = 5;
     private int bulkFlushMs = 500;
+    private int bulkMaxInFlight = 0;
+
+    /**
+     * Limits the number of asynchronous bulks. The persisting threads block while all permits are taken, which
+     * applies backpressure to the flow pipeline when Elasticsearch can not keep up.
+     */
+    private volatile Semaphore bulkPermits;
+    private volatile ScheduledExecutorService bulkRetryExecutor;
 
     private class FlowBulk {
         private List<FlowDocument> documents = Lists.newArrayListWithCapacity(ElasticFlowRepository.this.bulkSize);
@@ -119,6 +149,9 @@ public class ElasticFlowRepository implements FlowRepository {
 
         this.flowsPersistedMeter = metricRegistry.meter("flowsPersisted");
         this.logPersistingTimer = metricRegistry.timer("logPersisting");
+        this.flowsRejectedMeter = metricRegistry.meter("flowsRejected");
+        this.bulkBytesMeter = metricRegistry.meter("bulkBytes");
+        metricRegistry.register("bulksInFlight", (Gauge<Integer>) this.bulksInFlight::get);
 
         this.startTimer();
     }
@@ -197,22 +230,17 @@ public class ElasticFlowRepository implements FlowRepository {
     }
 
     private void persistBulk(final List<FlowDocument> bulk) throws FlowException {
+        if (this.bulkMaxInFlight > 0) {
+            this.persistBulkAsync(bulk);
+            return;
+        }
         LOG.debug("Persisting {} flow documents.", bulk.size());
         final Tracer tracer = getTracer();
         try (final Timer.Context ctx = logPersistingTimer.time();
              Scope scope = tracer.buildSpan(TRACER_FLOW_MODULE).startActive(true)) {
             // Add location and source address tags to span.
             scope.span().setTag(TracerConstants.TAG_THREAD, Thread.currentThread().getName());
-            final BulkRequest<FlowDocument> bulkRequest = new BulkRequest<>(client, bulk, (documents) -> {
-                final Bulk.Builder bulkBuilder = new Bulk.Builder();
-                for (FlowDocument flowDocument : documents) {
-                    final String index = indexStrategy.getIndex(indexSettings, INDEX_NAME, Instant.ofEpochMilli(flowDocument.getTimestamp()));
-                    final Index.Builder indexBuilder = new Index.Builder(flowDocument)
-                            .index(index);
-                    bulkBuilder.addAction(indexBuilder.build());
-                }
-                return new BulkWrapper(bulkBuilder);
-            }, bulkRetryCount);
+            final BulkRequest<FlowDocument> bulkRequest = new BulkRequest<>(client, bulk, this::createBulk, bulkRetryCount);
             try {
                 // the bulk request considers retries
                 bulkRequest.execute();
@@ -232,6 +260,92 @@ public class ElasticFlowRepository implements FlowRepository {
         }
     }
 
+    /**
+     * Hands the bulk over to the asynchronous http client, so that the persisting thread does not wait for
+     * Elasticsearch. Failures are logged and counted, as they can not be reported to the caller anymore.
+     */
+    private void persistBulkAsync(final List<FlowDocument> bulk) throws FlowException {
+        if (bulk.isEmpty()) {
+            return;
+        }
+        if (this.bulkRetryExecutor == null) {
+            startAsyncBulks();
+        }
+        final Semaphore permits = this.bulkPermits;
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FlowException("Interrupted while waiting for in-flight bulks.", e);
+        }
+        LOG.debug("Persisting {} flow documents asynchronously.", bulk.size());
+        final List<FlowDocument> documents = new ArrayList<>(bulk);
+        bulk.clear();
+        this.bulksInFlight.incrementAndGet();
+        final Timer.Context ctx = this.logPersistingTimer.time();
+        new AsyncBulkRequest<>(client, documents, this::createBulk, bulkRetryCount, this.bulkRetryExecutor)
+                .execute()
+                .whenComplete((result, ex) -> {
+                    ctx.stop();
+                    this.bulksInFlight.decrementAndGet();
+                    permits.release();
+                    if (ex == null) {
+                        this.flowsPersistedMeter.mark(documents.size());
+                        return;
+                    }
+                    final int rejected = ex instanceof BulkException && ((BulkException) ex).getBulkResult() != null
+                            ? ((BulkException) ex).getBulkResult().getFailedItems().size()
+                            : documents.size();
+                    this.flowsPersistedMeter.mark(documents.size() - rejected);
+                    this.flowsRejectedMeter.mark(rejected);
+                    LOG.error("Failed to persist {} of {} flow documents.", rejected, documents.size(), ex);
+                });
+    }
+
+    private BulkWrapper createBulk(final List<FlowDocument> documents) {
+        final Bulk.Builder bulkBuilder = new Bulk.Builder();
+        for (FlowDocument flowDocument : documents) {
+            final String index = indexStrategy.getIndex(indexSettings, INDEX_NAME, Instant.ofEpochMilli(flowDocument.getTimestamp()));
+            bulkBuilder.addAction(new Index.Builder(flowDocument).index(index).build());
+        }
+        return new BulkWrapper(bulkBuilder) {
+            @Override
+            public String getData(Gson gson) {
+                final String data = super.getData(gson);
+                bulkBytesMeter.mark(data.length());
+                return data;
+            }
+        };
+    }
+
+    private synchronized void startAsyncBulks() {
+        if (this.bulkMaxInFlight <= 0 || this.bulkRetryExecutor != null) {
+            return;
+        }
+        this.bulkPermits = new Semaphore(this.bulkMaxInFlight);
+        this.bulkRetryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("ElasticFlowRepositoryBulkRetry-%d")
+                .build());
+    }
+
+    private synchronized void stopAsyncBulks() {
+        if (this.bulkRetryExecutor == null) {
+            return;
+        }
+        try {
+            // Wait for the in-flight bulks to complete
+            if (this.bulkPermits.tryAcquire(this.bulkMaxInFlight, 1, TimeUnit.MINUTES)) {
+                this.bulkPermits.release(this.bulkMaxInFlight);
+            } else {
+                LOG.warn("{} bulks are still in flight.", this.bulksInFlight.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.bulkRetryExecutor.shutdownNow();
+        this.bulkRetryExecutor = null;
+    }
+
     public Identity getIdentity() {
         return identity;
     }
@@ -245,6 +359,7 @@ public class ElasticFlowRepository implements FlowRepository {
             tracerRegistry.init(identity.getId());
         }
 
+        startAsyncBulks();
         startTimer();
     }
 
@@ -253,6 +368,7 @@ public class ElasticFlowRepository implements FlowRepository {
         for(final FlowBulk flowBulk : flowBulks.values()) {
             persistBulk(flowBulk.documents);
         }
+        stopAsyncBulks();
     }
 
     private Tracer getTracer() {
@@ -278,6 +394,21 @@ public class ElasticFlowRepository implements FlowRepository {
         this.bulkRetryCount = bulkRetryCount;
     }
 
+    public int getBulkMaxInFlight() {
+        return bulkMaxInFlight;
+    }
+
+    /**
+     * @param bulkMaxInFlight the number of bulks which are executed asynchronously at the same time, {@code 0} to
+     *                        execute the bulks on the persisting threads
+     */
+    public void setBulkMaxInFlight(int bulkMaxInFlight) {
+        if (this.bulkRetryExecutor != null) {
+            throw new IllegalStateException("bulkMaxInFlight can not be changed once started");
+        }
+        this.bulkMaxInFlight = bulkMaxInFlight;
+    }
+
     public int getBulkFlushMs() {
         return bulkFlushMs;
     }
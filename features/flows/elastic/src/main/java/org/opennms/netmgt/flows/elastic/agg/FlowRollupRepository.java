@@ -0,0 +1,638 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.flows.elastic.agg;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+import org.opennms.features.jest.client.JestClientWithCircuitBreaker;
+import org.opennms.features.jest.client.bulk.BulkException;
+import org.opennms.features.jest.client.bulk.BulkRequest;
+import org.opennms.features.jest.client.bulk.BulkWrapper;
+import org.opennms.features.jest.client.index.IndexStrategy;
+import org.opennms.features.jest.client.template.IndexSettings;
+import org.opennms.integration.api.v1.flows.Flow;
+import org.opennms.integration.api.v1.flows.FlowException;
+import org.opennms.integration.api.v1.flows.FlowRepository;
+import org.opennms.netmgt.flows.elastic.NodeDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.searchbox.core.Bulk;
+import io.searchbox.core.Index;
+
+/**
+ * Rolls up flows into the aggregate index without requiring an external aggregation job.
+ *
+ * Flows are split proportionally into fixed windows. For every window, exporter, interface and (optionally) DSCP
+ * value the totals are summed up exactly, while the top-K applications, hosts and conversations are tracked by
+ * {@link HeavyHitters} sketches. Windows are flushed to the aggregate index once they are older than the allowed
+ * lateness.
+ *
+ * Memory is bounded: windows are only kept for the allowed lateness, every window tracks at most
+ * {@code maxContexts} exporter interfaces and every sketch at most {@code sketchCapacity} keys. Flows exceeding
+ * these bounds are dropped and counted.
+ */
+public class FlowRollupRepository implements FlowRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowRollupRepository.class);
+
+    private static final String UNKNOWN_APPLICATION_NAME_KEY = "__unknown";
+
+    private final JestClientWithCircuitBreaker client;
+
+    private final IndexStrategy indexStrategy;
+
+    private final IndexSettings indexSettings;
+
+    /**
+     * Flows/second rolled up
+     */
+    private final Meter flowsRolledUpMeter;
+
+    /**
+     * Flows/second which were (at least partially) dropped, because their window was already flushed or the window
+     * exceeded its bounds
+     */
+    private final Meter flowsDroppedMeter;
+
+    /**
+     * Documents/second written to the aggregate index
+     */
+    private final Meter documentsPersistedMeter;
+
+    /**
+     * Documents/second which could not be written to the aggregate index
+     */
+    private final Meter documentsRejectedMeter;
+
+    /**
+     * Time taken to flush the closed windows
+     */
+    private final Timer flushTimer;
+
+    /**
+     * Time in ms between the end of a window and its flush
+     */
+    private final Histogram flushLagHistogram;
+
+    /**
+     * Upper bound of the error of the sketches in parts per million of the traffic of their interface
+     */
+    private final Histogram sketchErrorHistogram;
+
+    private final NavigableMap<Long, Window> windows = new ConcurrentSkipListMap<>();
+
+    /**
+     * All windows ending at or before the watermark have been flushed.
+     */
+    private volatile long watermark = 0;
+
+    /**
+     * Shared while flows are added to the windows and exclusive while the windows are closed, so that a flow can not
+     * re-create a window which has just been flushed.
+     */
+    private final ReadWriteLock windowsLock = new ReentrantReadWriteLock();
+
+    private long windowSizeMs = TimeUnit.MINUTES.toMillis(1);
+    private long allowedLatenessMs = TimeUnit.MINUTES.toMillis(2);
+    private long flushIntervalMs = TimeUnit.SECONDS.toMillis(10);
+    private int topK = 10;
+    private int sketchCapacity = 32;
+    private int maxContexts = 1024;
+    private int bulkSize = 1000;
+    private int bulkRetryCount = 5;
+
+    private ScheduledExecutorService flushExecutor;
+
+    public FlowRollupRepository(final MetricRegistry metricRegistry,
+                                final JestClientWithCircuitBreaker client,
+                                final IndexStrategy indexStrategy,
+                                final IndexSettings indexSettings) {
+        this.client = Objects.requireNonNull(client);
+        this.indexStrategy = Objects.requireNonNull(indexStrategy);
+        this.indexSettings = Objects.requireNonNull(indexSettings);
+
+        this.flowsRolledUpMeter = metricRegistry.meter("rollupFlowsRolledUp");
+        this.flowsDroppedMeter = metricRegistry.meter("rollupFlowsDropped");
+        this.documentsPersistedMeter = metricRegistry.meter("rollupDocumentsPersisted");
+        this.documentsRejectedMeter = metricRegistry.meter("rollupDocumentsRejected");
+        this.flushTimer = metricRegistry.timer("rollupFlush");
+        this.flushLagHistogram = metricRegistry.histogram("rollupFlushLag");
+        this.sketchErrorHistogram = metricRegistry.histogram("rollupSketchError");
+        metricRegistry.register("rollupOpenWindows", (Gauge<Integer>) this.windows::size);
+    }
+
+    @Override
+    public void persist(final Collection<? extends Flow> flows) throws FlowException {
+        final long now = System.currentTimeMillis();
+        this.windowsLock.readLock().lock();
+        try {
+            for (final Flow flow : flows) {
+                if (rollup(flow, now)) {
+                    this.flowsRolledUpMeter.mark();
+                } else {
+                    this.flowsDroppedMeter.mark();
+                }
+            }
+        } finally {
+            this.windowsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the flow to all windows it overlaps with.
+     *
+     * @return {@code false} if the flow or a part of it was dropped
+     */
+    private boolean rollup(final Flow flow, final long now) {
+        if (flow.getExporterNodeInfo() == null || flow.getBytes() == null) {
+            return false;
+        }
+
+        final long end = flow.getLastSwitched() != null ? flow.getLastSwitched().toEpochMilli()
+                : flow.getTimestamp() != null ? flow.getTimestamp().toEpochMilli() : now;
+        final long start = Math.min(end, flow.getDeltaSwitched() != null ? flow.getDeltaSwitched().toEpochMilli()
+                : flow.getFirstSwitched() != null ? flow.getFirstSwitched().toEpochMilli() : end);
+
+        // Scale the bytes by the sampling interval, like the raw queries do
+        final long bytes = flow.getSamplingInterval() != null && flow.getSamplingInterval() > 1.0
+                ? (long) (flow.getBytes() * flow.getSamplingInterval())
+                : flow.getBytes();
+
+        final Sample sample = new Sample(flow);
+
+        boolean complete = true;
+        long remaining = bytes;
+        for (long windowStart = windowStart(start); windowStart <= end; windowStart += this.windowSizeMs) {
+            final long windowEnd = windowStart + this.windowSizeMs;
+
+            // Split the bytes proportionally to the overlap of the flow with the window
+            final long share;
+            if (windowEnd > end) {
+                share = remaining;
+            } else {
+                share = (long) ((double) bytes * (Math.min(end, windowEnd) - Math.max(start, windowStart)) / (end - start));
+            }
+            remaining -= share;
+            if (share <= 0) {
+                continue;
+            }
+
+            if (windowEnd <= this.watermark || windowStart > now + this.windowSizeMs) {
+                // Already flushed or too far in the future
+                complete = false;
+                continue;
+            }
+
+            final Window window = this.windows.computeIfAbsent(windowStart, Window::new);
+            complete &= window.add(sample, share);
+        }
+        return complete;
+    }
+
+    private long windowStart(final long timestamp) {
+        return timestamp - Math.floorMod(timestamp, this.windowSizeMs);
+    }
+
+    /**
+     * Closes all windows which ended before {@code now} minus the allowed lateness and converts them to the
+     * documents of the aggregate index.
+     */
+    List<FlowSummaryDocument> collect(final long now) {
+        final List<FlowSummaryDocument> documents = new ArrayList<>();
+        this.windowsLock.writeLock().lock();
+        try {
+            while (!this.windows.isEmpty()) {
+                final Map.Entry<Long, Window> first = this.windows.firstEntry();
+                final long windowEnd = first.getKey() + this.windowSizeMs;
+                if (windowEnd > now - this.allowedLatenessMs) {
+                    break;
+                }
+                this.watermark = Math.max(this.watermark, windowEnd);
+                this.windows.remove(first.getKey());
+
+                first.getValue().close(documents);
+                this.flushLagHistogram.update(Math.max(0, System.currentTimeMillis() - windowEnd));
+            }
+        } finally {
+            this.windowsLock.writeLock().unlock();
+        }
+        return documents;
+    }
+
+    /**
+     * Flushes all closed windows to the aggregate index.
+     */
+    synchronized void flush(final long now) {
+        try (final Timer.Context ctx = this.flushTimer.time()) {
+            final List<FlowSummaryDocument> documents = collect(now);
+            for (final List<FlowSummaryDocument> bulk : Lists.partition(documents, this.bulkSize)) {
+                persistBulk(bulk);
+            }
+        }
+    }
+
+    private void persistBulk(final List<FlowSummaryDocument> bulk) {
+        final BulkRequest<FlowSummaryDocument> bulkRequest = new BulkRequest<>(this.client, bulk, this::createBulk, this.bulkRetryCount);
+        try {
+            bulkRequest.execute();
+            this.documentsPersistedMeter.mark(bulk.size());
+        } catch (BulkException ex) {
+            final int rejected = ex.getBulkResult() != null ? ex.getBulkResult().getFailedItems().size() : bulk.size();
+            this.documentsPersistedMeter.mark(bulk.size() - rejected);
+            this.documentsRejectedMeter.mark(rejected);
+            LOG.error("Failed to persist {} of {} flow summary documents.", rejected, bulk.size(), ex);
+        } catch (IOException ex) {
+            this.documentsRejectedMeter.mark(bulk.size());
+            LOG.error("An error occurred while executing the given request: {}", ex.getMessage(), ex);
+        }
+    }
+
+    private BulkWrapper createBulk(final List<FlowSummaryDocument> documents) {
+        final Bulk.Builder bulkBuilder = new Bulk.Builder();
+        for (final FlowSummaryDocument document : documents) {
+            final String index = this.indexStrategy.getIndex(this.indexSettings, AggregatedFlowQueryService.INDEX_NAME, Instant.ofEpochMilli(document.getRangeStartMs()));
+            bulkBuilder.addAction(new Index.Builder(document).index(index).build());
+        }
+        return new BulkWrapper(bulkBuilder);
+    }
+
+    public synchronized void start() {
+        if (this.flushExecutor != null) {
+            return;
+        }
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("FlowRollupFlush-%d")
+                .build());
+        this.flushExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                flush(System.currentTimeMillis());
+            } catch (Exception e) {
+                LOG.error("Failed to flush flow rollups.", e);
+            }
+        }, this.flushIntervalMs, this.flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (this.flushExecutor != null) {
+            this.flushExecutor.shutdownNow();
+            this.flushExecutor = null;
+        }
+
+        // Flush everything we have
+        flush(Long.MAX_VALUE);
+    }
+
+    public long getWindowSizeMs() {
+        return this.windowSizeMs;
+    }
+
+    public void setWindowSizeMs(final long windowSizeMs) {
+        if (windowSizeMs <= 0) {
+            throw new IllegalArgumentException("windowSizeMs must be positive");
+        }
+        this.windowSizeMs = windowSizeMs;
+    }
+
+    public long getAllowedLatenessMs() {
+        return this.allowedLatenessMs;
+    }
+
+    public void setAllowedLatenessMs(final long allowedLatenessMs) {
+        this.allowedLatenessMs = allowedLatenessMs;
+    }
+
+    public long getFlushIntervalMs() {
+        return this.flushIntervalMs;
+    }
+
+    public void setFlushIntervalMs(final long flushIntervalMs) {
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    public int getTopK() {
+        return this.topK;
+    }
+
+    public void setTopK(final int topK) {
+        this.topK = topK;
+    }
+
+    public int getSketchCapacity() {
+        return this.sketchCapacity;
+    }
+
+    public void setSketchCapacity(final int sketchCapacity) {
+        this.sketchCapacity = sketchCapacity;
+    }
+
+    public int getMaxContexts() {
+        return this.maxContexts;
+    }
+
+    public void setMaxContexts(final int maxContexts) {
+        this.maxContexts = maxContexts;
+    }
+
+    public int getBulkSize() {
+        return this.bulkSize;
+    }
+
+    public void setBulkSize(final int bulkSize) {
+        this.bulkSize = bulkSize;
+    }
+
+    public int getBulkRetryCount() {
+        return this.bulkRetryCount;
+    }
+
+    public void setBulkRetryCount(final int bulkRetryCount) {
+        this.bulkRetryCount = bulkRetryCount;
+    }
+
+    /**
+     * The values of a flow relevant for the rollups, extracted once for all windows.
+     */
+    private static class Sample {
+        private final NodeDocument exporter;
+        private final Flow.Direction direction;
+        private final Integer inputSnmp;
+        private final Integer outputSnmp;
+        private final int dscp;
+        private final boolean congestionEncountered;
+        private final boolean nonEcnCapableTransport;
+        private final String application;
+        private final String srcAddr;
+        private final String srcAddrHostname;
+        private final String dstAddr;
+        private final String dstAddrHostname;
+        private final String convoKey;
+
+        private Sample(final Flow flow) {
+            this.exporter = new NodeDocument();
+            this.exporter.setNodeId(flow.getExporterNodeInfo().getNodeId());
+            this.exporter.setForeignSource(flow.getExporterNodeInfo().getForeignSource());
+            this.exporter.setForeignId(flow.getExporterNodeInfo().getForeignId());
+
+            this.direction = flow.getDirection();
+            this.inputSnmp = flow.getInputSnmp();
+            this.outputSnmp = flow.getOutputSnmp();
+            this.dscp = flow.getDscp() != null ? flow.getDscp() : 0;
+            this.congestionEncountered = flow.getEcn() != null && flow.getEcn() == 3;
+            this.nonEcnCapableTransport = flow.getEcn() != null && flow.getEcn() == 0;
+            this.application = flow.getApplication() != null ? flow.getApplication() : UNKNOWN_APPLICATION_NAME_KEY;
+            this.srcAddr = flow.getSrcAddr();
+            this.srcAddrHostname = flow.getSrcAddrHostname() != null ? flow.getSrcAddrHostname().orElse(null) : null;
+            this.dstAddr = flow.getDstAddr();
+            this.dstAddrHostname = flow.getDstAddrHostname() != null ? flow.getDstAddrHostname().orElse(null) : null;
+            this.convoKey = flow.getConvoKey();
+        }
+    }
+
+    /**
+     * An exporter interface, optionally narrowed down to a DSCP value.
+     */
+    private static class Context {
+        private final NodeDocument exporter;
+        private final int ifIndex;
+        private final Integer dscp;
+
+        private Context(final NodeDocument exporter, final int ifIndex, final Integer dscp) {
+            this.exporter = exporter;
+            this.ifIndex = ifIndex;
+            this.dscp = dscp;
+        }
+
+        private String getKey() {
+            final StringBuilder key = new StringBuilder();
+            if (this.exporter.getForeignSource() != null && this.exporter.getForeignId() != null) {
+                key.append(this.exporter.getForeignSource()).append(':').append(this.exporter.getForeignId());
+            } else {
+                key.append(this.exporter.getNodeId());
+            }
+            key.append('-').append(this.ifIndex);
+            if (this.dscp != null) {
+                key.append('-').append(this.dscp);
+            }
+            return key.toString();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Context that = (Context) o;
+            return this.ifIndex == that.ifIndex &&
+                    Objects.equals(this.exporter.getNodeId(), that.exporter.getNodeId()) &&
+                    Objects.equals(this.dscp, that.dscp);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.exporter.getNodeId(), this.ifIndex, this.dscp);
+        }
+    }
+
+    /**
+     * The rollups of a context within a window.
+     */
+    private class Rollup {
+        private long bytesIn = 0;
+        private long bytesOut = 0;
+        private boolean congestionEncountered = false;
+        private boolean nonEcnCapableTransport = false;
+
+        private final HeavyHitters<String> applications = new HeavyHitters<>(sketchCapacity);
+        private final HeavyHitters<String> hosts = new HeavyHitters<>(sketchCapacity);
+        private final HeavyHitters<String> conversations = new HeavyHitters<>(sketchCapacity);
+
+        private void add(final Sample sample, final long bytesIn, final long bytesOut) {
+            this.bytesIn += bytesIn;
+            this.bytesOut += bytesOut;
+            this.congestionEncountered |= sample.congestionEncountered;
+            this.nonEcnCapableTransport |= sample.nonEcnCapableTransport;
+
+            this.applications.add(sample.application, null, bytesIn, bytesOut, sample.congestionEncountered, sample.nonEcnCapableTransport);
+            if (sample.srcAddr != null) {
+                this.hosts.add(sample.srcAddr, sample.srcAddrHostname, bytesIn, bytesOut, sample.congestionEncountered, sample.nonEcnCapableTransport);
+            }
+            if (sample.dstAddr != null && !sample.dstAddr.equals(sample.srcAddr)) {
+                this.hosts.add(sample.dstAddr, sample.dstAddrHostname, bytesIn, bytesOut, sample.congestionEncountered, sample.nonEcnCapableTransport);
+            }
+            if (sample.convoKey != null) {
+                this.conversations.add(sample.convoKey, null, bytesIn, bytesOut, sample.congestionEncountered, sample.nonEcnCapableTransport);
+            }
+        }
+    }
+
+    private class Window {
+        private final long start;
+        private final Map<Context, Rollup> rollups = Maps.newHashMap();
+        private boolean closed = false;
+
+        private Window(final long start) {
+            this.start = start;
+        }
+
+        /**
+         * @return {@code false} if the sample could not be added to all of its contexts
+         */
+        private synchronized boolean add(final Sample sample, final long bytes) {
+            if (this.closed) {
+                return false;
+            }
+
+            boolean complete = true;
+            final boolean unknown = sample.direction != Flow.Direction.INGRESS && sample.direction != Flow.Direction.EGRESS;
+            // Flows with an unknown direction count as ingress for the input and as egress for the output interface
+            if (sample.direction == Flow.Direction.INGRESS || unknown) {
+                complete &= add(sample, sample.inputSnmp, bytes, 0);
+            }
+            if (sample.direction == Flow.Direction.EGRESS || unknown) {
+                complete &= add(sample, sample.outputSnmp, 0, bytes);
+            }
+            return complete;
+        }
+
+        private boolean add(final Sample sample, final Integer ifIndex, final long bytesIn, final long bytesOut) {
+            if (ifIndex == null) {
+                return true;
+            }
+            final Rollup rollup = getRollup(new Context(sample.exporter, ifIndex, null));
+            final Rollup tosRollup = getRollup(new Context(sample.exporter, ifIndex, sample.dscp));
+            if (rollup != null) {
+                rollup.add(sample, bytesIn, bytesOut);
+            }
+            if (tosRollup != null) {
+                tosRollup.add(sample, bytesIn, bytesOut);
+            }
+            return rollup != null && tosRollup != null;
+        }
+
+        private Rollup getRollup(final Context context) {
+            Rollup rollup = this.rollups.get(context);
+            if (rollup == null && this.rollups.size() < maxContexts) {
+                rollup = new Rollup();
+                this.rollups.put(context, rollup);
+            }
+            return rollup;
+        }
+
+        private synchronized void close(final List<FlowSummaryDocument> documents) {
+            this.closed = true;
+
+            final long end = this.start + windowSizeMs;
+            for (final Map.Entry<Context, Rollup> e : this.rollups.entrySet()) {
+                final Context context = e.getKey();
+                final Rollup rollup = e.getValue();
+                final boolean tos = context.dscp != null;
+
+                final FlowSummaryDocument total = document(context, end);
+                total.setGroupedBy(tos ? GroupedBy.EXPORTER_INTERFACE_TOS : GroupedBy.EXPORTER_INTERFACE);
+                total.setAggregationType(FlowSummaryDocument.AGGREGATION_TYPE_TOTAL);
+                total.setGroupedByKey(context.getKey());
+                total.setBytesIngress(rollup.bytesIn);
+                total.setBytesEgress(rollup.bytesOut);
+                total.setBytesTotal(rollup.bytesIn + rollup.bytesOut);
+                total.setCongestionEncountered(rollup.congestionEncountered);
+                total.setNonEcnCapableTransport(rollup.nonEcnCapableTransport);
+                documents.add(total);
+
+                topK(documents, context, end, rollup.applications,
+                        tos ? GroupedBy.EXPORTER_INTERFACE_TOS_APPLICATION : GroupedBy.EXPORTER_INTERFACE_APPLICATION,
+                        (doc, entry) -> doc.setApplication(entry.getKey()));
+                topK(documents, context, end, rollup.hosts,
+                        tos ? GroupedBy.EXPORTER_INTERFACE_TOS_HOST : GroupedBy.EXPORTER_INTERFACE_HOST,
+                        (doc, entry) -> {
+                            doc.setHostAddress(entry.getKey());
+                            doc.setHostName(entry.getName());
+                        });
+                topK(documents, context, end, rollup.conversations,
+                        tos ? GroupedBy.EXPORTER_INTERFACE_TOS_CONVERSATION : GroupedBy.EXPORTER_INTERFACE_CONVERSATION,
+                        (doc, entry) -> doc.setConversationKey(entry.getKey()));
+            }
+            this.rollups.clear();
+        }
+
+        private void topK(final List<FlowSummaryDocument> documents, final Context context, final long end,
+                          final HeavyHitters<String> sketch, final GroupedBy groupedBy,
+                          final BiConsumer<FlowSummaryDocument, HeavyHitters.Entry<String>> keySetter) {
+            if (sketch.getTotal() > 0) {
+                sketchErrorHistogram.update(sketch.getErrorBound() * 1_000_000L / sketch.getTotal());
+            }
+
+            int ranking = 0;
+            for (final HeavyHitters.Entry<String> entry : sketch.top(topK)) {
+                final FlowSummaryDocument document = document(context, end);
+                document.setGroupedBy(groupedBy);
+                document.setAggregationType(FlowSummaryDocument.AGGREGATION_TYPE_TOPK);
+                document.setGroupedByKey(context.getKey() + '-' + entry.getKey());
+                document.setRanking(ranking++);
+                document.setBytesIngress(entry.getBytesIn());
+                document.setBytesEgress(entry.getBytesOut());
+                document.setBytesTotal(entry.getBytesIn() + entry.getBytesOut());
+                document.setCongestionEncountered(entry.isCongestionEncountered());
+                document.setNonEcnCapableTransport(entry.isNonEcnCapableTransport());
+                keySetter.accept(document, entry);
+                documents.add(document);
+            }
+        }
+
+        private FlowSummaryDocument document(final Context context, final long end) {
+            final FlowSummaryDocument document = new FlowSummaryDocument();
+            document.setTimestamp(end);
+            document.setRangeStartMs(this.start);
+            document.setRangeEndMs(end);
+            document.setExporter(context.exporter);
+            document.setIfIndex(context.ifIndex);
+            document.setDscp(context.dscp);
+            return document;
+        }
+    }
+}
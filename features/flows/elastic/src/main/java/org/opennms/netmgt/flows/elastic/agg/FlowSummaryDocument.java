@@ -0,0 +1,243 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.flows.elastic.agg;
+
+import org.opennms.netmgt.flows.elastic.NodeDocument;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Document of the aggregate index as read by the {@link AggregatedFlowQueryService}.
+ */
+public class FlowSummaryDocument {
+    public static final String AGGREGATION_TYPE_TOTAL = "TOTAL";
+    public static final String AGGREGATION_TYPE_TOPK = "TOPK";
+
+    @SerializedName("@timestamp")
+    private long timestamp;
+
+    @SerializedName("range_start")
+    private long rangeStartMs;
+
+    @SerializedName("range_end")
+    private long rangeEndMs;
+
+    @SerializedName("ranking")
+    private int ranking;
+
+    @SerializedName("grouped_by")
+    private GroupedBy groupedBy;
+
+    @SerializedName("grouped_by_key")
+    private String groupedByKey;
+
+    @SerializedName("aggregation_type")
+    private String aggregationType;
+
+    @SerializedName("bytes_ingress")
+    private long bytesIngress;
+
+    @SerializedName("bytes_egress")
+    private long bytesEgress;
+
+    @SerializedName("bytes_total")
+    private long bytesTotal;
+
+    @SerializedName("exporter")
+    private NodeDocument exporter;
+
+    @SerializedName("if_index")
+    private Integer ifIndex;
+
+    @SerializedName("dscp")
+    private Integer dscp;
+
+    @SerializedName("application")
+    private String application;
+
+    @SerializedName("host_address")
+    private String hostAddress;
+
+    @SerializedName("host_name")
+    private String hostName;
+
+    @SerializedName("conversation_key")
+    private String conversationKey;
+
+    @SerializedName("congestion_encountered")
+    private boolean congestionEncountered;
+
+    @SerializedName("non_ect")
+    private boolean nonEcnCapableTransport;
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public long getRangeStartMs() {
+        return rangeStartMs;
+    }
+
+    public void setRangeStartMs(long rangeStartMs) {
+        this.rangeStartMs = rangeStartMs;
+    }
+
+    public long getRangeEndMs() {
+        return rangeEndMs;
+    }
+
+    public void setRangeEndMs(long rangeEndMs) {
+        this.rangeEndMs = rangeEndMs;
+    }
+
+    public int getRanking() {
+        return ranking;
+    }
+
+    public void setRanking(int ranking) {
+        this.ranking = ranking;
+    }
+
+    public GroupedBy getGroupedBy() {
+        return groupedBy;
+    }
+
+    public void setGroupedBy(GroupedBy groupedBy) {
+        this.groupedBy = groupedBy;
+    }
+
+    public String getGroupedByKey() {
+        return groupedByKey;
+    }
+
+    public void setGroupedByKey(String groupedByKey) {
+        this.groupedByKey = groupedByKey;
+    }
+
+    public String getAggregationType() {
+        return aggregationType;
+    }
+
+    public void setAggregationType(String aggregationType) {
+        this.aggregationType = aggregationType;
+    }
+
+    public long getBytesIngress() {
+        return bytesIngress;
+    }
+
+    public void setBytesIngress(long bytesIngress) {
+        this.bytesIngress = bytesIngress;
+    }
+
+    public long getBytesEgress() {
+        return bytesEgress;
+    }
+
+    public void setBytesEgress(long bytesEgress) {
+        this.bytesEgress = bytesEgress;
+    }
+
+    public long getBytesTotal() {
+        return bytesTotal;
+    }
+
+    public void setBytesTotal(long bytesTotal) {
+        this.bytesTotal = bytesTotal;
+    }
+
+    public NodeDocument getExporter() {
+        return exporter;
+    }
+
+    public void setExporter(NodeDocument exporter) {
+        this.exporter = exporter;
+    }
+
+    public Integer getIfIndex() {
+        return ifIndex;
+    }
+
+    public void setIfIndex(Integer ifIndex) {
+        this.ifIndex = ifIndex;
+    }
+
+    public Integer getDscp() {
+        return dscp;
+    }
+
+    public void setDscp(Integer dscp) {
+        this.dscp = dscp;
+    }
+
+    public String getApplication() {
+        return application;
+    }
+
+    public void setApplication(String application) {
+        this.application = application;
+    }
+
+    public String getHostAddress() {
+        return hostAddress;
+    }
+
+    public void setHostAddress(String hostAddress) {
+        this.hostAddress = hostAddress;
+    }
+
+    public String getHostName() {
+        return hostName;
+    }
+
+    public void setHostName(String hostName) {
+        this.hostName = hostName;
+    }
+
+    public String getConversationKey() {
+        return conversationKey;
+    }
+
+    public void setConversationKey(String conversationKey) {
+        this.conversationKey = conversationKey;
+    }
+
+    public boolean isCongestionEncountered() {
+        return congestionEncountered;
+    }
+
+    public void setCongestionEncountered(boolean congestionEncountered) {
+        this.congestionEncountered = congestionEncountered;
+    }
+
+    public boolean isNonEcnCapableTransport() {
+        return nonEcnCapableTransport;
+    }
+
+    public void setNonEcnCapableTransport(boolean nonEcnCapableTransport) {
+        this.nonEcnCapableTransport = nonEcnCapableTransport;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.flows.elastic.agg;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Weighted Space-Saving sketch used to track the top-K keys by traffic volume in constant memory.
+ *
+ * At most {@code capacity} keys are tracked. When a new key arrives while the sketch is full, the key with the
+ * smallest count is evicted and its count is inherited as the error of the new key. The count of every tracked key
+ * therefore overestimates its real volume by at most {@link #getErrorBound()}, while the bytes recorded for the key
+ * are a lower bound of its real volume.
+ *
+ * The sketch is not thread-safe.
+ *
+ * @param <K> type of the tracked keys
+ */
+public class HeavyHitters<K> {
+
+    public static class Entry<K> {
+        private final K key;
+        private final long error;
+        private String name;
+        private long bytesIn;
+        private long bytesOut;
+        private boolean congestionEncountered;
+        private boolean nonEcnCapableTransport;
+        private int index;
+
+        private Entry(final K key, final long error, final int index) {
+            this.key = key;
+            this.error = error;
+            this.index = index;
+        }
+
+        public K getKey() {
+            return this.key;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public long getBytesIn() {
+            return this.bytesIn;
+        }
+
+        public long getBytesOut() {
+            return this.bytesOut;
+        }
+
+        public boolean isCongestionEncountered() {
+            return this.congestionEncountered;
+        }
+
+        public boolean isNonEcnCapableTransport() {
+            return this.nonEcnCapableTransport;
+        }
+
+        /**
+         * @return the maximum number of bytes attributed to other keys before this key was tracked
+         */
+        public long getError() {
+            return this.error;
+        }
+
+        /**
+         * @return the estimated volume of the key, which is an upper bound of its real volume
+         */
+        public long getCount() {
+            return this.error + this.bytesIn + this.bytesOut;
+        }
+    }
+
+    private final int capacity;
+    private final Map<K, Entry<K>> entries;
+
+    /**
+     * Binary min-heap of the entries ordered by their count, used to find the entry to evict.
+     */
+    private final List<Entry<K>> heap;
+
+    private long total = 0;
+    private long evictions = 0;
+
+    public HeavyHitters(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.entries = Maps.newHashMapWithExpectedSize(capacity);
+        this.heap = new ArrayList<>(capacity);
+    }
+
+    public void add(final K key, final String name, final long bytesIn, final long bytesOut, final boolean congestionEncountered, final boolean nonEcnCapableTransport) {
+        Objects.requireNonNull(key);
+        Entry<K> entry = this.entries.get(key);
+        boolean appended = false;
+        if (entry == null) {
+            if (this.heap.size() < this.capacity) {
+                entry = new Entry<>(key, 0, this.heap.size());
+                this.heap.add(entry);
+                appended = true;
+            } else {
+                final Entry<K> evicted = this.heap.get(0);
+                this.entries.remove(evicted.key);
+                this.evictions++;
+
+                entry = new Entry<>(key, evicted.getCount(), 0);
+                this.heap.set(0, entry);
+            }
+            this.entries.put(key, entry);
+        }
+
+        if (name != null) {
+            entry.name = name;
+        }
+        entry.bytesIn += bytesIn;
+        entry.bytesOut += bytesOut;
+        entry.congestionEncountered |= congestionEncountered;
+        entry.nonEcnCapableTransport |= nonEcnCapableTransport;
+        this.total += bytesIn + bytesOut;
+
+        if (appended) {
+            // A new entry starts at the last leaf and may be smaller than its parents
+            siftUp(entry.index);
+        } else {
+            // Counts only grow, so a tracked entry can only move down in the heap
+            siftDown(entry.index);
+        }
+    }
+
+    /**
+     * @return the {@code k} entries with the highest estimated volume, highest first
+     */
+    public List<Entry<K>> top(final int k) {
+        final List<Entry<K>> top = new ArrayList<>(this.heap);
+        top.sort(Comparator.<Entry<K>>comparingLong(Entry::getCount).reversed()
+                .thenComparing(e -> Objects.toString(e.key)));
+        return top.size() > k ? top.subList(0, k) : top;
+    }
+
+    /**
+     * @return the maximum overestimation of the count of any tracked key, {@code 0} if the counts are exact
+     */
+    public long getErrorBound() {
+        return this.evictions > 0 ? this.heap.get(0).getCount() : 0;
+    }
+
+    /**
+     * @return the total number of bytes added to the sketch
+     */
+    public long getTotal() {
+        return this.total;
+    }
+
+    public long getEvictions() {
+        return this.evictions;
+    }
+
+    public int size() {
+        return this.heap.size();
+    }
+
+    private void siftUp(int index) {
+        final Entry<K> entry = this.heap.get(index);
+        while (index > 0) {
+            final int parent = (index - 1) / 2;
+            final Entry<K> larger = this.heap.get(parent);
+            if (larger.getCount() <= entry.getCount()) {
+                break;
+            }
+            this.heap.set(index, larger);
+            larger.index = index;
+            index = parent;
+        }
+        this.heap.set(index, entry);
+        entry.index = index;
+    }
+
+    private void siftDown(int index) {
+        final int size = this.heap.size();
+        final Entry<K> entry = this.heap.get(index);
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && this.heap.get(child + 1).getCount() < this.heap.get(child).getCount()) {
+                child++;
+            }
+            final Entry<K> smallest = this.heap.get(child);
+            if (entry.getCount() <= smallest.getCount()) {
+                break;
+            }
+            this.heap.set(index, smallest);
+            smallest.index = index;
+            index = child;
+        }
+        this.heap.set(index, entry);
+        entry.index = index;
+    }
+}
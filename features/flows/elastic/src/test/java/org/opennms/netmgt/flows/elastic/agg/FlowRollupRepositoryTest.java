@@ -0,0 +1,236 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.flows.elastic.agg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.features.jest.client.JestClientWithCircuitBreaker;
+import org.opennms.features.jest.client.index.IndexStrategy;
+import org.opennms.features.jest.client.template.IndexSettings;
+import org.opennms.integration.api.v1.flows.Flow.Direction;
+import org.opennms.netmgt.flows.processing.enrichment.EnrichedFlow;
+import org.opennms.netmgt.flows.processing.enrichment.NodeInfo;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class FlowRollupRepositoryTest {
+
+    private static final long WINDOW_SIZE_MS = 60_000;
+
+    private MetricRegistry metricRegistry;
+    private FlowRollupRepository repository;
+
+    @Before
+    public void setUp() {
+        this.metricRegistry = new MetricRegistry();
+        this.repository = new FlowRollupRepository(this.metricRegistry, mock(JestClientWithCircuitBreaker.class),
+                IndexStrategy.MONTHLY, new IndexSettings());
+        this.repository.setWindowSizeMs(WINDOW_SIZE_MS);
+        this.repository.setAllowedLatenessMs(0);
+        this.repository.setTopK(2);
+    }
+
+    @Test
+    public void rollsUpFlowsIntoWindows() throws Exception {
+        final long now = System.currentTimeMillis();
+        final long start = now - now % WINDOW_SIZE_MS - 3 * WINDOW_SIZE_MS;
+
+        this.repository.persist(Arrays.asList(
+                flow(start, start + WINDOW_SIZE_MS / 2, 100, Direction.INGRESS, "http", "10.0.0.1", "10.0.0.2"),
+                flow(start, start + WINDOW_SIZE_MS / 2, 50, Direction.INGRESS, "https", "10.0.0.1", "10.0.0.3"),
+                flow(start, start + WINDOW_SIZE_MS / 2, 10, Direction.INGRESS, null, "10.0.0.4", "10.0.0.5"),
+                flow(start, start + WINDOW_SIZE_MS / 2, 30, Direction.EGRESS, "http", "10.0.0.2", "10.0.0.1")));
+
+        // Nothing is closed yet
+        assertThat(this.repository.collect(start + WINDOW_SIZE_MS - 1), empty());
+
+        final List<FlowSummaryDocument> documents = this.repository.collect(now);
+
+        final List<FlowSummaryDocument> totals = select(documents, GroupedBy.EXPORTER_INTERFACE);
+        assertThat(totals, hasSize(2));
+        final FlowSummaryDocument input = totals.stream().filter(d -> d.getIfIndex() == 1).findFirst().get();
+        assertEquals(160L, input.getBytesIngress());
+        assertEquals(0L, input.getBytesEgress());
+        assertEquals(start, input.getRangeStartMs());
+        assertEquals(start + WINDOW_SIZE_MS, input.getRangeEndMs());
+        assertEquals(FlowSummaryDocument.AGGREGATION_TYPE_TOTAL, input.getAggregationType());
+        assertEquals(Integer.valueOf(1), input.getExporter().getNodeId());
+
+        final List<FlowSummaryDocument> applications = select(documents, GroupedBy.EXPORTER_INTERFACE_APPLICATION).stream()
+                .filter(d -> d.getIfIndex() == 1)
+                .collect(Collectors.toList());
+        assertThat(applications, hasSize(2));
+        assertEquals("http", applications.get(0).getApplication());
+        assertEquals(0, applications.get(0).getRanking());
+        assertEquals(100L, applications.get(0).getBytesIngress());
+        assertEquals("https", applications.get(1).getApplication());
+        assertEquals(1, applications.get(1).getRanking());
+
+        final List<FlowSummaryDocument> hosts = select(documents, GroupedBy.EXPORTER_INTERFACE_HOST).stream()
+                .filter(d -> d.getIfIndex() == 1)
+                .collect(Collectors.toList());
+        assertEquals("10.0.0.1", hosts.get(0).getHostAddress());
+        assertEquals(150L, hosts.get(0).getBytesIngress());
+
+        final List<FlowSummaryDocument> tos = select(documents, GroupedBy.EXPORTER_INTERFACE_TOS);
+        assertThat(tos, hasSize(2));
+        assertEquals(Integer.valueOf(0), tos.get(0).getDscp());
+
+        // Closed windows are gone and late flows are dropped
+        assertThat(this.repository.collect(now), empty());
+        this.repository.persist(Arrays.asList(
+                flow(start, start + WINDOW_SIZE_MS / 2, 100, Direction.INGRESS, "http", "10.0.0.1", "10.0.0.2")));
+        assertEquals(1L, this.metricRegistry.meter("rollupFlowsDropped").getCount());
+        assertEquals(4L, this.metricRegistry.meter("rollupFlowsRolledUp").getCount());
+    }
+
+    @Test
+    public void splitsFlowsProportionally() throws Exception {
+        final long now = System.currentTimeMillis();
+        final long start = now - now % WINDOW_SIZE_MS - 3 * WINDOW_SIZE_MS;
+
+        // Three quarters of the flow are in the first, one quarter in the second window
+        this.repository.persist(Arrays.asList(
+                flow(start + WINDOW_SIZE_MS / 4, start + WINDOW_SIZE_MS + WINDOW_SIZE_MS / 4, 1000, Direction.UNKNOWN, "http", "10.0.0.1", "10.0.0.2")));
+
+        final List<FlowSummaryDocument> totals = select(this.repository.collect(now), GroupedBy.EXPORTER_INTERFACE);
+
+        // Unknown directions count as ingress on the input and as egress on the output interface
+        assertThat(totals, hasSize(4));
+        assertEquals(750L, totals.stream()
+                .filter(d -> d.getRangeStartMs() == start && d.getIfIndex() == 1)
+                .mapToLong(FlowSummaryDocument::getBytesIngress).sum());
+        assertEquals(250L, totals.stream()
+                .filter(d -> d.getRangeStartMs() == start + WINDOW_SIZE_MS && d.getIfIndex() == 1)
+                .mapToLong(FlowSummaryDocument::getBytesIngress).sum());
+        assertEquals(1000L, totals.stream()
+                .filter(d -> d.getIfIndex() == 2)
+                .mapToLong(FlowSummaryDocument::getBytesEgress).sum());
+    }
+
+    @Test
+    public void boundsContextsPerWindow() throws Exception {
+        final long now = System.currentTimeMillis();
+        final long start = now - now % WINDOW_SIZE_MS - 3 * WINDOW_SIZE_MS;
+        this.repository.setMaxContexts(2);
+
+        final EnrichedFlow other = flow(start, start + 1000, 100, Direction.INGRESS, "http", "10.0.0.1", "10.0.0.2");
+        other.setInputSnmp(3);
+        this.repository.persist(Arrays.asList(
+                flow(start, start + 1000, 100, Direction.INGRESS, "http", "10.0.0.1", "10.0.0.2"),
+                other));
+
+        assertEquals(1L, this.metricRegistry.meter("rollupFlowsDropped").getCount());
+        assertThat(select(this.repository.collect(now), GroupedBy.EXPORTER_INTERFACE), hasSize(1));
+    }
+
+    @Test
+    public void flushesEveryWindowOnceWhileFlowsArrive() throws Exception {
+        final long now = System.currentTimeMillis();
+        final int windowCount = 50;
+        final long start = now - now % WINDOW_SIZE_MS - windowCount * WINDOW_SIZE_MS;
+
+        final List<FlowSummaryDocument> documents = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger flushed = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> producers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                producers.add(executor.submit(() -> {
+                    // Always hit the window which is about to be flushed
+                    int window;
+                    while ((window = flushed.get()) < windowCount) {
+                        final long windowStart = start + window * WINDOW_SIZE_MS;
+                        this.repository.persist(Arrays.asList(
+                                flow(windowStart, windowStart + 1000, 10, Direction.INGRESS, "http", "10.0.0.1", "10.0.0.2")));
+                    }
+                    return null;
+                }));
+            }
+            for (int window = 0; window < windowCount; window++) {
+                Thread.sleep(2);
+                documents.addAll(this.repository.collect(start + (window + 1) * WINDOW_SIZE_MS));
+                flushed.incrementAndGet();
+            }
+            for (final Future<?> producer : producers) {
+                producer.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        documents.addAll(this.repository.collect(now));
+
+        final List<FlowSummaryDocument> totals = select(documents, GroupedBy.EXPORTER_INTERFACE);
+        // A window flushed more than once would show up as a second document for the same range
+        assertEquals(totals.size(), totals.stream().map(FlowSummaryDocument::getRangeStartMs).distinct().count());
+        assertEquals(this.metricRegistry.meter("rollupFlowsRolledUp").getCount() * 10,
+                totals.stream().mapToLong(FlowSummaryDocument::getBytesIngress).sum());
+    }
+
+    private static List<FlowSummaryDocument> select(final List<FlowSummaryDocument> documents, final GroupedBy groupedBy) {
+        return documents.stream()
+                .filter(d -> d.getGroupedBy() == groupedBy)
+                .collect(Collectors.toList());
+    }
+
+    private static EnrichedFlow flow(final long start, final long end, final long bytes, final Direction direction,
+                                     final String application, final String srcAddr, final String dstAddr) {
+        final EnrichedFlow flow = new EnrichedFlow();
+        flow.setDeltaSwitched(Instant.ofEpochMilli(start));
+        flow.setFirstSwitched(Instant.ofEpochMilli(start));
+        flow.setLastSwitched(Instant.ofEpochMilli(end));
+        flow.setTimestamp(Instant.ofEpochMilli(end));
+        flow.setBytes(bytes);
+        flow.setDirection(direction);
+        flow.setInputSnmp(1);
+        flow.setOutputSnmp(2);
+        flow.setApplication(application);
+        flow.setSrcAddr(srcAddr);
+        flow.setDstAddr(dstAddr);
+        flow.setLocation("Default");
+        flow.setProtocol(6);
+        flow.setExporterNodeInfo(new NodeInfo() {{
+            this.setNodeId(1);
+            this.setForeignSource("SomeRequisition");
+            this.setForeignId("1");
+        }});
+        return flow;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.flows.elastic.agg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class HeavyHittersTest {
+
+    @Test
+    public void countsAreExactWithinCapacity() {
+        final HeavyHitters<String> sketch = new HeavyHitters<>(3);
+        sketch.add("a", null, 10, 5, false, false);
+        sketch.add("b", "host-b", 100, 0, true, false);
+        sketch.add("c", null, 0, 1, false, true);
+        sketch.add("a", null, 10, 0, false, false);
+
+        final List<HeavyHitters.Entry<String>> top = sketch.top(2);
+        assertThat(top.stream().map(HeavyHitters.Entry::getKey).collect(Collectors.toList()), contains("b", "a"));
+        assertEquals(100L, top.get(0).getBytesIn());
+        assertEquals("host-b", top.get(0).getName());
+        assertEquals(true, top.get(0).isCongestionEncountered());
+        assertEquals(20L, top.get(1).getBytesIn());
+        assertEquals(5L, top.get(1).getBytesOut());
+        assertEquals(0L, sketch.getErrorBound());
+        assertEquals(126L, sketch.getTotal());
+    }
+
+    @Test
+    public void evictsTheSmallestKeyAfterHeavyKeyWasAddedFirst() {
+        final HeavyHitters<String> sketch = new HeavyHitters<>(2);
+        sketch.add("big", null, 1000, 0, false, false);
+        sketch.add("small", null, 1, 0, false, false);
+        sketch.add("new", null, 1, 0, false, false);
+
+        final List<HeavyHitters.Entry<String>> top = sketch.top(2);
+        assertThat(top.stream().map(HeavyHitters.Entry::getKey).collect(Collectors.toList()), contains("big", "new"));
+        assertEquals(1000L, top.get(0).getCount());
+        assertEquals(0L, top.get(0).getError());
+        assertEquals(2L, top.get(1).getCount());
+        assertEquals(1L, top.get(1).getError());
+        assertEquals(2L, sketch.getErrorBound());
+        assertEquals(1L, sketch.getEvictions());
+    }
+
+    @Test
+    public void findsHeavyHittersInLongTail() {
+        final HeavyHitters<String> sketch = new HeavyHitters<>(32);
+        final Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            // A few heavy keys hidden in a long tail of light ones
+            if (i % 10 == 0) {
+                sketch.add("heavy-" + (i / 10) % 5, null, 1000, 0, false, false);
+            } else {
+                sketch.add("light-" + random.nextInt(10_000), null, 0, 10, false, false);
+            }
+        }
+
+        final List<String> top = sketch.top(5).stream().map(HeavyHitters.Entry::getKey).sorted().collect(Collectors.toList());
+        assertThat(top, contains("heavy-0", "heavy-1", "heavy-2", "heavy-3", "heavy-4"));
+        assertThat(sketch.getEvictions(), greaterThan(0L));
+        assertEquals(32, sketch.size());
+
+        for (final HeavyHitters.Entry<String> entry : sketch.top(5)) {
+            // Every heavy key is seen 2000 times with 1000 bytes
+            assertThat(entry.getBytesIn(), lessThanOrEqualTo(2_000_000L));
+            assertThat(entry.getCount(), greaterThan(2_000_000L - 1));
+            assertThat(entry.getError(), lessThanOrEqualTo(sketch.getErrorBound()));
+        }
+    }
+}
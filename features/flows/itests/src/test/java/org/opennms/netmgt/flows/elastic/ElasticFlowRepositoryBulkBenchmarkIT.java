@@ -0,0 +1,190 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.flows.elastic;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.matching;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.features.jest.client.JestClientWithCircuitBreaker;
+import org.opennms.features.jest.client.index.IndexStrategy;
+import org.opennms.features.jest.client.template.IndexSettings;
+import org.opennms.netmgt.dao.mock.AbstractMockDao;
+import org.opennms.netmgt.flows.processing.enrichment.EnrichedFlow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.common.collect.Lists;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestClientFactory;
+import io.searchbox.client.config.HttpClientConfig;
+
+/**
+ * Compares persisting flows on the persisting threads with the asynchronous bulks against a local http server
+ * which answers every bulk with a fixed delay.
+ */
+public class ElasticFlowRepositoryBulkBenchmarkIT {
+    private static final Logger LOG = LoggerFactory.getLogger(ElasticFlowRepositoryBulkBenchmarkIT.class);
+
+    private static final String SUCCESS_RESPONSE = "{\"took\":1,\"errors\":false,\"items\":[]}";
+
+    private static final String PARTIAL_ERROR_RESPONSE = "{\"took\":1,\"errors\":true,\"items\":["
+            + "{\"index\":{\"_index\":\"netflow-2017-11\",\"_type\":\"_doc\",\"_id\":\"1\",\"status\":201}},"
+            + "{\"index\":{\"_index\":\"netflow-2017-11\",\"_type\":\"_doc\",\"_id\":\"2\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected execution\"}}}]}";
+
+    private static final int THREADS = 4;
+    private static final int BULKS_PER_THREAD = 25;
+    private static final int BULK_SIZE = 100;
+    private static final int RESPONSE_DELAY_MS = 50;
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(WireMockConfiguration.options().dynamicPort());
+
+    @Test(timeout = 120000)
+    public void benchmarkSynchronousBulks() throws Exception {
+        benchmark(0);
+    }
+
+    @Test(timeout = 120000)
+    public void benchmarkAsynchronousBulks() throws Exception {
+        benchmark(8);
+    }
+
+    @Test(timeout = 60000)
+    public void verifyOnlyFailedItemsAreRetried() throws Exception {
+        stubFor(post("/_bulk").inScenario("retry").whenScenarioStateIs(STARTED)
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody(PARTIAL_ERROR_RESPONSE))
+                .willSetStateTo("retried"));
+        stubFor(post("/_bulk").inScenario("retry").whenScenarioStateIs("retried")
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody(SUCCESS_RESPONSE)));
+
+        try (JestClient client = createClient()) {
+            final MetricRegistry metrics = new MetricRegistry();
+            final ElasticFlowRepository repository = createRepository(client, metrics, 2, 1);
+            repository.start();
+            repository.persist(Lists.newArrayList(EnrichedFlow.from(FlowDocumentTest.getMockFlow()),
+                    EnrichedFlow.from(FlowDocumentTest.getMockFlow())));
+
+            await().atMost(30, TimeUnit.SECONDS).until(() -> metrics.meter("flowsPersisted").getCount(), equalTo(2L));
+            repository.stop();
+
+            // The first request contains both documents, the retry only the failed one
+            verify(2, postRequestedFor(urlEqualTo("/_bulk")));
+            verify(1, postRequestedFor(urlEqualTo("/_bulk")).withRequestBody(matching("(?s)([^\\n]*\\n){4}")));
+            verify(1, postRequestedFor(urlEqualTo("/_bulk")).withRequestBody(matching("(?s)([^\\n]*\\n){2}")));
+            assertEquals(0L, metrics.meter("flowsRejected").getCount());
+        }
+    }
+
+    private void benchmark(int bulkMaxInFlight) throws Exception {
+        stubFor(post("/_bulk")
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withFixedDelay(RESPONSE_DELAY_MS)
+                        .withBody(SUCCESS_RESPONSE)));
+
+        try (JestClient client = createClient()) {
+            final MetricRegistry metrics = new MetricRegistry();
+            final ElasticFlowRepository repository = createRepository(client, metrics, BULK_SIZE, bulkMaxInFlight);
+            repository.start();
+
+            final List<EnrichedFlow> flows = Lists.newArrayListWithCapacity(BULK_SIZE);
+            for (int i = 0; i < BULK_SIZE; i++) {
+                flows.add(EnrichedFlow.from(FlowDocumentTest.getMockFlow()));
+            }
+
+            final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            final long start = System.nanoTime();
+            for (int thread = 0; thread < THREADS; thread++) {
+                executor.execute(() -> {
+                    try {
+                        for (int bulk = 0; bulk < BULKS_PER_THREAD; bulk++) {
+                            repository.persist(flows);
+                        }
+                    } catch (Exception e) {
+                        LOG.error("Persisting flows failed.", e);
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            final long submitted = System.nanoTime() - start;
+            final long expected = (long) THREADS * BULKS_PER_THREAD * BULK_SIZE;
+            await().atMost(1, TimeUnit.MINUTES).until(() -> metrics.meter("flowsPersisted").getCount(), equalTo(expected));
+            final long persisted = System.nanoTime() - start;
+            repository.stop();
+
+            LOG.info("bulkMaxInFlight={}: {} flows submitted after {} ms, persisted after {} ms ({} flows/s, {} bytes sent).",
+                    bulkMaxInFlight, expected, TimeUnit.NANOSECONDS.toMillis(submitted), TimeUnit.NANOSECONDS.toMillis(persisted),
+                    expected * TimeUnit.SECONDS.toNanos(1) / persisted, metrics.meter("bulkBytes").getCount());
+            assertEquals(0L, metrics.meter("flowsRejected").getCount());
+        }
+    }
+
+    private JestClient createClient() {
+        final JestClientFactory factory = new JestClientFactory();
+        factory.setHttpClientConfig(new HttpClientConfig.Builder("http://localhost:" + wireMockRule.port())
+                .multiThreaded(true)
+                .defaultMaxTotalConnectionPerRoute(THREADS * 2)
+                .maxTotalConnection(THREADS * 2)
+                .build());
+        return factory.getObject();
+    }
+
+    private static ElasticFlowRepository createRepository(JestClient client, MetricRegistry metrics, int bulkSize, int bulkMaxInFlight) {
+        final JestClientWithCircuitBreaker jestClientWithCircuitBreaker = new JestClientWithCircuitBreaker(client,
+                CircuitBreakerRegistry.of(CircuitBreakerConfig.custom().build()).circuitBreaker(ElasticFlowRepositoryBulkBenchmarkIT.class.getName()));
+        jestClientWithCircuitBreaker.setEventForwarder(new AbstractMockDao.NullEventForwarder());
+        final ElasticFlowRepository repository = new ElasticFlowRepository(metrics, jestClientWithCircuitBreaker,
+                IndexStrategy.MONTHLY, new MockIdentity(), new MockTracerRegistry(), new IndexSettings(), bulkSize, 0);
+        repository.setBulkMaxInFlight(bulkMaxInFlight);
+        return repository;
+    }
+}
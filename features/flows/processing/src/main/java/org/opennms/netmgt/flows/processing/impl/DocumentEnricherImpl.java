@@ -23,11 +23,14 @@ package org.opennms.netmgt.flows.processing.impl;
 
 import java.net.InetAddress;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -46,6 +49,7 @@ import org.opennms.netmgt.flows.api.Flow;
 import org.opennms.netmgt.flows.api.FlowSource;
 import org.opennms.netmgt.flows.classification.ClassificationEngine;
 import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.IpAddr;
 import org.opennms.netmgt.flows.classification.persistence.api.Protocols;
 import org.opennms.netmgt.flows.processing.enrichment.EnrichedFlow;
 import org.opennms.netmgt.flows.processing.enrichment.NodeInfo;
@@ -59,6 +63,7 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.base.Strings;
 import com.google.common.cache.CacheLoader;
+import com.google.common.collect.Lists;
 
 public class DocumentEnricherImpl {
     private static final Logger LOG = LoggerFactory.getLogger(DocumentEnricherImpl.class);
@@ -87,6 +92,8 @@ public class DocumentEnricherImpl {
 
     private final DocumentMangler mangler;
 
+    private int parallelChunkSize = 0;
+
     public DocumentEnricherImpl(final MetricRegistry metricRegistry,
                                 final NodeDao nodeDao,
                                 final IpInterfaceDao ipInterfaceDao,
@@ -107,7 +114,7 @@ public class DocumentEnricherImpl {
                 .withCacheLoader(new CacheLoader<InterfaceToNodeCache.Entry, Optional<NodeInfo>>() {
                     @Override
                     public Optional<NodeInfo> load(InterfaceToNodeCache.Entry entry) {
-                        return getNodeInfo(entry);
+                        return sessionUtils.withTransaction(() -> getNodeInfo(entry));
                     }
                 }).build();
 
@@ -117,7 +124,7 @@ public class DocumentEnricherImpl {
                .withCacheLoader(new CacheLoader<NodeMetadataKey, Optional<NodeInfo>>() {
                    @Override
                    public Optional<NodeInfo> load(NodeMetadataKey key) {
-                       return getNodeInfoFromMetadataContext(key.contextKey, key.value);
+                       return sessionUtils.withTransaction(() -> getNodeInfoFromMetadataContext(key.contextKey, key.value));
                    }
                }).build();
 
@@ -134,73 +141,84 @@ public class DocumentEnricherImpl {
             return Collections.emptyList();
         }
 
-        return sessionUtils.withTransaction(() -> flows.stream().flatMap(flow -> {
-            final EnrichedFlow document = this.mangler.mangle(EnrichedFlow.from(flow));
-            if (document == null) {
-                return Stream.empty();
-            }
+        final BatchCache cache = new BatchCache(source);
+        if (this.parallelChunkSize > 0 && flows.size() > this.parallelChunkSize) {
+            final List<Flow> list = flows instanceof List ? (List<Flow>) flows : new ArrayList<>(flows);
+            return Lists.partition(list, this.parallelChunkSize).parallelStream()
+                    .flatMap(chunk -> chunk.stream().flatMap(flow -> enrich(flow, source, cache)))
+                    .collect(Collectors.toList());
+        }
 
-            // Metadata from message
-            document.setHost(source.getSourceAddress());
-            document.setLocation(source.getLocation());
+        return flows.stream()
+                .flatMap(flow -> enrich(flow, source, cache))
+                .collect(Collectors.toList());
+    }
 
-            // Node data
-            getNodeInfoFromCache(source.getLocation(), source.getSourceAddress(), source.getContextKey(), flow.getNodeIdentifier()).ifPresent(document::setExporterNodeInfo);
-            if (flow.getDstAddr() != null) {
-                getNodeInfoFromCache(source.getLocation(), flow.getDstAddr(), null, null).ifPresent(document::setSrcNodeInfo);
-            }
-            if (flow.getSrcAddr() != null) {
-                getNodeInfoFromCache(source.getLocation(), flow.getSrcAddr(), null, null).ifPresent(document::setDstNodeInfo);
-            }
+    private Stream<EnrichedFlow> enrich(final Flow flow, final FlowSource source, final BatchCache cache) {
+        final EnrichedFlow document = this.mangler.mangle(EnrichedFlow.from(flow));
+        if (document == null) {
+            return Stream.empty();
+        }
 
-            // Locality
-            if (flow.getSrcAddr() != null) {
-                document.setSrcLocality(isPrivateAddress(flow.getSrcAddr()) ? EnrichedFlow.Locality.PRIVATE : EnrichedFlow.Locality.PUBLIC);
-            }
-            if (flow.getDstAddr() != null) {
-                document.setDstLocality(isPrivateAddress(flow.getDstAddr()) ? EnrichedFlow.Locality.PRIVATE : EnrichedFlow.Locality.PUBLIC);
-            }
+        // Metadata from message
+        document.setHost(source.getSourceAddress());
+        document.setLocation(source.getLocation());
 
-            if (EnrichedFlow.Locality.PUBLIC.equals(document.getDstLocality()) || EnrichedFlow.Locality.PUBLIC.equals(document.getSrcLocality())) {
-                document.setFlowLocality(EnrichedFlow.Locality.PUBLIC);
-            } else if (EnrichedFlow.Locality.PRIVATE.equals(document.getDstLocality()) || EnrichedFlow.Locality.PRIVATE.equals(document.getSrcLocality())) {
-                document.setFlowLocality(EnrichedFlow.Locality.PRIVATE);
-            }
+        // Node data
+        cache.getExporterNodeInfo(flow.getNodeIdentifier()).ifPresent(document::setExporterNodeInfo);
+        if (flow.getDstAddr() != null) {
+            cache.getNodeInfo(flow.getDstAddr()).ifPresent(document::setSrcNodeInfo);
+        }
+        if (flow.getSrcAddr() != null) {
+            cache.getNodeInfo(flow.getSrcAddr()).ifPresent(document::setDstNodeInfo);
+        }
 
-            final ClassificationRequest classificationRequest = createClassificationRequest(document);
+        // Locality
+        if (flow.getSrcAddr() != null) {
+            document.setSrcLocality(cache.isPrivateAddress(flow.getSrcAddr()) ? EnrichedFlow.Locality.PRIVATE : EnrichedFlow.Locality.PUBLIC);
+        }
+        if (flow.getDstAddr() != null) {
+            document.setDstLocality(cache.isPrivateAddress(flow.getDstAddr()) ? EnrichedFlow.Locality.PRIVATE : EnrichedFlow.Locality.PUBLIC);
+        }
 
-            // Check whether classification is possible
-            if (classificationRequest.isClassifiable()) {
-                // Apply Application mapping
-                document.setApplication(classificationEngine.classify(classificationRequest));
-            }
+        if (EnrichedFlow.Locality.PUBLIC.equals(document.getDstLocality()) || EnrichedFlow.Locality.PUBLIC.equals(document.getSrcLocality())) {
+            document.setFlowLocality(EnrichedFlow.Locality.PUBLIC);
+        } else if (EnrichedFlow.Locality.PRIVATE.equals(document.getDstLocality()) || EnrichedFlow.Locality.PRIVATE.equals(document.getSrcLocality())) {
+            document.setFlowLocality(EnrichedFlow.Locality.PRIVATE);
+        }
 
-            // Fix skewed clock
-            // If received time and export time differ to much, correct all timestamps by the difference
-            if (this.clockSkewCorrectionThreshold > 0) {
-                final var skew = Duration.between(flow.getReceivedAt(), flow.getTimestamp());
-                if (skew.abs().toMillis() >= this.clockSkewCorrectionThreshold) {
-                    // The applied correction is the negative skew
-                    document.setClockCorrection(skew.negated());
-
-                    // Fix the skew on all timestamps of the flow
-                    document.setTimestamp(flow.getTimestamp().minus(skew));
-                    document.setFirstSwitched(flow.getFirstSwitched().minus(skew));
-                    document.setDeltaSwitched(flow.getDeltaSwitched().minus(skew));
-                    document.setLastSwitched(flow.getLastSwitched().minus(skew));
-                }
+        final ClassificationRequest classificationRequest = cache.createClassificationRequest(document);
+
+        // Check whether classification is possible
+        if (classificationRequest.isClassifiable()) {
+            // Apply Application mapping
+            document.setApplication(cache.classify(classificationRequest));
+        }
+
+        // Fix skewed clock
+        // If received time and export time differ to much, correct all timestamps by the difference
+        if (this.clockSkewCorrectionThreshold > 0) {
+            final var skew = Duration.between(flow.getReceivedAt(), flow.getTimestamp());
+            if (skew.abs().toMillis() >= this.clockSkewCorrectionThreshold) {
+                // The applied correction is the negative skew
+                document.setClockCorrection(skew.negated());
+
+                // Fix the skew on all timestamps of the flow
+                document.setTimestamp(flow.getTimestamp().minus(skew));
+                document.setFirstSwitched(flow.getFirstSwitched().minus(skew));
+                document.setDeltaSwitched(flow.getDeltaSwitched().minus(skew));
+                document.setLastSwitched(flow.getLastSwitched().minus(skew));
             }
+        }
 
-            return Stream.of(document);
-        }).collect(Collectors.toList()));
+        return Stream.of(document);
     }
 
-    private static boolean isPrivateAddress(String ipAddress) {
-        final InetAddress inetAddress = InetAddressUtils.addr(ipAddress);
+    private static boolean isPrivateAddress(final InetAddress inetAddress) {
         return inetAddress.isLoopbackAddress() || inetAddress.isLinkLocalAddress() || inetAddress.isSiteLocalAddress();
     }
 
-    private Optional<NodeInfo> getNodeInfoFromCache(final String location, final String ipAddress, final ContextKey contextKey, final String value) {
+    private Optional<NodeInfo> getNodeInfoFromCache(final String location, final InetAddress ipAddress, final ContextKey contextKey, final String value) {
         Optional<NodeInfo> nodeDocument = Optional.empty();
         if (contextKey != null && !Strings.isNullOrEmpty(value)) {
             final NodeMetadataKey metadataKey = new NodeMetadataKey(contextKey, value);
@@ -215,7 +233,7 @@ public class DocumentEnricherImpl {
             }
         }
 
-        final var entry = this.interfaceToNodeCache.getFirst(location, InetAddressUtils.addr(ipAddress));
+        final var entry = this.interfaceToNodeCache.getFirst(location, ipAddress);
         if(entry.isPresent()) {
             try {
                 return this.nodeInfoCache.get(entry.get());
@@ -315,6 +333,91 @@ public class DocumentEnricherImpl {
         return request;
     }
 
+    public int getParallelChunkSize() {
+        return this.parallelChunkSize;
+    }
+
+    /**
+     * @param parallelChunkSize batches larger than this are split into chunks of this size which are enriched in
+     *                          parallel, {@code 0} to always enrich sequentially
+     */
+    public void setParallelChunkSize(final int parallelChunkSize) {
+        this.parallelChunkSize = parallelChunkSize;
+    }
+
+    /**
+     * Memoizes parsed addresses, node lookups and classifications for the duration of a single batch, as most flows
+     * of a batch share the same exporter and a small set of endpoints.
+     */
+    private class BatchCache {
+        private final FlowSource source;
+
+        private final Map<String, InetAddress> addresses = new ConcurrentHashMap<>();
+        private final Map<String, IpAddr> ipAddrs = new ConcurrentHashMap<>();
+        private final Map<String, Optional<NodeInfo>> exporterNodeInfos = new ConcurrentHashMap<>();
+        private final Map<String, Optional<NodeInfo>> nodeInfos = new ConcurrentHashMap<>();
+        private final Map<ClassificationRequest, Optional<String>> applications = new ConcurrentHashMap<>();
+
+        private volatile Optional<NodeInfo> exporterNodeInfo;
+
+        private BatchCache(final FlowSource source) {
+            this.source = Objects.requireNonNull(source);
+        }
+
+        private InetAddress address(final String address) {
+            if (address == null) {
+                return null;
+            }
+            return this.addresses.computeIfAbsent(address, InetAddressUtils::addr);
+        }
+
+        private IpAddr ipAddr(final String address) {
+            if (address == null) {
+                return null;
+            }
+            return this.ipAddrs.computeIfAbsent(address, a -> IpAddr.of(address(a)));
+        }
+
+        private boolean isPrivateAddress(final String address) {
+            return DocumentEnricherImpl.isPrivateAddress(address(address));
+        }
+
+        private Optional<NodeInfo> getExporterNodeInfo(final String nodeIdentifier) {
+            if (this.source.getContextKey() == null || Strings.isNullOrEmpty(nodeIdentifier)) {
+                // Only depends on the source, which is the same for the whole batch
+                Optional<NodeInfo> exporterNodeInfo = this.exporterNodeInfo;
+                if (exporterNodeInfo == null) {
+                    exporterNodeInfo = getNodeInfoFromCache(this.source.getLocation(), address(this.source.getSourceAddress()), null, null);
+                    this.exporterNodeInfo = exporterNodeInfo;
+                }
+                return exporterNodeInfo;
+            }
+            return this.exporterNodeInfos.computeIfAbsent(nodeIdentifier,
+                    value -> getNodeInfoFromCache(this.source.getLocation(), address(this.source.getSourceAddress()), this.source.getContextKey(), value));
+        }
+
+        private Optional<NodeInfo> getNodeInfo(final String address) {
+            return this.nodeInfos.computeIfAbsent(address,
+                    a -> getNodeInfoFromCache(this.source.getLocation(), address(a), null, null));
+        }
+
+        private ClassificationRequest createClassificationRequest(final EnrichedFlow document) {
+            final ClassificationRequest request = new ClassificationRequest();
+            request.setProtocol(Protocols.getProtocol(document.getProtocol()));
+            request.setLocation(document.getLocation());
+            request.setExporterAddress(document.getHost());
+            request.setDstAddress(ipAddr(document.getDstAddr()));
+            request.setDstPort(document.getDstPort());
+            request.setSrcAddress(ipAddr(document.getSrcAddr()));
+            request.setSrcPort(document.getSrcPort());
+            return request;
+        }
+
+        private String classify(final ClassificationRequest request) {
+            return this.applications.computeIfAbsent(request, r -> Optional.ofNullable(classificationEngine.classify(r))).orElse(null);
+        }
+    }
+
     private CacheConfig buildMetadataCacheConfig(CacheConfig cacheConfig) {
         // Use existing config for the nodes with a new name for node metadata cache.
         final CacheConfig metadataCacheConfig = new CacheConfigBuilder()
@@ -0,0 +1,115 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.flows.processing.enrichment;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.flows.api.Flow;
+import org.opennms.netmgt.flows.api.FlowSource;
+import org.opennms.netmgt.flows.processing.FlowBuilder;
+import org.opennms.netmgt.flows.processing.impl.DocumentEnricherImpl;
+import org.opennms.netmgt.model.OnmsNode;
+
+/**
+ * Use the Java Microbenchmarking Harness (JMH) to measure enrichment performance.
+ * <p>
+ * A batch of flows as sent by a single exporter is enriched. Like in real batches, most flows share a small set of
+ * hot endpoints, some of which are known nodes.
+ */
+public class DocumentEnricherBenchmark {
+
+    // the number of flows that are enriched in a single benchmark method call
+    // -> the reported number of operations per second must be multiplied by this number to get
+    //    the number of flows per second (per core, as the benchmark runs in a single thread when not
+    //    enriching in parallel)
+    private static final int BATCH_SIZE = 1000;
+
+    private static final int ENDPOINTS = 32;
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"0", "250"})
+        public int parallelChunkSize;
+
+        private DocumentEnricherImpl enricher;
+        private List<Flow> flows;
+        private FlowSource source;
+
+        @Setup
+        public void setup() throws InterruptedException {
+            final MockDocumentEnricherFactory factory = new MockDocumentEnricherFactory();
+            for (int i = 1; i <= ENDPOINTS / 2; i++) {
+                factory.getInterfaceToNodeCache().setNodeId("Default", InetAddressUtils.addr("10.0.0." + i), i);
+                final OnmsNode node = new OnmsNode();
+                node.setId(i);
+                node.setForeignSource("my-requisition");
+                node.setForeignId(Integer.toString(i));
+                factory.getNodeDao().save(node);
+            }
+
+            enricher = factory.getEnricher();
+            enricher.setParallelChunkSize(parallelChunkSize);
+            source = new FlowSource("Default", "127.0.0.1", null);
+
+            final Random random = new Random(123456L);
+            final Instant now = Instant.now();
+            final FlowBuilder builder = new FlowBuilder().withSnmpInterfaceId(1);
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                builder.withFlow(now.minusSeconds(10), now,
+                        "10.0.0." + (1 + random.nextInt(ENDPOINTS)), 1024 + random.nextInt(60000),
+                        "10.0.1." + (1 + random.nextInt(ENDPOINTS)), random.nextBoolean() ? 80 : 443,
+                        1500);
+            }
+            flows = builder.build();
+
+            // Fill the node caches
+            enricher.enrich(flows, source);
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(1)
+    public void enrich(BState state, Blackhole blackhole) {
+        blackhole.consume(state.enricher.enrich(state.flows, state.source));
+    }
+}
@@ -89,6 +89,44 @@ public class DocumentEnricherTest {
         Assert.assertEquals(6, nodeDaoGetCounter.get());
     }
 
+    @Test
+    public void verifyParallelEnrichment() throws InterruptedException {
+        final MockDocumentEnricherFactory factory = new MockDocumentEnricherFactory();
+        final DocumentEnricherImpl enricher = factory.getEnricher();
+        final InterfaceToNodeCache interfaceToNodeCache = factory.getInterfaceToNodeCache();
+
+        interfaceToNodeCache.setNodeId("Default", InetAddressUtils.addr("10.0.0.1"), 1);
+        interfaceToNodeCache.setNodeId("Default", InetAddressUtils.addr("10.0.0.2"), 2);
+        factory.getNodeDao().save(createOnmsNode(1, "my-requisition"));
+        factory.getNodeDao().save(createOnmsNode(2, "my-requisition"));
+
+        final List<Flow> flows = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            flows.add(i % 2 == 0
+                    ? createFlowDocument("10.0.0.1", "10.0.0.2")
+                    : createFlowDocument("192.168.0." + i, "8.8.8.8"));
+        }
+
+        final List<EnrichedFlow> sequential = enricher.enrich(flows, new FlowSource("Default", "127.0.0.1", null));
+        enricher.setParallelChunkSize(7);
+        final List<EnrichedFlow> parallel = enricher.enrich(flows, new FlowSource("Default", "127.0.0.1", null));
+
+        Assert.assertEquals(flows.size(), parallel.size());
+        for (int i = 0; i < flows.size(); i++) {
+            // Order is preserved
+            Assert.assertEquals(flows.get(i).getSrcAddr(), parallel.get(i).getSrcAddr());
+            Assert.assertEquals(sequential.get(i).getApplication(), parallel.get(i).getApplication());
+            Assert.assertEquals(sequential.get(i).getFlowLocality(), parallel.get(i).getFlowLocality());
+            Assert.assertEquals(sequential.get(i).getSrcNodeInfo() != null, parallel.get(i).getSrcNodeInfo() != null);
+        }
+        Assert.assertEquals("http", parallel.get(0).getApplication());
+        Assert.assertEquals(EnrichedFlow.Locality.PRIVATE, parallel.get(0).getFlowLocality());
+        Assert.assertEquals(EnrichedFlow.Locality.PUBLIC, parallel.get(1).getFlowLocality());
+        Assert.assertNotNull(parallel.get(0).getSrcNodeInfo());
+        Assert.assertNotNull(parallel.get(0).getDstNodeInfo());
+        Assert.assertNull(parallel.get(0).getExporterNodeInfo());
+    }
+
     private static Flow createFlowDocument(String sourceIp, String destIp) {
         return createFlowDocument(sourceIp, destIp, 0);
     }
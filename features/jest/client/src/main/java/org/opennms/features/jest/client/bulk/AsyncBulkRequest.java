@@ -0,0 +1,155 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.jest.client.bulk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.opennms.features.jest.client.JestClientWithCircuitBreaker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.BulkResult;
+
+/**
+ * Asynchronous variant of the {@link BulkRequest}.
+ *
+ * The bulk is executed by the asynchronous http client. If only some documents failed, only these are retried.
+ * Retries are scheduled on the given executor using the same back off as the {@link BulkRequest}, so that the
+ * calling thread is never blocked.
+ */
+public class AsyncBulkRequest<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncBulkRequest.class);
+    private final JestClientWithCircuitBreaker client;
+    private final List<T> documents;
+    private final Function<List<T>, BulkWrapper> transformer;
+    private final int retryCount;
+    private final ScheduledExecutorService retryExecutor;
+    private final CompletableFuture<BulkResultWrapper> future = new CompletableFuture<>();
+    private int retries = 0;
+    private BulkWrapper bulkAction;
+
+    public AsyncBulkRequest(final JestClientWithCircuitBreaker client, final List<T> documents, final Function<List<T>, BulkWrapper> documentToBulkTransformer, int retryCount, final ScheduledExecutorService retryExecutor) {
+        this.client = Objects.requireNonNull(client);
+        this.transformer = Objects.requireNonNull(documentToBulkTransformer);
+        this.documents = new ArrayList<>(Objects.requireNonNull(documents));
+        this.retryCount = retryCount;
+        this.retryExecutor = Objects.requireNonNull(retryExecutor);
+    }
+
+    /**
+     * @return a future which completes when all documents were persisted or which fails with a {@link BulkException}
+     * when no retries are left.
+     */
+    public CompletableFuture<BulkResultWrapper> execute() {
+        executeRequest();
+        return future;
+    }
+
+    private void executeRequest() {
+        try {
+            // Create a new (smaller) bulk action if less than all documents failed
+            if (bulkAction == null || bulkAction.size() != documents.size()) {
+                bulkAction = transformer.apply(documents);
+            }
+            // Do not send an empty bulk, as this would raise an exception
+            if (bulkAction.isEmpty()) {
+                future.complete(new EmptyResult());
+                return;
+            }
+            client.executeAsync(bulkAction, new JestResultHandler<BulkResult>() {
+                @Override
+                public void completed(BulkResult result) {
+                    handleResult(new DefaultBulkResult<>(result, documents));
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    handleFailure(ex instanceof IOException ? (IOException) ex : new IOException(ex));
+                }
+            });
+        } catch (RuntimeException ex) {
+            future.completeExceptionally(ex);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handleResult(BulkResultWrapper bulkResultWrapper) {
+        if (bulkResultWrapper.isSucceeded()) {
+            future.complete(bulkResultWrapper);
+            return;
+        }
+        final List<T> failedDocuments = bulkResultWrapper.getFailedDocuments();
+        logError(bulkResultWrapper.getErrorMessage());
+
+        // bail if retry is not possible
+        if (!canRetry()) {
+            future.completeExceptionally(new BulkException(bulkResultWrapper));
+            return;
+        }
+
+        // Update documents if only some failed
+        if (!failedDocuments.isEmpty() && failedDocuments.size() != documents.size()) {
+            documents.clear();
+            documents.addAll(failedDocuments);
+        }
+        retry();
+    }
+
+    private void handleFailure(IOException ex) {
+        // Probably ConnectionTimeout, log and bail if no retries are left
+        logError(ex.getMessage());
+        if (!canRetry()) {
+            future.completeExceptionally(new BulkException(ex));
+            return;
+        }
+        retry();
+    }
+
+    private void retry() {
+        retries++;
+        final long sleepTime = BulkRequest.getSleepTime(retries);
+        LOG.info("Retrying in {} ms ...", sleepTime);
+        try {
+            retryExecutor.schedule(this::executeRequest, sleepTime, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException ex) {
+            // The executor was shut down
+            future.completeExceptionally(ex);
+        }
+    }
+
+    private boolean canRetry() {
+        return retries < retryCount - 1;
+    }
+
+    private static void logError(String errorMessage) {
+        LOG.info("An error occurred while executing the bulk request: {}.", errorMessage);
+    }
+}
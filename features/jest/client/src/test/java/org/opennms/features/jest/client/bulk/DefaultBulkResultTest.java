@@ -0,0 +1,134 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.jest.client.bulk;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.opennms.features.jest.client.JestClientWithCircuitBreaker;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.Index;
+
+public class DefaultBulkResultTest {
+
+    private static final String ERROR = "{\"type\":\"mapper_parsing_exception\",\"reason\":\"failed to parse [timestamp]\"}";
+
+    private static final List<String> DOCUMENTS = Arrays.asList("doc-0", "doc-1", "doc-2", "doc-3");
+
+    @Test
+    public void verifyFailedItemsOfPartiallyFailedBulk() {
+        final DefaultBulkResult<String> result = new DefaultBulkResult<>(bulkResult(DOCUMENTS.size(), 1, 3), DOCUMENTS);
+
+        assertThat(result.isSucceeded(), is(false));
+        final List<FailedItem<String>> failedItems = result.getFailedItems();
+        assertThat(failedItems.size(), is(2));
+        assertThat(failedItems.get(0).getIndex(), is(1));
+        assertThat(failedItems.get(0).getItem(), is("doc-1"));
+        assertThat(failedItems.get(0).getCause().getMessage(), is("mapper_parsing_exception: failed to parse [timestamp]"));
+        assertThat(failedItems.get(1).getIndex(), is(3));
+        assertThat(failedItems.get(1).getItem(), is("doc-3"));
+        assertThat(result.getFailedDocuments(), contains("doc-1", "doc-3"));
+    }
+
+    @Test
+    public void verifyOnlyFailedDocumentsAreRetried() throws Exception {
+        // The first bulk fails for the second and the last document, the retry succeeds
+        final List<BulkResult> results = new ArrayList<>(Arrays.asList(bulkResult(DOCUMENTS.size(), 1, 3), bulkResult(2)));
+        final JestClientWithCircuitBreaker client = mock(JestClientWithCircuitBreaker.class);
+        doAnswer(invocation -> {
+            final JestResultHandler<BulkResult> handler = invocation.getArgument(1);
+            handler.completed(results.remove(0));
+            return null;
+        }).when(client).executeAsync(any(), any());
+
+        // Run the retries right away
+        final ScheduledExecutorService retryExecutor = mock(ScheduledExecutorService.class);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(retryExecutor).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+
+        final List<List<String>> bulks = new ArrayList<>();
+        final AsyncBulkRequest<String> request = new AsyncBulkRequest<>(client, DOCUMENTS, documents -> {
+            bulks.add(new ArrayList<>(documents));
+            final Bulk.Builder builder = new Bulk.Builder();
+            for (String document : documents) {
+                builder.addAction(new Index.Builder(document).index("flows").build());
+            }
+            return new BulkWrapper(builder);
+        }, 5, retryExecutor);
+
+        final BulkResultWrapper result = request.execute().get(10, TimeUnit.SECONDS);
+        assertThat(result.isSucceeded(), is(true));
+        assertThat(bulks.size(), is(2));
+        assertThat(bulks.get(0), is(DOCUMENTS));
+        assertThat(bulks.get(1), contains("doc-1", "doc-3"));
+    }
+
+    /**
+     * Creates the result of a bulk with the given number of documents in which the documents at the given indices failed.
+     */
+    private static BulkResult bulkResult(int size, int... failed) {
+        final StringBuilder json = new StringBuilder("{\"took\":5,\"errors\":").append(failed.length > 0).append(",\"items\":[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            final int item = i;
+            json.append("{\"index\":{\"_index\":\"flows\",\"_id\":\"").append(i).append('"');
+            if (Arrays.stream(failed).anyMatch(index -> index == item)) {
+                json.append(",\"status\":400,\"error\":").append(ERROR);
+            } else {
+                json.append(",\"status\":201");
+            }
+            json.append("}}");
+        }
+        json.append("]}");
+
+        final BulkResult result = new BulkResult(new Gson());
+        result.setJsonString(json.toString());
+        result.setJsonObject(new JsonParser().parse(json.toString()).getAsJsonObject());
+        result.setSucceeded(failed.length == 0);
+        if (failed.length > 0) {
+            result.setErrorMessage("One or more of the items in the Bulk request failed, check BulkResult.getItems() for more information.");
+        }
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.kafka.producer;
+
+import java.util.Date;
+import java.util.Set;
+
+import org.opennms.features.kafka.producer.model.OpennmsModelProtos;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.TroubleTicketState;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Compact summary of an alarm that was forwarded to the alarm topic.
+ * <p>
+ * Instead of keeping the forwarded alarms around, only a hash of the record, a hash of the record with the
+ * {@link AlarmEqualityChecker.Exclusions#defaultExclusions default exclusions} applied and the version of the alarm
+ * the record was mapped from are kept. This is enough to tell whether the alarm in the database or the record in the
+ * ktable have changed since the alarm was last forwarded, without having to map the alarm again.
+ */
+public final class AlarmDigest {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final long recordHash;
+    private final long excludedHash;
+    private final long version;
+
+    private AlarmDigest(long recordHash, long excludedHash, long version) {
+        this.recordHash = recordHash;
+        this.excludedHash = excludedHash;
+        this.version = version;
+    }
+
+    /**
+     * Builds the digest of a record.
+     *
+     * @param alarm the alarm the record was mapped from
+     * @param record the serialized alarm
+     * @param excludedHash the hash of the alarm with exclusions applied, see {@link #excludedHash(OpennmsModelProtos.Alarm)}
+     * @return the digest
+     */
+    public static AlarmDigest of(OnmsAlarm alarm, byte[] record, long excludedHash) {
+        return new AlarmDigest(hash(record), excludedHash, versionOf(alarm));
+    }
+
+    /**
+     * @return a copy of this digest for the given, newer, version of the same record
+     */
+    public AlarmDigest withVersion(long version) {
+        return version == this.version ? this : new AlarmDigest(recordHash, excludedHash, version);
+    }
+
+    public long getRecordHash() {
+        return recordHash;
+    }
+
+    public long getExcludedHash() {
+        return excludedHash;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public static long hash(byte[] bytes) {
+        return HASH_FUNCTION.hashBytes(bytes).asLong();
+    }
+
+    /**
+     * Hashes the given alarm with the default exclusions applied. Alarms that differ only by the excluded fields,
+     * i.e. incremental alarms, have the same hash.
+     */
+    public static long excludedHash(OpennmsModelProtos.Alarm alarm) {
+        return hash(AlarmEqualityChecker.Exclusions.defaultExclusions(alarm.toBuilder()).build().toByteArray());
+    }
+
+    /**
+     * Calculates the version of the given alarm from the fields which are updated when the alarm is reduced,
+     * acknowledged, escalated, cleared, ticketed or correlated.
+     * <p>
+     * This is much cheaper than mapping the alarm and any change to these fields is reflected in the version,
+     * but changes to related entities that do not touch the alarm itself (i.e. the foreign id of its node)
+     * are not.
+     */
+    public static long versionOf(OnmsAlarm alarm) {
+        final Hasher hasher = HASH_FUNCTION.newHasher();
+        putVersion(hasher, alarm);
+        return hasher.hash().asLong();
+    }
+
+    private static void putVersion(Hasher hasher, OnmsAlarm alarm) {
+        hasher.putInt(alarm.getId() != null ? alarm.getId() : 0)
+                .putInt(alarm.getCounter() != null ? alarm.getCounter() : 0)
+                .putInt(alarm.getSeverityId() != null ? alarm.getSeverityId() : 0)
+                .putInt(alarm.getAlarmType() != null ? alarm.getAlarmType() : 0);
+        putTime(hasher, alarm.getFirstEventTime());
+        putTime(hasher, alarm.getLastEventTime());
+        putTime(hasher, alarm.getLastAutomationTime());
+        putTime(hasher, alarm.getAlarmAckTime());
+        putString(hasher, alarm.getAlarmAckUser());
+        putString(hasher, alarm.getTTicketId());
+        final TroubleTicketState ticketState = alarm.getTTicketState();
+        hasher.putInt(ticketState != null ? ticketState.getValue() : -1);
+        putString(hasher, alarm.getLogMsg());
+        putString(hasher, alarm.getDescription());
+        hasher.putInt(alarm.getNodeId() != null ? alarm.getNodeId() : 0);
+        final Set<OnmsAlarm> relatedAlarms = alarm.getRelatedAlarms();
+        if (relatedAlarms != null) {
+            // The related alarms are not ordered, combine their versions independently of the iteration order
+            long relatedVersions = 0;
+            for (OnmsAlarm relatedAlarm : relatedAlarms) {
+                relatedVersions += versionOf(relatedAlarm);
+            }
+            hasher.putInt(relatedAlarms.size()).putLong(relatedVersions);
+        }
+    }
+
+    private static void putTime(Hasher hasher, Date date) {
+        hasher.putLong(date != null ? date.getTime() : Long.MIN_VALUE);
+    }
+
+    private static void putString(Hasher hasher, String value) {
+        if (value == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(value.length()).putUnencodedChars(value);
+        }
+    }
+}
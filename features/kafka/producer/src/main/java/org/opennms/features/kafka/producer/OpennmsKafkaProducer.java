@@ -39,6 +39,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -71,10 +72,11 @@ import org.opennms.netmgt.xml.event.Event;
 import org.osgi.service.cm.ConfigurationAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.expression.Expression;
-import org.springframework.expression.ExpressionParser;
-import org.springframework.expression.spel.standard.SpelExpressionParser;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.swrve.ratelimitedlogger.RateLimitedLog;
@@ -87,7 +89,6 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
             .build();
 
     public static final String KAFKA_CLIENT_PID = "org.opennms.features.kafka.producer.client";
-    private static final ExpressionParser SPEL_PARSER = new SpelExpressionParser();
     private final ThreadFactory nodeUpdateThreadFactory = new ThreadFactoryBuilder()
             .setNameFormat("kafka-producer-node-update-%d")
             .build();
@@ -110,8 +111,8 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
     private boolean forwardAlarmFeedback;
     private boolean suppressIncrementalAlarms;
     private boolean forwardNodes;
-    private Expression eventFilterExpression;
-    private Expression alarmFilterExpression;
+    private SpelFilter<Event> eventFilter;
+    private SpelFilter<OnmsAlarm> alarmFilter;
 
     private final CountDownLatch forwardedEvent = new CountDownLatch(1);
     private final CountDownLatch forwardedAlarm = new CountDownLatch(1);
@@ -122,14 +123,13 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
 
     private KafkaProducer<byte[], byte[]> producer;
 
-    private final Map<String, OpennmsModelProtos.Alarm> outstandingAlarms = new ConcurrentHashMap<>();
-    private final AlarmEqualityChecker alarmEqualityChecker =
-            AlarmEqualityChecker.with(AlarmEqualityChecker.Exclusions::defaultExclusions);
+    // Digests of the alarms that were forwarded, by reduction key
+    private final Map<String, AlarmDigest> alarmDigests = new ConcurrentHashMap<>();
 
     private final AlarmCallbackStateTracker stateTracker = new AlarmCallbackStateTracker();
     private final OnmsTopologyDao topologyDao;
     private int kafkaSendQueueCapacity;
-    private BlockingDeque<KafkaRecord> kafkaSendDeque;
+    private volatile BlockingDeque<KafkaRecord> kafkaSendDeque;
     private final ExecutorService kafkaSendQueueExecutor =
             Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "KafkaSendQueueProcessor"));
     private final ExecutorService nodeUpdateExecutor;
@@ -137,6 +137,15 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
     private String encoding = "UTF8";
     private int numEventListenerThreads = 4;
 
+    private MetricRegistry metrics;
+    private Meter eventsFiltered;
+    private Meter alarmsFiltered;
+    private Meter recordsQueued;
+    private Meter recordsDropped;
+    private Meter recordsRequeued;
+    private Meter recordsFailed;
+    private Timer recordsQueueTime;
+
     public OpennmsKafkaProducer(ProtobufMapper protobufMapper, NodeCache nodeCache,
                                 ConfigurationAdmin configAdmin, EventSubscriptionService eventSubscriptionService,
                                 OnmsTopologyDao topologyDao, int nodeAsyncUpdateThreads) {
@@ -146,6 +155,7 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
         this.eventSubscriptionService = Objects.requireNonNull(eventSubscriptionService);
         this.topologyDao = Objects.requireNonNull(topologyDao);
         this.nodeUpdateExecutor = Executors.newFixedThreadPool(nodeAsyncUpdateThreads, nodeUpdateThreadFactory);
+        setMetricRegistry(new MetricRegistry());
     }
 
     public void init() throws IOException {
@@ -231,19 +241,21 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
     private void forwardEvent(Event event) {
         boolean shouldForwardEvent = true;
         // Filtering
-        if (eventFilterExpression != null) {
+        final SpelFilter<Event> eventFilter = this.eventFilter;
+        if (eventFilter != null) {
             try {
-                shouldForwardEvent = eventFilterExpression.getValue(event, Boolean.class);
+                shouldForwardEvent = eventFilter.test(event);
             } catch (Exception e) {
                 LOG.error("Event filter '{}' failed to return a result for event: {}. The event will be forwarded anyways.",
-                        eventFilterExpression.getExpressionString(), event.toStringSimple(), e);
+                        eventFilter.getExpressionString(), event.toStringSimple(), e);
             }
         }
         if (!shouldForwardEvent) {
             if (LOG.isTraceEnabled()) {
                 LOG.trace("Event {} not forwarded due to event filter: {}",
-                        event.toStringSimple(), eventFilterExpression.getExpressionString());
+                        event.toStringSimple(), eventFilter.getExpressionString());
             }
+            eventsFiltered.mark();
             return;
         }
 
@@ -265,43 +277,47 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
     }
 
     public boolean shouldForwardAlarm(OnmsAlarm alarm) {
-        if (alarmFilterExpression != null) {
-            // The expression is not necessarily thread safe
-            synchronized (this) {
-                try {
-                    final boolean shouldForwardAlarm = alarmFilterExpression.getValue(alarm, Boolean.class);
+        // The filter can be evaluated concurrently
+        final SpelFilter<OnmsAlarm> alarmFilter = this.alarmFilter;
+        if (alarmFilter != null) {
+            try {
+                final boolean shouldForwardAlarm = alarmFilter.test(alarm);
+                if (!shouldForwardAlarm) {
                     if (LOG.isTraceEnabled()) {
-                        LOG.trace("Alarm {} not forwarded due to event filter: {}",
-                                alarm, alarmFilterExpression.getExpressionString());
+                        LOG.trace("Alarm {} not forwarded due to alarm filter: {}",
+                                alarm, alarmFilter.getExpressionString());
                     }
-                    return shouldForwardAlarm;
-                } catch (Exception e) {
-                    LOG.error("Alarm filter '{}' failed to return a result for event: {}. The alarm will be forwarded anyways.",
-                            alarmFilterExpression.getExpressionString(), alarm, e);
+                    alarmsFiltered.mark();
                 }
+                return shouldForwardAlarm;
+            } catch (Exception e) {
+                LOG.error("Alarm filter '{}' failed to return a result for event: {}. The alarm will be forwarded anyways.",
+                        alarmFilter.getExpressionString(), alarm, e);
             }
         }
         return true;
     }
 
-    private boolean isIncrementalAlarm(String reductionKey, OnmsAlarm alarm) {
-        OpennmsModelProtos.Alarm existingAlarm = outstandingAlarms.get(reductionKey);
-        return existingAlarm != null && alarmEqualityChecker.equalsExcludingOnFirst(protobufMapper.toAlarm(alarm),
-                existingAlarm);
+    private boolean isIncrementalAlarm(String reductionKey, OnmsAlarm alarm, long excludedHash) {
+        final AlarmDigest existingDigest = alarmDigests.get(reductionKey);
+        if (existingDigest == null || existingDigest.getExcludedHash() != excludedHash) {
+            return false;
+        }
+        // The forwarded record is still current, remember the version of the alarm so that
+        // the next synchronization does not need to map it again
+        alarmDigests.replace(reductionKey, existingDigest, existingDigest.withVersion(AlarmDigest.versionOf(alarm)));
+        return true;
     }
 
-    private void recordIncrementalAlarm(String reductionKey, OnmsAlarm alarm) {
-        // Apply the excluded fields when putting to the map so we do not have to perform this calculation
-        // on each equality check
-        outstandingAlarms.put(reductionKey,
-                AlarmEqualityChecker.Exclusions.defaultExclusions(protobufMapper.toAlarm(alarm)).build());
+    private boolean shouldTrackAlarmDigests() {
+        return suppressIncrementalAlarms || (dataSync != null && dataSync.isEnabled());
     }
 
     private void updateAlarm(String reductionKey, OnmsAlarm alarm) {
         // Always push null records, no good way to perform filtering on these
         if (alarm == null) {
-            // The alarm has been deleted so we shouldn't track it in the map of outstanding alarms any longer
-            outstandingAlarms.remove(reductionKey);
+            // The alarm has been deleted so we shouldn't track its digest any longer
+            alarmDigests.remove(reductionKey);
 
             // The alarm was deleted, push a null record to the reduction key
             sendRecord(() -> {
@@ -320,9 +336,15 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
             return;
         }
 
-        if (suppressIncrementalAlarms && isIncrementalAlarm(reductionKey, alarm)) {
+        // Map the alarm once, while we are still in the callback: the same mapping is used to detect
+        // incremental alarms, to build the record and to remember the forwarded alarm
+        final OpennmsModelProtos.Alarm mappedAlarm = protobufMapper.toAlarm(alarm).build();
+        final long excludedHash = suppressIncrementalAlarms ? AlarmDigest.excludedHash(mappedAlarm) : 0L;
+        if (suppressIncrementalAlarms && isIncrementalAlarm(reductionKey, alarm, excludedHash)) {
             return;
         }
+        final byte[] record = mappedAlarm.toByteArray();
+        final AlarmDigest digest = shouldTrackAlarmDigests() ? AlarmDigest.of(alarm, record, excludedHash) : null;
 
         // Node handling
         if (forwardNodes && alarm.getNodeId() != null) {
@@ -331,14 +353,13 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
 
         // Forward!
         sendRecord(() -> {
-            final OpennmsModelProtos.Alarm mappedAlarm = protobufMapper.toAlarm(alarm).build();
             LOG.debug("Sending alarm with reduction key: {}", reductionKey);
-            return new ProducerRecord<>(alarmTopic, reductionKey.getBytes(encoding), mappedAlarm.toByteArray());
+            return new ProducerRecord<>(alarmTopic, reductionKey.getBytes(encoding), record);
         }, recordMetadata -> {
             // We've got an ACK from the server that the alarm was forwarded
             // Let other threads know when we've successfully forwarded an alarm
-            if (suppressIncrementalAlarms) {
-                recordIncrementalAlarm(reductionKey, alarm);
+            if (digest != null) {
+                alarmDigests.put(reductionKey, digest);
             }
             forwardedAlarm.countDown();
         });
@@ -403,7 +424,10 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
 
         // Any offer that fails due to capacity overflow will simply be dropped and will have to wait until the next
         // sync to be processed so this is just a best effort attempt
-        if (!kafkaSendDeque.offer(new KafkaRecord(record, callback))) {
+        if (kafkaSendDeque.offer(new KafkaRecord(record, callback))) {
+            recordsQueued.mark();
+        } else {
+            recordsDropped.mark();
             RATE_LIMITED_LOGGER.warn("Dropped a Kafka record due to queue capacity being full.");
         }
     }
@@ -413,6 +437,7 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
         while (true) {
             try {
                 KafkaRecord kafkaRecord = kafkaSendDeque.take();
+                recordsQueueTime.update(System.nanoTime() - kafkaRecord.getQueuedAt(), TimeUnit.NANOSECONDS);
                 ProducerRecord<byte[], byte[]> producerRecord = kafkaRecord.getProducerRecord();
                 Consumer<RecordMetadata> consumer = kafkaRecord.getConsumer();
 
@@ -420,12 +445,16 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
                     producer.send(producerRecord, (recordMetadata, e) -> {
                         if (e != null) {
                             LOG.warn("Failed to send record to producer: {}.", producerRecord, e);
+                            recordsFailed.mark();
                             if (e instanceof TimeoutException) {
                                 // If Kafka is Offline, buffer the record again for events.
                                 // This is best effort to keep the order although in-flight elements may still miss the order.
                                 if (producerRecord != null &&
                                         this.eventTopic.equalsIgnoreCase(producerRecord.topic())) {
-                                    if(!kafkaSendDeque.offerFirst(kafkaRecord)) {
+                                    if (kafkaSendDeque.offerFirst(kafkaRecord.requeue())) {
+                                        recordsRequeued.mark();
+                                    } else {
+                                        recordsDropped.mark();
                                         RATE_LIMITED_LOGGER.warn("Dropped a Kafka record due to queue capacity being full.");
                                     }
                                 }
@@ -438,6 +467,7 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
                     });
                 } catch (RuntimeException e) {
                     LOG.warn("Failed to send record to producer: {}.", producerRecord, e);
+                    recordsFailed.mark();
                 }
             } catch (InterruptedException ignore) {
                 break;
@@ -538,18 +568,41 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
 
     public void setEventFilter(String eventFilter) {
         if (Strings.isNullOrEmpty(eventFilter)) {
-            eventFilterExpression = null;
+            this.eventFilter = null;
         } else {
-            eventFilterExpression = SPEL_PARSER.parseExpression(eventFilter);
+            this.eventFilter = new SpelFilter<>(eventFilter);
         }
     }
 
     public void setAlarmFilter(String alarmFilter) {
         if (Strings.isNullOrEmpty(alarmFilter)) {
-            alarmFilterExpression = null;
+            this.alarmFilter = null;
         } else {
-            alarmFilterExpression = SPEL_PARSER.parseExpression(alarmFilter);
-        }
+            this.alarmFilter = new SpelFilter<>(alarmFilter);
+        }
+    }
+
+    public void setMetricRegistry(MetricRegistry metrics) {
+        this.metrics = Objects.requireNonNull(metrics);
+        eventsFiltered = metrics.meter("eventsFiltered");
+        alarmsFiltered = metrics.meter("alarmsFiltered");
+        recordsQueued = metrics.meter("recordsQueued");
+        recordsDropped = metrics.meter("recordsDropped");
+        recordsRequeued = metrics.meter("recordsRequeued");
+        recordsFailed = metrics.meter("recordsFailed");
+        recordsQueueTime = metrics.timer("recordsQueueTime");
+        metrics.register("sendQueueSize", (Gauge<Integer>) () -> {
+            final BlockingDeque<KafkaRecord> deque = kafkaSendDeque;
+            return deque != null ? deque.size() : 0;
+        });
+        metrics.register("sendQueueRemainingCapacity", (Gauge<Integer>) () -> {
+            final BlockingDeque<KafkaRecord> deque = kafkaSendDeque;
+            return deque != null ? deque.remainingCapacity() : kafkaSendQueueCapacity;
+        });
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metrics;
     }
 
     public OpennmsKafkaProducer setDataSync(KafkaAlarmDataSync dataSync) {
@@ -609,6 +662,27 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
         return stateTracker;
     }
 
+    /**
+     * @return the digest of the alarm last forwarded with the given reduction key, or null if none is known
+     */
+    public AlarmDigest getAlarmDigest(String reductionKey) {
+        return alarmDigests.get(reductionKey);
+    }
+
+    /**
+     * Remembers the digest of an alarm found to be up-to-date in the ktable.
+     */
+    public void putAlarmDigest(String reductionKey, AlarmDigest digest) {
+        alarmDigests.put(reductionKey, digest);
+    }
+
+    /**
+     * Forgets the digests of all alarms, the next synchronization will compare all of the alarms with the ktable.
+     */
+    public void clearAlarmDigests() {
+        alarmDigests.clear();
+    }
+
     public void setKafkaSendQueueCapacity(int kafkaSendQueueCapacity) {
         this.kafkaSendQueueCapacity = kafkaSendQueueCapacity;
     }
@@ -621,12 +695,21 @@ public class OpennmsKafkaProducer implements AlarmLifecycleListener, EventListen
     private static final class KafkaRecord {
         private final ProducerRecord<byte[], byte[]> producerRecord;
         private final Consumer<RecordMetadata> consumer;
+        private final long queuedAt = System.nanoTime();
 
         KafkaRecord(ProducerRecord<byte[], byte[]> producerRecord, Consumer<RecordMetadata> consumer) {
             this.producerRecord = producerRecord;
             this.consumer = consumer;
         }
 
+        KafkaRecord requeue() {
+            return new KafkaRecord(producerRecord, consumer);
+        }
+
+        long getQueuedAt() {
+            return queuedAt;
+        }
+
         ProducerRecord<byte[], byte[]> getProducerRecord() {
             return producerRecord;
         }
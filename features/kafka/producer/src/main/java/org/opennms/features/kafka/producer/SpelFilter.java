@@ -0,0 +1,76 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.kafka.producer;
+
+import java.util.Objects;
+import java.util.function.Predicate;
+
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+
+/**
+ * A filter backed by a SpEL expression, which can be evaluated concurrently.
+ * <p>
+ * The evaluation of an expression updates the state cached in its AST, so every thread gets its own copy
+ * of the parsed expression. The copies are parsed in mixed compiler mode: once they were interpreted a
+ * couple of times, they are compiled to byte code, and they fall back to being interpreted if the compiled
+ * code fails.
+ *
+ * @param <T> the type of the objects to filter
+ */
+public class SpelFilter<T> implements Predicate<T> {
+    private static final ExpressionParser SPEL_PARSER = new SpelExpressionParser(
+            new SpelParserConfiguration(SpelCompilerMode.MIXED, SpelFilter.class.getClassLoader()));
+
+    private final String expressionString;
+    private final ThreadLocal<Expression> expression;
+
+    /**
+     * @param expressionString the SpEL expression, which must return a boolean
+     * @throws org.springframework.expression.ParseException if the expression is invalid
+     */
+    public SpelFilter(String expressionString) {
+        this.expressionString = Objects.requireNonNull(expressionString);
+        // Parse eagerly, so that invalid expressions are reported right away
+        final Expression parsedExpression = SPEL_PARSER.parseExpression(expressionString);
+        this.expression = ThreadLocal.withInitial(() -> SPEL_PARSER.parseExpression(expressionString));
+        this.expression.set(parsedExpression);
+    }
+
+    /**
+     * Evaluates the expression against the given object.
+     *
+     * @throws org.springframework.expression.EvaluationException if the expression can not be evaluated
+     * @throws NullPointerException if the expression returns null
+     */
+    @Override
+    public boolean test(T object) {
+        return expression.get().getValue(object, Boolean.class);
+    }
+
+    public String getExpressionString() {
+        return expressionString;
+    }
+}
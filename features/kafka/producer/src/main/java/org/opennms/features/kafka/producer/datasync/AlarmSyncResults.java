@@ -26,33 +26,35 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
-import org.opennms.features.kafka.producer.model.OpennmsModelProtos;
 import org.opennms.netmgt.model.OnmsAlarm;
 
 public class AlarmSyncResults {
-    private final Map<String, OpennmsModelProtos.Alarm> alarmsInKtableByReductionKey;
+    private final Set<String> reductionKeysInKtable;
     private final List<OnmsAlarm> alarmsInDb;
     private final Map<String, OnmsAlarm> alarmsInDbByReductionKey;
     private final Set<String> reductionKeysAdded;
     private final Set<String> reductionKeysDeleted;
     private final Set<String> reductionKeysUpdated;
+    private final int numAlarmsCompared;
 
-    public AlarmSyncResults(Map<String, OpennmsModelProtos.Alarm> alarmsInKtableByReductionKey,
+    public AlarmSyncResults(Set<String> reductionKeysInKtable,
                             List<OnmsAlarm> alarmsInDb,
                             Map<String, OnmsAlarm> alarmsInDbByReductionKey,
                             Set<String> reductionKeysAdded,
                             Set<String> reductionKeysDeleted,
-                            Set<String> reductionKeysUpdated) {
-        this.alarmsInKtableByReductionKey = Objects.requireNonNull(alarmsInKtableByReductionKey);
+                            Set<String> reductionKeysUpdated,
+                            int numAlarmsCompared) {
+        this.reductionKeysInKtable = Objects.requireNonNull(reductionKeysInKtable);
         this.alarmsInDb = Objects.requireNonNull(alarmsInDb);
         this.alarmsInDbByReductionKey = Objects.requireNonNull(alarmsInDbByReductionKey);
         this.reductionKeysAdded = Objects.requireNonNull(reductionKeysAdded);
         this.reductionKeysDeleted = Objects.requireNonNull(reductionKeysDeleted);
         this.reductionKeysUpdated = Objects.requireNonNull(reductionKeysUpdated);
+        this.numAlarmsCompared = numAlarmsCompared;
     }
 
-    public Map<String, OpennmsModelProtos.Alarm> getAlarmsInKtableByReductionKey() {
-        return alarmsInKtableByReductionKey;
+    public Set<String> getReductionKeysInKtable() {
+        return reductionKeysInKtable;
     }
 
     public List<OnmsAlarm> getAlarmsInDb() {
@@ -75,6 +77,14 @@ public class AlarmSyncResults {
         return reductionKeysUpdated;
     }
 
+    /**
+     * @return the number of alarms that were mapped and compared with the ktable, alarms which did not change
+     * since they were last forwarded are not compared
+     */
+    public int getNumAlarmsCompared() {
+        return numAlarmsCompared;
+    }
+
     public int getNumUpdates() {
         return getReductionKeysAdded().size()
                 + getReductionKeysDeleted().size()
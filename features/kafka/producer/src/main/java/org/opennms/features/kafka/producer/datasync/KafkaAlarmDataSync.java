@@ -27,6 +27,7 @@ import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -45,6 +46,7 @@ import org.apache.kafka.common.config.SecurityConfig;
 import org.apache.kafka.common.config.SslConfigs;
 import org.apache.kafka.common.serialization.Serdes;
 import org.apache.kafka.streams.KafkaStreams;
+import org.apache.kafka.streams.KeyValue;
 import org.apache.kafka.streams.StoreQueryParameters;
 import org.apache.kafka.streams.StreamsBuilder;
 import org.apache.kafka.streams.StreamsConfig;
@@ -56,9 +58,11 @@ import org.apache.kafka.streams.kstream.GlobalKTable;
 import org.apache.kafka.streams.kstream.KStream;
 import org.apache.kafka.streams.kstream.KTable;
 import org.apache.kafka.streams.kstream.Materialized;
+import org.apache.kafka.streams.state.KeyValueIterator;
 import org.apache.kafka.streams.state.QueryableStoreTypes;
 import org.apache.kafka.streams.state.ReadOnlyKeyValueStore;
 import org.opennms.core.ipc.common.kafka.Utils;
+import org.opennms.features.kafka.producer.AlarmDigest;
 import org.opennms.features.kafka.producer.AlarmEqualityChecker;
 import org.opennms.features.kafka.producer.OpennmsKafkaProducer;
 import org.opennms.features.kafka.producer.ProtobufMapper;
@@ -69,6 +73,7 @@ import org.osgi.service.cm.ConfigurationAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.InvalidProtocolBufferException;
@@ -156,6 +161,8 @@ public class KafkaAlarmDataSync implements AlarmDataStore, Runnable {
             if (startWithCleanState) {
                 LOG.info("Performing stream state cleanup.");
                 streams.cleanUp();
+                // Compare all of the alarms on the next synchronization
+                kafkaProducer.clearAlarmDigests();
             }
             LOG.info("Starting alarm datasync stream.");
             streams.start();
@@ -204,64 +211,8 @@ public class KafkaAlarmDataSync implements AlarmDataStore, Runnable {
 
         LOG.debug("Performing alarm synchronization with ktable.");
         final AlarmSyncResults results;
-        try {
-            // Retrieve the map of alarms by reduction key from the ktable
-            final Map<String, OpennmsModelProtos.Alarm> alarmsInKtableByReductionKey = getAlarms();
-
-            final Set<String> reductionKeysInKtable = alarmsInKtableByReductionKey.keySet();
-
-            // Use the given alarms and apply the filter (if any) to these
-            // This represents the set of alarms that should be in the ktable at the given timestamp
-            final List<OnmsAlarm> alarmsInDb = alarms.stream()
-                    .filter(kafkaProducer::shouldForwardAlarm)
-                    .collect(Collectors.toList());
-
-            final Map<String, OnmsAlarm> alarmsInDbByReductionKey = alarmsInDb.stream()
-                    .collect(Collectors.toMap(OnmsAlarm::getReductionKey, a -> a));
-            final Set<String> reductionKeysInDb = alarmsInDbByReductionKey.keySet();
-
-            // Grab a reference to the state tracker
-            final AlarmCallbackStateTracker stateTracker = kafkaProducer.getAlarmCallbackStateTracker();
-
-            // Push deletes for keys that are in the ktable, but not in the database
-            final Set<String> reductionKeysNotInDb = Sets.difference(reductionKeysInKtable, reductionKeysInDb).stream()
-                    // Only remove it if the alarm we have dates before the snapshot
-                    .filter(reductionKey -> !stateTracker.wasAlarmWithReductionKeyUpdated(reductionKey))
-                    .collect(Collectors.toSet());
-            reductionKeysNotInDb.forEach(rkey -> kafkaProducer.handleDeletedAlarm((int)alarmsInKtableByReductionKey.get(rkey).getId(), rkey));
-
-            // Push new entries for keys that are in the database, but not in the ktable
-            final Set<String> reductionKeysNotInKtable = Sets.difference(reductionKeysInDb, reductionKeysInKtable).stream()
-                    // Unless we've deleted the alarm after the snapshot time
-                    .filter(reductionKey -> !stateTracker.wasAlarmWithReductionKeyDeleted(reductionKey))
-                    .collect(Collectors.toSet());
-            reductionKeysNotInKtable.forEach(rkey -> kafkaProducer.handleNewOrUpdatedAlarm(alarmsInDbByReductionKey.get(rkey)));
-
-            // Handle Updates
-            final Set<String> reductionKeysUpdated = new LinkedHashSet<>();
-            final Set<String> commonReductionKeys = Sets.intersection(reductionKeysInKtable, reductionKeysInDb);
-            commonReductionKeys.forEach(rkey -> {
-                // Don't bother updating the alarm if the one we we have is more recent than the snapshot
-                if (stateTracker.wasAlarmWithReductionKeyUpdated(rkey)) {
-                    return;
-                }
-
-                final OnmsAlarm dbAlarm = alarmsInDbByReductionKey.get(rkey);
-                final OpennmsModelProtos.Alarm.Builder mappedDbAlarm = protobufMapper.toAlarm(dbAlarm);
-                final OpennmsModelProtos.Alarm alarmFromKtable = alarmsInKtableByReductionKey.get(rkey);
-                final OpennmsModelProtos.Alarm.Builder alarmBuilderFromKtable =
-                        alarmsInKtableByReductionKey.get(rkey).toBuilder();
-
-                if ((suppressIncrementalAlarms && !alarmEqualityChecker.equalsExcludingOnBoth(mappedDbAlarm,
-                        alarmBuilderFromKtable)) || (!suppressIncrementalAlarms && !Objects.equals(mappedDbAlarm.build(),
-                        alarmFromKtable))) {
-                    kafkaProducer.handleNewOrUpdatedAlarm(dbAlarm);
-                    reductionKeysUpdated.add(rkey);
-                }
-            });
-
-            results = new AlarmSyncResults(alarmsInKtableByReductionKey, alarmsInDb, alarmsInDbByReductionKey,
-                    reductionKeysNotInKtable, reductionKeysNotInDb, reductionKeysUpdated);
+        try (KeyValueIterator<String, byte[]> alarmsInKtable = getAlarmTableNow().all()) {
+            results = handleAlarmSnapshot(alarmsInKtable, alarms);
         } catch (Exception e) {
             LOG.error("An error occurred while performing alarm synchronization with the ktable. Will try again on next callback.", e);
             return null;
@@ -281,7 +232,99 @@ public class KafkaAlarmDataSync implements AlarmDataStore, Runnable {
         return results;
     }
 
+    /**
+     * Compares the given records of the ktable with the given alarms and pushes the differences.
+     * <p>
+     * Alarms whose version and record are unchanged since they were last forwarded, according to the
+     * {@link AlarmDigest} kept by the producer, are skipped. Only the remaining alarms are mapped and
+     * compared with the record parsed from the ktable.
+     */
+    @VisibleForTesting
+    AlarmSyncResults handleAlarmSnapshot(Iterator<KeyValue<String, byte[]>> alarmsInKtable, List<OnmsAlarm> alarms) {
+        // Use the given alarms and apply the filter (if any) to these
+        // This represents the set of alarms that should be in the ktable at the given timestamp
+        final List<OnmsAlarm> alarmsInDb = alarms.stream()
+                .filter(kafkaProducer::shouldForwardAlarm)
+                .collect(Collectors.toList());
+
+        final Map<String, OnmsAlarm> alarmsInDbByReductionKey = alarmsInDb.stream()
+                .collect(Collectors.toMap(OnmsAlarm::getReductionKey, a -> a));
+
+        // Grab a reference to the state tracker
+        final AlarmCallbackStateTracker stateTracker = kafkaProducer.getAlarmCallbackStateTracker();
+
+        final Set<String> reductionKeysInKtable = new LinkedHashSet<>();
+        final Set<String> reductionKeysNotInDb = new LinkedHashSet<>();
+        final Set<String> reductionKeysUpdated = new LinkedHashSet<>();
+        int numAlarmsCompared = 0;
+        while (alarmsInKtable.hasNext()) {
+            final KeyValue<String, byte[]> kv = alarmsInKtable.next();
+            final String rkey = kv.key;
+            reductionKeysInKtable.add(rkey);
+
+            final OnmsAlarm dbAlarm = alarmsInDbByReductionKey.get(rkey);
+            if (dbAlarm == null) {
+                // Push deletes for keys that are in the ktable, but not in the database
+                // Only remove it if the alarm we have dates before the snapshot
+                if (!stateTracker.wasAlarmWithReductionKeyUpdated(rkey)) {
+                    final OpennmsModelProtos.Alarm alarmFromKtable = parseAlarm(rkey, kv.value);
+                    kafkaProducer.handleDeletedAlarm(alarmFromKtable != null ? (int) alarmFromKtable.getId() : 0, rkey);
+                    reductionKeysNotInDb.add(rkey);
+                }
+                continue;
+            }
+
+            // Don't bother updating the alarm if the one we we have is more recent than the snapshot
+            if (stateTracker.wasAlarmWithReductionKeyUpdated(rkey)) {
+                continue;
+            }
+
+            // Skip the alarm if neither the alarm nor the record changed since it was forwarded
+            final long version = AlarmDigest.versionOf(dbAlarm);
+            final AlarmDigest digest = kafkaProducer.getAlarmDigest(rkey);
+            if (digest != null && digest.getVersion() == version
+                    && kv.value != null && digest.getRecordHash() == AlarmDigest.hash(kv.value)) {
+                continue;
+            }
+
+            numAlarmsCompared++;
+            final OpennmsModelProtos.Alarm.Builder mappedDbAlarm = protobufMapper.toAlarm(dbAlarm);
+            final OpennmsModelProtos.Alarm alarmFromKtable = parseAlarm(rkey, kv.value);
+            if (alarmFromKtable == null || (suppressIncrementalAlarms && !alarmEqualityChecker.equalsExcludingOnBoth(mappedDbAlarm,
+                    alarmFromKtable.toBuilder())) || (!suppressIncrementalAlarms && !Objects.equals(mappedDbAlarm.build(),
+                    alarmFromKtable))) {
+                kafkaProducer.handleNewOrUpdatedAlarm(dbAlarm);
+                reductionKeysUpdated.add(rkey);
+            } else {
+                // The record is up-to-date, remember it so that we can skip it next time
+                final long excludedHash = suppressIncrementalAlarms ? AlarmDigest.excludedHash(alarmFromKtable) : 0L;
+                kafkaProducer.putAlarmDigest(rkey, AlarmDigest.of(dbAlarm, kv.value, excludedHash));
+            }
+        }
+
+        // Push new entries for keys that are in the database, but not in the ktable
+        final Set<String> reductionKeysNotInKtable = Sets.difference(alarmsInDbByReductionKey.keySet(), reductionKeysInKtable).stream()
+                // Unless we've deleted the alarm after the snapshot time
+                .filter(reductionKey -> !stateTracker.wasAlarmWithReductionKeyDeleted(reductionKey))
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        reductionKeysNotInKtable.forEach(rkey -> kafkaProducer.handleNewOrUpdatedAlarm(alarmsInDbByReductionKey.get(rkey)));
 
+        LOG.debug("Compared {} out of {} alarms in the ktable with the database.", numAlarmsCompared, reductionKeysInKtable.size());
+        return new AlarmSyncResults(reductionKeysInKtable, alarmsInDb, alarmsInDbByReductionKey,
+                reductionKeysNotInKtable, reductionKeysNotInDb, reductionKeysUpdated, numAlarmsCompared);
+    }
+
+    private static OpennmsModelProtos.Alarm parseAlarm(String reductionKey, byte[] alarmBytes) {
+        if (alarmBytes == null) {
+            return null;
+        }
+        try {
+            return OpennmsModelProtos.Alarm.parseFrom(alarmBytes);
+        } catch (InvalidProtocolBufferException e) {
+            LOG.error("Failed to parse alarm for bytes at reduction key '{}'.", reductionKey);
+            return null;
+        }
+    }
 
     private Properties loadStreamsProperties() throws IOException {
         final Properties streamsProperties = new Properties();
@@ -74,7 +74,8 @@ public class SyncAlarms implements Action {
             final long delay = System.currentTimeMillis() - start;
             System.out.printf("Executed %d updates in %dms.\n\n", results.getNumUpdates(), delay);
 
-            System.out.printf("Number of reduction keys in ktable: %d\n", results.getAlarmsInKtableByReductionKey().size());
+            System.out.printf("Number of reduction keys in ktable: %d (%d compared)\n",
+                    results.getReductionKeysInKtable().size(), results.getNumAlarmsCompared());
             System.out.printf("Number of reduction keys in the db: %d (%d alarms total)\n",
                    results.getAlarmsInDbByReductionKey().size(), results.getAlarmsInDb().size());
 
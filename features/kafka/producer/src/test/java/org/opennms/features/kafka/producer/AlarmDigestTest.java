@@ -0,0 +1,125 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.kafka.producer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.Date;
+
+import org.junit.Test;
+import org.opennms.features.kafka.producer.model.OpennmsModelProtos;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsSeverity;
+
+/**
+ * Tests for {@link AlarmDigest}.
+ */
+public class AlarmDigestTest {
+
+    @Test
+    public void canDetectChangesToTheAlarm() {
+        final long version = AlarmDigest.versionOf(createAlarm(1));
+        assertThat(AlarmDigest.versionOf(createAlarm(1)), equalTo(version));
+        assertThat(AlarmDigest.versionOf(createAlarm(2)), not(equalTo(version)));
+
+        final OnmsAlarm reduced = createAlarm(1);
+        reduced.setCounter(2);
+        reduced.setLastEventTime(new Date(2000));
+        assertThat(AlarmDigest.versionOf(reduced), not(equalTo(version)));
+
+        final OnmsAlarm acknowledged = createAlarm(1);
+        acknowledged.setAlarmAckTime(new Date(3000));
+        acknowledged.setAlarmAckUser("admin");
+        assertThat(AlarmDigest.versionOf(acknowledged), not(equalTo(version)));
+
+        final OnmsAlarm escalated = createAlarm(1);
+        escalated.setSeverity(OnmsSeverity.MAJOR);
+        assertThat(AlarmDigest.versionOf(escalated), not(equalTo(version)));
+
+        final OnmsAlarm situation = createAlarm(1);
+        situation.addRelatedAlarm(createAlarm(2));
+        assertThat(AlarmDigest.versionOf(situation), not(equalTo(version)));
+    }
+
+    @Test
+    public void canIgnoreTheOrderOfRelatedAlarms() {
+        final OnmsAlarm situationA = createAlarm(1);
+        situationA.addRelatedAlarm(createAlarm(2));
+        situationA.addRelatedAlarm(createAlarm(3));
+        final OnmsAlarm situationB = createAlarm(1);
+        situationB.addRelatedAlarm(createAlarm(3));
+        situationB.addRelatedAlarm(createAlarm(2));
+        assertThat(AlarmDigest.versionOf(situationA), equalTo(AlarmDigest.versionOf(situationB)));
+
+        // A change to a related alarm changes the version of the situation
+        final OnmsAlarm reduced = createAlarm(3);
+        reduced.setCounter(2);
+        final OnmsAlarm situationC = createAlarm(1);
+        situationC.addRelatedAlarm(createAlarm(2));
+        situationC.addRelatedAlarm(reduced);
+        assertThat(AlarmDigest.versionOf(situationC), not(equalTo(AlarmDigest.versionOf(situationA))));
+    }
+
+    @Test
+    public void canDigestRecords() {
+        final OnmsAlarm alarm = createAlarm(1);
+        final OpennmsModelProtos.Alarm record = OpennmsModelProtos.Alarm.newBuilder()
+                .setId(1)
+                .setReductionKey("rkey1")
+                .setCount(1)
+                .setLastEventTime(1000)
+                .build();
+        final OpennmsModelProtos.Alarm reducedRecord = record.toBuilder()
+                .setCount(2)
+                .setLastEventTime(2000)
+                .build();
+
+        final AlarmDigest digest = AlarmDigest.of(alarm, record.toByteArray(), AlarmDigest.excludedHash(record));
+        assertThat(digest.getVersion(), equalTo(AlarmDigest.versionOf(alarm)));
+        assertThat(digest.getRecordHash(), equalTo(AlarmDigest.hash(record.toByteArray())));
+        assertThat(digest.getRecordHash(), not(equalTo(AlarmDigest.hash(reducedRecord.toByteArray()))));
+
+        // Incremental records only differ by the excluded fields
+        assertThat(AlarmDigest.excludedHash(reducedRecord), equalTo(digest.getExcludedHash()));
+
+        assertThat(digest.withVersion(digest.getVersion()), sameInstance(digest));
+        final AlarmDigest newer = digest.withVersion(digest.getVersion() + 1);
+        assertThat(newer.getVersion(), equalTo(digest.getVersion() + 1));
+        assertThat(newer.getRecordHash(), equalTo(digest.getRecordHash()));
+        assertThat(newer.getExcludedHash(), equalTo(digest.getExcludedHash()));
+    }
+
+    private static OnmsAlarm createAlarm(int id) {
+        final OnmsAlarm alarm = new OnmsAlarm();
+        alarm.setId(id);
+        alarm.setUei("uei.opennms.org/test");
+        alarm.setReductionKey("rkey" + id);
+        alarm.setCounter(1);
+        alarm.setSeverity(OnmsSeverity.MINOR);
+        alarm.setFirstEventTime(new Date(1000));
+        alarm.setLastEventTime(new Date(1000));
+        return alarm;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.kafka.producer;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+
+/**
+ * Use the Java Microbenchmarking Harness (JMH) to measure the throughput of the alarm filter when alarms are
+ * forwarded by several threads at once.
+ * <p>
+ * The shared interpreted expression guarded by a monitor, as previously used by the producer, is compared with
+ * the {@link SpelFilter}.
+ */
+public class AlarmFilterBenchmark {
+
+    // the number of alarms filtered in a single benchmark method call
+    // -> the reported number of operations per second must be multiplied by this number to get
+    //    the number of alarms per second (over all threads)
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String FILTER = "getTTicketId() == null"
+            + " && getSeverity().isGreaterThanOrEqual(T(org.opennms.netmgt.model.OnmsSeverity).MINOR)"
+            + " && (getReductionKey().startsWith('uei.opennms.org/nodes/') || getUei().contains('trap'))";
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"synchronized", "compiled"})
+        public String filter;
+
+        private Expression sharedExpression;
+        private SpelFilter<OnmsAlarm> spelFilter;
+        private OnmsAlarm[] alarms;
+
+        @Setup
+        public void setup() {
+            sharedExpression = new SpelExpressionParser().parseExpression(FILTER);
+            spelFilter = new SpelFilter<>(FILTER);
+
+            final Random random = new Random(123456L);
+            final String[] ueis = {"uei.opennms.org/nodes/nodeDown", "uei.opennms.org/nodes/nodeLostService",
+                    "uei.opennms.org/generic/traps/EnterpriseDefault", "uei.opennms.org/threshold/highThresholdExceeded"};
+            alarms = new OnmsAlarm[BATCH_SIZE];
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                final String uei = ueis[random.nextInt(ueis.length)];
+                final OnmsAlarm alarm = new OnmsAlarm();
+                alarm.setUei(uei);
+                alarm.setReductionKey(uei + "::" + random.nextInt(1000));
+                alarm.setSeverity(OnmsSeverity.get(1 + random.nextInt(7)));
+                if (random.nextInt(10) == 0) {
+                    alarm.setTTicketId("T" + i);
+                }
+                alarms[i] = alarm;
+            }
+        }
+
+        private boolean test(OnmsAlarm alarm) {
+            if ("synchronized".equals(filter)) {
+                synchronized (this) {
+                    return sharedExpression.getValue(alarm, Boolean.class);
+                }
+            }
+            return spelFilter.test(alarm);
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(4)
+    public void filterAlarms(BState state, Blackhole blackhole) {
+        for (OnmsAlarm alarm : state.alarms) {
+            blackhole.consume(state.test(alarm));
+        }
+    }
+}
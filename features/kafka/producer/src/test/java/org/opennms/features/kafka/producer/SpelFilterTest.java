@@ -0,0 +1,105 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.kafka.producer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.springframework.expression.ParseException;
+
+/**
+ * Tests for {@link SpelFilter}.
+ */
+public class SpelFilterTest {
+
+    private static final String FILTER = "getSeverity().isGreaterThanOrEqual(T(org.opennms.netmgt.model.OnmsSeverity).MAJOR)"
+            + " && getReductionKey().startsWith('uei.opennms.org/nodes/')";
+
+    /**
+     * Tests that the filter returns the same results when evaluated concurrently, before and after
+     * the expression was compiled.
+     */
+    @Test
+    public void canEvaluateConcurrently() throws Exception {
+        final SpelFilter<OnmsAlarm> filter = new SpelFilter<>(FILTER);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Integer>> mismatches = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                final Callable<Integer> task = () -> {
+                    int numMismatches = 0;
+                    for (int k = 0; k < 1000; k++) {
+                        final OnmsSeverity severity = OnmsSeverity.get(1 + k % 7);
+                        final String reductionKey = (k % 3 == 0 ? "uei.opennms.org/nodes/nodeDown::" : "uei.opennms.org/generic/traps::") + k;
+                        final boolean expected = severity.isGreaterThanOrEqual(OnmsSeverity.MAJOR) && k % 3 == 0;
+                        if (filter.test(alarm(reductionKey, severity)) != expected) {
+                            numMismatches++;
+                        }
+                    }
+                    return numMismatches;
+                };
+                mismatches.add(executor.submit(task));
+            }
+            for (Future<Integer> future : mismatches) {
+                assertThat(future.get(), equalTo(0));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests that invalid expressions are rejected when creating the filter.
+     */
+    @Test(expected = ParseException.class)
+    public void failsOnInvalidExpression() {
+        new SpelFilter<OnmsAlarm>("getSeverity() ==");
+    }
+
+    /**
+     * Tests that the filter does not swallow evaluation errors, so that the callers can decide what to do.
+     */
+    @Test(expected = NullPointerException.class)
+    public void failsOnNullResult() {
+        final SpelFilter<OnmsAlarm> filter = new SpelFilter<>("getTTicketId()");
+        assertThat(filter.getExpressionString(), is("getTTicketId()"));
+        filter.test(alarm("uei.opennms.org/nodes/nodeDown::1", OnmsSeverity.MAJOR));
+    }
+
+    private static OnmsAlarm alarm(String reductionKey, OnmsSeverity severity) {
+        final OnmsAlarm alarm = new OnmsAlarm();
+        alarm.setReductionKey(reductionKey);
+        alarm.setSeverity(severity);
+        return alarm;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.kafka.producer.datasync;
+
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.kafka.streams.KeyValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opennms.features.kafka.producer.AlarmEqualityChecker;
+import org.opennms.features.kafka.producer.NodeCache;
+import org.opennms.features.kafka.producer.OpennmsKafkaProducer;
+import org.opennms.features.kafka.producer.ProtobufMapper;
+import org.opennms.features.kafka.producer.model.OpennmsModelProtos;
+import org.opennms.netmgt.config.api.EventConfDao;
+import org.opennms.netmgt.dao.api.HwEntityDao;
+import org.opennms.netmgt.dao.api.NodeDao;
+import org.opennms.netmgt.dao.api.SessionUtils;
+import org.opennms.netmgt.events.api.EventSubscriptionService;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.topologies.service.api.OnmsTopologyDao;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+/**
+ * Use the Java Microbenchmarking Harness (JMH) to measure the duration of a synchronization of the alarms
+ * in the database with the ktable.
+ * <p>
+ * In the "full" mode the digests are cleared before every synchronization, so every alarm is mapped and
+ * compared, as it used to be. In the "digest" mode only the alarms which changed since the previous
+ * synchronization are. The heap retained by the digests and by the full alarms previously kept by the
+ * producer is printed during the setup. Run with {@code -prof gc} to compare the allocations.
+ */
+public class KafkaAlarmDataSyncBenchmark {
+
+    private static final int NUM_ALARMS = 300000;
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"full", "digest"})
+        public String mode;
+
+        // percentage of the alarms that are reduced between two synchronizations
+        @Param({"1"})
+        public int changedPercentage;
+
+        private OpennmsKafkaProducer kafkaProducer;
+        private KafkaAlarmDataSync dataSync;
+        private List<OnmsAlarm> alarms;
+        private Map<String, byte[]> ktable;
+        private Random random;
+
+        @Setup
+        public void setup() {
+            final ProtobufMapper protobufMapper = new ProtobufMapper(mock(EventConfDao.class), mock(HwEntityDao.class),
+                    mock(SessionUtils.class), mock(NodeDao.class), 1);
+            kafkaProducer = new OpennmsKafkaProducer(protobufMapper, new NodeCache(mock(NodeDao.class), mock(SessionUtils.class)),
+                    mock(ConfigurationAdmin.class), mock(EventSubscriptionService.class), mock(OnmsTopologyDao.class), 1);
+            kafkaProducer.setAlarmTopic("alarms");
+            kafkaProducer.setSuppressIncrementalAlarms(true);
+            dataSync = new KafkaAlarmDataSync(mock(ConfigurationAdmin.class), kafkaProducer, protobufMapper);
+            dataSync.setSuppressIncrementalAlarms(true);
+
+            random = new Random(123456L);
+            final OnmsSeverity[] severities = {OnmsSeverity.WARNING, OnmsSeverity.MINOR, OnmsSeverity.MAJOR, OnmsSeverity.CRITICAL};
+            alarms = new ArrayList<>(NUM_ALARMS);
+            ktable = new LinkedHashMap<>();
+            for (int i = 0; i < NUM_ALARMS; i++) {
+                final OnmsAlarm alarm = new OnmsAlarm();
+                alarm.setId(i + 1);
+                alarm.setUei("uei.opennms.org/nodes/nodeLostService");
+                alarm.setReductionKey("uei.opennms.org/nodes/nodeLostService::" + (i / 10) + ":10.0.0.1:" + (i % 10));
+                alarm.setCounter(1 + random.nextInt(100));
+                alarm.setSeverity(severities[random.nextInt(severities.length)]);
+                alarm.setLogMsg("The service has stopped responding on interface 10.0.0.1");
+                alarm.setDescription("<p>A service that was previously up is now down.</p>");
+                alarm.setFirstEventTime(new Date(1500000000000L + i));
+                alarm.setLastEventTime(new Date(1500000000000L + i * 10L));
+                alarms.add(alarm);
+                ktable.put(alarm.getReductionKey(), protobufMapper.toAlarm(alarm).build().toByteArray());
+            }
+
+            // The full alarms, with the exclusions applied, as previously kept by the producer
+            final long heapBeforeAlarms = usedHeap();
+            final Map<String, OpennmsModelProtos.Alarm> outstandingAlarms = new ConcurrentHashMap<>();
+            for (OnmsAlarm alarm : alarms) {
+                outstandingAlarms.put(alarm.getReductionKey(),
+                        AlarmEqualityChecker.Exclusions.defaultExclusions(protobufMapper.toAlarm(alarm)).build());
+            }
+            final long heapOfAlarms = usedHeap() - heapBeforeAlarms;
+            System.out.printf("%nHeap retained by %d outstanding alarms: %d KiB%n", outstandingAlarms.size(), heapOfAlarms / 1024);
+            outstandingAlarms.clear();
+
+            // The initial synchronization populates the digests
+            final long heapBeforeDigests = usedHeap();
+            dataSync.handleAlarmSnapshot(iteratorOf(ktable), alarms);
+            System.out.printf("Heap retained by %d alarm digests: %d KiB%n", NUM_ALARMS, (usedHeap() - heapBeforeDigests) / 1024);
+        }
+
+        @Setup(Level.Invocation)
+        public void reduceAlarms() {
+            if ("full".equals(mode)) {
+                kafkaProducer.clearAlarmDigests();
+            }
+            final int numChanged = NUM_ALARMS * changedPercentage / 100;
+            for (int i = 0; i < numChanged; i++) {
+                final OnmsAlarm alarm = alarms.get(random.nextInt(NUM_ALARMS));
+                alarm.setCounter(alarm.getCounter() + 1);
+                alarm.setLastEventTime(new Date(alarm.getLastEventTime().getTime() + 1000));
+            }
+        }
+
+        private static long usedHeap() {
+            final Runtime runtime = Runtime.getRuntime();
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+            }
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+
+    private static Iterator<KeyValue<String, byte[]>> iteratorOf(Map<String, byte[]> ktable) {
+        return ktable.entrySet().stream()
+                .map(e -> KeyValue.pair(e.getKey(), e.getValue()))
+                .iterator();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(1)
+    public void synchronize(BState state, Blackhole blackhole) {
+        blackhole.consume(state.dataSync.handleAlarmSnapshot(iteratorOf(state.ktable), state.alarms));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.kafka.producer.datasync;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.kafka.streams.KeyValue;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.features.kafka.producer.NodeCache;
+import org.opennms.features.kafka.producer.OpennmsKafkaProducer;
+import org.opennms.features.kafka.producer.ProtobufMapper;
+import org.opennms.netmgt.config.api.EventConfDao;
+import org.opennms.netmgt.dao.api.HwEntityDao;
+import org.opennms.netmgt.dao.api.NodeDao;
+import org.opennms.netmgt.dao.api.SessionUtils;
+import org.opennms.netmgt.events.api.EventSubscriptionService;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.topologies.service.api.OnmsTopologyDao;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Tests for {@link KafkaAlarmDataSync}.
+ */
+public class KafkaAlarmDataSyncTest {
+
+    private ProtobufMapper protobufMapper;
+    private OpennmsKafkaProducer kafkaProducer;
+    private KafkaAlarmDataSync dataSync;
+
+    @Before
+    public void setUp() {
+        protobufMapper = new ProtobufMapper(mock(EventConfDao.class), mock(HwEntityDao.class),
+                mock(SessionUtils.class), mock(NodeDao.class), 1);
+        kafkaProducer = new OpennmsKafkaProducer(protobufMapper, new NodeCache(mock(NodeDao.class), mock(SessionUtils.class)),
+                mock(ConfigurationAdmin.class), mock(EventSubscriptionService.class), mock(OnmsTopologyDao.class), 1);
+        kafkaProducer.setAlarmTopic("alarms");
+        dataSync = new KafkaAlarmDataSync(mock(ConfigurationAdmin.class), kafkaProducer, protobufMapper);
+    }
+
+    @Test
+    public void canSkipAlarmsThatDidNotChange() {
+        final OnmsAlarm alarm1 = createAlarm(1, "rkey1");
+        final OnmsAlarm alarm2 = createAlarm(2, "rkey2");
+        final Map<String, byte[]> ktable = ktableOf(alarm1, alarm2);
+
+        // Nothing is known about the alarms yet, so all of them are compared
+        AlarmSyncResults results = dataSync.handleAlarmSnapshot(iteratorOf(ktable), Arrays.asList(alarm1, alarm2));
+        assertThat(results.getNumAlarmsCompared(), equalTo(2));
+        assertThat(results.getNumUpdates(), equalTo(0));
+
+        // None of them changed
+        results = dataSync.handleAlarmSnapshot(iteratorOf(ktable), Arrays.asList(alarm1, alarm2));
+        assertThat(results.getNumAlarmsCompared(), equalTo(0));
+        assertThat(results.getNumUpdates(), equalTo(0));
+        assertThat(results.getReductionKeysInKtable(), equalTo(Sets.newHashSet("rkey1", "rkey2")));
+
+        // The alarm in the database is reduced
+        alarm1.setCounter(2);
+        alarm1.setLastEventTime(new Date(alarm1.getLastEventTime().getTime() + 1000));
+        results = dataSync.handleAlarmSnapshot(iteratorOf(ktable), Arrays.asList(alarm1, alarm2));
+        assertThat(results.getNumAlarmsCompared(), equalTo(1));
+        assertThat(results.getReductionKeysUpdated(), equalTo(Collections.singleton("rkey1")));
+
+        // The record in the ktable is replaced
+        ktable.put("rkey1", protobufMapper.toAlarm(alarm1).build().toByteArray());
+        final OnmsAlarm majorAlarm2 = createAlarm(2, "rkey2");
+        majorAlarm2.setSeverity(OnmsSeverity.MAJOR);
+        ktable.put("rkey2", protobufMapper.toAlarm(majorAlarm2).build().toByteArray());
+        results = dataSync.handleAlarmSnapshot(iteratorOf(ktable), Arrays.asList(alarm1, alarm2));
+        assertThat(results.getNumAlarmsCompared(), equalTo(2));
+        assertThat(results.getReductionKeysUpdated(), equalTo(Collections.singleton("rkey2")));
+    }
+
+    @Test
+    public void canCompareAlarmsAgainWhenOnlyTheRecordChanged() {
+        final OnmsAlarm alarm1 = createAlarm(1, "rkey1");
+        final OnmsAlarm alarm2 = createAlarm(2, "rkey2");
+        final OnmsAlarm alarm3 = createAlarm(3, "rkey3");
+        final Map<String, byte[]> ktable = ktableOf(alarm1, alarm2, alarm3);
+        AlarmSyncResults results = dataSync.handleAlarmSnapshot(iteratorOf(ktable), Arrays.asList(alarm1, alarm2, alarm3));
+        assertThat(results.getNumAlarmsCompared(), equalTo(3));
+
+        // The alarms in the database are unchanged, but one record was overwritten and another one tombstoned
+        final OnmsAlarm majorAlarm1 = createAlarm(1, "rkey1");
+        majorAlarm1.setSeverity(OnmsSeverity.MAJOR);
+        ktable.put("rkey1", protobufMapper.toAlarm(majorAlarm1).build().toByteArray());
+        ktable.put("rkey3", null);
+        results = dataSync.handleAlarmSnapshot(iteratorOf(ktable), Arrays.asList(alarm1, alarm2, alarm3));
+        assertThat(results.getNumAlarmsCompared(), equalTo(2));
+        assertThat(results.getReductionKeysUpdated(), equalTo(Sets.newHashSet("rkey1", "rkey3")));
+        assertThat(results.getReductionKeysAdded(), equalTo(Collections.emptySet()));
+        assertThat(results.getReductionKeysDeleted(), equalTo(Collections.emptySet()));
+
+        // A record with the same content as the one that was compared is skipped again
+        ktable.put("rkey1", protobufMapper.toAlarm(alarm1).build().toByteArray());
+        ktable.put("rkey3", protobufMapper.toAlarm(alarm3).build().toByteArray());
+        results = dataSync.handleAlarmSnapshot(iteratorOf(ktable), Arrays.asList(alarm1, alarm2, alarm3));
+        assertThat(results.getNumAlarmsCompared(), equalTo(0));
+        assertThat(results.getNumUpdates(), equalTo(0));
+    }
+
+    @Test
+    public void canSkipAlarmsChangedDuringTheSnapshot() {
+        final OnmsAlarm alarm1 = createAlarm(1, "rkey1");
+        final OnmsAlarm alarm2 = createAlarm(2, "rkey2");
+        final OnmsAlarm alarm3 = createAlarm(3, "rkey3");
+        final Map<String, byte[]> ktable = ktableOf(alarm1, alarm3);
+
+        // All of the alarms were notified after the snapshot was taken
+        kafkaProducer.preHandleAlarmSnapshot();
+        kafkaProducer.handleNewOrUpdatedAlarm(alarm1);
+        kafkaProducer.handleDeletedAlarm(2, "rkey2");
+        kafkaProducer.handleNewOrUpdatedAlarm(alarm3);
+        AlarmSyncResults results = dataSync.handleAlarmSnapshot(iteratorOf(ktable), Arrays.asList(alarm1, alarm2));
+        kafkaProducer.postHandleAlarmSnapshot();
+        assertThat(results.getNumAlarmsCompared(), equalTo(0));
+        assertThat(results.getReductionKeysAdded(), equalTo(Collections.emptySet()));
+        assertThat(results.getReductionKeysDeleted(), equalTo(Collections.emptySet()));
+        assertThat(results.getReductionKeysUpdated(), equalTo(Collections.emptySet()));
+
+        // The next snapshot catches up
+        results = dataSync.handleAlarmSnapshot(iteratorOf(ktable), Arrays.asList(alarm1, alarm2));
+        assertThat(results.getNumAlarmsCompared(), equalTo(1));
+        assertThat(results.getReductionKeysAdded(), equalTo(Collections.singleton("rkey2")));
+        assertThat(results.getReductionKeysDeleted(), equalTo(Collections.singleton("rkey3")));
+        assertThat(results.getReductionKeysUpdated(), equalTo(Collections.emptySet()));
+    }
+
+    @Test
+    public void canAddAndDeleteAlarms() {
+        final OnmsAlarm alarm1 = createAlarm(1, "rkey1");
+        final OnmsAlarm alarm2 = createAlarm(2, "rkey2");
+        final Map<String, byte[]> ktable = ktableOf(alarm1);
+
+        final AlarmSyncResults results = dataSync.handleAlarmSnapshot(iteratorOf(ktable), Collections.singletonList(alarm2));
+        assertThat(results.getReductionKeysAdded(), equalTo(Collections.singleton("rkey2")));
+        assertThat(results.getReductionKeysDeleted(), equalTo(Collections.singleton("rkey1")));
+        assertThat(results.getReductionKeysUpdated(), equalTo(Collections.emptySet()));
+        assertThat(results.getNumAlarmsCompared(), equalTo(0));
+    }
+
+    @Test
+    public void canSkipIncrementalAlarms() {
+        kafkaProducer.setSuppressIncrementalAlarms(true);
+        dataSync.setSuppressIncrementalAlarms(true);
+
+        final OnmsAlarm alarm = createAlarm(1, "rkey1");
+        final Map<String, byte[]> ktable = ktableOf(alarm);
+        AlarmSyncResults results = dataSync.handleAlarmSnapshot(iteratorOf(ktable), Collections.singletonList(alarm));
+        assertThat(results.getNumAlarmsCompared(), equalTo(1));
+
+        // Only the count and last event time change, the alarm is compared once but not updated
+        alarm.setCounter(2);
+        alarm.setLastEventTime(new Date(alarm.getLastEventTime().getTime() + 1000));
+        results = dataSync.handleAlarmSnapshot(iteratorOf(ktable), Collections.singletonList(alarm));
+        assertThat(results.getNumAlarmsCompared(), equalTo(1));
+        assertThat(results.getNumUpdates(), equalTo(0));
+
+        results = dataSync.handleAlarmSnapshot(iteratorOf(ktable), Collections.singletonList(alarm));
+        assertThat(results.getNumAlarmsCompared(), equalTo(0));
+    }
+
+    private Map<String, byte[]> ktableOf(OnmsAlarm... alarms) {
+        final Map<String, byte[]> ktable = new LinkedHashMap<>();
+        for (OnmsAlarm alarm : alarms) {
+            ktable.put(alarm.getReductionKey(), protobufMapper.toAlarm(alarm).build().toByteArray());
+        }
+        return ktable;
+    }
+
+    private static Iterator<KeyValue<String, byte[]>> iteratorOf(Map<String, byte[]> ktable) {
+        return ktable.entrySet().stream()
+                .map(e -> KeyValue.pair(e.getKey(), e.getValue()))
+                .iterator();
+    }
+
+    private static OnmsAlarm createAlarm(int id, String reductionKey) {
+        final OnmsAlarm alarm = new OnmsAlarm();
+        alarm.setId(id);
+        alarm.setUei("uei.opennms.org/test");
+        alarm.setReductionKey(reductionKey);
+        alarm.setCounter(1);
+        alarm.setSeverity(OnmsSeverity.MINOR);
+        alarm.setFirstEventTime(new Date(1000L * id));
+        alarm.setLastEventTime(new Date(1000L * id));
+        return alarm;
+    }
+}
@@ -0,0 +1,569 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.timeseries.local;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.opennms.integration.api.v1.timeseries.Aggregation;
+import org.opennms.integration.api.v1.timeseries.DataPoint;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.StorageException;
+import org.opennms.integration.api.v1.timeseries.TagMatcher;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesData;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesFetchRequest;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesStorage;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableDataPoint;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTimeSeriesData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists the samples on the local disk, for installations which do not
+ * want to run an external time series database.
+ *
+ * Samples are appended to a write-ahead log and kept in memory until they
+ * are flushed to an immutable segment of the partition covering their
+ * time. Every metric is stored as a compressed column within the segment.
+ * A background compaction merges the segments of a partition once it is
+ * complete, computes the averages for the coarser tiers defined by the
+ * RRAs and removes the partitions past their retention.
+ *
+ * Metrics are assigned integer ids by the {@link MetricIndex}, which also
+ * answers the tag lookups of {@link #findMetrics(Collection)}.
+ */
+public class LocalTimeSeriesStorage implements TimeSeriesStorage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LocalTimeSeriesStorage.class);
+
+    public static final String DEFAULT_RRAS = "RRA:AVERAGE:0.5:1:2016,RRA:AVERAGE:0.5:12:1488,RRA:AVERAGE:0.5:288:366,RRA:MAX:0.5:288:366,RRA:MIN:0.5:288:366";
+
+    private String baseDir = "";
+
+    private long step = 300;
+
+    private String rras = DEFAULT_RRAS;
+
+    private long partitionDuration = TimeUnit.DAYS.toSeconds(1);
+
+    private long flushInterval = 60;
+
+    private long maxBufferedSamples = 1_000_000;
+
+    private long compactionInterval = TimeUnit.HOURS.toSeconds(1);
+
+    private boolean sync = false;
+
+    private Path dir;
+
+    private MetricIndex index;
+
+    private WriteAheadLog wal;
+
+    private List<Tier> tiers;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Samples which were not flushed yet, by metric id.
+     */
+    private volatile Map<Integer, SeriesBuffer> head = new ConcurrentHashMap<>();
+
+    /**
+     * Samples which are currently being written to segments.
+     */
+    private volatile Map<Integer, SeriesBuffer> flushing = null;
+
+    private final AtomicLong bufferedSamples = new AtomicLong();
+
+    private final AtomicLong segmentSequence = new AtomicLong();
+
+    private final Object writeLock = new Object();
+
+    /**
+     * Serializes the flushes and compactions, which are the only ones changing the segments.
+     */
+    private final Object maintenanceLock = new Object();
+
+    /**
+     * Prevents segments from being deleted while they are read.
+     */
+    private final ReadWriteLock segmentLock = new ReentrantReadWriteLock();
+
+    public void init() throws IOException {
+        dir = baseDir == null || baseDir.trim().isEmpty()
+                ? Paths.get(System.getProperty("opennms.home", ""), "share", "timeseries")
+                : Paths.get(baseDir);
+        Files.createDirectories(dir);
+
+        tiers = Tier.fromRras(step, Arrays.asList(rras.split(",")), TimeUnit.SECONDS.toMillis(partitionDuration), dir);
+        for (Tier tier : tiers) {
+            if (tier.getResolution() > 0 && TimeUnit.SECONDS.toMillis(partitionDuration) % tier.getResolution() != 0) {
+                LOG.warn("The partition duration of {}s is not a multiple of the resolution of {}. Averages may be incomplete.", partitionDuration, tier);
+            }
+            segmentSequence.set(Math.max(segmentSequence.get(), tier.load()));
+            LOG.info("Loaded {} partitions for {}.", tier.getPartitions().size(), tier);
+        }
+
+        index = new MetricIndex(dir.resolve("metrics.idx"), sync);
+
+        // Recover the samples which were not written to segments before the last shutdown
+        final Path walDir = dir.resolve("wal");
+        final List<Path> replayed = WriteAheadLog.replay(walDir, (id, time, value) -> {
+            if (index.contains(id)) {
+                head.computeIfAbsent(id, k -> new SeriesBuffer()).add(time, value);
+            }
+        });
+        wal = new WriteAheadLog(walDir, sync);
+        flush();
+        for (Path file : replayed) {
+            Files.delete(file);
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "local-timeseries-maintenance"));
+        executor.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.SECONDS);
+        executor.scheduleWithFixedDelay(this::compactQuietly, compactionInterval, compactionInterval, TimeUnit.SECONDS);
+        LOG.info("Storing time series in {}.", dir);
+    }
+
+    public void destroy() throws IOException {
+        shutdown(true);
+    }
+
+    void shutdown(boolean flush) throws IOException {
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (flush) {
+            flush();
+        }
+        wal.close();
+        index.close();
+    }
+
+    @Override
+    public void store(final List<Sample> samples) throws StorageException {
+        Objects.requireNonNull(samples);
+        try {
+            synchronized (writeLock) {
+                final Map<Integer, SeriesBuffer> currentHead = head;
+                for (Sample sample : samples) {
+                    final int id = index.getOrCreate(sample.getMetric());
+                    final long time = sample.getTime().toEpochMilli();
+                    final double value = sample.getValue() != null ? sample.getValue() : Double.NaN;
+                    wal.append(id, time, value);
+                    currentHead.computeIfAbsent(id, k -> new SeriesBuffer()).add(time, value);
+                }
+                wal.flush();
+            }
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+        if (bufferedSamples.addAndGet(samples.size()) >= maxBufferedSamples) {
+            executor.execute(this::flushQuietly);
+        }
+    }
+
+    @Override
+    public List<Metric> findMetrics(Collection<TagMatcher> tagMatchers) {
+        Objects.requireNonNull(tagMatchers);
+        if (tagMatchers.isEmpty()) {
+            throw new IllegalArgumentException("We expect at least one TagMatcher but none was given.");
+        }
+        return index.find(tagMatchers);
+    }
+
+    @Override
+    public List<Sample> getTimeseries(TimeSeriesFetchRequest request) throws StorageException {
+        throw new UnsupportedOperationException("use getTimeSeriesData(TimeSeriesFetchRequest request) instead.");
+    }
+
+    @Override
+    public TimeSeriesData getTimeSeriesData(TimeSeriesFetchRequest request) throws StorageException {
+        Objects.requireNonNull(request);
+        if (request.getAggregation() != Aggregation.NONE) {
+            throw new IllegalArgumentException(String.format("Aggregation %s is not supported.", request.getAggregation()));
+        }
+
+        final Integer id = index.getId(request.getMetric());
+        final Metric metric = id != null ? index.get(id) : null;
+        if (metric == null) {
+            return ImmutableTimeSeriesData.builder()
+                    .metric(request.getMetric())
+                    .dataPoints(new ArrayList<>())
+                    .build();
+        }
+
+        final SeriesBuffer result;
+        try {
+            result = read(id, request.getStart().toEpochMilli(), request.getEnd().toEpochMilli(), System.currentTimeMillis());
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+        final List<DataPoint> dataPoints = new ArrayList<>(result.size());
+        for (int i = 0; i < result.size(); i++) {
+            dataPoints.add(new ImmutableDataPoint(Instant.ofEpochMilli(result.getTime(i)), result.getValue(i)));
+        }
+        return ImmutableTimeSeriesData.builder()
+                .metric(metric)
+                .dataPoints(dataPoints)
+                .build();
+    }
+
+    /**
+     * Reads the samples within the given range, both ends inclusive. Every
+     * tier is used for the period it covers, so recent samples come from
+     * the raw tier and older ones from the coarser tiers.
+     */
+    SeriesBuffer read(int id, long start, long end, long now) throws IOException {
+        // Determine the range covered by every tier. Averages are stored at the end of their
+        // bucket, so a coarser tier includes the values stored at the lower bound of the finer one.
+        final long[] lowers = new long[tiers.size()];
+        final long[] uppers = new long[tiers.size()];
+        int count = 0;
+        long upper = end;
+        for (Tier tier : tiers) {
+            final boolean last = tier.getIndex() == tiers.size() - 1;
+            final long lower = last ? start : Math.max(start, now - tier.getRetention());
+            lowers[count] = lower;
+            uppers[count] = upper;
+            count++;
+            if (lower <= start) {
+                break;
+            }
+            upper = lower;
+        }
+
+        // Read the coarsest tier first, samples added later take precedence when they share the same time
+        final SeriesBuffer result = new SeriesBuffer();
+        for (int i = count - 1; i >= 0; i--) {
+            if (lowers[i] > uppers[i]) {
+                continue;
+            }
+            final Tier tier = tiers.get(i);
+            if (tier.getIndex() == 0) {
+                // Head first, then the buffer being flushed, then the segments so that no sample is missed
+                final SeriesBuffer headSeries = head.get(id);
+                final Map<Integer, SeriesBuffer> currentlyFlushing = flushing;
+                final SeriesBuffer flushingSeries = currentlyFlushing != null ? currentlyFlushing.get(id) : null;
+                final SeriesBuffer unflushed = new SeriesBuffer();
+                if (flushingSeries != null) {
+                    unflushed.addAll(flushingSeries, lowers[i], uppers[i]);
+                }
+                if (headSeries != null) {
+                    unflushed.addAll(headSeries, lowers[i], uppers[i]);
+                }
+                readSegments(tier, id, lowers[i], uppers[i], result);
+                result.addAll(unflushed, lowers[i], uppers[i]);
+            } else {
+                readSegments(tier, id, lowers[i], uppers[i], result);
+            }
+        }
+        result.sort();
+        return result;
+    }
+
+    private void readSegments(Tier tier, int id, long start, long end, SeriesBuffer out) throws IOException {
+        segmentLock.readLock().lock();
+        try {
+            for (Tier.Partition partition : tier.getPartitions(start, end)) {
+                for (Segment segment : partition.getSegments()) {
+                    segment.read(id, start, end, out);
+                }
+            }
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(Metric metric) throws StorageException {
+        Objects.requireNonNull(metric);
+        try {
+            synchronized (writeLock) {
+                final Integer id = index.getId(metric);
+                if (id != null) {
+                    index.delete(metric);
+                    head.remove(id);
+                }
+            }
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+        // The samples are dropped from the segments by the next compaction
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            LOG.error("Failed to flush the buffered samples.", e);
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact(System.currentTimeMillis());
+        } catch (Exception e) {
+            LOG.error("Failed to compact the segments.", e);
+        }
+    }
+
+    /**
+     * Writes the buffered samples to new segments in the raw tier.
+     */
+    void flush() throws IOException {
+        synchronized (maintenanceLock) {
+            final Map<Integer, SeriesBuffer> toFlush;
+            final Path walFile;
+            synchronized (writeLock) {
+                if (head.isEmpty()) {
+                    return;
+                }
+                toFlush = head;
+                flushing = toFlush;
+                head = new ConcurrentHashMap<>();
+                bufferedSamples.set(0);
+                walFile = wal.rotate();
+            }
+
+            // Split the samples by partition
+            final Tier raw = tiers.get(0);
+            final Map<Long, Map<Integer, SeriesBuffer>> partitions = new TreeMap<>();
+            for (Map.Entry<Integer, SeriesBuffer> entry : toFlush.entrySet()) {
+                final SeriesBuffer series = entry.getValue();
+                series.sort();
+                for (int i = 0; i < series.size(); i++) {
+                    partitions.computeIfAbsent(raw.getPartitionStart(series.getTime(i)), k -> new TreeMap<>())
+                            .computeIfAbsent(entry.getKey(), k -> new SeriesBuffer())
+                            .add(series.getTime(i), series.getValue(i));
+                }
+            }
+            for (Map.Entry<Long, Map<Integer, SeriesBuffer>> entry : partitions.entrySet()) {
+                final Tier.Partition partition = raw.getOrCreatePartition(entry.getKey());
+                try (Segment.Writer writer = new Segment.Writer(partition.getDir(), segmentSequence.incrementAndGet())) {
+                    for (Map.Entry<Integer, SeriesBuffer> series : entry.getValue().entrySet()) {
+                        writer.add(series.getKey(), series.getValue());
+                    }
+                    partition.addSegment(writer.finish());
+                }
+            }
+
+            flushing = null;
+            Files.delete(walFile);
+            LOG.debug("Flushed {} series to {} partitions.", toFlush.size(), partitions.size());
+        }
+    }
+
+    /**
+     * Merges the segments of the complete partitions, computes the values of
+     * the coarser tiers and removes the partitions past their retention.
+     */
+    void compact(long now) throws IOException {
+        synchronized (maintenanceLock) {
+            for (Tier tier : tiers) {
+                final Tier next = tier.getIndex() < tiers.size() - 1 ? tiers.get(tier.getIndex() + 1) : null;
+                for (Tier.Partition partition : new ArrayList<>(tier.getPartitions())) {
+                    // Leave some time for late samples before considering the partition as complete
+                    final boolean complete = partition.getEnd() + TimeUnit.SECONDS.toMillis(flushInterval) * 2 <= now;
+                    if (!complete) {
+                        continue;
+                    }
+                    if (partition.getSegments().size() > 1 || hasDeletedMetrics(partition)) {
+                        merge(partition);
+                    }
+                    final List<Segment> segments = partition.getSegments();
+                    final long sequence = segments.isEmpty() ? 0 : segments.get(0).getSequence();
+                    if (next != null && !segments.isEmpty() && partition.getDownsampledSequence() != sequence) {
+                        downsample(segments.get(0), next);
+                        partition.setDownsampledSequence(sequence);
+                    }
+                    final boolean expired = partition.getEnd() <= now - tier.getRetention();
+                    if (expired && (next == null || segments.isEmpty() || partition.getDownsampledSequence() == sequence)) {
+                        segmentLock.writeLock().lock();
+                        try {
+                            tier.removePartition(partition);
+                        } finally {
+                            segmentLock.writeLock().unlock();
+                        }
+                        LOG.debug("Removed partition {} from {}.", partition.getStart(), tier);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean hasDeletedMetrics(Tier.Partition partition) {
+        for (Segment segment : partition.getSegments()) {
+            for (Integer id : segment.getIds()) {
+                if (!index.contains(id)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void merge(Tier.Partition partition) throws IOException {
+        final List<Segment> segments = new ArrayList<>(partition.getSegments());
+        final Set<Integer> ids = new TreeSet<>();
+        for (Segment segment : segments) {
+            ids.addAll(segment.getIds());
+        }
+        try (Segment.Writer writer = new Segment.Writer(partition.getDir(), segmentSequence.incrementAndGet())) {
+            for (Integer id : ids) {
+                if (!index.contains(id)) {
+                    continue;
+                }
+                // Segments are sorted by sequence, so the newest value wins when samples share the same time
+                final SeriesBuffer series = new SeriesBuffer();
+                for (Segment segment : segments) {
+                    series.addAll(segment.read(id), Long.MIN_VALUE, Long.MAX_VALUE);
+                }
+                series.sort();
+                writer.add(id, series);
+            }
+            final Segment merged = writer.finish();
+            segmentLock.writeLock().lock();
+            try {
+                partition.replaceSegments(segments, merged);
+            } finally {
+                segmentLock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void downsample(Segment segment, Tier next) throws IOException {
+        final long resolution = next.getResolution();
+        final Map<Long, Segment.Writer> writers = new HashMap<>();
+        try {
+            for (Integer id : segment.getIds()) {
+                final SeriesBuffer series = segment.read(id);
+                final Map<Long, SeriesBuffer> averages = new HashMap<>();
+                int i = 0;
+                while (i < series.size()) {
+                    // Buckets are aligned on the resolution, and the average is stored at the end of the bucket like RRDs do
+                    final long bucketStart = Math.floorDiv(series.getTime(i), resolution) * resolution;
+                    final long bucketEnd = bucketStart + resolution;
+                    double sum = 0;
+                    int count = 0;
+                    while (i < series.size() && series.getTime(i) < bucketEnd) {
+                        final double value = series.getValue(i);
+                        if (!Double.isNaN(value)) {
+                            sum += value;
+                            count++;
+                        }
+                        i++;
+                    }
+                    averages.computeIfAbsent(next.getPartitionStart(bucketEnd), k -> new SeriesBuffer())
+                            .add(bucketEnd, count > 0 ? sum / count : Double.NaN);
+                }
+                for (Map.Entry<Long, SeriesBuffer> entry : averages.entrySet()) {
+                    Segment.Writer writer = writers.get(entry.getKey());
+                    if (writer == null) {
+                        writer = new Segment.Writer(next.getOrCreatePartition(entry.getKey()).getDir(), segmentSequence.incrementAndGet());
+                        writers.put(entry.getKey(), writer);
+                    }
+                    writer.add(id, entry.getValue());
+                }
+            }
+            for (Map.Entry<Long, Segment.Writer> entry : writers.entrySet()) {
+                next.getOrCreatePartition(entry.getKey()).addSegment(entry.getValue().finish());
+            }
+        } finally {
+            for (Segment.Writer writer : writers.values()) {
+                writer.close();
+            }
+        }
+    }
+
+    List<Tier> getTiers() {
+        return tiers;
+    }
+
+    MetricIndex getIndex() {
+        return index;
+    }
+
+    public void setBaseDir(String baseDir) {
+        this.baseDir = baseDir;
+    }
+
+    public void setStep(long step) {
+        this.step = step;
+    }
+
+    public void setRras(String rras) {
+        this.rras = rras;
+    }
+
+    public void setPartitionDuration(long partitionDuration) {
+        this.partitionDuration = partitionDuration;
+    }
+
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public void setMaxBufferedSamples(long maxBufferedSamples) {
+        this.maxBufferedSamples = maxBufferedSamples;
+    }
+
+    public void setCompactionInterval(long compactionInterval) {
+        this.compactionInterval = compactionInterval;
+    }
+
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getName();
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.timeseries.local;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.integration.api.v1.timeseries.TagMatcher;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Assigns an integer id to every metric and keeps an inverted index of
+ * their intrinsic and meta tags, so that metrics can be looked up without
+ * going through all of them.
+ *
+ * Changes are appended to a log file which is read back on startup.
+ */
+final class MetricIndex implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetricIndex.class);
+
+    private static final byte ADD = 1;
+    private static final byte DELETE = 2;
+
+    private static final byte INTRINSIC = 1;
+    private static final byte META = 2;
+    private static final byte EXTERNAL = 3;
+
+    private final Path file;
+
+    private final boolean sync;
+
+    private final Map<String, Integer> idsByKey = new ConcurrentHashMap<>();
+
+    private final Map<Integer, Metric> metricsById = new ConcurrentHashMap<>();
+
+    /**
+     * Tag key -> tag value -> ids of the metrics with this tag.
+     */
+    private final Map<String, Map<String, Set<Integer>>> postings = new HashMap<>();
+
+    private int nextId = 0;
+
+    private FileOutputStream fileOut;
+
+    private DataOutputStream out;
+
+    MetricIndex(Path file, boolean sync) throws IOException {
+        this.file = file;
+        this.sync = sync;
+        if (Files.exists(file)) {
+            load();
+        }
+        fileOut = new FileOutputStream(file.toFile(), true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut));
+    }
+
+    /**
+     * Returns the id of the given metric, adding it to the index if it is
+     * not known yet or if its tags changed.
+     */
+    int getOrCreate(Metric metric) throws IOException {
+        final Integer id = idsByKey.get(metric.getKey());
+        if (id != null) {
+            final Metric existing = metricsById.get(id);
+            if (existing == metric || (existing != null && sameTags(existing, metric))) {
+                return id;
+            }
+        }
+        synchronized (this) {
+            Integer currentId = idsByKey.get(metric.getKey());
+            if (currentId != null && sameTags(metricsById.get(currentId), metric)) {
+                return currentId;
+            }
+            if (currentId == null) {
+                currentId = nextId++;
+            }
+            write(ADD, currentId, metric);
+            put(currentId, metric);
+            return currentId;
+        }
+    }
+
+    Integer getId(Metric metric) {
+        return idsByKey.get(metric.getKey());
+    }
+
+    Metric get(int id) {
+        return metricsById.get(id);
+    }
+
+    boolean contains(int id) {
+        return metricsById.containsKey(id);
+    }
+
+    synchronized void delete(Metric metric) throws IOException {
+        final Integer id = idsByKey.get(metric.getKey());
+        if (id != null) {
+            write(DELETE, id, metricsById.get(id));
+            remove(id);
+        }
+    }
+
+    /**
+     * Finds the metrics for which every matcher matches at least one of the intrinsic or meta tags.
+     */
+    synchronized List<Metric> find(Collection<TagMatcher> matchers) {
+        Set<Integer> result = null;
+        for (TagMatcher matcher : matchers) {
+            final Set<Integer> ids = find(matcher);
+            if (result == null) {
+                result = ids;
+            } else {
+                result.retainAll(ids);
+            }
+            if (result.isEmpty()) {
+                return Collections.emptyList();
+            }
+        }
+        if (result == null) {
+            return Collections.emptyList();
+        }
+        final List<Metric> metrics = new ArrayList<>(result.size());
+        for (Integer id : result) {
+            metrics.add(metricsById.get(id));
+        }
+        return metrics;
+    }
+
+    private Set<Integer> find(TagMatcher matcher) {
+        final Map<String, Set<Integer>> values = postings.getOrDefault(matcher.getKey(), Collections.emptyMap());
+        final Set<Integer> ids = new HashSet<>();
+        switch (matcher.getType()) {
+            case EQUALS:
+                ids.addAll(values.getOrDefault(matcher.getValue(), Collections.emptySet()));
+                break;
+            case NOT_EQUALS:
+                values.forEach((value, postingIds) -> {
+                    if (!value.equals(matcher.getValue())) {
+                        ids.addAll(postingIds);
+                    }
+                });
+                break;
+            case EQUALS_REGEX:
+            case NOT_EQUALS_REGEX:
+                final Pattern pattern = Pattern.compile(matcher.getValue());
+                final boolean negate = matcher.getType() == TagMatcher.Type.NOT_EQUALS_REGEX;
+                values.forEach((value, postingIds) -> {
+                    if (pattern.matcher(value).matches() != negate) {
+                        ids.addAll(postingIds);
+                    }
+                });
+                break;
+            default:
+                throw new IllegalArgumentException("Implement me for " + matcher.getType());
+        }
+        return ids;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private void put(int id, Metric metric) {
+        final Metric previous = metricsById.get(id);
+        if (previous != null) {
+            removePostings(id, previous);
+        }
+        idsByKey.put(metric.getKey(), id);
+        metricsById.put(id, metric);
+        for (Tag tag : getSearchableTags(metric)) {
+            postings.computeIfAbsent(tag.getKey(), k -> new HashMap<>())
+                    .computeIfAbsent(tag.getValue(), k -> new HashSet<>())
+                    .add(id);
+        }
+    }
+
+    private void remove(int id) {
+        final Metric metric = metricsById.remove(id);
+        if (metric != null) {
+            idsByKey.remove(metric.getKey());
+            removePostings(id, metric);
+        }
+    }
+
+    private void removePostings(int id, Metric metric) {
+        for (Tag tag : getSearchableTags(metric)) {
+            final Map<String, Set<Integer>> values = postings.get(tag.getKey());
+            if (values == null) {
+                continue;
+            }
+            final Set<Integer> ids = values.get(tag.getValue());
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    values.remove(tag.getValue());
+                }
+            }
+            if (values.isEmpty()) {
+                postings.remove(tag.getKey());
+            }
+        }
+    }
+
+    private static Set<Tag> getSearchableTags(Metric metric) {
+        final Set<Tag> tags = new HashSet<>(metric.getIntrinsicTags());
+        tags.addAll(metric.getMetaTags());
+        return tags;
+    }
+
+    private static boolean sameTags(Metric a, Metric b) {
+        return a != null
+                && Objects.equals(a.getIntrinsicTags(), b.getIntrinsicTags())
+                && Objects.equals(a.getMetaTags(), b.getMetaTags())
+                && Objects.equals(a.getExternalTags(), b.getExternalTags());
+    }
+
+    private void write(byte op, int id, Metric metric) throws IOException {
+        out.writeByte(op);
+        out.writeInt(id);
+        writeTags(INTRINSIC, metric.getIntrinsicTags());
+        writeTags(META, metric.getMetaTags());
+        writeTags(EXTERNAL, metric.getExternalTags());
+        out.writeByte(0);
+        out.flush();
+        if (sync) {
+            fileOut.getChannel().force(false);
+        }
+    }
+
+    private void writeTags(byte type, Collection<Tag> tags) throws IOException {
+        for (Tag tag : tags) {
+            out.writeByte(type);
+            out.writeUTF(tag.getKey());
+            out.writeUTF(tag.getValue());
+        }
+    }
+
+    private void load() throws IOException {
+        final long[] position = {0};
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new FilterInputStream(new BufferedInputStream(Files.newInputStream(file))) {
+            @Override
+            public int read() throws IOException {
+                final int b = super.read();
+                if (b >= 0) {
+                    position[0]++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                final int n = super.read(b, off, len);
+                if (n > 0) {
+                    position[0] += n;
+                }
+                return n;
+            }
+        })) {
+            while (true) {
+                validLength = position[0];
+                final byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                final int id = in.readInt();
+                final ImmutableMetric.MetricBuilder builder = ImmutableMetric.builder();
+                byte type;
+                while ((type = in.readByte()) != 0) {
+                    final String key = in.readUTF();
+                    final String value = in.readUTF();
+                    if (type == INTRINSIC) {
+                        builder.intrinsicTag(key, value);
+                    } else if (type == META) {
+                        builder.metaTag(key, value);
+                    } else {
+                        builder.externalTag(key, value);
+                    }
+                }
+                if (op == ADD) {
+                    put(id, builder.build());
+                } else {
+                    remove(id);
+                }
+                nextId = Math.max(nextId, id + 1);
+            }
+        } catch (EOFException e) {
+            LOG.warn("Removing truncated record at the end of {}.", file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        LOG.info("Loaded {} metrics from {}.", metricsById.size(), file);
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.timeseries.local;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Immutable file holding the samples of many metrics for a single partition.
+ *
+ * Every metric is stored in its own compressed block: the timestamps are
+ * encoded as variable length delta-of-deltas and the values as the XOR with
+ * the previous value, which is mostly zeros for slowly changing metrics. The
+ * blocks are followed by a footer mapping the metric ids to their blocks, so
+ * a query only reads and inflates the blocks of the requested metric.
+ */
+final class Segment {
+
+    static final String EXTENSION = ".seg";
+
+    private static final int MAGIC = 0x4f4e5453;
+
+    private static final int TRAILER_SIZE = Long.BYTES + Integer.BYTES + Integer.BYTES;
+
+    private final Path path;
+
+    private final long sequence;
+
+    private final Map<Integer, Block> blocks;
+
+    private Segment(Path path, long sequence, Map<Integer, Block> blocks) {
+        this.path = path;
+        this.sequence = sequence;
+        this.blocks = blocks;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    Set<Integer> getIds() {
+        return blocks.keySet();
+    }
+
+    /**
+     * Adds the samples of the given metric within the given range, both ends inclusive.
+     */
+    void read(int id, long start, long end, SeriesBuffer out) throws IOException {
+        final Block block = blocks.get(id);
+        if (block == null || block.maxTime < start || block.minTime > end) {
+            return;
+        }
+        out.addAll(read(block), start, end);
+    }
+
+    SeriesBuffer read(int id) throws IOException {
+        final Block block = blocks.get(id);
+        return block != null ? read(block) : new SeriesBuffer();
+    }
+
+    private SeriesBuffer read(Block block) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(block.length);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            readFully(channel, buffer, block.offset);
+        }
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(buffer.array())))) {
+            final int count = in.readInt();
+            final SeriesBuffer series = new SeriesBuffer(count);
+            long time = 0;
+            long delta = 0;
+            long bits = 0;
+            for (int i = 0; i < count; i++) {
+                delta += decodeZigZag(readVarLong(in));
+                time += delta;
+                bits ^= in.readLong();
+                series.add(time, Double.longBitsToDouble(bits));
+            }
+            return series;
+        }
+    }
+
+    static long getSequence(Path path) {
+        final String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - EXTENSION.length()));
+    }
+
+    static Path getPath(Path dir, long sequence) {
+        return dir.resolve(String.format("%020d%s", sequence, EXTENSION));
+    }
+
+    /**
+     * Writes a new segment. The file is written under a temporary name and
+     * moved in place once it was synced to disk, so a segment is either
+     * complete or not there at all.
+     */
+    static final class Writer implements Closeable {
+
+        private final Path path;
+
+        private final Path tmp;
+
+        private final long sequence;
+
+        private final FileChannel channel;
+
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        private final Map<Integer, Block> blocks = new TreeMap<>();
+
+        private long offset = 0;
+
+        private boolean finished = false;
+
+        Writer(Path dir, long sequence) throws IOException {
+            this.path = getPath(dir, sequence);
+            this.tmp = dir.resolve(path.getFileName() + ".tmp");
+            this.sequence = sequence;
+            this.channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        }
+
+        /**
+         * Adds the samples of a metric, the buffer must be sorted.
+         */
+        void add(int id, SeriesBuffer series) throws IOException {
+            if (series.size() == 0) {
+                return;
+            }
+            deflater.reset();
+            final byte[] bytes = encode(series, deflater);
+            writeFully(channel, ByteBuffer.wrap(bytes));
+            blocks.put(id, new Block(offset, bytes.length, series.getMinTime(), series.getMaxTime()));
+            offset += bytes.length;
+        }
+
+        boolean isEmpty() {
+            return blocks.isEmpty();
+        }
+
+        Segment finish() throws IOException {
+            final ByteArrayOutputStream footer = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(footer)) {
+                for (Map.Entry<Integer, Block> entry : blocks.entrySet()) {
+                    out.writeInt(entry.getKey());
+                    out.writeLong(entry.getValue().offset);
+                    out.writeInt(entry.getValue().length);
+                    out.writeLong(entry.getValue().minTime);
+                    out.writeLong(entry.getValue().maxTime);
+                }
+                out.writeLong(offset);
+                out.writeInt(blocks.size());
+                out.writeInt(MAGIC);
+            }
+            writeFully(channel, ByteBuffer.wrap(footer.toByteArray()));
+            channel.force(true);
+            deflater.end();
+            channel.close();
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+            return new Segment(path, sequence, Collections.unmodifiableMap(blocks));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel.isOpen()) {
+                deflater.end();
+                channel.close();
+            }
+            if (!finished) {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    /**
+     * Opens an existing segment by reading its footer.
+     */
+    static Segment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < TRAILER_SIZE) {
+                throw new IOException("Segment " + path + " is truncated.");
+            }
+            final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            readFully(channel, trailer, size - TRAILER_SIZE);
+            trailer.flip();
+            final long footerOffset = trailer.getLong();
+            final int count = trailer.getInt();
+            if (trailer.getInt() != MAGIC) {
+                throw new IOException("Segment " + path + " is corrupt.");
+            }
+            final ByteBuffer footer = ByteBuffer.allocate(Math.toIntExact(size - TRAILER_SIZE - footerOffset));
+            readFully(channel, footer, footerOffset);
+            footer.flip();
+            final Map<Integer, Block> blocks = new TreeMap<>();
+            for (int i = 0; i < count; i++) {
+                final int id = footer.getInt();
+                blocks.put(id, new Block(footer.getLong(), footer.getInt(), footer.getLong(), footer.getLong()));
+            }
+            return new Segment(path, getSequence(path), Collections.unmodifiableMap(blocks));
+        }
+    }
+
+    private static byte[] encode(SeriesBuffer buffer, Deflater deflater) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+            final int count = buffer.size();
+            out.writeInt(count);
+            long time = 0;
+            long delta = 0;
+            long bits = 0;
+            for (int i = 0; i < count; i++) {
+                final long nextDelta = buffer.getTime(i) - time;
+                writeVarLong(out, encodeZigZag(nextDelta - delta));
+                time = buffer.getTime(i);
+                delta = nextDelta;
+                final long nextBits = Double.doubleToLongBits(buffer.getValue(i));
+                out.writeLong(nextBits ^ bits);
+                bits = nextBits;
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        final int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return length;
+    }
+
+    private static long encodeZigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long decodeZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length value.");
+    }
+
+    private static final class Block {
+        private final long offset;
+        private final int length;
+        private final long minTime;
+        private final long maxTime;
+
+        private Block(long offset, int length, long minTime, long maxTime) {
+            this.offset = offset;
+            this.length = length;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.timeseries.local;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of samples for a single metric, stored as two primitive
+ * columns. Used for the samples which were not flushed to a segment yet
+ * and to collect the results of a query.
+ */
+class SeriesBuffer {
+
+    private long[] times;
+    private double[] values;
+    private int size = 0;
+    private boolean sorted = true;
+
+    SeriesBuffer() {
+        this(16);
+    }
+
+    SeriesBuffer(int capacity) {
+        times = new long[Math.max(capacity, 1)];
+        values = new double[Math.max(capacity, 1)];
+    }
+
+    synchronized void add(long time, double value) {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        if (size > 0 && time <= times[size - 1]) {
+            sorted = false;
+        }
+        times[size] = time;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Adds all the samples of the given buffer within the given range, both ends inclusive.
+     */
+    void addAll(SeriesBuffer other, long start, long end) {
+        final long[] otherTimes;
+        final double[] otherValues;
+        final int otherSize;
+        synchronized (other) {
+            otherTimes = other.times;
+            otherValues = other.values;
+            otherSize = other.size;
+        }
+        for (int i = 0; i < otherSize; i++) {
+            if (otherTimes[i] >= start && otherTimes[i] <= end) {
+                add(otherTimes[i], otherValues[i]);
+            }
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized long getTime(int i) {
+        return times[i];
+    }
+
+    synchronized double getValue(int i) {
+        return values[i];
+    }
+
+    synchronized long getMinTime() {
+        sort();
+        return times[0];
+    }
+
+    synchronized long getMaxTime() {
+        sort();
+        return times[size - 1];
+    }
+
+    /**
+     * Sorts the samples by time. When multiple samples share the same time,
+     * only the one added last is kept.
+     */
+    synchronized void sort() {
+        if (sorted) {
+            return;
+        }
+        final Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        // Stable sort, so samples added later stay behind the earlier ones with the same time
+        Arrays.sort(order, (a, b) -> Long.compare(times[a], times[b]));
+        final long[] sortedTimes = new long[times.length];
+        final double[] sortedValues = new double[values.length];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            final int k = order[i];
+            if (n > 0 && sortedTimes[n - 1] == times[k]) {
+                n--;
+            }
+            sortedTimes[n] = times[k];
+            sortedValues[n] = values[k];
+            n++;
+        }
+        times = sortedTimes;
+        values = sortedValues;
+        size = n;
+        sorted = true;
+    }
+}
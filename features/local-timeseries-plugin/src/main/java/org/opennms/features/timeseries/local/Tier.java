@@ -0,0 +1,259 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.timeseries.local;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Samples at a given resolution, split into partitions covering a fixed
+ * amount of time each. The first tier holds the samples as they were
+ * stored, the following ones the averages computed by the compaction.
+ */
+final class Tier {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Tier.class);
+
+    private static final String DOWNSAMPLED_MARKER = "downsampled";
+
+    private final int index;
+
+    private final long resolution;
+
+    private final long retention;
+
+    private final long partitionDuration;
+
+    private final Path dir;
+
+    private final NavigableMap<Long, Partition> partitions = new ConcurrentSkipListMap<>();
+
+    Tier(int index, long resolution, long retention, long partitionDuration, Path dir) {
+        this.index = index;
+        this.resolution = resolution;
+        this.retention = retention;
+        this.partitionDuration = partitionDuration;
+        this.dir = dir;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the width of the buckets in milliseconds, or 0 for the tier holding the raw samples
+     */
+    long getResolution() {
+        return resolution;
+    }
+
+    long getRetention() {
+        return retention;
+    }
+
+    long getPartitionStart(long time) {
+        return Math.floorDiv(time, partitionDuration) * partitionDuration;
+    }
+
+    Partition getOrCreatePartition(long start) throws IOException {
+        Partition partition = partitions.get(start);
+        if (partition == null) {
+            final Path partitionDir = dir.resolve(Long.toString(start));
+            Files.createDirectories(partitionDir);
+            partition = partitions.computeIfAbsent(start, k -> new Partition(start, partitionDir));
+        }
+        return partition;
+    }
+
+    Collection<Partition> getPartitions() {
+        return partitions.values();
+    }
+
+    /**
+     * @return the partitions holding samples within the given range, both ends inclusive
+     */
+    Collection<Partition> getPartitions(long start, long end) {
+        return partitions.subMap(getPartitionStart(start), true, end, true).values();
+    }
+
+    void removePartition(Partition partition) throws IOException {
+        partitions.remove(partition.getStart());
+        try (Stream<Path> files = Files.list(partition.getDir())) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(partition.getDir());
+    }
+
+    /**
+     * Opens the segments found on disk.
+     *
+     * @return the highest segment sequence number found
+     */
+    long load() throws IOException {
+        Files.createDirectories(dir);
+        long maxSequence = 0;
+        try (Stream<Path> dirs = Files.list(dir)) {
+            for (Path partitionDir : dirs.filter(Files::isDirectory).collect(Collectors.toList())) {
+                final long start;
+                try {
+                    start = Long.parseLong(partitionDir.getFileName().toString());
+                } catch (NumberFormatException e) {
+                    LOG.warn("Ignoring unexpected directory {}.", partitionDir);
+                    continue;
+                }
+                final Partition partition = getOrCreatePartition(start);
+                try (Stream<Path> files = Files.list(partitionDir)) {
+                    for (Path file : files.sorted().collect(Collectors.toList())) {
+                        final String name = file.getFileName().toString();
+                        if (name.endsWith(".tmp")) {
+                            // Left behind by an interrupted write
+                            Files.delete(file);
+                        } else if (name.endsWith(Segment.EXTENSION)) {
+                            final Segment segment = Segment.open(file);
+                            partition.addSegment(segment);
+                            maxSequence = Math.max(maxSequence, segment.getSequence());
+                        }
+                    }
+                }
+                maxSequence = Math.max(maxSequence, partition.getDownsampledSequence());
+            }
+        }
+        return maxSequence;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Tier[index=%d, resolution=%ds, retention=%ds]", index,
+                TimeUnit.MILLISECONDS.toSeconds(resolution), TimeUnit.MILLISECONDS.toSeconds(retention));
+    }
+
+    /**
+     * Builds the tiers matching the given round robin archive definitions.
+     *
+     * The first tier keeps the raw samples for the retention of the finest
+     * archive. Every other AVERAGE archive results in an additional tier
+     * with the consolidated values. Archives using other consolidation
+     * functions are not supported and are ignored.
+     *
+     * @param step the step in seconds
+     * @param rras the archive definitions, i.e. RRA:AVERAGE:0.5:1:2016
+     */
+    static List<Tier> fromRras(long step, List<String> rras, long partitionDuration, Path dir) {
+        final List<long[]> archives = new ArrayList<>();
+        for (String rra : rras) {
+            final String[] parts = Objects.requireNonNull(rra).trim().split(":");
+            if (parts.length != 5 || !"RRA".equals(parts[0])) {
+                throw new IllegalArgumentException("Invalid RRA definition: " + rra);
+            }
+            if (!"AVERAGE".equals(parts[1])) {
+                LOG.info("Ignoring {}, only AVERAGE archives are supported.", rra);
+                continue;
+            }
+            final long steps = Long.parseLong(parts[3]);
+            final long rows = Long.parseLong(parts[4]);
+            archives.add(new long[]{TimeUnit.SECONDS.toMillis(step * steps), TimeUnit.SECONDS.toMillis(step * steps * rows)});
+        }
+        if (archives.isEmpty()) {
+            throw new IllegalArgumentException("At least one AVERAGE RRA is required.");
+        }
+        archives.sort(Comparator.comparingLong(a -> a[0]));
+
+        final List<Tier> tiers = new ArrayList<>();
+        tiers.add(new Tier(0, 0, archives.get(0)[1], partitionDuration, dir.resolve("tier-0")));
+        for (int i = 1; i < archives.size(); i++) {
+            tiers.add(new Tier(i, archives.get(i)[0], archives.get(i)[1], partitionDuration, dir.resolve("tier-" + i)));
+        }
+        return tiers;
+    }
+
+    final class Partition {
+
+        private final long start;
+
+        private final Path dir;
+
+        private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+        private Partition(long start, Path dir) {
+            this.start = start;
+            this.dir = dir;
+        }
+
+        long getStart() {
+            return start;
+        }
+
+        long getEnd() {
+            return start + partitionDuration;
+        }
+
+        Path getDir() {
+            return dir;
+        }
+
+        List<Segment> getSegments() {
+            return segments;
+        }
+
+        void addSegment(Segment segment) {
+            segments.add(segment);
+            segments.sort(Comparator.comparingLong(Segment::getSequence));
+        }
+
+        void replaceSegments(List<Segment> replaced, Segment segment) throws IOException {
+            segments.add(segment);
+            segments.removeAll(replaced);
+            for (Segment s : replaced) {
+                Files.deleteIfExists(s.getPath());
+            }
+        }
+
+        /**
+         * @return the sequence number of the segment which was last downsampled to the next tier, or 0
+         */
+        long getDownsampledSequence() throws IOException {
+            final Path marker = dir.resolve(DOWNSAMPLED_MARKER);
+            return Files.exists(marker) ? Long.parseLong(Files.readString(marker).trim()) : 0;
+        }
+
+        void setDownsampledSequence(long sequence) throws IOException {
+            Files.writeString(dir.resolve(DOWNSAMPLED_MARKER), Long.toString(sequence));
+        }
+    }
+}
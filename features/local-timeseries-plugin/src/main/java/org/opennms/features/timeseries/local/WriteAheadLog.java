@@ -0,0 +1,167 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.timeseries.local;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of the samples which were not written to a segment yet.
+ *
+ * The log is rotated when the buffered samples are flushed, and the rotated
+ * file is deleted once the segments holding its samples were written. On
+ * startup, all remaining files are replayed in order.
+ */
+final class WriteAheadLog implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final String EXTENSION = ".wal";
+
+    @FunctionalInterface
+    interface Visitor {
+        void visit(int id, long time, double value);
+    }
+
+    private final Path dir;
+
+    private final boolean sync;
+
+    private long sequence;
+
+    private Path file;
+
+    private FileOutputStream fileOut;
+
+    private DataOutputStream out;
+
+    WriteAheadLog(Path dir, boolean sync) throws IOException {
+        this.dir = dir;
+        this.sync = sync;
+        Files.createDirectories(dir);
+        sequence = getFiles(dir).stream()
+                .mapToLong(WriteAheadLog::getSequence)
+                .max()
+                .orElse(0L);
+        open();
+    }
+
+    synchronized void append(int id, long time, double value) throws IOException {
+        out.writeInt(id);
+        out.writeLong(time);
+        out.writeDouble(value);
+    }
+
+    /**
+     * Hands the appended records over to the operating system, and syncs them
+     * to disk if enabled.
+     */
+    synchronized void flush() throws IOException {
+        out.flush();
+        if (sync) {
+            fileOut.getChannel().force(false);
+        }
+    }
+
+    /**
+     * Closes the current file and starts a new one.
+     *
+     * @return the closed file, which must be deleted once its samples were persisted
+     */
+    synchronized Path rotate() throws IOException {
+        final Path closed = file;
+        out.close();
+        open();
+        return closed;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private void open() throws IOException {
+        sequence++;
+        file = dir.resolve(String.format("%020d%s", sequence, EXTENSION));
+        fileOut = new FileOutputStream(file.toFile(), true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+    }
+
+    /**
+     * Replays the records of all the files found in the given directory, oldest first.
+     * A truncated record at the end of a file, left behind by a crash, is ignored.
+     *
+     * @return the files which were replayed
+     */
+    static List<Path> replay(Path dir, Visitor visitor) throws IOException {
+        final List<Path> files = getFiles(dir);
+        for (Path file : files) {
+            long count = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+                while (true) {
+                    final int id;
+                    try {
+                        id = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    visitor.visit(id, in.readLong(), in.readDouble());
+                    count++;
+                }
+            } catch (EOFException e) {
+                LOG.warn("Ignoring truncated record at the end of {}.", file);
+            }
+            LOG.info("Replayed {} samples from {}.", count, file);
+        }
+        return files;
+    }
+
+    private static List<Path> getFiles(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(EXTENSION))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long getSequence(Path file) {
+        final String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - EXTENSION.length()));
+    }
+}
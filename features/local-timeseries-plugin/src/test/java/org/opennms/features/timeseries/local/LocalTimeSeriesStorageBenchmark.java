@@ -0,0 +1,254 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.timeseries.local;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.jrobin.core.FetchData;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.Sample;
+import org.opennms.integration.api.v1.timeseries.Aggregation;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesData;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableSample;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTimeSeriesFetchRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the local storage with JRobin files using the default RRAs.
+ *
+ * The ingest benchmarks store one sample for every metric per operation,
+ * like a collection cycle does, so the number of samples per second is the
+ * score multiplied by the number of metrics. The query benchmarks fetch the
+ * last day of a random metric out of a week of data.
+ */
+public class LocalTimeSeriesStorageBenchmark {
+
+    private static final long STEP = 300;
+
+    private static final String[] RRAS = LocalTimeSeriesStorage.DEFAULT_RRAS.split(",");
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Thread)
+    public static class IngestState {
+
+        @Param({"1000"})
+        public int numMetrics;
+
+        private Path dir;
+
+        private LocalTimeSeriesStorage storage;
+
+        private List<Metric> metrics;
+
+        private RrdDb[] rrds;
+
+        private long time;
+
+        @Setup
+        public void setUp() throws Exception {
+            dir = Files.createTempDirectory("local-timeseries-ingest");
+            time = System.currentTimeMillis() / 1000 / STEP * STEP - TimeUnit.DAYS.toSeconds(365);
+            storage = createStorage(dir.resolve("local"));
+            metrics = createMetrics(numMetrics);
+            rrds = createRrds(dir.resolve("jrobin"), numMetrics, time);
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            destroy(storage, rrds, dir);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class QueryState {
+
+        @Param({"100"})
+        public int numMetrics;
+
+        private Path dir;
+
+        private LocalTimeSeriesStorage storage;
+
+        private List<Metric> metrics;
+
+        private RrdDb[] rrds;
+
+        private long end;
+
+        @Setup
+        public void setUp() throws Exception {
+            dir = Files.createTempDirectory("local-timeseries-query");
+            end = System.currentTimeMillis() / 1000 / STEP * STEP;
+            final long start = end - TimeUnit.DAYS.toSeconds(7);
+            storage = createStorage(dir.resolve("local"));
+            metrics = createMetrics(numMetrics);
+            rrds = createRrds(dir.resolve("jrobin"), numMetrics, start);
+            for (long time = start + STEP; time <= end; time += STEP) {
+                storeLocal(storage, metrics, time);
+                updateRrds(rrds, time);
+            }
+            storage.flush();
+            storage.compact(TimeUnit.SECONDS.toMillis(end));
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            destroy(storage, rrds, dir);
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(4)
+    public void ingestLocal(IngestState state) throws Exception {
+        state.time += STEP;
+        storeLocal(state.storage, state.metrics, state.time);
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(4)
+    public void ingestJRobin(IngestState state) throws Exception {
+        state.time += STEP;
+        updateRrds(state.rrds, state.time);
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(4)
+    public TimeSeriesData queryLocal(QueryState state) throws Exception {
+        final Metric metric = state.metrics.get(ThreadLocalRandom.current().nextInt(state.numMetrics));
+        return state.storage.getTimeSeriesData(ImmutableTimeSeriesFetchRequest.builder()
+                .metric(metric)
+                .start(Instant.ofEpochSecond(state.end - TimeUnit.DAYS.toSeconds(1)))
+                .end(Instant.ofEpochSecond(state.end))
+                .step(Duration.ofSeconds(STEP))
+                .aggregation(Aggregation.NONE)
+                .build());
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(4)
+    public FetchData queryJRobin(QueryState state) throws Exception {
+        final RrdDb rrd = state.rrds[ThreadLocalRandom.current().nextInt(state.numMetrics)];
+        return rrd.createFetchRequest("AVERAGE", state.end - TimeUnit.DAYS.toSeconds(1), state.end).fetchData();
+    }
+
+    private static LocalTimeSeriesStorage createStorage(Path dir) throws IOException {
+        final LocalTimeSeriesStorage storage = new LocalTimeSeriesStorage();
+        storage.setBaseDir(dir.toString());
+        storage.setStep(STEP);
+        storage.init();
+        return storage;
+    }
+
+    private static List<Metric> createMetrics(int numMetrics) {
+        final List<Metric> metrics = new ArrayList<>(numMetrics);
+        for (int i = 0; i < numMetrics; i++) {
+            metrics.add(ImmutableMetric.builder()
+                    .intrinsicTag(IntrinsicTagNames.resourceId, "snmp:" + (i / 10) + ":interfaceSnmp:eth" + (i % 10))
+                    .intrinsicTag(IntrinsicTagNames.name, "ifHCInOctets")
+                    .metaTag("mtype", "counter")
+                    .build());
+        }
+        return metrics;
+    }
+
+    private static RrdDb[] createRrds(Path dir, int numMetrics, long start) throws Exception {
+        Files.createDirectories(dir);
+        final RrdDb[] rrds = new RrdDb[numMetrics];
+        for (int i = 0; i < numMetrics; i++) {
+            final RrdDef def = new RrdDef(dir.resolve(i + ".jrb").toString(), start, STEP);
+            def.addDatasource("ifHCInOctets", "GAUGE", STEP * 2, Double.NaN, Double.NaN);
+            for (String rra : RRAS) {
+                def.addArchive(rra);
+            }
+            rrds[i] = new RrdDb(def);
+        }
+        return rrds;
+    }
+
+    private static void storeLocal(LocalTimeSeriesStorage storage, List<Metric> metrics, long time) throws Exception {
+        final List<org.opennms.integration.api.v1.timeseries.Sample> samples = new ArrayList<>(metrics.size());
+        for (int i = 0; i < metrics.size(); i++) {
+            samples.add(ImmutableSample.builder()
+                    .metric(metrics.get(i))
+                    .time(Instant.ofEpochSecond(time))
+                    .value((double) (time % 1000 + i))
+                    .build());
+        }
+        storage.store(samples);
+    }
+
+    private static void updateRrds(RrdDb[] rrds, long time) throws Exception {
+        for (int i = 0; i < rrds.length; i++) {
+            final Sample sample = rrds[i].createSample(time);
+            sample.setValue(0, time % 1000 + i);
+            sample.update();
+        }
+    }
+
+    private static void destroy(LocalTimeSeriesStorage storage, RrdDb[] rrds, Path dir) throws Exception {
+        storage.destroy();
+        for (RrdDb rrd : rrds) {
+            rrd.close();
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
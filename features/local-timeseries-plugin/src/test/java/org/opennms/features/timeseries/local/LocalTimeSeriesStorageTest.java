@@ -0,0 +1,236 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.timeseries.local;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.integration.api.v1.timeseries.Aggregation;
+import org.opennms.integration.api.v1.timeseries.DataPoint;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.StorageException;
+import org.opennms.integration.api.v1.timeseries.TagMatcher;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableSample;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTagMatcher;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTimeSeriesFetchRequest;
+
+public class LocalTimeSeriesStorageTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private LocalTimeSeriesStorage storage;
+
+    @Before
+    public void setUp() throws IOException {
+        storage = createStorage();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (storage != null) {
+            storage.destroy();
+        }
+    }
+
+    private LocalTimeSeriesStorage createStorage() throws IOException {
+        final LocalTimeSeriesStorage storage = new LocalTimeSeriesStorage();
+        storage.setBaseDir(tempFolder.getRoot().getAbsolutePath());
+        storage.setStep(1);
+        // Keep the raw samples for one minute, and 10 second averages for 10 minutes
+        storage.setRras("RRA:AVERAGE:0.5:1:60,RRA:AVERAGE:0.5:10:60,RRA:MAX:0.5:10:60");
+        storage.setPartitionDuration(10);
+        storage.setFlushInterval(1);
+        storage.init();
+        return storage;
+    }
+
+    @Test
+    public void canStoreAndFetchSamples() throws Exception {
+        final Metric metric = metric("snmp:1:nodeSnmp", "loadavg1");
+        final long now = System.currentTimeMillis();
+        storage.store(samples(metric, now - 30_000, 30, 1_000));
+
+        // Unflushed samples
+        List<DataPoint> dataPoints = fetch(metric, now - 60_000, now);
+        assertEquals(30, dataPoints.size());
+        assertEquals(0d, dataPoints.get(0).getValue(), 0.0001d);
+        assertEquals(29d, dataPoints.get(29).getValue(), 0.0001d);
+
+        // Flushed samples, partially overwritten by more recent ones
+        storage.flush();
+        storage.store(samples(metric, now - 30_000, 1, 1_000, 42d));
+        dataPoints = fetch(metric, now - 60_000, now);
+        assertEquals(30, dataPoints.size());
+        assertEquals(42d, dataPoints.get(0).getValue(), 0.0001d);
+        assertEquals(Instant.ofEpochMilli(now - 1_000), dataPoints.get(29).getTime());
+
+        // Range
+        assertEquals(11, fetch(metric, now - 20_000, now - 10_000).size());
+    }
+
+    @Test
+    public void canRecoverFromWriteAheadLog() throws Exception {
+        final Metric metric = metric("snmp:1:nodeSnmp", "loadavg1");
+        final long now = System.currentTimeMillis();
+        storage.store(samples(metric, now - 30_000, 15, 1_000));
+        storage.flush();
+        storage.store(samples(metric, now - 15_000, 15, 1_000, 15));
+
+        // Simulate a crash
+        storage.shutdown(false);
+        storage = createStorage();
+
+        final List<DataPoint> dataPoints = fetch(metric, now - 60_000, now);
+        assertEquals(30, dataPoints.size());
+        for (int i = 0; i < 30; i++) {
+            assertEquals(i, dataPoints.get(i).getValue(), 0.0001d);
+        }
+    }
+
+    @Test
+    public void canFindMetrics() throws Exception {
+        final long now = System.currentTimeMillis();
+        storage.store(samples(metric("snmp:1:nodeSnmp", "loadavg1"), now, 1, 1_000));
+        storage.store(samples(metric("snmp:1:interfaceSnmp:eth0", "ifInOctets"), now, 1, 1_000));
+        storage.store(samples(metric("snmp:2:nodeSnmp", "loadavg1"), now, 1, 1_000));
+
+        assertEquals(2, storage.findMetrics(Collections.singletonList(ImmutableTagMatcher.builder()
+                .type(TagMatcher.Type.EQUALS_REGEX)
+                .key(IntrinsicTagNames.resourceId)
+                .value("^snmp:1:.*$")
+                .build())).size());
+        assertEquals(2, storage.findMetrics(Collections.singletonList(ImmutableTagMatcher.builder()
+                .key(IntrinsicTagNames.name)
+                .value("loadavg1")
+                .build())).size());
+        assertEquals(1, storage.findMetrics(List.of(
+                ImmutableTagMatcher.builder()
+                        .key(IntrinsicTagNames.name)
+                        .value("loadavg1")
+                        .build(),
+                ImmutableTagMatcher.builder()
+                        .type(TagMatcher.Type.NOT_EQUALS)
+                        .key(IntrinsicTagNames.resourceId)
+                        .value("snmp:1:nodeSnmp")
+                        .build())).size());
+
+        // Deleted metrics are no longer found
+        storage.delete(metric("snmp:2:nodeSnmp", "loadavg1"));
+        assertEquals(1, storage.findMetrics(Collections.singletonList(ImmutableTagMatcher.builder()
+                .key(IntrinsicTagNames.name)
+                .value("loadavg1")
+                .build())).size());
+        assertEquals(0, fetch(metric("snmp:2:nodeSnmp", "loadavg1"), now - 1_000, now + 1_000).size());
+
+        // The index is persisted
+        storage.destroy();
+        storage = createStorage();
+        assertEquals(2, storage.findMetrics(Collections.singletonList(ImmutableTagMatcher.builder()
+                .type(TagMatcher.Type.EQUALS_REGEX)
+                .key(IntrinsicTagNames.resourceId)
+                .value("^snmp:1:.*$")
+                .build())).size());
+    }
+
+    @Test
+    public void canDownsampleOldSamples() throws Exception {
+        final Metric metric = metric("snmp:1:nodeSnmp", "loadavg1");
+        final long now = System.currentTimeMillis() / 10_000 * 10_000;
+        final long start = now - 300_000;
+        storage.store(samples(metric, start, 300, 1_000));
+        storage.flush();
+        storage.compact(now);
+
+        // The raw samples older than the retention are gone
+        for (Tier.Partition partition : storage.getTiers().get(0).getPartitions()) {
+            assertTrue(partition.getEnd() > now - 60_000);
+        }
+
+        final SeriesBuffer series = storage.read(storage.getIndex().getId(metric), start, now, now);
+        int raw = 0;
+        int averages = 0;
+        for (int i = 0; i < series.size(); i++) {
+            final long time = series.getTime(i);
+            if (time >= now - 60_000) {
+                assertEquals((time - start) / 1_000, series.getValue(i), 0.0001d);
+                raw++;
+            } else {
+                // Averages are stored at the end of every 10 second bucket
+                assertEquals(0, time % 10_000);
+                assertEquals((time - 10_000 - start) / 1_000 + 4.5d, series.getValue(i), 0.0001d);
+                averages++;
+            }
+        }
+        assertEquals(60, raw);
+        assertEquals(23, averages);
+    }
+
+    private List<DataPoint> fetch(Metric metric, long start, long end) throws StorageException {
+        return storage.getTimeSeriesData(ImmutableTimeSeriesFetchRequest.builder()
+                .metric(metric)
+                .start(Instant.ofEpochMilli(start))
+                .end(Instant.ofEpochMilli(end))
+                .step(Duration.ofSeconds(1))
+                .aggregation(Aggregation.NONE)
+                .build()).getDataPoints();
+    }
+
+    private static Metric metric(String resourceId, String name) {
+        return ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.resourceId, resourceId)
+                .intrinsicTag(IntrinsicTagNames.name, name)
+                .metaTag("mtype", "gauge")
+                .build();
+    }
+
+    private static List<Sample> samples(Metric metric, long start, int count, long interval) {
+        return samples(metric, start, count, interval, 0);
+    }
+
+    private static List<Sample> samples(Metric metric, long start, int count, long interval, double firstValue) {
+        final List<Sample> samples = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            samples.add(ImmutableSample.builder()
+                    .metric(metric)
+                    .time(Instant.ofEpochMilli(start + i * interval))
+                    .value(firstValue + i)
+                    .build());
+        }
+        return samples;
+    }
+}
@@ -21,15 +21,32 @@
  */
 package org.opennms.netmgt.measurements.api;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 
+import org.opennms.core.sysprops.SystemProperties;
 import org.opennms.netmgt.measurements.api.exceptions.FetchException;
 import org.opennms.netmgt.measurements.api.exceptions.MeasurementException;
 import org.opennms.netmgt.measurements.api.exceptions.ResourceNotFoundException;
+import org.opennms.netmgt.measurements.api.exceptions.TooManyExportsException;
 import org.opennms.netmgt.measurements.api.exceptions.ValidationException;
+import org.opennms.netmgt.measurements.model.Expression;
 import org.opennms.netmgt.measurements.model.QueryRequest;
 import org.opennms.netmgt.measurements.model.QueryResponse;
 import org.opennms.netmgt.measurements.model.Source;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -39,28 +56,122 @@ import com.google.common.collect.RowSortedTable;
 @Component("measurementsService")
 public class DefaultMeasurementsService implements MeasurementsService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultMeasurementsService.class);
+
+    /**
+     * Maximum number of exports running at the same time.
+     */
+    public static final int MAX_CONCURRENT_EXPORTS = SystemProperties.getInteger("org.opennms.measurements.export.max_concurrent", 2);
+
+    /**
+     * Maximum number of values, rows times columns, fetched at once by an export.
+     */
+    public static final int MAX_VALUES_PER_CHUNK = SystemProperties.getInteger("org.opennms.measurements.export.max_values_per_chunk", 1000000);
+
+    /**
+     * Time in milliseconds after which an export which isn't read from anymore gives up its permit.
+     */
+    public static final long EXPORT_IDLE_TIMEOUT = SystemProperties.getLong("org.opennms.measurements.export.idle_timeout", 300000L);
+
+    /**
+     * Variables and functions of the expressions which depend on all of the rows, and not only on the current one.
+     */
+    private static final Pattern WHOLE_SERIES_REFERENCE = Pattern.compile("__(?!(inf|neg_inf|E|PI|step)\\b)\\w+|\\bfn\\s*:");
+
     private final MeasurementFetchStrategy fetchStrategy;
     private final ExpressionEngine expressionEngine;
     private final FilterEngine filterEngine;
     private final QueryRequestValidator queryRequestValidator = new QueryRequestValidator();
+    private final int maxConcurrentExports;
+    private final int maxValuesPerChunk;
+    private final long exportIdleTimeout;
+    private final Semaphore exportPermits;
+    private final Set<ChunkedExport> openExports = Collections.newSetFromMap(new ConcurrentHashMap<ChunkedExport, Boolean>());
 
     @Autowired
     public DefaultMeasurementsService(MeasurementFetchStrategy fetchStrategy, ExpressionEngine expressionEngine, FilterEngine filterEngine) {
+        this(fetchStrategy, expressionEngine, filterEngine, MAX_CONCURRENT_EXPORTS, MAX_VALUES_PER_CHUNK);
+    }
+
+    protected DefaultMeasurementsService(MeasurementFetchStrategy fetchStrategy, ExpressionEngine expressionEngine, FilterEngine filterEngine,
+                                         int maxConcurrentExports, int maxValuesPerChunk) {
+        this(fetchStrategy, expressionEngine, filterEngine, maxConcurrentExports, maxValuesPerChunk, EXPORT_IDLE_TIMEOUT);
+    }
+
+    protected DefaultMeasurementsService(MeasurementFetchStrategy fetchStrategy, ExpressionEngine expressionEngine, FilterEngine filterEngine,
+                                         int maxConcurrentExports, int maxValuesPerChunk, long exportIdleTimeout) {
         this.fetchStrategy = Preconditions.checkNotNull(fetchStrategy);
         this.expressionEngine = Preconditions.checkNotNull(expressionEngine);
         this.filterEngine = Preconditions.checkNotNull(filterEngine);
+        this.maxConcurrentExports = maxConcurrentExports;
+        this.maxValuesPerChunk = maxValuesPerChunk;
+        this.exportIdleTimeout = exportIdleTimeout;
+        this.exportPermits = new Semaphore(maxConcurrentExports);
     }
 
     @Override
     public QueryResponse query(QueryRequest request) throws MeasurementException {
         validate(request);
 
-        // Fetch the measurements
+        // Fetch the measurements and apply the expressions and filters
+        final FetchResults results = process(request, fetch(request, request.getStart(), request.getEnd()));
+
+        // Build the response
+        final QueryResponse response = new QueryResponse();
+        response.setStart(request.getStart());
+        response.setEnd(request.getEnd());
+        response.setStep(results.getStep());
+        response.setTimestamps(results.getTimestamps());
+        response.setColumns(results.getColumns());
+        response.setConstants(results.getConstants());
+        response.setMetadata(results.getMetadata());
+        return response;
+    }
+
+    /**
+     * Splits the time range of the request into chunks of at most {@link #MAX_VALUES_PER_CHUNK} values,
+     * aligned to the step. Requests with filters or expressions which refer to other rows, like
+     * <code>__i</code> or the sample array functions, need all of the rows and are fetched at once.
+     *
+     * Exports which haven't been read from for {@link #EXPORT_IDLE_TIMEOUT} milliseconds, like the ones
+     * of requests which were aborted before their response was written, give up their permit to new ones.
+     */
+    @Override
+    public MeasurementsExport export(QueryRequest request) throws MeasurementException {
+        validate(request);
+
+        if (!exportPermits.tryAcquire()) {
+            closeIdleExports();
+            if (!exportPermits.tryAcquire()) {
+                throw new TooManyExportsException(maxConcurrentExports);
+            }
+        }
+        try {
+            final ChunkedExport export = new ChunkedExport(request);
+            openExports.add(export);
+            return export;
+        } catch (MeasurementException | RuntimeException e) {
+            exportPermits.release();
+            throw e;
+        }
+    }
+
+    private void closeIdleExports() {
+        final long now = System.currentTimeMillis();
+        for (final ChunkedExport export : openExports) {
+            if (now - export.idleSince >= exportIdleTimeout) {
+                LOG.warn("Closing export which was not read from for {} ms: {}", now - export.idleSince, export.request);
+                export.close();
+            }
+        }
+    }
+
+    private FetchResults fetch(QueryRequest request, long start, long end) throws MeasurementException {
         FetchResults results;
         try {
             results = fetchStrategy.fetch(
-                    request.getStart(),
-                    request.getEnd(),
+                    start,
+                    end,
                     request.getStep(),
                     request.getMaxRows(),
                     request.getHeartbeat(),
@@ -73,7 +184,10 @@ public class DefaultMeasurementsService implements MeasurementsService {
         if (results == null) {
             throw new ResourceNotFoundException(request);
         }
+        return results;
+    }
 
+    private FetchResults process(QueryRequest request, FetchResults results) throws MeasurementException {
         // Apply the expression to the fetch results
         expressionEngine.applyExpressions(request, results);
 
@@ -91,20 +205,152 @@ public class DefaultMeasurementsService implements MeasurementsService {
                 columns.remove(source.getLabel());
             }
         }
-
-        // Build the response
-        final QueryResponse response = new QueryResponse();
-        response.setStart(request.getStart());
-        response.setEnd(request.getEnd());
-        response.setStep(results.getStep());
-        response.setTimestamps(results.getTimestamps());
-        response.setColumns(results.getColumns());
-        response.setConstants(results.getConstants());
-        response.setMetadata(results.getMetadata());
-        return response;
+        return results;
     }
 
     private void validate(QueryRequest request) throws ValidationException {
         queryRequestValidator.validate(request);
     }
+
+    private class ChunkedExport implements MeasurementsExport {
+        private final QueryRequest request;
+        private final boolean chunked;
+        private final long rowsPerChunk;
+        private final List<String> labels;
+
+        private long step;
+        private long chunkStart;
+        private FetchResults firstChunk;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        private volatile long idleSince = Long.MAX_VALUE;
+
+        private ChunkedExport(QueryRequest request) throws MeasurementException {
+            this.request = request;
+            this.chunked = request.getFilters().isEmpty()
+                    && request.getMaxRows() <= 0
+                    && !hasWholeSeriesReference(request.getExpressions());
+            this.rowsPerChunk = Math.max(1, maxValuesPerChunk / Math.max(1, request.getSources().size() + request.getExpressions().size()));
+            this.step = request.getStep();
+            this.chunkStart = request.getStart();
+
+            // Fetch the first chunk right away, so that invalid requests fail before anything is written
+            this.firstChunk = fetchChunk();
+            this.labels = DefaultMeasurementsService.getLabels(request, firstChunk);
+            this.idleSince = System.currentTimeMillis();
+        }
+
+        @Override
+        public List<String> getLabels() {
+            return labels;
+        }
+
+        @Override
+        public FetchResults nextChunk() throws MeasurementException {
+            if (firstChunk != null) {
+                final FetchResults results = firstChunk;
+                firstChunk = null;
+                idleSince = System.currentTimeMillis();
+                return results;
+            }
+            // Never idle while fetching
+            idleSince = Long.MAX_VALUE;
+            try {
+                return chunkStart <= request.getEnd() ? fetchChunk() : null;
+            } finally {
+                idleSince = System.currentTimeMillis();
+            }
+        }
+
+        private FetchResults fetchChunk() throws MeasurementException {
+            final boolean first = chunkStart == request.getStart();
+            final long start = chunkStart;
+            long end = request.getEnd();
+            if (chunked && rowsPerChunk <= (end - start) / step) {
+                end = Math.min(end, (start / step + rowsPerChunk) * step - 1);
+            }
+            chunkStart = end + 1;
+
+            final boolean last = chunkStart > request.getEnd();
+
+            FetchResults results = fetchWithMargins(start, end, first, last);
+            if (results.getStep() > step) {
+                // The strategy uses a larger step than the requested one, which needs larger margins
+                step = results.getStep();
+                if (chunked && !(first && last)) {
+                    results = fetchWithMargins(start, end, first, last);
+                }
+            }
+            if (chunked) {
+                // Rows outside of the range belong to the neighbouring chunks
+                results = trim(results, first ? Long.MIN_VALUE : start, last ? Long.MAX_VALUE : end);
+            }
+            return process(request, results);
+        }
+
+        /**
+         * Strategies aggregating the samples at query time derive the rows at the edges of a chunk from
+         * the samples around them: the ones of the previous step, interval and heartbeat, and the first
+         * ones after the end. These are fetched too, so that these rows match the ones of a single query.
+         */
+        private FetchResults fetchWithMargins(long start, long end, boolean first, boolean last) throws MeasurementException {
+            final long margin = 3 * step + Math.max(request.getHeartbeat() != null ? request.getHeartbeat() : 0, 2 * step);
+            return fetch(request, first || !chunked ? start : start - margin, last || !chunked ? end : end + margin);
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                openExports.remove(this);
+                exportPermits.release();
+            }
+        }
+    }
+
+    private static boolean hasWholeSeriesReference(List<Expression> expressions) {
+        for (final Expression expression : expressions) {
+            if (expression.getExpression() != null && WHOLE_SERIES_REFERENCE.matcher(expression.getExpression()).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> getLabels(QueryRequest request, FetchResults results) {
+        final Map<String, double[]> columns = results.getColumns();
+        final Set<String> labels = new LinkedHashSet<>();
+        for (final Source source : request.getSources()) {
+            if (columns.containsKey(source.getLabel())) {
+                labels.add(source.getLabel());
+            }
+        }
+        for (final Expression expression : request.getExpressions()) {
+            if (columns.containsKey(expression.getLabel())) {
+                labels.add(expression.getLabel());
+            }
+        }
+        // Columns added by the filters
+        labels.addAll(new TreeSet<>(columns.keySet()));
+        return new ArrayList<>(labels);
+    }
+
+    private static FetchResults trim(FetchResults results, long start, long end) {
+        final long[] timestamps = results.getTimestamps();
+        int from = 0;
+        while (from < timestamps.length && timestamps[from] < start) {
+            from++;
+        }
+        int to = timestamps.length;
+        while (to > from && timestamps[to - 1] > end) {
+            to--;
+        }
+        if (from == 0 && to == timestamps.length) {
+            return results;
+        }
+
+        final Map<String, double[]> columns = new LinkedHashMap<>();
+        for (final Map.Entry<String, double[]> column : results.getColumns().entrySet()) {
+            columns.put(column.getKey(), Arrays.copyOfRange(column.getValue(), from, to));
+        }
+        return new FetchResults(Arrays.copyOfRange(timestamps, from, to), columns, results.getStep(), results.getConstants(), results.getMetadata());
+    }
 }
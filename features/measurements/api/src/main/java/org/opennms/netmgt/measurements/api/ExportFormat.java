@@ -0,0 +1,185 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.measurements.api;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opennms.netmgt.measurements.api.exceptions.MeasurementException;
+
+/**
+ * Formats in which a {@link MeasurementsExport} can be written, one line per row.
+ * Values which are not finite are written as empty fields, or <code>null</code>
+ * respectively, since neither of the formats can represent them.
+ */
+public enum ExportFormat {
+
+    /**
+     * Comma separated values, with a header line holding the labels.
+     */
+    CSV("text/csv", "csv") {
+        @Override
+        protected void writeHeader(Writer writer, List<String> labels) throws IOException {
+            writer.write("timestamp");
+            for (final String label : labels) {
+                writer.write(',');
+                writer.write(escapeCsv(label));
+            }
+            writer.write('\n');
+        }
+
+        @Override
+        protected void writeRow(Writer writer, List<String> labels, long timestamp, double[][] columns, int row) throws IOException {
+            writer.write(Long.toString(timestamp));
+            for (final double[] column : columns) {
+                writer.write(',');
+                if (column != null && isFinite(column[row])) {
+                    writer.write(Double.toString(column[row]));
+                }
+            }
+            writer.write('\n');
+        }
+    },
+
+    /**
+     * Newline delimited JSON, one object per row.
+     */
+    NDJSON("application/x-ndjson", "ndjson") {
+        @Override
+        protected List<String> prepareLabels(List<String> labels) {
+            final List<String> prepared = new ArrayList<>(labels.size());
+            for (final String label : labels) {
+                prepared.add(",\"" + escapeJson(label) + "\":");
+            }
+            return prepared;
+        }
+
+        @Override
+        protected void writeRow(Writer writer, List<String> labels, long timestamp, double[][] columns, int row) throws IOException {
+            writer.write("{\"timestamp\":");
+            writer.write(Long.toString(timestamp));
+            for (int i = 0; i < columns.length; i++) {
+                writer.write(labels.get(i));
+                writer.write(columns[i] != null && isFinite(columns[i][row]) ? Double.toString(columns[i][row]) : "null");
+            }
+            writer.write("}\n");
+        }
+    };
+
+    private final String mediaType;
+    private final String extension;
+
+    ExportFormat(String mediaType, String extension) {
+        this.mediaType = mediaType;
+        this.extension = extension;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return the format with the given name or extension, ignoring the case, or <code>null</code> if there is none
+     */
+    public static ExportFormat fromString(String format) {
+        for (final ExportFormat exportFormat : values()) {
+            if (exportFormat.name().equalsIgnoreCase(format) || exportFormat.extension.equalsIgnoreCase(format)) {
+                return exportFormat;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes all of the rows of the export to the given stream, flushing it after every chunk.
+     * The stream is left open.
+     */
+    public void write(MeasurementsExport export, OutputStream out) throws IOException, MeasurementException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        final List<String> labels = export.getLabels();
+        writeHeader(writer, labels);
+        final List<String> preparedLabels = prepareLabels(labels);
+
+        FetchResults chunk;
+        while ((chunk = export.nextChunk()) != null) {
+            final long[] timestamps = chunk.getTimestamps();
+            final double[][] columns = new double[labels.size()][];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = chunk.getColumns().get(labels.get(i));
+            }
+            for (int row = 0; row < timestamps.length; row++) {
+                writeRow(writer, preparedLabels, timestamps[row], columns, row);
+            }
+            writer.flush();
+        }
+        writer.flush();
+    }
+
+    protected void writeHeader(Writer writer, List<String> labels) throws IOException {
+        // No header by default
+    }
+
+    /**
+     * @return the labels as passed to {@link #writeRow}, which may preformat them
+     */
+    protected List<String> prepareLabels(List<String> labels) {
+        return labels;
+    }
+
+    protected abstract void writeRow(Writer writer, List<String> labels, long timestamp, double[][] columns, int row) throws IOException;
+
+    private static boolean isFinite(double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+
+    private static String escapeCsv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String escapeJson(String value) {
+        final StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.measurements.api;
+
+import java.util.List;
+
+import org.opennms.netmgt.measurements.api.exceptions.MeasurementException;
+
+/**
+ * The results of a query, fetched one time range after the other
+ * so that they never have to be held in memory all at once.
+ *
+ * Must be closed once done, in order to allow further exports.
+ */
+public interface MeasurementsExport extends AutoCloseable {
+
+    /**
+     * @return the labels of the exported columns, in the order of the sources and expressions of the request
+     */
+    List<String> getLabels();
+
+    /**
+     * Fetches the rows of the next time range, with the expressions
+     * and filters applied and without the transient columns.
+     *
+     * @return the next rows or <code>null</code> when all of the rows have been returned
+     */
+    FetchResults nextChunk() throws MeasurementException;
+
+    @Override
+    void close();
+}
@@ -27,4 +27,10 @@ import org.opennms.netmgt.measurements.model.QueryResponse;
 
 public interface MeasurementsService {
     QueryResponse query(QueryRequest request) throws MeasurementException;
+
+    /**
+     * Prepares the export of the measurements, the rows are fetched as they
+     * are read from the returned {@link MeasurementsExport}.
+     */
+    MeasurementsExport export(QueryRequest request) throws MeasurementException;
 }
@@ -0,0 +1,196 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.measurements.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.exceptions.TooManyExportsException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.opennms.netmgt.measurements.model.QueryResponse;
+import org.opennms.netmgt.measurements.model.Source;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Longs;
+
+public class DefaultMeasurementsServiceTest {
+
+    private static final long STEP = 300000L;
+
+    private final AtomicInteger fetches = new AtomicInteger();
+
+    /**
+     * Returns a row for every step in the range, starting at the step before the start.
+     */
+    private final MeasurementFetchStrategy fetchStrategy = (start, end, step, maxrows, interval, heartbeat, sources, relaxed) -> {
+        fetches.incrementAndGet();
+        final List<Long> timestamps = Lists.newArrayList();
+        for (long timestamp = (start / step) * step; timestamp <= end; timestamp += step) {
+            timestamps.add(timestamp);
+        }
+        final Map<String, double[]> columns = new HashMap<>();
+        for (final Source source : sources) {
+            columns.put(source.getLabel(), timestamps.stream().mapToDouble(t -> t / step + source.getLabel().length()).toArray());
+        }
+        return new FetchResults(Longs.toArray(timestamps), columns, step, new HashMap<>(), null);
+    };
+
+    /**
+     * Doubles the first source.
+     */
+    private final ExpressionEngine expressionEngine = (request, results) -> {
+        for (final Expression expression : request.getExpressions()) {
+            final double[] values = results.getColumns().get(request.getSources().get(0).getLabel());
+            results.getColumns().put(expression.getLabel(), Arrays.stream(values).map(v -> v * 2).toArray());
+        }
+    };
+
+    private final DefaultMeasurementsService service = new DefaultMeasurementsService(fetchStrategy, expressionEngine, new FilterEngine(), 1, 20);
+
+    @Test
+    public void canExportInChunks() throws Exception {
+        final QueryRequest request = request("a * 2");
+        final QueryResponse response = service.query(request);
+
+        fetches.set(0);
+        final List<Long> timestamps = Lists.newArrayList();
+        final Map<String, List<Double>> columns = new HashMap<>();
+        try (MeasurementsExport export = service.export(request)) {
+            assertEquals(Arrays.asList("a", "double"), export.getLabels());
+            FetchResults chunk;
+            while ((chunk = export.nextChunk()) != null) {
+                timestamps.addAll(Longs.asList(chunk.getTimestamps()));
+                for (final Map.Entry<String, double[]> column : chunk.getColumns().entrySet()) {
+                    columns.computeIfAbsent(column.getKey(), k -> Lists.newArrayList()).addAll(Doubles.asList(column.getValue()));
+                }
+            }
+        }
+
+        // 3 columns, at most 6 rows per chunk
+        assertEquals(17, fetches.get());
+        assertArrayEquals(response.getTimestamps(), Longs.toArray(timestamps));
+        assertEquals(2, columns.size());
+        for (int i = 0; i < response.getLabels().length; i++) {
+            assertArrayEquals(response.getColumns()[i].getList(), Doubles.toArray(columns.get(response.getLabels()[i])), 0.0d);
+        }
+    }
+
+    @Test
+    public void shouldNotSplitExpressionsReferringToOtherRows() throws Exception {
+        try (MeasurementsExport export = service.export(request("__a[__i - 1]"))) {
+            assertEquals(101, export.nextChunk().getTimestamps().length);
+            assertEquals(null, export.nextChunk());
+        }
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void canWriteCsvAndNdjson() throws Exception {
+        final QueryRequest request = request("a * 2");
+        request.setStart(0);
+        request.setEnd(STEP);
+
+        final ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        try (MeasurementsExport export = service.export(request)) {
+            ExportFormat.CSV.write(export, csv);
+        }
+        assertEquals("timestamp,a,double\n0,1.0,2.0\n300000,2.0,4.0\n", new String(csv.toByteArray(), StandardCharsets.UTF_8));
+
+        final ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+        try (MeasurementsExport export = service.export(request)) {
+            ExportFormat.NDJSON.write(export, ndjson);
+        }
+        assertEquals("{\"timestamp\":0,\"a\":1.0,\"double\":2.0}\n{\"timestamp\":300000,\"a\":2.0,\"double\":4.0}\n",
+                new String(ndjson.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldLimitConcurrentExports() throws Exception {
+        final QueryRequest request = request("a * 2");
+        try (MeasurementsExport export = service.export(request)) {
+            try {
+                service.export(request);
+                fail("Expected a TooManyExportsException");
+            } catch (TooManyExportsException e) {
+                assertTrue(e.getMessage().contains("at most 1"));
+            }
+        }
+        // The permit is released once closed
+        service.export(request).close();
+    }
+
+    @Test
+    public void shouldReleasePermitOnlyOnce() throws Exception {
+        final QueryRequest request = request("a * 2");
+        final MeasurementsExport export = service.export(request);
+        export.close();
+        export.close();
+        try (MeasurementsExport other = service.export(request)) {
+            try {
+                service.export(request);
+                fail("Expected a TooManyExportsException");
+            } catch (TooManyExportsException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void shouldCloseIdleExports() throws Exception {
+        final DefaultMeasurementsService idleService = new DefaultMeasurementsService(fetchStrategy, expressionEngine, new FilterEngine(), 1, 20, 0);
+        final QueryRequest request = request("a * 2");
+        // Never read from nor closed, like the export of an aborted request
+        idleService.export(request);
+        try (MeasurementsExport export = idleService.export(request)) {
+            assertNotNull(export.nextChunk());
+        }
+    }
+
+    private static QueryRequest request(String expression) {
+        final Source source = new Source("a", "node[1].nodeSnmp[]", "a", null, false);
+        source.setAggregation("AVERAGE");
+        final Source transientSource = new Source("b", "node[1].nodeSnmp[]", "b", null, true);
+        transientSource.setAggregation("AVERAGE");
+
+        final QueryRequest request = new QueryRequest();
+        request.setStart(1000);
+        request.setEnd(100 * STEP);
+        request.setStep(STEP);
+        request.setSources(Arrays.asList(source, transientSource));
+        request.setExpressions(Arrays.asList(new Expression("double", expression, false)));
+        return request;
+    }
+}
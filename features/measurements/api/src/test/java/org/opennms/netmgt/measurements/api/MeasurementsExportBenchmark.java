@@ -0,0 +1,124 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.measurements.api;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.opennms.netmgt.measurements.model.QueryResponse;
+import org.opennms.netmgt.measurements.model.Source;
+
+/**
+ * Use the Java Microbenchmarking Harness (JMH) to compare a full resolution export of one year
+ * of data collected every 5 minutes with a query of the same range.
+ * <p>
+ * Run with <code>-prof gc</code> to compare the allocations, the export only keeps
+ * <code>maxValuesPerChunk</code> values in memory at a time.
+ */
+public class MeasurementsExportBenchmark {
+
+    private static final long STEP = 300000L;
+    private static final long YEAR = 365L * 24 * 60 * 60 * 1000;
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"1", "10"})
+        public int numSources;
+
+        @Param({"10000", "1000000"})
+        public int maxValuesPerChunk;
+
+        private DefaultMeasurementsService service;
+        private QueryRequest request;
+
+        @Setup
+        public void setUp() {
+            final MeasurementFetchStrategy fetchStrategy = (start, end, step, maxrows, interval, heartbeat, sources, relaxed) -> {
+                final int numRows = (int) ((end - (start / step) * step) / step + 1);
+                final long[] timestamps = new long[numRows];
+                for (int i = 0; i < numRows; i++) {
+                    timestamps[i] = (start / step + i) * step;
+                }
+                final Map<String, double[]> columns = new HashMap<>();
+                for (final Source source : sources) {
+                    final double[] values = new double[numRows];
+                    for (int i = 0; i < numRows; i++) {
+                        values[i] = Math.sin(timestamps[i] / (double) step) * 100;
+                    }
+                    columns.put(source.getLabel(), values);
+                }
+                return new FetchResults(timestamps, columns, step, new HashMap<>(), null);
+            };
+            service = new DefaultMeasurementsService(fetchStrategy, (request, results) -> {}, new FilterEngine(), 4, maxValuesPerChunk);
+
+            final List<Source> sources = new ArrayList<>(numSources);
+            for (int i = 0; i < numSources; i++) {
+                final Source source = new Source("ifHCInOctets" + i, "node[1].interfaceSnmp[eth" + i + "]", "ifHCInOctets", null, false);
+                source.setAggregation("AVERAGE");
+                sources.add(source);
+            }
+            request = new QueryRequest();
+            request.setStart(0);
+            request.setEnd(YEAR);
+            request.setStep(STEP);
+            request.setSources(sources);
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(4)
+    public void exportCsv(BState state) throws Exception {
+        try (MeasurementsExport export = state.service.export(state.request)) {
+            ExportFormat.CSV.write(export, OutputStream.nullOutputStream());
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(4)
+    public QueryResponse query(BState state) throws Exception {
+        return state.service.query(state.request);
+    }
+}
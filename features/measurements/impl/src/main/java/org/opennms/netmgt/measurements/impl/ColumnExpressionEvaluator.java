@@ -0,0 +1,398 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.model.Expression;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+/**
+ * Evaluates the plain arithmetic subset of the measurement expressions column-wise,
+ * without going through JEXL for every row.
+ *
+ * Only expressions built from column references, previously evaluated expressions,
+ * numeric constants, parentheses and the {@code + - * /} operators are supported.
+ * Every binary operation must involve at least one floating point operand, so that
+ * the results are the same as the ones calculated by JEXL. When any expression of a
+ * request is not supported, {@link #evaluate(List, FetchResults)} returns {@code null}
+ * and the caller is expected to fall back to JEXL.
+ */
+public class ColumnExpressionEvaluator {
+
+    /**
+     * JEXL keywords which can not be used as variable names.
+     */
+    private static final Set<String> RESERVED = ImmutableSet.of("or", "and", "eq", "ne", "lt", "gt", "le", "ge",
+            "div", "mod", "not", "null", "true", "false", "new", "empty", "size", "if", "else", "for", "foreach",
+            "while", "var", "function", "return", "in");
+
+    /**
+     * Largest integer value which can be represented exactly as a double.
+     */
+    private static final long MAX_EXACT_INTEGER = 1L << 53;
+
+    private ColumnExpressionEvaluator() {
+    }
+
+    /**
+     * Evaluates all the given expressions against the fetched columns.
+     *
+     * @return the values of every expression, in the order of the given list, or {@code null}
+     *         if at least one of the expressions must be evaluated by JEXL
+     */
+    public static double[][] evaluate(final List<Expression> expressions, final FetchResults results) {
+        final long[] timestamps = results.getTimestamps();
+        final int numRows = timestamps.length;
+        final Map<String, double[]> columns = results.getColumns();
+
+        final Map<String, Integer> labels = Maps.newHashMap();
+        for (int i = 0; i < expressions.size(); i++) {
+            if (labels.put(expressions.get(i).getLabel(), i) != null) {
+                // Duplicate labels collapse into a single JEXL expression
+                return null;
+            }
+        }
+
+        final Map<String, Operand> specials = Maps.newHashMap();
+        specials.put("__inf", Operand.scalar(Double.POSITIVE_INFINITY, true));
+        specials.put("__neg_inf", Operand.scalar(Double.NEGATIVE_INFINITY, true));
+        specials.put("NaN", Operand.scalar(Double.NaN, true));
+        specials.put("__E", Operand.scalar(Math.E, true));
+        specials.put("__PI", Operand.scalar(Math.PI, true));
+        specials.put("__diff_time", Operand.scalar(numRows < 1 ? 0d : timestamps[numRows-1] - timestamps[0], true));
+        if (Math.abs(results.getStep()) <= MAX_EXACT_INTEGER) {
+            specials.put("__step", Operand.scalar(results.getStep(), false));
+        }
+
+        final double[][] values = new double[expressions.size()][];
+        try {
+            for (int i = 0; i < expressions.size(); i++) {
+                final int index = i;
+                final Parser parser = new Parser(expressions.get(i).getExpression(), name -> {
+                    if (columns.containsKey(name)) {
+                        final double[] column = columns.get(name);
+                        return column != null && column.length == numRows ? Operand.column(column) : null;
+                    }
+                    if (name.startsWith("__") && columns.containsKey(name.substring(2))) {
+                        return null;
+                    }
+                    if ("timestamp".equals(name) || "__i".equals(name)) {
+                        return null;
+                    }
+                    final Integer position = labels.get(name);
+                    if (position != null) {
+                        // Expressions defined later only see the values of the previous row
+                        return position < index ? Operand.column(values[position]) : null;
+                    }
+                    if (specials.containsKey(name)) {
+                        return specials.get(name);
+                    }
+                    final Object constant = results.getConstants().get(name);
+                    if (constant instanceof Double) {
+                        return Operand.scalar((Double) constant, true);
+                    }
+                    return null;
+                });
+                final Operand result = parser.parse();
+                if (result == null || !result.floatingPoint) {
+                    return null;
+                }
+                values[i] = result.toColumn(numRows);
+            }
+        } catch (DivisionByZeroException e) {
+            // Let JEXL deal with it
+            return null;
+        }
+        return values;
+    }
+
+    @FunctionalInterface
+    private interface Resolver {
+        Operand resolve(String name);
+    }
+
+    /**
+     * Either a scalar or a whole column of values.
+     */
+    private static class Operand {
+        private final double[] column;
+        private final double scalar;
+        private final boolean floatingPoint;
+        private final boolean shared;
+
+        private Operand(double[] column, double scalar, boolean floatingPoint, boolean shared) {
+            this.column = column;
+            this.scalar = scalar;
+            this.floatingPoint = floatingPoint;
+            this.shared = shared;
+        }
+
+        private static Operand scalar(double value, boolean floatingPoint) {
+            return new Operand(null, value, floatingPoint, false);
+        }
+
+        private static Operand column(double[] values) {
+            return new Operand(values, 0d, true, true);
+        }
+
+        private static Operand computed(double[] values) {
+            return new Operand(values, 0d, true, false);
+        }
+
+        private double get(int i) {
+            return column != null ? column[i] : scalar;
+        }
+
+        private double[] toColumn(int numRows) {
+            if (column == null) {
+                final double[] values = new double[numRows];
+                Arrays.fill(values, scalar);
+                return values;
+            }
+            return shared ? Arrays.copyOf(column, numRows) : column;
+        }
+    }
+
+    private static class DivisionByZeroException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private DivisionByZeroException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Recursive descent parser which evaluates the expression while parsing it.
+     * All of the parse methods return {@code null} when the expression is not supported.
+     */
+    private static class Parser {
+        private final String expression;
+        private final Resolver resolver;
+        private int pos = 0;
+
+        private Parser(String expression, Resolver resolver) {
+            this.expression = expression;
+            this.resolver = resolver;
+        }
+
+        private Operand parse() {
+            if (expression == null) {
+                return null;
+            }
+            final Operand result = parseAdditive();
+            skipWhitespace();
+            return pos == expression.length() ? result : null;
+        }
+
+        private Operand parseAdditive() {
+            Operand left = parseMultiplicative();
+            while (left != null) {
+                final char op = peek();
+                if (op != '+' && op != '-') {
+                    break;
+                }
+                pos++;
+                left = apply(op, left, parseMultiplicative());
+            }
+            return left;
+        }
+
+        private Operand parseMultiplicative() {
+            Operand left = parseUnary();
+            while (left != null) {
+                final char op = peek();
+                if (op != '*' && op != '/') {
+                    break;
+                }
+                if (op == '/' && pos + 1 < expression.length()
+                        && (expression.charAt(pos + 1) == '/' || expression.charAt(pos + 1) == '*')) {
+                    // Comment
+                    return null;
+                }
+                pos++;
+                left = apply(op, left, parseUnary());
+            }
+            return left;
+        }
+
+        private Operand parseUnary() {
+            if (peek() == '-') {
+                pos++;
+                final Operand operand = parseUnary();
+                if (operand == null) {
+                    return null;
+                }
+                if (operand.column == null) {
+                    return Operand.scalar(-operand.scalar, operand.floatingPoint);
+                }
+                final double[] values = new double[operand.column.length];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = -operand.column[i];
+                }
+                return Operand.computed(values);
+            }
+            return parsePrimary();
+        }
+
+        private Operand parsePrimary() {
+            final char c = peek();
+            if (c == '(') {
+                pos++;
+                final Operand operand = parseAdditive();
+                if (operand == null || peek() != ')') {
+                    return null;
+                }
+                pos++;
+                return operand;
+            } else if (c >= '0' && c <= '9') {
+                return parseNumber();
+            } else if (isIdentifierStart(c)) {
+                final int start = pos;
+                while (pos < expression.length() && isIdentifierPart(expression.charAt(pos))) {
+                    pos++;
+                }
+                final String name = expression.substring(start, pos);
+                if (RESERVED.contains(name)) {
+                    return null;
+                }
+                return resolver.resolve(name);
+            }
+            return null;
+        }
+
+        private Operand parseNumber() {
+            final int start = pos;
+            while (pos < expression.length() && Character.isDigit(expression.charAt(pos))) {
+                pos++;
+            }
+            if (pos - start > 1 && expression.charAt(start) == '0') {
+                // Octal literal
+                return null;
+            }
+            boolean real = false;
+            if (pos < expression.length() && expression.charAt(pos) == '.') {
+                pos++;
+                final int fraction = pos;
+                while (pos < expression.length() && Character.isDigit(expression.charAt(pos))) {
+                    pos++;
+                }
+                if (pos == fraction) {
+                    return null;
+                }
+                real = true;
+            }
+            if (pos < expression.length() && (isIdentifierPart(expression.charAt(pos)) || expression.charAt(pos) == '.')) {
+                // Typed literal, exponent or property access
+                return null;
+            }
+            final String literal = expression.substring(start, pos);
+            if (real) {
+                // JEXL may read real literals as floats, only accept values where it makes no difference
+                final double value = Double.parseDouble(literal);
+                return (double) Float.parseFloat(literal) == value ? Operand.scalar(value, true) : null;
+            }
+            if (literal.length() > 15) {
+                return null;
+            }
+            return Operand.scalar(Long.parseLong(literal), false);
+        }
+
+        private char peek() {
+            skipWhitespace();
+            return pos < expression.length() ? expression.charAt(pos) : 0;
+        }
+
+        private void skipWhitespace() {
+            while (pos < expression.length() && Character.isWhitespace(expression.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private static boolean isIdentifierStart(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+        }
+
+        private static boolean isIdentifierPart(char c) {
+            return isIdentifierStart(c) || (c >= '0' && c <= '9');
+        }
+
+        private static Operand apply(char op, Operand left, Operand right) {
+            if (left == null || right == null) {
+                return null;
+            }
+            if (!left.floatingPoint && !right.floatingPoint) {
+                // Integer arithmetic
+                return null;
+            }
+            if (left.column == null && right.column == null) {
+                return Operand.scalar(apply(op, left.scalar, right.scalar), true);
+            }
+            final int numRows = left.column != null ? left.column.length : right.column.length;
+            final double[] values = new double[numRows];
+            switch (op) {
+                case '+':
+                    for (int i = 0; i < numRows; i++) {
+                        values[i] = left.get(i) + right.get(i);
+                    }
+                    break;
+                case '-':
+                    for (int i = 0; i < numRows; i++) {
+                        values[i] = left.get(i) - right.get(i);
+                    }
+                    break;
+                case '*':
+                    for (int i = 0; i < numRows; i++) {
+                        values[i] = left.get(i) * right.get(i);
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < numRows; i++) {
+                        values[i] = apply(op, left.get(i), right.get(i));
+                    }
+            }
+            return Operand.computed(values);
+        }
+
+        private static double apply(char op, double left, double right) {
+            switch (op) {
+                case '+':
+                    return left + right;
+                case '-':
+                    return left - right;
+                case '*':
+                    return left * right;
+                default:
+                    if (right == 0d) {
+                        throw new DivisionByZeroException();
+                    }
+                    return left / right;
+            }
+        }
+    }
+}
@@ -57,7 +57,17 @@ public class JEXLExpressionEngine implements ExpressionEngine {
      */
     private final OnmsJexlEngine jexl;
 
+    /**
+     * Evaluate plain arithmetic expressions column-wise instead of row by row.
+     */
+    private final boolean evaluateColumns;
+
     public JEXLExpressionEngine() {
+        this(true);
+    }
+
+    protected JEXLExpressionEngine(boolean evaluateColumns) {
+        this.evaluateColumns = evaluateColumns;
         jexl = new OnmsJexlEngine();
         jexl.white(Math.class.getName());
         jexl.white(StrictMath.class.getName());
@@ -115,6 +125,20 @@ public class JEXLExpressionEngine implements ExpressionEngine {
             }
         }
 
+        final Map<String, double[]> columns = results.getColumns();
+
+        // Plain arithmetic can be evaluated a whole column at a time
+        final double[][] columnValues = evaluateColumns ? ColumnExpressionEvaluator.evaluate(request.getExpressions(), results) : null;
+        if (columnValues != null) {
+            LOG.debug("Evaluated {} expressions column-wise.", numExpressions);
+            for (k = 0; k < numExpressions; k++) {
+                if (!transientFlags[k]) {
+                    columns.put(request.getExpressions().get(k).getLabel(), columnValues[k]);
+                }
+            }
+            return;
+        }
+
         // Prepare the JEXL context
         final Map<String, Object> jexlValues = Maps.newHashMap();
         final JexlContext context = new MapContext(jexlValues);
@@ -135,7 +159,6 @@ public class JEXLExpressionEngine implements ExpressionEngine {
         jexl.getFunctions().put("jexl", jexlEvaluateFunctions);
         
         final long timestamps[] = results.getTimestamps();
-        final Map<String, double[]> columns = results.getColumns();
         final int numRows = timestamps.length;
 
         // Calculate the time span
@@ -0,0 +1,128 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryMetadata;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class ColumnExpressionEvaluatorTest {
+
+    private static final int NUM_ROWS = 100;
+
+    @Test
+    public void canEvaluateArithmetic() throws ExpressionException {
+        verifySameAsJexl("ifHCInOctets * 8");
+        verifySameAsJexl("8 * ifHCInOctets");
+        verifySameAsJexl("(ifHCInOctets + ifHCOutOctets) * 8 / 1000");
+        verifySameAsJexl("-ifHCInOctets - -2 * ifHCOutOctets");
+        verifySameAsJexl("ifHCInOctets / 0.5 + __PI * 2");
+        verifySameAsJexl("ifHCInOctets * 8", "e0 * 0.25 - NaN");
+        verifySameAsJexl("ifHCInOctets / __step + __diff_time");
+    }
+
+    @Test
+    public void fallsBackForUnsupportedExpressions() {
+        assertNull(evaluate("ifHCInOctets * 0.1"));
+        assertNull(evaluate("ifHCInOctets % 2"));
+        assertNull(evaluate("1 / 2 * ifHCInOctets"));
+        assertNull(evaluate("ifHCInOctets > 0 ? ifHCInOctets : 0"));
+        assertNull(evaluate("math:abs(ifHCInOctets)"));
+        assertNull(evaluate("__ifHCInOctets[0]"));
+        assertNull(evaluate("timestamp * 1.0"));
+        assertNull(evaluate("ifHCInOctets // comment"));
+        assertNull(evaluate("unknown * 8"));
+        assertNull(evaluate("012 * ifHCInOctets"));
+        assertNull(evaluate("8"));
+        // division by zero is left to JEXL
+        assertNull(evaluate("ifHCInOctets / ifHCOutOctets"));
+    }
+
+    @Test
+    public void canReferencePreviousExpressions() {
+        final FetchResults results = getFetchResults();
+        final double[][] values = ColumnExpressionEvaluator.evaluate(Lists.newArrayList(
+                new Expression("bitsIn", "ifHCInOctets * 8", true),
+                new Expression("kbitsIn", "bitsIn / 1000", false)), results);
+        assertNotNull(values);
+        assertEquals(results.getColumns().get("ifHCInOctets")[3] * 8 / 1000, values[1][3], 0.0d);
+
+        // expressions defined later only see the value of the previous row
+        assertNull(ColumnExpressionEvaluator.evaluate(Lists.newArrayList(
+                new Expression("kbitsIn", "bitsIn / 1000", false),
+                new Expression("bitsIn", "ifHCInOctets * 8", true)), results));
+    }
+
+    private static double[][] evaluate(String expression) {
+        return ColumnExpressionEvaluator.evaluate(Collections.singletonList(new Expression("e", expression, false)), getFetchResults());
+    }
+
+    private static void verifySameAsJexl(String... expressions) throws ExpressionException {
+        final List<Expression> list = Lists.newArrayList();
+        for (int i = 0; i < expressions.length; i++) {
+            list.add(new Expression("e" + i, expressions[i], false));
+        }
+        assertNotNull(ColumnExpressionEvaluator.evaluate(list, getFetchResults()));
+
+        final QueryRequest request = new QueryRequest();
+        request.setExpressions(list);
+
+        final FetchResults columnResults = getFetchResults();
+        new JEXLExpressionEngine(true).applyExpressions(request, columnResults);
+        final FetchResults jexlResults = getFetchResults();
+        new JEXLExpressionEngine(false).applyExpressions(request, jexlResults);
+
+        for (int i = 0; i < expressions.length; i++) {
+            assertArrayEquals(expressions[i], jexlResults.getColumns().get("e" + i), columnResults.getColumns().get("e" + i), 0.0d);
+        }
+    }
+
+    private static FetchResults getFetchResults() {
+        final long[] timestamps = new long[NUM_ROWS];
+        final double[] in = new double[NUM_ROWS];
+        final double[] out = new double[NUM_ROWS];
+        for (int i = 0; i < NUM_ROWS; i++) {
+            timestamps[i] = 1000L * i;
+            in[i] = i % 10 == 0 ? Double.NaN : i * 1234.5678d;
+            out[i] = i * 3.3d;
+        }
+        final Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("ifHCInOctets", in);
+        columns.put("ifHCOutOctets", out);
+        return new FetchResults(timestamps, columns, 1000L, Maps.newHashMap(), new QueryMetadata());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryMetadata;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Use the Java Microbenchmarking Harness (JMH) to compare the column-wise evaluation of
+ * arithmetic expressions with the row by row evaluation done by JEXL.
+ */
+public class ExpressionEngineBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"10000"})
+        public int numRows;
+
+        @Param({"true", "false"})
+        public boolean evaluateColumns;
+
+        private JEXLExpressionEngine engine;
+        private QueryRequest request;
+        private long[] timestamps;
+        private Map<String, double[]> columns;
+
+        @Setup
+        public void setup() {
+            engine = new JEXLExpressionEngine(evaluateColumns);
+
+            request = new QueryRequest();
+            request.setExpressions(Lists.newArrayList(
+                    new Expression("bitsIn", "ifHCInOctets * 8", false),
+                    new Expression("bitsOut", "ifHCOutOctets * 8", false),
+                    new Expression("bitsTotal", "bitsIn + bitsOut", false),
+                    new Expression("bitsOutNeg", "-1.0 * bitsOut", false)));
+
+            timestamps = new long[numRows];
+            columns = Maps.newHashMap();
+            final double[] in = new double[numRows];
+            final double[] out = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                timestamps[i] = i * 300000L;
+                in[i] = i * 1234.5d;
+                out[i] = i * 4321.5d;
+            }
+            columns.put("ifHCInOctets", in);
+            columns.put("ifHCOutOctets", out);
+        }
+
+        private FetchResults fetchResults() {
+            return new FetchResults(timestamps, Maps.newHashMap(columns), 300000L, Maps.newHashMap(), new QueryMetadata());
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    public void applyExpressions(BState state, Blackhole blackhole) throws ExpressionException {
+        final FetchResults results = state.fetchResults();
+        state.engine.applyExpressions(state.request, results);
+        blackhole.consume(results);
+    }
+
+}
@@ -36,16 +36,21 @@ import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 
+import org.opennms.netmgt.measurements.api.ExportFormat;
 import org.opennms.netmgt.measurements.api.FilterEngine;
+import org.opennms.netmgt.measurements.api.MeasurementsExport;
 import org.opennms.netmgt.measurements.api.MeasurementsService;
 import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
 import org.opennms.netmgt.measurements.api.exceptions.FetchException;
 import org.opennms.netmgt.measurements.api.exceptions.FilterException;
+import org.opennms.netmgt.measurements.api.exceptions.MeasurementException;
 import org.opennms.netmgt.measurements.api.exceptions.ResourceNotFoundException;
+import org.opennms.netmgt.measurements.api.exceptions.TooManyExportsException;
 import org.opennms.netmgt.measurements.api.exceptions.ValidationException;
 import org.opennms.netmgt.measurements.model.FilterMetaData;
 import org.opennms.netmgt.measurements.model.QueryRequest;
@@ -167,16 +172,8 @@ public class MeasurementsRestService {
         QueryResponse response = null;
         try {
             response = service.query(request);
-        } catch (ExpressionException e) {
-            throw getException(Status.BAD_REQUEST, e, "An error occurred while evaluating an expression: {}", e.getMessage());
-        } catch (FilterException  | ValidationException e) {
-            throw getException(Status.BAD_REQUEST, e, e.getMessage());
-        } catch (ResourceNotFoundException e) {
-            throw getException(Status.NOT_FOUND, e, e.getMessage());
-        } catch (FetchException e) {
-            throw getException(Status.INTERNAL_SERVER_ERROR, e, e.getMessage());
         } catch (Exception e) {
-            throw getException(Status.INTERNAL_SERVER_ERROR, e, "Query failed: {}", e.getMessage());
+            throw getException(e);
         }
 
         // Return a 204 if there are no columns
@@ -187,6 +184,62 @@ public class MeasurementsRestService {
         return response;
     }
 
+    /**
+     * Exports the measurements of many resources, like {@link #query(QueryRequest)}.
+     *
+     * The rows are fetched in chunks and written as they come in, either
+     * as CSV or as newline delimited JSON, so that exports over long time
+     * ranges don't need to be held in memory.
+     */
+    @POST
+    @Path("export")
+    @Consumes({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, MediaType.APPLICATION_ATOM_XML})
+    @Produces({"text/csv", "application/x-ndjson"})
+    public Response export(@DefaultValue("csv") @QueryParam("format") final String format, final QueryRequest request) {
+        Preconditions.checkState(service != null);
+        final ExportFormat exportFormat = ExportFormat.fromString(format);
+        if (exportFormat == null) {
+            throw getException(Status.BAD_REQUEST, "Unsupported export format: {}", format);
+        }
+
+        LOG.debug("Executing export with {}", request);
+        final MeasurementsExport export;
+        try {
+            export = service.export(request);
+        } catch (Exception e) {
+            throw getException(e);
+        }
+
+        final StreamingOutput output = outputStream -> {
+            try {
+                exportFormat.write(export, outputStream);
+            } catch (MeasurementException e) {
+                // The response is already committed, all we can do is to cut it short
+                throw getException(e);
+            } finally {
+                export.close();
+            }
+        };
+        return Response.ok(output, exportFormat.getMediaType())
+                .header("Content-Disposition", "attachment; filename=measurements." + exportFormat.getExtension())
+                .build();
+    }
+
+    private static WebApplicationException getException(final Exception e) {
+        if (e instanceof ExpressionException) {
+            return getException(Status.BAD_REQUEST, e, "An error occurred while evaluating an expression: {}", e.getMessage());
+        } else if (e instanceof FilterException || e instanceof ValidationException) {
+            return getException(Status.BAD_REQUEST, e, e.getMessage());
+        } else if (e instanceof ResourceNotFoundException) {
+            return getException(Status.NOT_FOUND, e, e.getMessage());
+        } else if (e instanceof TooManyExportsException) {
+            return getException(Status.SERVICE_UNAVAILABLE, e, e.getMessage());
+        } else if (e instanceof FetchException) {
+            return getException(Status.INTERNAL_SERVER_ERROR, e, e.getMessage());
+        }
+        return getException(Status.INTERNAL_SERVER_ERROR, e, "Query failed: {}", e.getMessage());
+    }
+
     protected static WebApplicationException getException(final Status status, String msg, Object... params) throws WebApplicationException {
         if (params != null) msg = MessageFormatter.arrayFormat(msg, params).getMessage();
         LOG.error(msg);
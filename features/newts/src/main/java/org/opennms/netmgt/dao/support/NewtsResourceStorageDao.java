@@ -64,6 +64,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 /**
@@ -171,7 +172,58 @@ public class NewtsResourceStorageDao implements ResourceStorageDao {
                 .submit(getResourceAttributesCallable(path));
 
         // Gather the list of metrics available under the resource path
-        SearchResults results = searchFor(path, 0, true);
+        addGraphAttributes(path, searchFor(path, 0, true), attributes);
+
+        // Add the resource level attributes to the result set
+        try {
+            stringAttributes.get().entrySet().stream()
+                .map(e -> new StringPropertyAttribute(e.getKey(), e.getValue()))
+                .forEach(attributes::add);
+        } catch (InterruptedException|ExecutionException e) {
+            throw Throwables.propagate(e);
+        }
+
+        return attributes;
+    }
+
+    @Override
+    public Map<ResourcePath, Set<OnmsAttribute>> getAttributesWithin(ResourcePath path, int depth) {
+        Preconditions.checkArgument(depth >= 0, "depth must be non-negative");
+
+        // Issue a single search per level, instead of one per resource
+        final Map<ResourcePath, List<Result>> resultsByPath = Maps.newHashMap();
+        resultsByPath.put(path, Lists.newArrayList());
+        for (int i = 0; i <= depth; i++) {
+            for (Result result : searchFor(path, i, true)) {
+                resultsByPath.computeIfAbsent(toResourcePath(result.getResource().getId()), p -> Lists.newArrayList()).add(result);
+            }
+        }
+
+        // Fetch the resource-level attributes in parallel
+        final Map<ResourcePath, Future<Map<String, String>>> stringAttributesByPath = Maps.newHashMap();
+        for (ResourcePath resourcePath : resultsByPath.keySet()) {
+            stringAttributesByPath.put(resourcePath, ForkJoinPool.commonPool().submit(getResourceAttributesCallable(resourcePath)));
+        }
+
+        final Map<ResourcePath, Set<OnmsAttribute>> attributesByPath = Maps.newHashMap();
+        for (Map.Entry<ResourcePath, List<Result>> entry : resultsByPath.entrySet()) {
+            final Set<OnmsAttribute> attributes = Sets.newHashSet();
+            addGraphAttributes(entry.getKey(), entry.getValue(), attributes);
+            try {
+                stringAttributesByPath.get(entry.getKey()).get().entrySet().stream()
+                    .map(e -> new StringPropertyAttribute(e.getKey(), e.getValue()))
+                    .forEach(attributes::add);
+            } catch (InterruptedException|ExecutionException e) {
+                throw Throwables.propagate(e);
+            }
+            if (!attributes.isEmpty()) {
+                attributesByPath.put(entry.getKey(), attributes);
+            }
+        }
+        return attributesByPath;
+    }
+
+    private static void addGraphAttributes(ResourcePath path, Iterable<Result> results, Set<OnmsAttribute> attributes) {
         for (Result result : results) {
             final String resourceId = result.getResource().getId();
             final ResourcePath resultPath = toResourcePath(resourceId);
@@ -201,17 +253,6 @@ public class NewtsResourceStorageDao implements ResourceStorageDao {
                 }
             }
         }
-
-        // Add the resource level attributes to the result set
-        try {
-            stringAttributes.get().entrySet().stream()
-                .map(e -> new StringPropertyAttribute(e.getKey(), e.getValue()))
-                .forEach(attributes::add);
-        } catch (InterruptedException|ExecutionException e) {
-            throw Throwables.propagate(e);
-        }
-
-        return attributes;
     }
 
     @Override
@@ -258,15 +299,10 @@ public class NewtsResourceStorageDao implements ResourceStorageDao {
     }
 
     private boolean hasCachedEntry(ResourcePath path, int minDepth, int maxDepth) {
-        List<String> cachedResourceIds = m_searchableCache.getResourceIdsWithPrefix(
-                m_context, toResourceId(path));
-        for (String resourceId : cachedResourceIds) {
+        return m_searchableCache.anyResourceIdWithPrefix(m_context, toResourceId(path), resourceId -> {
             int relativeDepth = path.relativeDepth(toResourcePath(resourceId));
-            if (relativeDepth >= minDepth && relativeDepth <= maxDepth) {
-                return true;
-            }
-        }
-        return false;
+            return relativeDepth >= minDepth && relativeDepth <= maxDepth;
+        });
     }
 
     private SearchResults searchFor(ResourcePath path, int depth, boolean fetchMetrics) {
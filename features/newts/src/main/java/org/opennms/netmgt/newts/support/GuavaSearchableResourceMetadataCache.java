@@ -24,6 +24,7 @@ package org.opennms.netmgt.newts.support;
 import static com.codahale.metrics.MetricRegistry.name;
 
 import java.util.List;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -146,6 +147,17 @@ public class GuavaSearchableResourceMetadataCache implements SearchableResourceM
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public boolean anyResourceIdWithPrefix(Context context, String resourceIdPrefix, Predicate<String> predicate) {
+        // The keys are visited lazily, so we can stop at the first match
+        for (CharSequence key : m_radixTree.getKeysStartingWith(key(context, resourceIdPrefix))) {
+            if (predicate.test(resourceId(context, key.toString()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public void onRemoval(RemovalNotification<String, ResourceMetadata> notification) {
         m_radixTree.remove(notification.getKey());
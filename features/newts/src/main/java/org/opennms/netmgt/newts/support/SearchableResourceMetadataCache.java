@@ -22,6 +22,7 @@
 package org.opennms.netmgt.newts.support;
 
 import java.util.List;
+import java.util.function.Predicate;
 
 import org.opennms.newts.api.Context;
 import org.opennms.newts.cassandra.search.ResourceMetadataCache;
@@ -35,4 +36,14 @@ public interface SearchableResourceMetadataCache extends ResourceMetadataCache {
 
     List<String> getResourceIdsWithPrefix(Context context, String resourceIdPrefix);
 
+    /**
+     * Verifies if any of the cached resource ids with the given prefix matches the predicate.
+     *
+     * Implementations should stop at the first match, rather than gathering all of the
+     * resource ids bellow the prefix, which can be a lot for a large node.
+     */
+    default boolean anyResourceIdWithPrefix(Context context, String resourceIdPrefix, Predicate<String> predicate) {
+        return getResourceIdsWithPrefix(context, resourceIdPrefix).stream().anyMatch(predicate);
+    }
+
 }
@@ -37,6 +37,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -201,6 +202,26 @@ public class NewtsResourceStorageDaoTest {
         doVerify();
     }
 
+    @Test
+    public void getAttributesWithin() {
+        index(ResourcePath.get("a", "bucket"), Sets.newHashSet("metric"));
+        index(ResourcePath.get("a", "b", "bucket1"), Sets.newHashSet("metric11", "metric12"));
+        index(ResourcePath.get("a", "b", "bucket2"), Sets.newHashSet("metric21"));
+        index(ResourcePath.get("a", "c", "bucket"), Sets.newHashSet("metric"));
+        index(ResourcePath.get("a", "c", "d", "bucket"), Sets.newHashSet("metric"));
+        replay();
+
+        // The attributes should be the same as the ones retrieved path by path
+        Map<ResourcePath, Set<OnmsAttribute>> attributes = m_nrs.getAttributesWithin(ResourcePath.get("a"), 1);
+        assertEquals(3, attributes.size());
+        for (ResourcePath path : Arrays.asList(ResourcePath.get("a"), ResourcePath.get("a", "b"), ResourcePath.get("a", "c"))) {
+            assertEquals(m_nrs.getAttributes(path), attributes.get(path));
+        }
+        assertEquals(3, attributes.get(ResourcePath.get("a", "b")).size());
+
+        doVerify();
+    }
+
     @Test
     public void getResponseTimeAttributes() {
         index(ResourcePath.get(ResourceTypeUtils.RESPONSE_DIRECTORY, "127.0.0.1", "strafeping"), Sets.newHashSet("ping1", "ping2"));
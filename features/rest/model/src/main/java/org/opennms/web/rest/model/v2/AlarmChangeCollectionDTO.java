@@ -0,0 +1,84 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.web.rest.model.v2;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.opennms.core.config.api.JaxbListWrapper;
+
+/**
+ * A page of the alarm change feed.
+ *
+ * The {@code sequence} is the cursor to pass with the next request. When {@code resync} is set,
+ * changes were missed and the client must reload the alarms before following the feed again.
+ */
+@XmlRootElement(name="alarmChanges")
+@XmlAccessorType(XmlAccessType.NONE)
+public class AlarmChangeCollectionDTO extends JaxbListWrapper<AlarmChangeDTO> {
+    private static final long serialVersionUID = 1L;
+
+    private long sequence;
+
+    private boolean resync;
+
+    public AlarmChangeCollectionDTO() {
+        // No-arg constructor for JAXB
+    }
+
+    public AlarmChangeCollectionDTO(final Collection<? extends AlarmChangeDTO> changes, final long sequence, final boolean resync) {
+        super(changes);
+        this.sequence = sequence;
+        this.resync = resync;
+    }
+
+    @XmlElement(name="alarmChange")
+    @JsonProperty("alarmChange")
+    public List<AlarmChangeDTO> getObjects() {
+        return super.getObjects();
+    }
+
+    @XmlAttribute(name="sequence")
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    @XmlAttribute(name="resync")
+    public boolean isResync() {
+        return resync;
+    }
+
+    public void setResync(boolean resync) {
+        this.resync = resync;
+    }
+}
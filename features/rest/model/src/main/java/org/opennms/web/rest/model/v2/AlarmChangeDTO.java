@@ -0,0 +1,179 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.web.rest.model.v2;
+
+import java.util.Date;
+import java.util.Objects;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlEnum;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * A change to a single alarm, as recorded in the alarm change feed.
+ */
+@XmlRootElement(name="alarmChange")
+@XmlAccessorType(XmlAccessType.NONE)
+public class AlarmChangeDTO {
+
+    @XmlEnum
+    public enum Action {
+        CREATED,
+        UPDATED,
+        DELETED
+    }
+
+    @XmlAttribute(name="sequence")
+    private Long sequence;
+
+    @XmlAttribute(name="action")
+    private Action action;
+
+    @XmlAttribute(name="id")
+    private Integer id;
+
+    @XmlAttribute(name="severity")
+    private String severity;
+
+    @XmlAttribute(name="count")
+    private Integer count;
+
+    @XmlElement(name="reductionKey")
+    private String reductionKey;
+
+    @XmlElement(name="uei")
+    private String uei;
+
+    @XmlElement(name="nodeId")
+    private Integer nodeId;
+
+    @XmlElement(name="lastEventTime")
+    private Date lastEventTime;
+
+    @XmlElement(name="ackUser")
+    private String ackUser;
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    public void setAction(Action action) {
+        this.action = action;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public String getSeverity() {
+        return severity;
+    }
+
+    public void setSeverity(String severity) {
+        this.severity = severity;
+    }
+
+    public Integer getCount() {
+        return count;
+    }
+
+    public void setCount(Integer count) {
+        this.count = count;
+    }
+
+    public String getReductionKey() {
+        return reductionKey;
+    }
+
+    public void setReductionKey(String reductionKey) {
+        this.reductionKey = reductionKey;
+    }
+
+    public String getUei() {
+        return uei;
+    }
+
+    public void setUei(String uei) {
+        this.uei = uei;
+    }
+
+    public Integer getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(Integer nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public Date getLastEventTime() {
+        return lastEventTime;
+    }
+
+    public void setLastEventTime(Date lastEventTime) {
+        this.lastEventTime = lastEventTime;
+    }
+
+    public String getAckUser() {
+        return ackUser;
+    }
+
+    public void setAckUser(String ackUser) {
+        this.ackUser = ackUser;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final AlarmChangeDTO that = (AlarmChangeDTO) o;
+        return Objects.equals(sequence, that.sequence)
+                && action == that.action
+                && Objects.equals(id, that.id)
+                && Objects.equals(severity, that.severity)
+                && Objects.equals(count, that.count)
+                && Objects.equals(reductionKey, that.reductionKey)
+                && Objects.equals(uei, that.uei)
+                && Objects.equals(nodeId, that.nodeId)
+                && Objects.equals(lastEventTime, that.lastEventTime)
+                && Objects.equals(ackUser, that.ackUser);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(sequence, action, id, severity, count, reductionKey, uei, nodeId, lastEventTime, ackUser);
+    }
+}
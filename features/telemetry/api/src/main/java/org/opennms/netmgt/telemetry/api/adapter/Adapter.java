@@ -39,6 +39,14 @@ public interface Adapter {
      */
     void handleMessageLog(TelemetryMessageLog messageLog);
 
+    /**
+     * Invoked when nodes or interfaces were added, changed or removed.
+     *
+     * Adapters keeping state derived from the inventory should refresh it.
+     */
+    default void handleInventoryChange() {
+    }
+
     void destroy();
 
 }
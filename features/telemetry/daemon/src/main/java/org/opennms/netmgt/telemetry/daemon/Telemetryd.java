@@ -282,6 +282,31 @@ public class Telemetryd implements SpringServiceDaemon, TelemetryManager {
         DaemonTools.handleReloadEvent(e, Telemetryd.NAME, (event) -> handleConfigurationChanged());
     }
 
+    @EventHandler(ueis = {
+            EventConstants.NODE_ADDED_EVENT_UEI,
+            EventConstants.NODE_DELETED_EVENT_UEI,
+            EventConstants.NODE_UPDATED_EVENT_UEI,
+            EventConstants.NODE_LABEL_CHANGED_EVENT_UEI,
+            EventConstants.NODE_LOCATION_CHANGED_EVENT_UEI,
+            EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI,
+            EventConstants.NODE_GAINED_INTERFACE_EVENT_UEI,
+            EventConstants.INTERFACE_DELETED_EVENT_UEI,
+            EventConstants.INTERFACE_REPARENTED_EVENT_UEI,
+            EventConstants.NODE_GAINED_SERVICE_EVENT_UEI,
+            EventConstants.SERVICE_DELETED_EVENT_UEI,
+            EventConstants.ASSET_INFO_CHANGED_EVENT_UEI
+    })
+    public void handleInventoryChangeEvent(IEvent e) {
+        LOG.debug("Inventory changed ({}), notifying adapters.", e.getUei());
+        for (final Adapter adapter : getAdapters()) {
+            try {
+                adapter.handleInventoryChange();
+            } catch (Exception ex) {
+                LOG.warn("Error while notifying adapter of inventory change.", ex);
+            }
+        }
+    }
+
     @Override
     public List<Listener> getListeners() {
         return this.listeners;
@@ -0,0 +1,267 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.telemetry.itests;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.db.MockDatabase;
+import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.core.xml.JaxbUtils;
+import org.opennms.netmgt.dao.api.CategoryDao;
+import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
+import org.opennms.netmgt.dao.api.NodeDao;
+import org.opennms.netmgt.dao.mock.MockEventIpcManager;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.model.NetworkBuilder;
+import org.opennms.netmgt.model.OnmsCategory;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.telemetry.config.dao.TelemetrydConfigDao;
+import org.opennms.netmgt.telemetry.config.model.AdapterConfig;
+import org.opennms.netmgt.telemetry.config.model.ListenerConfig;
+import org.opennms.netmgt.telemetry.config.model.PackageConfig;
+import org.opennms.netmgt.telemetry.config.model.Parameter;
+import org.opennms.netmgt.telemetry.config.model.ParserConfig;
+import org.opennms.netmgt.telemetry.config.model.QueueConfig;
+import org.opennms.netmgt.telemetry.config.model.TelemetrydConfig;
+import org.opennms.netmgt.telemetry.daemon.Telemetryd;
+import org.opennms.netmgt.telemetry.listeners.UdpListener;
+import org.opennms.netmgt.telemetry.protocols.jti.adapter.JtiGpbAdapter;
+import org.opennms.test.JUnitConfigurationEnvironment;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.test.context.ContextConfiguration;
+
+import com.google.common.io.Resources;
+
+/**
+ * Verifies that the package resolution of the collection adapters follows
+ * changes to the inventory without having to wait for the cached filter
+ * results to expire.
+ */
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations={
+        "classpath:/META-INF/opennms/applicationContext-soa.xml",
+        "classpath:/META-INF/opennms/applicationContext-dao.xml",
+        "classpath:/META-INF/opennms/applicationContext-mockConfigManager.xml",
+        "classpath:/META-INF/opennms/applicationContext-commonConfigs.xml",
+        "classpath:/META-INF/opennms/applicationContext-minimal-conf.xml",
+        "classpath*:/META-INF/opennms/component-dao.xml",
+        "classpath*:/META-INF/opennms/component-service.xml",
+        "classpath:/META-INF/opennms/applicationContext-pinger.xml",
+        "classpath:/META-INF/opennms/applicationContext-daemon.xml",
+        "classpath:/META-INF/opennms/mockEventIpcManager.xml",
+        "classpath:/META-INF/opennms/applicationContext-thresholding.xml",
+        "classpath:/META-INF/opennms/applicationContext-noOpBlobStore.xml",
+        "classpath:/META-INF/opennms/applicationContext-queuingservice-mq-vm.xml",
+        "classpath:/META-INF/opennms/applicationContext-ipc-sink-camel-server.xml",
+        "classpath:/META-INF/opennms/applicationContext-ipc-sink-camel-client.xml",
+        "classpath:/META-INF/opennms/applicationContext-collectionAgentFactory.xml",
+        "classpath:/META-INF/opennms/applicationContext-jtiAdapterFactory.xml",
+        "classpath:/META-INF/opennms/applicationContext-daoEvents.xml",
+        "classpath:/META-INF/opennms/applicationContext-telemetryDaemon.xml",
+        "classpath:/META-INF/opennms/applicationContext-testThresholdingDaos.xml",
+        "classpath:/META-INF/opennms/applicationContext-testPollerConfigDaos.xml"
+})
+@JUnitConfigurationEnvironment(systemProperties={ // We don't need a real pinger here
+        "org.opennms.netmgt.icmp.pingerClass=org.opennms.netmgt.icmp.NullPinger"})
+@JUnitTemporaryDatabase(tempDbClass=MockDatabase.class,reuseDatabase=false)
+public class PackageFilterIT {
+
+    @Autowired
+    private TelemetrydConfigDao telemetrydConfigDao;
+
+    @Autowired
+    private Telemetryd telemetryd;
+
+    @Autowired
+    private NodeDao nodeDao;
+
+    @Autowired
+    private CategoryDao categoryDao;
+
+    @Autowired
+    private InterfaceToNodeCache interfaceToNodeCache;
+
+    @Autowired
+    private MockEventIpcManager mockEventIpcManager;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File scriptFile;
+
+    private File routersRrdBaseDir;
+
+    private File defaultRrdBaseDir;
+
+    private int port = 50001;
+
+    @Before
+    public void setUp() throws IOException {
+        routersRrdBaseDir = tempFolder.newFolder("rrd-routers");
+        defaultRrdBaseDir = tempFolder.newFolder("rrd-default");
+        scriptFile = tempFolder.newFile("script-file.groovy");
+
+        NetworkBuilder nb = new NetworkBuilder();
+        nb.addNode("R1")
+                .setForeignSource("Juniper")
+                .setForeignId("1")
+                .setType(OnmsNode.NodeType.ACTIVE);
+        nb.addInterface("192.0.2.1").setIsSnmpPrimary("P").setIsManaged("P");
+        nb.addInterface("172.23.2.12").setIsSnmpPrimary("P").setIsManaged("P");
+        nodeDao.save(nb.getCurrentNode());
+        nodeDao.flush();
+
+        // Resync the cache so we can find the node we just inserted
+        interfaceToNodeCache.dataSourceSync();
+    }
+
+    @Test(timeout = 60000)
+    public void canFollowCategoryChanges() throws Exception {
+        updateDaoWithConfig(getConfig());
+        telemetryd.start();
+        try {
+            // The node is not part of the category yet, so the default package should be used
+            final File defaultRrd = Paths.get(defaultRrdBaseDir.getAbsolutePath(), "1", "ge_0_0_3", "ifOutOctets.jrb").toFile();
+            sendJtiPacket();
+            await().atMost(30, TimeUnit.SECONDS).until(defaultRrd::canRead);
+
+            // Add the node to the category
+            final OnmsCategory routers = new OnmsCategory("Routers");
+            categoryDao.save(routers);
+            final OnmsNode node = nodeDao.get(1);
+            node.addCategory(routers);
+            nodeDao.update(node);
+            nodeDao.flush();
+
+            final File routersRrd = Paths.get(routersRrdBaseDir.getAbsolutePath(), "1", "ge_0_0_3", "ifOutOctets.jrb").toFile();
+            assertFalse(routersRrd.canRead());
+
+            // Notify the daemon, the packages should be resolved again on the next message
+            mockEventIpcManager.sendNow(new EventBuilder(EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI, "test")
+                    .setNodeid(1)
+                    .getEvent());
+
+            await().atMost(30, TimeUnit.SECONDS).pollInterval(1, TimeUnit.SECONDS).until(() -> {
+                sendJtiPacket();
+                return routersRrd.canRead();
+            });
+        } finally {
+            telemetryd.destroy();
+        }
+    }
+
+    private void sendJtiPacket() throws IOException {
+        final byte[] jtiMsgBytes = Resources.toByteArray(Resources.getResource("jti_15.1F4_ifd_ae_40000.raw"));
+        final InetAddress address = InetAddressUtils.getLocalHostAddress();
+        final DatagramPacket packet = new DatagramPacket(jtiMsgBytes, jtiMsgBytes.length, address, port);
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.send(packet);
+        }
+    }
+
+    private void updateDaoWithConfig(TelemetrydConfig config) throws IOException {
+        final File tempFile = tempFolder.newFile();
+        JaxbUtils.marshal(config, tempFile);
+        telemetrydConfigDao.setConfigResource(new FileSystemResource(tempFile));
+        telemetrydConfigDao.afterPropertiesSet();
+    }
+
+    private TelemetrydConfig getConfig() throws IOException {
+        TelemetrydConfig telemetrydConfig = new TelemetrydConfig();
+
+        QueueConfig jtiQueue = new QueueConfig();
+        jtiQueue.setName("JTI");
+        telemetrydConfig.getQueues().add(jtiQueue);
+
+        ListenerConfig jtiListener = new ListenerConfig();
+        jtiListener.setEnabled(true);
+        jtiListener.setName("JTI");
+        jtiListener.setClassName(UdpListener.class.getCanonicalName());
+        jtiListener.getParameters().add(new Parameter("port", Integer.toString(port)));
+        telemetrydConfig.getListeners().add(jtiListener);
+
+        ParserConfig jtiParser = new ParserConfig();
+        jtiParser.setName("JTI-UDP-" + port);
+        jtiParser.setClassName(org.opennms.netmgt.telemetry.protocols.common.parser.ForwardParser.class.getCanonicalName());
+        jtiParser.setQueue(jtiQueue);
+        jtiListener.getParsers().add(jtiParser);
+
+        Files.copy(
+                Paths.get(System.getProperty("opennms.home"),
+                        "etc",
+                        "telemetryd-adapters",
+                        "junos-telemetry-interface.groovy"),
+                scriptFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING
+        );
+
+        assertTrue("Can't read: " + scriptFile.getAbsolutePath(), scriptFile.canRead());
+
+        AdapterConfig jtiGbpAdapter = new AdapterConfig();
+        jtiGbpAdapter.setEnabled(true);
+        jtiGbpAdapter.setName("JTI-GPB");
+        jtiGbpAdapter.setClassName(JtiGpbAdapter.class.getCanonicalName());
+        jtiGbpAdapter.getParameters().add(new Parameter("script", scriptFile.getAbsolutePath()));
+        jtiQueue.getAdapters().add(jtiGbpAdapter);
+
+        // Packages are matched in order, so the routers must come first
+        jtiGbpAdapter.getPackages().add(getPackage("JTI-Routers", "catincRouters", routersRrdBaseDir));
+        jtiGbpAdapter.getPackages().add(getPackage("JTI-Default", "IPADDR != '0.0.0.0'", defaultRrdBaseDir));
+
+        return telemetrydConfig;
+    }
+
+    private static PackageConfig getPackage(String name, String filter, File rrdBaseDir) {
+        PackageConfig pkg = new PackageConfig();
+        pkg.setName(name);
+        pkg.setFilter(new PackageConfig.Filter(filter));
+
+        PackageConfig.Rrd rrd = new PackageConfig.Rrd();
+        rrd.setStep(300);
+        rrd.setBaseDir(rrdBaseDir.getAbsolutePath());
+        rrd.getRras().add("RRA:AVERAGE:0.5:1:2016");
+        pkg.setRrd(rrd);
+
+        return pkg;
+    }
+}
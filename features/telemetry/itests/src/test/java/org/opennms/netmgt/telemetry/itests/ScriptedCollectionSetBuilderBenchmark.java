@@ -0,0 +1,151 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.telemetry.itests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+
+import javax.script.ScriptException;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.collection.api.CollectionSet;
+import org.opennms.netmgt.collection.dto.CollectionAgentDTO;
+import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.telemetry.protocols.collection.ScriptedCollectionSetBuilder;
+import org.opennms.netmgt.telemetry.protocols.jti.adapter.proto.Port;
+import org.opennms.netmgt.telemetry.protocols.jti.adapter.proto.TelemetryTop;
+import org.opennms.netmgt.telemetry.protocols.nxos.adapter.proto.TelemetryBis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.Resources;
+import com.google.protobuf.ExtensionRegistry;
+
+/**
+ * Measures the number of messages per second which can be turned into
+ * collection sets by the JTI and NX-OS scripts shipped with OpenNMS.
+ *
+ * The shared mode uses a single compiled script for all threads, as done
+ * by the adapters when the script engine is thread safe, while the
+ * threadLocal mode compiles one copy of the script per thread.
+ */
+public class ScriptedCollectionSetBuilderBenchmark {
+
+    private static final String SCRIPT_DIR = "../../../opennms-base-assembly/src/main/filtered/etc/telemetryd-adapters";
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"shared", "threadLocal"})
+        public String mode;
+
+        private CollectionAgentDTO agent;
+
+        private ScriptedCollectionSetBuilder jtiBuilder;
+
+        private ThreadLocal<ScriptedCollectionSetBuilder> jtiBuilders;
+
+        private TelemetryTop.TelemetryStream jtiMsg;
+
+        private ScriptedCollectionSetBuilder nxosBuilder;
+
+        private ThreadLocal<ScriptedCollectionSetBuilder> nxosBuilders;
+
+        private TelemetryBis.Telemetry nxosMsg;
+
+        @Setup
+        public void setUp() throws IOException, ScriptException {
+            agent = new CollectionAgentDTO();
+            agent.setAddress(InetAddressUtils.addr("192.0.2.1"));
+            agent.setNodeId(1);
+            agent.setNodeLabel("R1");
+            agent.setStorageResourcePath(ResourcePath.get("1"));
+
+            final ExtensionRegistry jtiRegistry = ExtensionRegistry.newInstance();
+            Port.registerAllExtensions(jtiRegistry);
+            TelemetryTop.registerAllExtensions(jtiRegistry);
+            jtiMsg = TelemetryTop.TelemetryStream.parseFrom(
+                    Resources.toByteArray(Resources.getResource("jti_15.1F4_ifd_ae_40000.raw")), jtiRegistry);
+
+            final ExtensionRegistry nxosRegistry = ExtensionRegistry.newInstance();
+            TelemetryBis.registerAllExtensions(nxosRegistry);
+            final byte[] nxosMsgBytes = Resources.toByteArray(Resources.getResource("nxos-proto-buf.raw"));
+            nxosMsg = TelemetryBis.Telemetry.parseFrom(ByteBuffer.wrap(nxosMsgBytes, 6, nxosMsgBytes.length - 6), nxosRegistry);
+
+            jtiBuilder = new ScriptedCollectionSetBuilder(getScript("junos-telemetry-interface.groovy"));
+            jtiBuilders = ThreadLocal.withInitial(() -> copy(jtiBuilder));
+            nxosBuilder = new ScriptedCollectionSetBuilder(getScript("cisco-nxos-telemetry-interface.groovy"));
+            nxosBuilders = ThreadLocal.withInitial(() -> copy(nxosBuilder));
+        }
+
+        private ScriptedCollectionSetBuilder getJtiBuilder() {
+            return "shared".equals(mode) ? jtiBuilder : jtiBuilders.get();
+        }
+
+        private ScriptedCollectionSetBuilder getNxosBuilder() {
+            return "shared".equals(mode) ? nxosBuilder : nxosBuilders.get();
+        }
+
+        private static File getScript(String name) {
+            return Paths.get(SCRIPT_DIR, name).toFile();
+        }
+
+        private static ScriptedCollectionSetBuilder copy(ScriptedCollectionSetBuilder builder) {
+            try {
+                return builder.copy();
+            } catch (ScriptException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(4)
+    public CollectionSet jti(BState state) throws ScriptException {
+        return state.getJtiBuilder().build(state.agent, state.jtiMsg, state.jtiMsg.getTimestamp());
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(4)
+    public CollectionSet nxos(BState state) throws ScriptException {
+        return state.getNxosBuilder().build(state.agent, state.nxosMsg, state.nxosMsg.getMsgTimestamp());
+    }
+}
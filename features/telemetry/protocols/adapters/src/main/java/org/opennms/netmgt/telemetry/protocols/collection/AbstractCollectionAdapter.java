@@ -24,10 +24,8 @@ package org.opennms.netmgt.telemetry.protocols.collection;
 import static com.codahale.metrics.MetricRegistry.name;
 
 import java.io.File;
+import java.net.InetAddress;
 import java.util.Collections;
-import java.util.Objects;
-import java.util.Optional;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Stream;
@@ -50,37 +48,36 @@ import org.opennms.netmgt.threshd.api.ThresholdingSession;
 import org.osgi.framework.BundleContext;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 
 public abstract class AbstractCollectionAdapter extends AbstractAdapter {
     private static final ServiceParameters EMPTY_SERVICE_PARAMETERS = new ServiceParameters(Collections.emptyMap());
 
-    private final LoadingCache<CacheKey, Optional<PackageDefinition>> cache = CacheBuilder.newBuilder()
-            .maximumSize(SystemProperties.getLong("org.opennms.features.telemetry.cache.ipAddressFilter.maximumSize", 1000))
-            .expireAfterWrite(
-                    SystemProperties.getLong("org.opennms.features.telemetry.cache.ipAddressFilter.expireAfterWrite", 120),
-                    TimeUnit.SECONDS)
-                                                                                          .build(new CacheLoader<CacheKey, Optional<PackageDefinition>>() {
-                @Override
-                public Optional<PackageDefinition> load(CacheKey key) {
-                    for (PackageDefinition pkg : adapterConfig.getPackages()) {
-                        final String filterRule = pkg.getFilterRule();
-                        if (filterRule == null) {
-                            // No filter specified, always match
-                            return Optional.of(pkg);
-                        }
-                        // NOTE: The location of the host address is not taken into account.
-                        if (filterDao.isValid(key.getHostAddress(), pkg.getFilterRule())) {
-                            return Optional.of(pkg);
-                        }
-                    }
-                    return Optional.empty();
-                }
-            });
+    /**
+     * Addresses matched by the package filter rules, shared by all adapters
+     */
+    private final PackageFilterIndex packageFilterIndex = PackageFilterIndex.getInstance();
+
+    /**
+     * Time taken to resolve the package of an agent
+     */
+    private final Timer packageResolutionTimer;
+
+    /**
+     * Resolutions for which the addresses of all the package filter rules were already loaded
+     */
+    private final Meter packageIndexHits;
+
+    /**
+     * Resolutions which required the addresses of a package filter rule to be loaded
+     */
+    private final Meter packageIndexMisses;
+
     protected BundleContext bundleContext;
 
     @Autowired
@@ -103,6 +100,18 @@ public abstract class AbstractCollectionAdapter extends AbstractAdapter {
     public AbstractCollectionAdapter(final AdapterDefinition adapterConfig,
                                      final MetricRegistry metricRegistry) {
         super(adapterConfig, metricRegistry);
+
+        this.packageResolutionTimer = metricRegistry.timer(name("adapters", adapterConfig.getFullName(), "packageResolution"));
+        this.packageIndexHits = metricRegistry.meter(name("adapters", adapterConfig.getFullName(), "packageIndexHits"));
+        this.packageIndexMisses = metricRegistry.meter(name("adapters", adapterConfig.getFullName(), "packageIndexMisses"));
+        final Meter hits = this.packageIndexHits;
+        final Meter misses = this.packageIndexMisses;
+        metricRegistry.gauge(name("adapters", adapterConfig.getFullName(), "packageIndexHitRatio"), () -> new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(hits.getCount(), hits.getCount() + misses.getCount());
+            }
+        });
     }
 
     /**
@@ -185,15 +194,37 @@ public abstract class AbstractCollectionAdapter extends AbstractAdapter {
     }
 
     private PackageDefinition getPackageFor(AdapterDefinition protocol, CollectionAgent agent) {
-        try {
-            Optional<PackageDefinition> value = cache.get(new CacheKey(protocol.getName(), agent.getHostAddress()));
-            return value.orElse(null);
-        } catch (ExecutionException e) {
-            LOG.error("Error while retrieving package from Cache: {}.", e.getMessage(), e);
-            throw new RuntimeException(e);
+        try (final Timer.Context ctx = packageResolutionTimer.time()) {
+            final InetAddress address = agent.getAddress();
+            boolean loaded = true;
+            try {
+                for (PackageDefinition pkg : protocol.getPackages()) {
+                    final String filterRule = pkg.getFilterRule();
+                    if (filterRule == null) {
+                        // No filter specified, always match
+                        return pkg;
+                    }
+                    loaded &= packageFilterIndex.isLoaded(filterRule);
+                    // NOTE: The location of the host address is not taken into account.
+                    if (packageFilterIndex.matches(filterDao, filterRule, address)) {
+                        return pkg;
+                    }
+                }
+                return null;
+            } finally {
+                (loaded ? packageIndexHits : packageIndexMisses).mark();
+            }
         }
     }
 
+    /**
+     * Reloads the addresses matched by the package filter rules on next use.
+     */
+    @Override
+    public void handleInventoryChange() {
+        packageFilterIndex.invalidate();
+    }
+
     public void setFilterDao(FilterDao filterDao) {
         this.filterDao = filterDao;
     }
@@ -214,39 +245,4 @@ public abstract class AbstractCollectionAdapter extends AbstractAdapter {
         this.bundleContext = bundleContext;
     }
 
-    private static class CacheKey {
-        private String protocol;
-        private String hostAddress;
-
-        public CacheKey(String protocol, String hostAddress) {
-            this.protocol = Objects.requireNonNull(protocol);
-            this.hostAddress = Objects.requireNonNull(hostAddress);
-        }
-
-        public String getProtocol() {
-            return protocol;
-        }
-
-        public String getHostAddress() {
-            return hostAddress;
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(hostAddress, protocol);
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o)
-                return true;
-            if (o == null || getClass() != o.getClass())
-                return false;
-            final CacheKey cacheKey = (CacheKey) o;
-            final boolean equals = Objects.equals(hostAddress, cacheKey.hostAddress)
-                    && Objects.equals(protocol, cacheKey.protocol);
-            return equals;
-        }
-    }
-
 }
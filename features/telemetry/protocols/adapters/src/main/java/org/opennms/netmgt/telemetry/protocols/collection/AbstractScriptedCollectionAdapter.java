@@ -21,19 +21,20 @@
  */
 package org.opennms.netmgt.telemetry.protocols.collection;
 
+import static com.codahale.metrics.MetricRegistry.name;
+
 import java.io.File;
 import java.io.IOException;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.script.ScriptException;
 
 import org.opennms.core.fileutils.FileUpdateCallback;
 import org.opennms.core.fileutils.FileUpdateWatcher;
 import org.opennms.netmgt.telemetry.config.api.AdapterDefinition;
-import org.osgi.framework.BundleContext;
 
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.base.Strings;
 
 public abstract class AbstractScriptedCollectionAdapter extends AbstractCollectionAdapter {
@@ -43,90 +44,76 @@ public abstract class AbstractScriptedCollectionAdapter extends AbstractCollecti
     private String script;
 
     /*
-     * Since ScriptCollectionSetBuilder is not thread safe , loading of script
-     * is handled in ThreadLocal.
+     * The compiled script shared by all threads. It is replaced as a whole
+     * when the script file changes, so threads either see the old or the
+     * new version of the script.
      */
-    private final ThreadLocal<ScriptedCollectionSetBuilder> scriptedCollectionSetBuilders = new ThreadLocal<ScriptedCollectionSetBuilder>() {
-        @Override
-        protected ScriptedCollectionSetBuilder initialValue() {
-            try {
-                return loadCollectionBuilder(bundleContext, script);
-            } catch (Exception e) {
-                LOG.error("Failed to create builder for script '{}'.", script, e);
-                return null;
-            }
-        }
-    };
+    private final AtomicReference<ScriptedCollectionSetBuilder> collectionBuilder = new AtomicReference<>();
 
     /*
-     * Flag to reload script if script didn't compile in earlier invocation,
-     * need to be ThreadLocal as script itself loads in ThreadLocal.
+     * Only used when the script engine does not allow concurrent evaluations
+     * of the same compiled script. Each thread then compiles its own copy of
+     * the shared builder, which is replaced once the shared builder changes.
      */
-    private ThreadLocal<Boolean> scriptCompiled = new ThreadLocal<Boolean>() {
-        @Override
-        protected Boolean initialValue() {
-            return true;
-        }
+    private final ThreadLocal<ScriptedCollectionSetBuilder> threadLocalBuilders = new ThreadLocal<>();
 
-    };
+    private final Object compileLock = new Object();
 
-    /*
-     * This map is needed since loading of script happens in a ThreadLocal and
-     * status of script update needs to be propagated to each thread. This map
-     * collects ScriptedCollectionSetBuilder and set it's value as false
-     * initially. Whenever script updates and callback reload() gets called, all
-     * values will be set to true to trigger reload of script in corresponding
-     * thread, see getCollectionBuilder().
-     */
-    private Map<ScriptedCollectionSetBuilder, Boolean> scriptUpdateMap = new ConcurrentHashMap<>();
+    private final Timer scriptExecutionTimer;
 
     public AbstractScriptedCollectionAdapter(final AdapterDefinition adapterConfig,
                                              final MetricRegistry metricRegistry) {
         super(adapterConfig, metricRegistry);
+        this.scriptExecutionTimer = metricRegistry.timer(name("adapters", adapterConfig.getFullName(), "scriptExecution"));
     }
 
     /*
-     * This method checks and reloads script if there is an update else returns
-     * existing builder
+     * Returns the builder for the current version of the script, compiling
+     * the script if this did not happen yet or the earlier attempt failed.
      */
     protected ScriptedCollectionSetBuilder getCollectionBuilder() {
-        ScriptedCollectionSetBuilder builder = scriptedCollectionSetBuilders.get();
-        // Reload script if reload() happened or earlier invocation of script didn't compile
-        if ((builder != null && scriptUpdateMap.get(builder)) || !scriptCompiled.get()) {
-            scriptedCollectionSetBuilders.remove();
-            builder = scriptedCollectionSetBuilders.get();
-        }
+        ScriptedCollectionSetBuilder builder = collectionBuilder.get();
         if (builder == null) {
-            // script didn't compile, set flag to false
-            scriptCompiled.set(false);
-            return null;
-        } else if (!scriptCompiled.get()) {
-            scriptCompiled.set(true);
+            synchronized (compileLock) {
+                builder = collectionBuilder.get();
+                if (builder == null) {
+                    try {
+                        builder = loadCollectionBuilder();
+                        collectionBuilder.set(builder);
+                    } catch (Exception e) {
+                        LOG.error("Failed to create builder for script '{}'.", script, e);
+                        return null;
+                    }
+                }
+            }
         }
-        return builder;
-    }
-
-    private ScriptedCollectionSetBuilder loadCollectionBuilder(BundleContext bundleContext, String script)
-            throws IOException, ScriptException {
-        ScriptedCollectionSetBuilder builder;
-        if (bundleContext != null) {
-            builder = new ScriptedCollectionSetBuilder(new File(script), bundleContext);
-            scriptUpdateMap.put(builder, false);
-            return builder;
-        } else {
-            builder = new ScriptedCollectionSetBuilder(new File(script));
-            scriptUpdateMap.put(builder, false);
+        if (builder.isThreadSafe()) {
             return builder;
         }
+
+        ScriptedCollectionSetBuilder threadLocalBuilder = threadLocalBuilders.get();
+        if (threadLocalBuilder == null || !threadLocalBuilder.isCopyOf(builder)) {
+            try {
+                threadLocalBuilder = builder.copy();
+            } catch (Exception e) {
+                LOG.error("Failed to create builder for script '{}'.", script, e);
+                threadLocalBuilders.remove();
+                return null;
+            }
+            threadLocalBuilders.set(threadLocalBuilder);
+        }
+        return threadLocalBuilder;
     }
 
-    private ScriptedCollectionSetBuilder checkScript(BundleContext bundleContext, String script)
-            throws IOException, ScriptException {
+    private ScriptedCollectionSetBuilder loadCollectionBuilder() throws IOException, ScriptException {
+        final ScriptedCollectionSetBuilder builder;
         if (bundleContext != null) {
-            return new ScriptedCollectionSetBuilder(new File(script), bundleContext);
+            builder = new ScriptedCollectionSetBuilder(new File(script), bundleContext);
         } else {
-            return new ScriptedCollectionSetBuilder(new File(script));
+            builder = new ScriptedCollectionSetBuilder(new File(script));
         }
+        builder.setExecutionTimer(scriptExecutionTimer);
+        return builder;
     }
 
     private void setFileUpdateCallback(String script) {
@@ -146,10 +133,10 @@ public abstract class AbstractScriptedCollectionAdapter extends AbstractCollecti
             @Override
             public void reload() {
                 try {
-                    checkScript(bundleContext, script);
+                    final ScriptedCollectionSetBuilder builder = loadCollectionBuilder();
                     LOG.debug("Updated script compiled");
-                    // Set all the values in Map to true to trigger reload of script in all threads
-                    scriptUpdateMap.replaceAll((builder, Boolean) -> true);
+                    // Swap the builder, all threads pick up the new version with their next message
+                    collectionBuilder.set(builder);
                 } catch (Exception e) {
                     LOG.error("Updated script failed to build, using existing script'{}'.", script, e);
                 }
@@ -0,0 +1,156 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.telemetry.protocols.collection;
+
+import java.net.InetAddress;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.sysprops.SystemProperties;
+import org.opennms.netmgt.filter.api.FilterDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Keeps the addresses matched by the filter rules of the adapter packages, so that the package of an agent
+ * can be resolved without querying the database.
+ *
+ * Each rule is evaluated with a single query, and the result is shared by all the adapters using the same rule.
+ * The addresses are reloaded after {@link #invalidate()} was called, which happens when nodes or interfaces change,
+ * or when they are older than the configured maximum age. The latter only matters where the inventory events are
+ * not received, i.e. on Sentinel.
+ */
+public class PackageFilterIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(PackageFilterIndex.class);
+
+    private static final PackageFilterIndex INSTANCE = new PackageFilterIndex(
+            TimeUnit.SECONDS.toMillis(SystemProperties.getLong("org.opennms.features.telemetry.cache.ipAddressFilter.expireAfterWrite", 900)));
+
+    private final long maxAgeMs;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final ConcurrentMap<String, RuleAddresses> addressesByRule = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Object> locksByRule = new ConcurrentHashMap<>();
+
+    private long flushedGeneration = -1;
+
+    private long flushedAt;
+
+    protected PackageFilterIndex(final long maxAgeMs) {
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    public static PackageFilterIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Checks whether the given address is matched by the given rule.
+     *
+     * @return true if the address is matched, loading the addresses of the rule if required
+     */
+    public boolean matches(final FilterDao filterDao, final String rule, final InetAddress address) {
+        if (rule.isEmpty()) {
+            return true;
+        }
+        return getAddresses(filterDao, rule).contains(address);
+    }
+
+    /**
+     * @return true if the addresses of the given rule are loaded and up-to-date
+     */
+    public boolean isLoaded(final String rule) {
+        return rule.isEmpty() || isCurrent(addressesByRule.get(rule));
+    }
+
+    /**
+     * Marks the addresses of all rules as outdated, they will be reloaded on next use.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    private Set<InetAddress> getAddresses(final FilterDao filterDao, final String rule) {
+        RuleAddresses addresses = addressesByRule.get(rule);
+        if (isCurrent(addresses)) {
+            return addresses.addresses;
+        }
+        // Only one thread loads the rule, the others wait for the result
+        synchronized (locksByRule.computeIfAbsent(rule, k -> new Object())) {
+            addresses = addressesByRule.get(rule);
+            if (!isCurrent(addresses)) {
+                addresses = load(filterDao, rule);
+                addressesByRule.put(rule, addresses);
+            }
+        }
+        return addresses.addresses;
+    }
+
+    private RuleAddresses load(final FilterDao filterDao, final String rule) {
+        // Read the generation first, so that changes happening while loading trigger another load
+        final long currentGeneration = generation.get();
+        flushActiveIpAddressListCache(filterDao, currentGeneration);
+        final Set<InetAddress> addresses = ImmutableSet.copyOf(filterDao.getActiveIPAddressList(rule));
+        LOG.debug("Loaded {} addresses for filter rule: {}", addresses.size(), rule);
+        return new RuleAddresses(addresses, currentGeneration, System.currentTimeMillis());
+    }
+
+    /**
+     * The active address lists are cached by the filter DAO without expiry. The cache is flushed before the
+     * first load following an invalidation, and at most once per maximum age otherwise, so the rules being
+     * reloaded together do not flush each other's lists.
+     */
+    private synchronized void flushActiveIpAddressListCache(final FilterDao filterDao, final long currentGeneration) {
+        final long now = System.currentTimeMillis();
+        if (flushedGeneration != currentGeneration || (maxAgeMs > 0 && now - flushedAt >= maxAgeMs)) {
+            filterDao.flushActiveIpAddressListCache();
+            flushedGeneration = currentGeneration;
+            flushedAt = now;
+        }
+    }
+
+    private boolean isCurrent(final RuleAddresses addresses) {
+        return addresses != null
+                && addresses.generation == generation.get()
+                && (maxAgeMs <= 0 || System.currentTimeMillis() - addresses.loadedAt < maxAgeMs);
+    }
+
+    private static class RuleAddresses {
+        private final Set<InetAddress> addresses;
+        private final long generation;
+        private final long loadedAt;
+
+        private RuleAddresses(final Set<InetAddress> addresses, final long generation, final long loadedAt) {
+            this.addresses = Objects.requireNonNull(addresses);
+            this.generation = generation;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
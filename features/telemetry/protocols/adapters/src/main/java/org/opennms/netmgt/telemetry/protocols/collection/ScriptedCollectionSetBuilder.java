@@ -36,11 +36,13 @@ import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 import javax.script.SimpleBindings;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.Map;
 
+import com.codahale.metrics.Timer;
+
 /**
  * Uses an external script, executed via JSR-223, to generate a
  * {@link CollectionSet} from some given object using the
@@ -50,7 +52,19 @@ import java.util.Map;
  */
 public class ScriptedCollectionSetBuilder {
 
-    private CompiledScript compiledScript;
+    private final ScriptEngineManager manager;
+
+    private final String ext;
+
+    private final String source;
+
+    private final ScriptedCollectionSetBuilder origin;
+
+    private final CompiledScript compiledScript;
+
+    private final boolean threadSafe;
+
+    private Timer executionTimer;
 
     public ScriptedCollectionSetBuilder(File script) throws IOException, ScriptException {
         this(script, new ScriptEngineManager());
@@ -65,8 +79,25 @@ public class ScriptedCollectionSetBuilder {
             throw new IllegalStateException("Cannot read script at '" + script + "'.");
         }
 
-        final String ext = Files.getFileExtension(script.getAbsolutePath());
+        this.manager = manager;
+        this.ext = Files.getFileExtension(script.getAbsolutePath());
+        this.source = Files.asCharSource(script, StandardCharsets.UTF_8).read();
+        this.origin = null;
+        this.compiledScript = compile(manager, ext, source);
+        this.threadSafe = compiledScript.getEngine().getFactory().getParameter("THREADING") != null;
+    }
+
+    private ScriptedCollectionSetBuilder(ScriptedCollectionSetBuilder origin) throws ScriptException {
+        this.manager = origin.manager;
+        this.ext = origin.ext;
+        this.source = origin.source;
+        this.origin = origin;
+        this.compiledScript = compile(manager, ext, source);
+        this.threadSafe = origin.threadSafe;
+        this.executionTimer = origin.executionTimer;
+    }
 
+    private static CompiledScript compile(ScriptEngineManager manager, String ext, String source) throws ScriptException {
         final ScriptEngine engine = manager.getEngineByExtension(ext);
         if (engine == null) {
             throw new IllegalStateException("No engine found for extension: " + ext);
@@ -75,17 +106,53 @@ public class ScriptedCollectionSetBuilder {
         if (!(engine instanceof Compilable)) {
             throw new IllegalStateException("Only engines that can compile scripts are supported.");
         }
-        final Compilable compilable = (Compilable) engine;
-        try (FileReader reader = new FileReader(script)) {
-            compiledScript = compilable.compile(reader);
-        }
+        return ((Compilable) engine).compile(source);
+    }
+
+    /**
+     * Whether the script engine allows the compiled script to be evaluated
+     * by multiple threads at the same time, as declared by the
+     * {@code THREADING} parameter of its factory. Groovy creates a new
+     * script instance for every evaluation and declares itself as
+     * {@code MULTITHREADED}.
+     *
+     * @return true if a single builder can be shared by all threads
+     */
+    public boolean isThreadSafe() {
+        return threadSafe;
+    }
+
+    /**
+     * Compiles the same script source again with a new engine. Used to give
+     * every thread its own builder when the engine is not thread safe.
+     *
+     * @return a new builder for the same script
+     * @throws ScriptException
+     */
+    public ScriptedCollectionSetBuilder copy() throws ScriptException {
+        return new ScriptedCollectionSetBuilder(origin != null ? origin : this);
+    }
+
+    /**
+     * @return true if this builder was created by calling {@link #copy()} on the given builder
+     */
+    public boolean isCopyOf(ScriptedCollectionSetBuilder builder) {
+        return origin == builder;
+    }
+
+    /**
+     * Sets a timer used to track the time spent evaluating the script.
+     * Copies created afterwards share the same timer.
+     */
+    public void setExecutionTimer(Timer executionTimer) {
+        this.executionTimer = executionTimer;
     }
 
     /**
      * Builds a collection set from the given message.
      *
      * WARNING: This method is not necessarily thread safe. This depends on the
-     * script, and the script engine that is being used.
+     * script, and the script engine that is being used, see {@link #isThreadSafe()}.
      *
      * @param agent
      *            the agent associated with the collection set
@@ -112,7 +179,13 @@ public class ScriptedCollectionSetBuilder {
             }
         }
 
-        compiledScript.eval(globals);
+        if (executionTimer != null) {
+            try (Timer.Context ctx = executionTimer.time()) {
+                compiledScript.eval(globals);
+            }
+        } else {
+            compiledScript.eval(globals);
+        }
         return builder.build();
     }
 
@@ -0,0 +1,137 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.resource;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.netmgt.model.ResourcePath;
+
+/**
+ * Metrics arranged by the elements of their resource id, so that the metrics at (or within) a given depth
+ * bellow a resource path can be found without going through all of them.
+ *
+ * Within a resource id, metrics are keyed by name: adding a metric with the same resource id and name as
+ * an existing one replaces it. The trie can be read and modified concurrently.
+ */
+public class ResourcePathTrie {
+
+    private final Node root = new Node();
+
+    public void add(final Metric metric) {
+        final Tag resourceId = metric.getFirstTagByKey(IntrinsicTagNames.resourceId);
+        final Tag name = metric.getFirstTagByKey(IntrinsicTagNames.name);
+        if (resourceId == null || name == null) {
+            return;
+        }
+        Node node = root;
+        for (final String element : ResourcePath.fromString(resourceId.getValue())) {
+            node = node.children.computeIfAbsent(element, e -> new Node());
+        }
+        node.metrics.put(name.getValue(), metric);
+    }
+
+    public void remove(final Metric metric) {
+        final Tag resourceId = metric.getFirstTagByKey(IntrinsicTagNames.resourceId);
+        final Tag name = metric.getFirstTagByKey(IntrinsicTagNames.name);
+        if (resourceId == null || name == null) {
+            return;
+        }
+        final Node node = find(ResourcePath.fromString(resourceId.getValue()));
+        if (node != null) {
+            node.metrics.remove(name.getValue());
+        }
+    }
+
+    /**
+     * Returns the metrics with a resource id exactly {@code depth + 1} elements bellow the given path,
+     * which are the metrics a search with {@link org.opennms.netmgt.timeseries.util.TimeseriesUtils#toSearchRegex}
+     * would find.
+     */
+    public Set<Metric> search(final ResourcePath path, final int depth) {
+        final Set<Metric> metrics = new HashSet<>();
+        final Node node = find(path);
+        if (node != null) {
+            collect(node, depth + 1, metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the metrics with a resource id up to {@code depth + 1} elements bellow the given path,
+     * including the given path itself, keyed by resource id.
+     */
+    public Map<ResourcePath, Set<Metric>> searchWithin(final ResourcePath path, final int depth) {
+        final Map<ResourcePath, Set<Metric>> metrics = new HashMap<>();
+        final Node node = find(path);
+        if (node != null) {
+            collectWithin(path, node, depth + 1, metrics);
+        }
+        return metrics;
+    }
+
+    private Node find(final ResourcePath path) {
+        Node node = root;
+        for (final String element : path) {
+            node = node.children.get(element);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    private static void collect(final Node node, final int levels, final Set<Metric> metrics) {
+        if (levels == 0) {
+            metrics.addAll(node.metrics.values());
+            return;
+        }
+        for (final Node child : node.children.values()) {
+            collect(child, levels - 1, metrics);
+        }
+    }
+
+    private static void collectWithin(final ResourcePath path, final Node node, final int levels,
+                                      final Map<ResourcePath, Set<Metric>> metrics) {
+        if (!node.metrics.isEmpty()) {
+            metrics.put(path, new HashSet<>(node.metrics.values()));
+        }
+        if (levels == 0) {
+            return;
+        }
+        for (final Map.Entry<String, Node> child : node.children.entrySet()) {
+            collectWithin(ResourcePath.get(path, child.getKey()), child.getValue(), levels - 1, metrics);
+        }
+    }
+
+    private static final class Node {
+        private final ConcurrentMap<String, Node> children = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<>();
+    }
+}
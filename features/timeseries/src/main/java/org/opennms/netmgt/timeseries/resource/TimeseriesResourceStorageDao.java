@@ -25,6 +25,7 @@ import static org.opennms.netmgt.timeseries.util.TimeseriesUtils.toMetricName;
 import static org.opennms.netmgt.timeseries.util.TimeseriesUtils.toResourcePath;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -48,6 +49,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 /**
@@ -120,6 +122,7 @@ public class TimeseriesResourceStorageDao implements ResourceStorageDao {
         for (final Metric metric : results) {
                 try {
                     storageManager.get().delete(metric);
+                    searcher.remove(metric);
                 } catch (StorageException e) {
                     LOG.error("Could not delete {}, will ignore problem and continue ", metric, e);
                 }
@@ -130,10 +133,45 @@ public class TimeseriesResourceStorageDao implements ResourceStorageDao {
 
     @Override
     public Set<OnmsAttribute> getAttributes(ResourcePath path) {
+        return toAttributes(path, searchFor(path, 0), searchFor(path, -1));
+    }
+
+    @Override
+    public Map<ResourcePath, Set<OnmsAttribute>> getAttributesWithin(ResourcePath path, int depth) {
+        Preconditions.checkArgument(depth >= 0, "depth must be non-negative");
+
+        // Fetch all of the metrics in the subtree at once, keyed by resource id
+        final Map<ResourcePath, Set<Metric>> metricsByResourceId = searchWithin(path, depth);
+
+        // The metrics of a resource are the ones with the resource path followed by a bucket, see getAttributes()
+        final Map<ResourcePath, Set<Metric>> metricsByPath = Maps.newHashMap();
+        for (Map.Entry<ResourcePath, Set<Metric>> entry : metricsByResourceId.entrySet()) {
+            final ResourcePath resourceId = entry.getKey();
+            final int relativeDepth = path.relativeDepth(resourceId);
+            if (relativeDepth > 0) {
+                metricsByPath.computeIfAbsent(resourceId.getParent(), p -> new HashSet<>()).addAll(entry.getValue());
+            }
+            if (relativeDepth <= depth) {
+                // Resource level metrics only
+                metricsByPath.computeIfAbsent(resourceId, p -> new HashSet<>());
+            }
+        }
+
+        final Map<ResourcePath, Set<OnmsAttribute>> attributesByPath = Maps.newHashMap();
+        for (Map.Entry<ResourcePath, Set<Metric>> entry : metricsByPath.entrySet()) {
+            final Set<Metric> resourceLevelMetrics = metricsByResourceId.getOrDefault(entry.getKey(), Collections.emptySet());
+            final Set<OnmsAttribute> attributes = toAttributes(entry.getKey(), entry.getValue(), resourceLevelMetrics);
+            if (!attributes.isEmpty()) {
+                attributesByPath.put(entry.getKey(), attributes);
+            }
+        }
+        return attributesByPath;
+    }
+
+    private static Set<OnmsAttribute> toAttributes(ResourcePath path, Set<Metric> metrics, Set<Metric> resourceLevelMetrics) {
         Set<OnmsAttribute> attributes = Sets.newHashSet();
 
         // Gather the list of metrics available under the resource path
-        Set<Metric> metrics = searchFor(path, 0);
         for (Metric metric : metrics) {
             final String resourceId = metric.getFirstTagByKey(IntrinsicTagNames.resourceId).getValue();
             final ResourcePath resultPath = toResourcePath(resourceId);
@@ -164,7 +202,7 @@ public class TimeseriesResourceStorageDao implements ResourceStorageDao {
 
         // Add the resource level attributes to the result set
         Set<Metric> metricsWithStringAttributes = new HashSet<>(metrics);
-        metricsWithStringAttributes.addAll(searchFor(path, -1));
+        metricsWithStringAttributes.addAll(resourceLevelMetrics);
         if (!metricsWithStringAttributes.isEmpty()) {
             metricsWithStringAttributes.iterator().next()
                     .getExternalTags().stream()
@@ -219,6 +257,18 @@ public class TimeseriesResourceStorageDao implements ResourceStorageDao {
         return results;
     }
 
+    private Map<ResourcePath, Set<Metric>> searchWithin(ResourcePath path, int depth) {
+        final Map<ResourcePath, Set<Metric>> results;
+        try {
+            results = searcher.searchWithin(path, depth);
+            LOG.trace("Found {} resource ids.", results.size());
+        } catch (StorageException e) {
+            LOG.error("An error occurred while querying for {}", path, e);
+            throw new RuntimeException(e);
+        }
+        return results;
+    }
+
     protected static ResourcePath toChildResourcePath(ResourcePath parent, String resourceId) {
         final ResourcePath child = toResourcePath(resourceId);
         final String childEls[] = child.elements();
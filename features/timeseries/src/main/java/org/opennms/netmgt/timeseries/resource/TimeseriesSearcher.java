@@ -27,12 +27,11 @@ import static org.opennms.netmgt.timeseries.util.TimeseriesUtils.toSearchRegex;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.inject.Named;
 
@@ -41,6 +40,7 @@ import org.opennms.core.cache.CacheConfig;
 import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
 import org.opennms.integration.api.v1.timeseries.Metric;
 import org.opennms.integration.api.v1.timeseries.StorageException;
+import org.opennms.integration.api.v1.timeseries.Tag;
 import org.opennms.integration.api.v1.timeseries.TagMatcher;
 import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTagMatcher;
 import org.opennms.netmgt.model.ResourcePath;
@@ -51,133 +51,142 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 import com.google.common.cache.CacheLoader;
 
-
+/**
+ * Searches the metrics bellow resource paths.
+ *
+ * At and bellow the node level, all of the metrics of a node are retrieved in a single call to the
+ * TimeseriesStorage implementation and cached in a {@link ResourcePathTrie}, from which the searches
+ * for any of the node's resources are answered. Above the node level, the results of every search are
+ * cached separately. Newly written metrics are added to the cached tries with {@link #add(Metric)}.
+ */
 public class TimeseriesSearcher {
 
     private static final Logger LOG = LoggerFactory.getLogger(TimeseriesSearcher.class);
 
     private final TimeseriesStorageManager timeseriesStorageManager;
 
-    private final Cache<TagMatcher, Set<Metric>> indexMetricsByTagMatcher;
-
-    private final MetricCacheLoader metricCacheLoader;
+    private final Cache<TagMatcher, ResourcePathTrie> indexMetricsByTagMatcher;
 
     @Autowired
     public TimeseriesSearcher(TimeseriesStorageManager timeseriesStorageManager,
                               @Named("timeseriesSearcherCache") final CacheConfig cacheConfig) {
         this.timeseriesStorageManager = Objects.requireNonNull(timeseriesStorageManager, "timeseriesStorageManager must not be null");
-        this.metricCacheLoader = new MetricCacheLoader(timeseriesStorageManager);
         indexMetricsByTagMatcher = new org.opennms.core.cache.CacheBuilder<>()
                 .withConfig(cacheConfig)
-                .withCacheLoader(metricCacheLoader)
+                .withCacheLoader(new CacheLoader<TagMatcher, ResourcePathTrie>() {
+                    @Override
+                    public ResourcePathTrie load(final TagMatcher tagMatcher) {
+                        // Entries are only ever loaded by getTrieFromCacheOrLoad()
+                        throw new UnsupportedOperationException();
+                    }
+                })
                 .build();
     }
 
     /**
-     * Gets all metrics that reside under the given path
+     * Gets the matcher for all metrics that reside under the given path
      */
-    private Set<Metric> getMetricsBelowWildcardPath(final String wildcardPath) throws StorageException {
-        TagMatcher tagMatcher = ImmutableTagMatcher.builder()
+    private static TagMatcher getMatcherBelowWildcardPath(final String wildcardPath) {
+        return ImmutableTagMatcher.builder()
                 .type(TagMatcher.Type.EQUALS_REGEX)
                 .key(IntrinsicTagNames.resourceId)
                 .value(wildcardPath + "/.*$")
                 .build();
-        return getMetricFromCacheOrLoad(tagMatcher);
+    }
+
+    private static TagMatcher getMatcherBelowNode(final ResourcePath path, int numPathElementsToNodeLevel) {
+        return getMatcherBelowWildcardPath(toResourceId(ResourcePath.get(Arrays.asList(path.elements()).subList(0, numPathElementsToNodeLevel))));
     }
 
     /**
      * We opt to make a single call to the TimeseriesStorage implementation
-     * to retrieve all resources for that node in one sweep, cache all the results, and
-     * build cache results for for resources bellow a node
+     * to retrieve all resources for that node in one sweep, and arrange the
+     * results by resource path so resources bellow the node can be looked up
+     * without another call.
      * @param metrics
      */
-    protected void buildCache(Set<Metric> metrics) {
-        for (Metric metric : metrics) {
-            ResourcePath pathOfMetric = ResourcePath.fromString(metric.getFirstTagByKey(IntrinsicTagNames.resourceId).getValue());
-            ResourcePath currentPath = pathOfMetric;
-            while (true) {
-                TagMatcher matcher = ImmutableTagMatcher.builder()
-                        .type(TagMatcher.Type.EQUALS_REGEX)
-                        .key(IntrinsicTagNames.resourceId)
-                        .value(toSearchRegex(currentPath, pathOfMetric.elements().length - currentPath.elements().length))
-                        .build();
-
-                getMetricsFromCacheOrAddEmptySet(matcher).add(metric);
-
-                if (currentPath.hasParent()) {
-                    currentPath = currentPath.getParent();
-                } else {
-                    break;
-                }
-            }
-        }
+    protected ResourcePathTrie buildCache(Set<Metric> metrics) {
+        final ResourcePathTrie trie = new ResourcePathTrie();
+        metrics.forEach(trie::add);
+        return trie;
     }
 
     public Set<Metric> search(ResourcePath path, int depth) throws StorageException {
-        TagMatcher indexMatcher = ImmutableTagMatcher.builder()
+        final int numPathElementsToNodeLevel = getNumPathElementsToNodeLevel(path);
+        if (numPathElementsToNodeLevel > 0) {
+            return getTrieFromCacheOrLoad(getMatcherBelowNode(path, numPathElementsToNodeLevel)).search(path, depth);
+        }
+        // we are above the wildcard level -> let's just get metrics that are associated with the index matcher
+        final TagMatcher indexMatcher = ImmutableTagMatcher.builder()
                 .type(TagMatcher.Type.EQUALS_REGEX)
                 .key(IntrinsicTagNames.resourceId)
                 .value(toSearchRegex(path, depth + 1))
                 .build();
-        Set<Metric> metrics = indexMetricsByTagMatcher.getIfCached(indexMatcher);
-
-        // found in cache => we are done
-        if (metrics != null) {
-            return metrics;
-        }
+        return getTrieFromCacheOrLoad(indexMatcher).search(path, depth);
+    }
 
-        int numPathElementsToNodeLevel = getNumPathElementsToNodeLevel(path);
+    /**
+     * Gets all metrics with a resource id between 0 and {@code depth + 1} elements bellow the given path,
+     * keyed by resource id.
+     */
+    public Map<ResourcePath, Set<Metric>> searchWithin(ResourcePath path, int depth) throws StorageException {
+        final int numPathElementsToNodeLevel = getNumPathElementsToNodeLevel(path);
         if (numPathElementsToNodeLevel > 0) {
-            String wildcardPath = toResourceId(ResourcePath.get(Arrays.asList(path.elements()).subList(0, numPathElementsToNodeLevel)));
-            getMetricsBelowWildcardPath(wildcardPath);
-            // assume result is already calculate in getMetricsBelowWildcardPath, return empty list if nothing find in cache
-            metrics = getMetricsFromCacheOrAddEmptySet(indexMatcher);
-        } else {
-            // we are above the wildcard level -> let's just get metrics that are associated with the index matcher
-            metrics = getMetricFromCacheOrLoad(indexMatcher);
+            return getTrieFromCacheOrLoad(getMatcherBelowNode(path, numPathElementsToNodeLevel)).searchWithin(path, depth);
         }
-        return metrics;
+        final TagMatcher indexMatcher = ImmutableTagMatcher.builder()
+                .type(TagMatcher.Type.EQUALS_REGEX)
+                .key(IntrinsicTagNames.resourceId)
+                .value("^" + toResourceId(path) + "(/[^./]*){0," + (depth + 1) + "}$")
+                .build();
+        return getTrieFromCacheOrLoad(indexMatcher).searchWithin(path, depth);
     }
 
-    private Set<Metric> getMetricFromCacheOrLoad(TagMatcher matcher) throws StorageException {
-        try {
-            AtomicBoolean loaded = new AtomicBoolean(false);
-            Set<Metric> metrics = indexMetricsByTagMatcher.get(matcher, () -> {
-                loaded.set(true);
-                return this.metricCacheLoader.load(matcher);
-            });
-            if (loaded.get()) {
-                this.buildCache(metrics);
-            }
-            return metrics;
-        } catch (Exception e) {
-            throw new StorageException(e);
+    /**
+     * Adds a newly written metric to the cached metrics of its node, if these are cached,
+     * so that new resources show up without having to wait for the cache to expire.
+     */
+    public void add(Metric metric) {
+        final ResourcePathTrie trie = getCachedNodeTrie(metric);
+        if (trie != null) {
+            trie.add(metric);
         }
     }
 
-    private Set<Metric> getMetricsFromCacheOrAddEmptySet(TagMatcher tagMatcher) {
-        try {
-            return indexMetricsByTagMatcher.get(tagMatcher, ConcurrentHashMap::newKeySet);
-        } catch (ExecutionException e) {
-            // should never happen
-            throw new RuntimeException("Error creating ConcurrentHashMap.newKeySet()", e);
+    /**
+     * Removes a deleted metric from the cached metrics of its node.
+     */
+    public void remove(Metric metric) {
+        final ResourcePathTrie trie = getCachedNodeTrie(metric);
+        if (trie != null) {
+            trie.remove(metric);
         }
     }
 
-    private final static class MetricCacheLoader extends CacheLoader<TagMatcher, Set<Metric>> {
-
-        private TimeseriesStorageManager timeseriesStorageManager;
-
-        public MetricCacheLoader(TimeseriesStorageManager timeseriesStorageManager) {
-            this.timeseriesStorageManager = timeseriesStorageManager;
+    private ResourcePathTrie getCachedNodeTrie(Metric metric) {
+        final Tag resourceId = metric.getFirstTagByKey(IntrinsicTagNames.resourceId);
+        if (resourceId == null) {
+            return null;
+        }
+        final ResourcePath path = ResourcePath.fromString(resourceId.getValue());
+        final int numPathElementsToNodeLevel = getNumPathElementsToNodeLevel(path);
+        if (numPathElementsToNodeLevel <= 0 || path.elements().length <= numPathElementsToNodeLevel) {
+            return null;
         }
+        return indexMetricsByTagMatcher.getIfCached(getMatcherBelowNode(path, numPathElementsToNodeLevel));
+    }
 
-        @Override
-        public Set<Metric> load(final TagMatcher tagMatcher) throws Exception {
-            List<Metric> metricList = timeseriesStorageManager.get().findMetrics(Collections.singletonList(tagMatcher));
-            Set<Metric> metrics = ConcurrentHashMap.newKeySet();
-            metrics.addAll(metricList);
-            return metrics;
+    private ResourcePathTrie getTrieFromCacheOrLoad(TagMatcher matcher) throws StorageException {
+        try {
+            return indexMetricsByTagMatcher.get(matcher, () -> buildCache(findMetrics(matcher)));
+        } catch (Exception e) {
+            throw new StorageException(e);
         }
     }
+
+    private Set<Metric> findMetrics(TagMatcher tagMatcher) throws StorageException {
+        final List<Metric> metrics = timeseriesStorageManager.get().findMetrics(Collections.singletonList(tagMatcher));
+        LOG.trace("Found {} metrics for {}.", metrics.size(), tagMatcher);
+        return new HashSet<>(metrics);
+    }
 }
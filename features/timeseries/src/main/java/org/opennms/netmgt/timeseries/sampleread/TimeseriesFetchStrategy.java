@@ -21,13 +21,10 @@
  */
 package org.opennms.netmgt.timeseries.sampleread;
 
-import static org.opennms.netmgt.timeseries.sampleread.aggregation.NewtsConverterUtils.samplesToNewtsRowIterator;
-
 import java.io.File;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -69,7 +66,7 @@ import org.opennms.netmgt.model.ResourceTypeUtils;
 import org.opennms.netmgt.model.RrdGraphAttribute;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManager;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManagerImpl;
-import org.opennms.netmgt.timeseries.sampleread.aggregation.NewtsLikeSampleAggregator;
+import org.opennms.netmgt.timeseries.sampleread.aggregation.ColumnarSampleAggregator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.orm.ObjectRetrievalFailureException;
@@ -94,6 +91,12 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * cores, but can be reduced if the operator wishes to ensure cores are available
  * for other purposes.
  *
+ * The samples of the sources of a resource which are not aggregated by the storage itself are
+ * aggregated in a single pass by the {@link ColumnarSampleAggregator}.
+ *
+ * Calls to the storage go through a {@link TimeseriesQueryCache} which coalesces identical
+ * concurrent requests and only fetches the head of ranges that were already read.
+ *
  * @author jwhite
  */
 public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
@@ -114,6 +117,7 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
     private TimeseriesStorageManager storageManager;
     private Timer sampleReadTsTimer;
     private Timer sampleReadIntegrationTimer;
+    private TimeseriesQueryCache queryCache;
 
     // we can only have a non args constructor in order for MeasurementFetchStrategyFactory to instantiate us
     public TimeseriesFetchStrategy(){}
@@ -175,7 +179,7 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
 
             // The Newts API only allows us to perform a query using a single (Newts) Resource ID,
             // so we perform multiple queries in parallel, and aggregate the results.
-            Map<String, Future<Map<Source, List<DataPoint>>>> measurementsByNewtsResourceId = Maps.newHashMapWithExpectedSize(sourcesByNewtsResourceId.size());
+            Map<String, Future<Map<Source, Column>>> measurementsByNewtsResourceId = Maps.newHashMapWithExpectedSize(sourcesByNewtsResourceId.size());
             for (Entry<String, List<Source>> entry : sourcesByNewtsResourceId.entrySet()) {
                 measurementsByNewtsResourceId.put(entry.getKey(),
                         threadPool.submit(() -> getMeasurementsForResourceCallable(entry.getKey(), entry.getValue(), startTs, endTs, lag)));
@@ -188,20 +192,14 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
             } else {
                 timestamps = toSampleList(measurementsByNewtsResourceId.entrySet().iterator().next())
                         .values()
-                        .iterator().next().stream()
-                        .map(DataPoint::getTime)
-                        .mapToLong(Instant::toEpochMilli).toArray();
+                        .iterator().next().timestamps;
             }
 
             // Create columns
             Map<String, double[]> columns = Maps.newHashMap();
-            for (Entry<String, Future<Map<Source, List<DataPoint>>>> entry : measurementsByNewtsResourceId.entrySet()) {
-                Map<Source, List<DataPoint>> sampleList;
-                sampleList = toSampleList(entry);
-
-                for (Entry<Source, List<DataPoint>> column : sampleList.entrySet()) {
-                    double[] values = column.getValue().stream().mapToDouble(DataPoint::getValue).toArray();
-                    columns.put(column.getKey().getLabel(), values);
+            for (Entry<String, Future<Map<Source, Column>>> entry : measurementsByNewtsResourceId.entrySet()) {
+                for (Entry<Source, Column> column : toSampleList(entry).entrySet()) {
+                    columns.put(column.getKey().getLabel(), column.getValue().values);
                 }
             }
 
@@ -215,7 +213,7 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
         }
     }
 
-    private Map<Source, List<DataPoint>> toSampleList(Entry<String, Future<Map<Source, List<DataPoint>>>> entry) {
+    private Map<Source, Column> toSampleList(Entry<String, Future<Map<Source, Column>>> entry) {
         try {
             return entry.getValue().get();
         } catch (InterruptedException | ExecutionException e) {
@@ -254,9 +252,15 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
         return sourcesByResource;
     }
 
-    private Map<Source, List<DataPoint>> getMeasurementsForResourceCallable(final String resourceId, final List<Source> listOfSources, final Instant start, final Instant end, final LateAggregationParams lag) throws StorageException {
+    private Map<Source, Column> getMeasurementsForResourceCallable(final String resourceId, final List<Source> listOfSources, final Instant start, final Instant end, final LateAggregationParams lag) throws StorageException {
 
-        Map<Source, List<DataPoint>> allDataPoints = new HashMap<>(listOfSources.size());
+        Map<Source, Column> allDataPoints = new HashMap<>(listOfSources.size());
+        final ColumnarSampleAggregator.ColumnarSampleAggregatorBuilder aggregator = ColumnarSampleAggregator.builder()
+                .start(start)
+                .end(end)
+                .lag(lag)
+                .parallelism(PARALLELISM);
+        final List<Source> sourcesToAggregate = new ArrayList<>();
 
         // get results for all sources
         for (Source source : listOfSources) {
@@ -282,21 +286,23 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
             TimeSeriesData timeSeriesData;
             try (Timer.Context context = sampleReadTsTimer.time()) {
                 LOG.debug("Querying TimeseriesStorage for resource id {} with request: {}", resourceId, request);
-                timeSeriesData = storageManager.get().getTimeSeriesData(request);
+                timeSeriesData = queryCache.getTimeSeriesData(storageManager.get(), request);
             }
             // aggregate if timeseries implementation didn't do it natively
-            if (!shouldAggregateNatively) {
-                final List<Source> currentSources = Collections.singletonList(source);
-                timeSeriesData = NewtsLikeSampleAggregator.builder()
-                        .resource(resourceId)
-                        .start(start)
-                        .end(end)
-                        .metric(metric)
-                        .currentSources(currentSources)
-                        .lag(lag)
-                        .build().process(samplesToNewtsRowIterator(timeSeriesData));
+            if (shouldAggregateNatively) {
+                allDataPoints.put(source, Column.of(timeSeriesData.getDataPoints()));
+            } else {
+                aggregator.series(timeSeriesData, source.getAggregation());
+                sourcesToAggregate.add(source);
+            }
+        }
+
+        // aggregate all of the remaining sources at once
+        if (!sourcesToAggregate.isEmpty()) {
+            final ColumnarSampleAggregator.Result result = aggregator.build().process();
+            for (int i = 0; i < sourcesToAggregate.size(); i++) {
+                allDataPoints.put(sourcesToAggregate.get(i), new Column(result.getTimestamps(), result.getValues(i)));
             }
-            allDataPoints.put(source, timeSeriesData.getDataPoints());
         }
         return allDataPoints;
     }
@@ -342,6 +348,10 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
     protected void setMetricRegistry(@Named("timeseriesMetricRegistry") MetricRegistry registry) {
         this.sampleReadTsTimer = registry.timer("samples.read.ts");
         this.sampleReadIntegrationTimer = registry.timer("samples.read.integration");
+        if (this.queryCache != null) {
+            this.queryCache.close();
+        }
+        this.queryCache = new TimeseriesQueryCache(registry);
     }
 
     private OnmsNode getNode(final OnmsResource resource, final Source source) {
@@ -368,4 +378,24 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
                                 node == null? null : new QueryNode(node.getId(), node.getForeignSource(), node.getForeignId(), node.getLabel())
                 );
     }
+
+    private static class Column {
+        private final long[] timestamps;
+        private final double[] values;
+
+        private Column(long[] timestamps, double[] values) {
+            this.timestamps = timestamps;
+            this.values = values;
+        }
+
+        private static Column of(List<DataPoint> dataPoints) {
+            final long[] timestamps = new long[dataPoints.size()];
+            final double[] values = new double[dataPoints.size()];
+            for (int i = 0; i < timestamps.length; i++) {
+                timestamps[i] = dataPoints.get(i).getTime().toEpochMilli();
+                values[i] = dataPoints.get(i).getValue();
+            }
+            return new Column(timestamps, values);
+        }
+    }
 }
@@ -0,0 +1,353 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.sampleread;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.sysprops.SystemProperties;
+import org.opennms.integration.api.v1.timeseries.Aggregation;
+import org.opennms.integration.api.v1.timeseries.DataPoint;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.StorageException;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesData;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesFetchRequest;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesStorage;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTimeSeriesData;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTimeSeriesFetchRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Sits in front of the {@link TimeSeriesStorage} when reading samples.
+ *
+ * Identical queries which are in flight at the same time are only sent once to the storage.
+ *
+ * Raw (non aggregated) samples are also kept in a memory bounded cache, one series per metric and step.
+ * Samples older than the configured lateness at the time they were fetched are considered final.
+ * When a later query overlaps a cached series, only the range which is not final yet is requested
+ * from the storage and merged with the cached samples, so refreshing dashboards only read the head
+ * of their range.
+ */
+public class TimeseriesQueryCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimeseriesQueryCache.class);
+
+    public static final long MAX_BYTES = SystemProperties.getLong("org.opennms.timeseries.query.cache.max_bytes", 64L * 1024L * 1024L);
+
+    public static final long EXPIRE_AFTER_WRITE_SECONDS = SystemProperties.getLong("org.opennms.timeseries.query.cache.expire_after_write", 300L);
+
+    public static final long LATENESS_SECONDS = SystemProperties.getLong("org.opennms.timeseries.query.cache.lateness", 900L);
+
+    /**
+     * Rough heap usage of a cached data point: the data point, its instant, the boxed value and the list slot.
+     */
+    private static final int BYTES_PER_DATA_POINT = 80;
+
+    private static final int BYTES_PER_SERIES = 256;
+
+    private final Map<RequestKey, CompletableFuture<TimeSeriesData>> inFlight = new ConcurrentHashMap<>();
+
+    private final Cache<SeriesKey, CachedSeries> cache;
+
+    private final Duration lateness;
+
+    private final AtomicLong cachedBytes = new AtomicLong();
+
+    private final MetricRegistry registry;
+    private final Map<String, Gauge<Long>> gauges = new HashMap<>();
+
+    private final Meter hits;
+    private final Meter partialHits;
+    private final Meter misses;
+    private final Meter coalesced;
+
+    public TimeseriesQueryCache(final MetricRegistry registry) {
+        this(registry, MAX_BYTES, Duration.ofSeconds(EXPIRE_AFTER_WRITE_SECONDS), Duration.ofSeconds(LATENESS_SECONDS));
+    }
+
+    public TimeseriesQueryCache(final MetricRegistry registry, final long maxBytes, final Duration expireAfterWrite, final Duration lateness) {
+        this.lateness = Objects.requireNonNull(lateness);
+        if (maxBytes > 0) {
+            this.cache = CacheBuilder.newBuilder()
+                    .maximumWeight(maxBytes)
+                    .<SeriesKey, CachedSeries>weigher((key, series) -> series.bytes)
+                    .expireAfterWrite(expireAfterWrite.toMillis(), TimeUnit.MILLISECONDS)
+                    .<SeriesKey, CachedSeries>removalListener(notification -> cachedBytes.addAndGet(-notification.getValue().bytes))
+                    .build();
+        } else {
+            this.cache = null;
+        }
+
+        hits = registry.meter(MetricRegistry.name("samples.read.cache", "hits"));
+        partialHits = registry.meter(MetricRegistry.name("samples.read.cache", "partial-hits"));
+        misses = registry.meter(MetricRegistry.name("samples.read.cache", "misses"));
+        coalesced = registry.meter(MetricRegistry.name("samples.read.cache", "coalesced"));
+        // The gauges report the state of this very instance, so they replace the ones of a previous cache
+        this.registry = registry;
+        gauges.put(MetricRegistry.name("samples.read.cache", "bytes"), cachedBytes::get);
+        gauges.put(MetricRegistry.name("samples.read.cache", "max-bytes"), () -> maxBytes);
+        synchronized (registry) {
+            gauges.forEach((name, gauge) -> {
+                registry.remove(name);
+                registry.register(name, gauge);
+            });
+        }
+    }
+
+    /**
+     * Unregisters the gauges of this cache, unless they have already been replaced by another instance.
+     */
+    public void close() {
+        synchronized (registry) {
+            gauges.forEach((name, gauge) -> {
+                if (registry.getGauges().get(name) == gauge) {
+                    registry.remove(name);
+                }
+            });
+        }
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    public TimeSeriesData getTimeSeriesData(final TimeSeriesStorage storage, final TimeSeriesFetchRequest request) throws StorageException {
+        final RequestKey requestKey = new RequestKey(request);
+        final CompletableFuture<TimeSeriesData> future = new CompletableFuture<>();
+        final CompletableFuture<TimeSeriesData> existing = inFlight.putIfAbsent(requestKey, future);
+        if (existing != null) {
+            coalesced.mark();
+            return await(existing);
+        }
+
+        try {
+            final TimeSeriesData data = fetch(storage, request);
+            future.complete(data);
+            return data;
+        } catch (StorageException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(requestKey, future);
+        }
+    }
+
+    private static TimeSeriesData await(final CompletableFuture<TimeSeriesData> future) throws StorageException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof StorageException) {
+                throw (StorageException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new StorageException(e.getCause());
+        }
+    }
+
+    private TimeSeriesData fetch(final TimeSeriesStorage storage, final TimeSeriesFetchRequest request) throws StorageException {
+        if (cache == null || request.getAggregation() != Aggregation.NONE) {
+            return storage.getTimeSeriesData(request);
+        }
+
+        final SeriesKey seriesKey = new SeriesKey(request.getMetric(), request.getStep());
+        final CachedSeries cached = cache.getIfPresent(seriesKey);
+        final Instant start = request.getStart();
+        final Instant end = request.getEnd();
+
+        if (cached != null && cached.covers(start)) {
+            if (!end.isAfter(cached.complete)) {
+                // The whole range is final, the samples are served up to its (exclusive) end
+                hits.mark();
+                return ImmutableTimeSeriesData.builder()
+                        .metric(cached.metric)
+                        .dataPoints(cached.select(start, end))
+                        .build();
+            }
+            if (start.isBefore(cached.complete)) {
+                // Only ask for the samples which may still change, the request for the head starts a tiny bit
+                // early so that a sample exactly on the boundary is returned regardless of how the storage
+                // treats the bounds of the range
+                final Instant head = cached.complete;
+                final TimeSeriesFetchRequest headRequest = ImmutableTimeSeriesFetchRequest.builder()
+                        .metric(request.getMetric())
+                        .start(head.minusNanos(1))
+                        .end(end)
+                        .step(request.getStep())
+                        .aggregation(request.getAggregation())
+                        .build();
+                final Instant fetched = Instant.now();
+                final TimeSeriesData headData = storage.getTimeSeriesData(headRequest);
+
+                final List<DataPoint> dataPoints = cached.select(start, head);
+                for (DataPoint dataPoint : headData.getDataPoints()) {
+                    if (!dataPoint.getTime().isBefore(head)) {
+                        dataPoints.add(dataPoint);
+                    }
+                }
+                partialHits.mark();
+                LOG.trace("Merged {} cached samples with the head of {} starting at {}", dataPoints.size(), request.getMetric(), head);
+                return put(seriesKey, request, headData.getMetric(), dataPoints, fetched);
+            }
+        }
+
+        misses.mark();
+        final Instant fetched = Instant.now();
+        final TimeSeriesData data = storage.getTimeSeriesData(request);
+        put(seriesKey, request, data.getMetric(), data.getDataPoints(), fetched);
+        return data;
+    }
+
+    private TimeSeriesData put(final SeriesKey seriesKey, final TimeSeriesFetchRequest request, final Metric metric, final List<DataPoint> dataPoints, final Instant fetched) {
+        final Instant finalBefore = fetched.minus(lateness);
+        final Instant complete = request.getEnd().isBefore(finalBefore) ? request.getEnd() : finalBefore;
+        if (complete.isAfter(request.getStart())) {
+            final CachedSeries series = new CachedSeries(metric, request.getStart(), complete, new ArrayList<>(dataPoints));
+            cachedBytes.addAndGet(series.bytes);
+            cache.put(seriesKey, series);
+        }
+        return ImmutableTimeSeriesData.builder()
+                .metric(metric)
+                .dataPoints(dataPoints)
+                .build();
+    }
+
+    private static class CachedSeries {
+        private final Metric metric;
+        private final Instant start;
+        // all samples before this point in time are final
+        private final Instant complete;
+        private final List<DataPoint> dataPoints;
+        private final int bytes;
+
+        private CachedSeries(final Metric metric, final Instant start, final Instant complete, final List<DataPoint> dataPoints) {
+            this.metric = metric;
+            this.start = start;
+            this.complete = complete;
+            this.dataPoints = dataPoints;
+            this.bytes = BYTES_PER_SERIES + dataPoints.size() * BYTES_PER_DATA_POINT;
+        }
+
+        /**
+         * A series can be reused for a query starting at the same point in time, or later as long as
+         * there is no sample right on the start, which the storage may or may not include.
+         */
+        private boolean covers(final Instant queryStart) {
+            return start.equals(queryStart) || (start.isBefore(queryStart) && !hasSampleAt(queryStart));
+        }
+
+        private boolean hasSampleAt(final Instant time) {
+            for (DataPoint dataPoint : dataPoints) {
+                if (dataPoint.getTime().equals(time)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private List<DataPoint> select(final Instant from, final Instant to) {
+            final List<DataPoint> selected = new ArrayList<>(dataPoints.size());
+            for (DataPoint dataPoint : dataPoints) {
+                if (dataPoint.getTime().isBefore(from) || !dataPoint.getTime().isBefore(to)) {
+                    continue;
+                }
+                selected.add(dataPoint);
+            }
+            return selected;
+        }
+    }
+
+    private static class SeriesKey {
+        private final Metric metric;
+        private final Duration step;
+
+        private SeriesKey(final Metric metric, final Duration step) {
+            this.metric = metric;
+            this.step = step;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final SeriesKey that = (SeriesKey) o;
+            return Objects.equals(metric, that.metric) && Objects.equals(step, that.step);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(metric, step);
+        }
+    }
+
+    private static class RequestKey {
+        private final Metric metric;
+        private final Instant start;
+        private final Instant end;
+        private final Duration step;
+        private final Aggregation aggregation;
+
+        private RequestKey(final TimeSeriesFetchRequest request) {
+            this.metric = request.getMetric();
+            this.start = request.getStart();
+            this.end = request.getEnd();
+            this.step = request.getStep();
+            this.aggregation = request.getAggregation();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final RequestKey that = (RequestKey) o;
+            return Objects.equals(metric, that.metric)
+                    && Objects.equals(start, that.start)
+                    && Objects.equals(end, that.end)
+                    && Objects.equals(step, that.step)
+                    && aggregation == that.aggregation;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(metric, start, end, step, aggregation);
+        }
+    }
+}
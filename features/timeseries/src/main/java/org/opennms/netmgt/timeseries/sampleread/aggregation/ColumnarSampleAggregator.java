@@ -0,0 +1,444 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.sampleread.aggregation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import org.opennms.integration.api.v1.timeseries.DataPoint;
+import org.opennms.integration.api.v1.timeseries.MetaTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesData;
+import org.opennms.netmgt.timeseries.sampleread.LateAggregationParams;
+import org.opennms.newts.api.Counter;
+
+/**
+ * Aggregates the 'Newts' way, like {@link NewtsLikeSampleAggregator}, but over primitive arrays.
+ * <p>
+ * All the series of a request are aggregated together: every step is computed for all of the series
+ * before moving on to the next one. The steps are split into chunks which are computed in parallel,
+ * the state of the primary data points at the start of a chunk is derived from the samples surrounding it.
+ * The results are the same as the ones of {@link NewtsLikeSampleAggregator}, down to the last bit.
+ */
+public class ColumnarSampleAggregator {
+
+    /** The xff of the Newts datasources: steps covered by less primary data points are unknown. */
+    private static final double XFF = 0.5;
+
+    /** Smallest number of steps worth computing in a separate chunk. */
+    private static final int MIN_STEPS_PER_CHUNK = 64;
+
+    private final long start;
+    private final long end;
+    private final long step;
+    private final long interval;
+    private final long heartbeat;
+    private final int parallelism;
+    private final List<Series> series;
+
+    private ColumnarSampleAggregator(Instant start, Instant end, LateAggregationParams lag, int parallelism, List<Series> series) {
+        this.start = checkNotNull(start, "start argument").toEpochMilli();
+        this.end = checkNotNull(end, "end argument").toEpochMilli();
+        checkNotNull(lag, "lag argument");
+        checkArgument(lag.getStep() % lag.getInterval() == 0, "step must be a multiple of interval");
+        this.step = lag.getStep();
+        this.interval = lag.getInterval();
+        this.heartbeat = lag.getHeartbeat();
+        this.parallelism = parallelism;
+        this.series = series;
+    }
+
+    public static ColumnarSampleAggregatorBuilder builder() {
+        return new ColumnarSampleAggregatorBuilder();
+    }
+
+    public Result process() {
+        final long firstStep = stepFloor(start, step);
+        final long lastStep = stepCeiling(end, step);
+        final int numSteps = Math.toIntExact((lastStep - firstStep) / step + 1);
+        final long[] timestamps = new long[numSteps];
+        for (int i = 0; i < numSteps; i++) {
+            timestamps[i] = firstStep + i * step;
+        }
+        final double[][] values = new double[series.size()][numSteps];
+
+        // The primary data points start one step early, so that the first step is complete
+        final long firstCeiling = stepFloor(start - step, interval);
+        final long lastCeiling = stepCeiling(end, interval);
+
+        final int numChunks = series.stream().allMatch(s -> s.sorted)
+                ? Math.max(1, Math.min(parallelism, numSteps / MIN_STEPS_PER_CHUNK)) : 1;
+        run(numChunks, chunk -> {
+            final int from = (int) ((long) numSteps * chunk / numChunks);
+            final int to = (int) ((long) numSteps * (chunk + 1) / numChunks);
+            computeSteps(timestamps, values, from, to, firstCeiling, lastCeiling, chunk == 0);
+        });
+        return new Result(timestamps, values);
+    }
+
+    private void computeSteps(long[] timestamps, double[][] values, int from, int to, long firstCeiling, long lastCeiling, boolean first) {
+        final int numSeries = series.size();
+        final double intervalsPerStep = (double) (step / interval);
+        final PrimaryData[] primaryData = new PrimaryData[numSeries];
+        final double[] aggregates = new double[numSeries];
+        final int[] counts = new int[numSeries];
+
+        // Each step consolidates the primary data points of the intervals ending in (step - step size, step]
+        long ceiling = Math.max(firstCeiling, timestamps[from] - step + interval);
+        for (int s = 0; s < numSeries; s++) {
+            primaryData[s] = new PrimaryData(series.get(s), firstCeiling);
+            if (first) {
+                for (long c = firstCeiling; c < ceiling; c += interval) {
+                    primaryData[s].next(c);
+                }
+            } else {
+                primaryData[s].seek(ceiling - interval);
+            }
+        }
+
+        for (int i = from; i < to; i++) {
+            for (int s = 0; s < numSeries; s++) {
+                aggregates[s] = series.get(s).function.initialValue;
+                counts[s] = 0;
+            }
+            int numIntervals = 0;
+            for (; ceiling <= timestamps[i] && ceiling <= lastCeiling; ceiling += interval) {
+                for (int s = 0; s < numSeries; s++) {
+                    final double value = primaryData[s].next(ceiling);
+                    if (!Double.isNaN(value)) {
+                        aggregates[s] = series.get(s).function.accumulate(aggregates[s], value);
+                        counts[s]++;
+                    }
+                }
+                numIntervals++;
+            }
+            for (int s = 0; s < numSeries; s++) {
+                values[s][i] = numIntervals / intervalsPerStep > XFF
+                        ? series.get(s).function.result(aggregates[s], counts[s]) : Double.NaN;
+            }
+        }
+    }
+
+    private void run(int numChunks, IntConsumer chunk) {
+        if (numChunks > 1) {
+            IntStream.range(0, numChunks).parallel().forEach(chunk);
+        } else {
+            chunk.accept(0);
+        }
+    }
+
+    private static long stepFloor(long timestamp, long step) {
+        return (timestamp / step) * step;
+    }
+
+    private static long stepCeiling(long timestamp, long step) {
+        final long periods = timestamp / step;
+        return (timestamp % step > 0 ? periods + 1 : periods) * step;
+    }
+
+    /**
+     * Calculates the primary data points of a series the same way as the Newts PrimaryData iterator:
+     * a time weighted average of the samples of each interval, where the time between two samples
+     * only counts when it is shorter than the heartbeat.
+     */
+    private class PrimaryData {
+        private final long[] timestamps;
+        private final double[] values;
+        private final long firstCeiling;
+
+        private int current = 0;
+        private boolean hasLast = false;
+        private long last;
+
+        private long known;
+        private long unknown;
+        private double value;
+
+        private PrimaryData(Series series, long firstCeiling) {
+            this.timestamps = series.timestamps;
+            this.values = series.values;
+            this.firstCeiling = firstCeiling;
+        }
+
+        private double next(long ceiling) {
+            while (current < timestamps.length) {
+                final long timestamp = timestamps[current];
+                if (hasLast) {
+                    accumulate(timestamp > ceiling ? ceiling - last : timestamp - last, values[current]);
+                }
+                hasLast = true;
+                last = timestamp;
+                if (timestamp >= ceiling) {
+                    break;
+                }
+                current++;
+            }
+
+            final double average = unknown < (known + unknown) / 2 ? value / known : Double.NaN;
+
+            // Carry the remainder over to the next interval, once the samples run out the accumulation is kept as is
+            if (current < timestamps.length) {
+                reset();
+                if (timestamps[current] > ceiling) {
+                    accumulate(timestamps[current] - ceiling, values[current]);
+                }
+            }
+            return average;
+        }
+
+        /**
+         * Restores the state left behind by {@link #next(long)} for the given ceiling without visiting
+         * the previous intervals. Requires the samples to be sorted.
+         */
+        private void seek(long ceiling) {
+            int low = 0;
+            int high = timestamps.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (timestamps[mid] < ceiling) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            if (low < timestamps.length) {
+                current = low;
+                hasLast = true;
+                last = timestamps[low];
+                reset();
+                if (timestamps[low] > ceiling) {
+                    accumulate(timestamps[low] - ceiling, values[low]);
+                }
+            } else if (timestamps.length > 0) {
+                // The samples ran out in the first interval ending after the last one
+                final long lastTimestamp = timestamps[timestamps.length - 1];
+                final long exhausted = lastTimestamp < firstCeiling ? firstCeiling
+                        : firstCeiling + ((lastTimestamp - firstCeiling) / interval + 1) * interval;
+                if (exhausted > firstCeiling) {
+                    seek(exhausted - interval);
+                }
+                next(exhausted);
+            }
+        }
+
+        private void accumulate(long elapsed, double sample) {
+            if (elapsed < heartbeat) {
+                known += elapsed;
+                value += sample * elapsed;
+            } else {
+                unknown += elapsed;
+            }
+        }
+
+        private void reset() {
+            known = 0;
+            unknown = 0;
+            value = 0;
+        }
+    }
+
+    /** The Newts aggregation functions, {@link StandardAggregationFunctions} without the boxing. */
+    private enum AggregationFunction {
+        AVERAGE(0.0d) {
+            @Override
+            double accumulate(double aggregate, double value) {
+                return aggregate + value;
+            }
+
+            @Override
+            double result(double aggregate, int count) {
+                return aggregate / (double) count;
+            }
+        },
+        MAX(Double.MIN_VALUE) {
+            @Override
+            double accumulate(double aggregate, double value) {
+                return value - aggregate > 0.0d ? value : aggregate;
+            }
+        },
+        MIN(Double.MAX_VALUE) {
+            @Override
+            double accumulate(double aggregate, double value) {
+                return value - aggregate < 0.0d ? value : aggregate;
+            }
+        };
+
+        private final double initialValue;
+
+        AggregationFunction(double initialValue) {
+            this.initialValue = initialValue;
+        }
+
+        abstract double accumulate(double aggregate, double value);
+
+        double result(double aggregate, int count) {
+            return aggregate;
+        }
+
+        private static AggregationFunction fromString(String fn) {
+            if ("average".equalsIgnoreCase(fn) || "avg".equalsIgnoreCase(fn)) {
+                return AVERAGE;
+            } else if ("max".equalsIgnoreCase(fn)) {
+                return MAX;
+            } else if ("min".equalsIgnoreCase(fn)) {
+                return MIN;
+            } else {
+                throw new IllegalArgumentException("Unsupported aggregation function: " + fn);
+            }
+        }
+    }
+
+    private static class Series {
+        private final long[] timestamps;
+        private final double[] values;
+        private final AggregationFunction function;
+        private final boolean sorted;
+
+        private Series(long[] timestamps, double[] values, boolean counter, AggregationFunction function) {
+            this.timestamps = timestamps;
+            this.values = counter ? rates(timestamps, values) : values;
+            this.function = function;
+            boolean sorted = true;
+            for (int i = 1; i < timestamps.length && sorted; i++) {
+                sorted = timestamps[i - 1] <= timestamps[i];
+            }
+            this.sorted = sorted;
+        }
+
+        /** Same as the Newts Rate iterator, the counter arithmetic (wraps) is left to the Newts counters. */
+        private static double[] rates(long[] timestamps, double[] values) {
+            final double[] rates = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                if (i == 0) {
+                    rates[i] = Double.NaN;
+                    continue;
+                }
+                final long elapsed = timestamps[i] / 1000 - timestamps[i - 1] / 1000;
+                try {
+                    rates[i] = new Counter((long) values[i]).delta(new Counter((long) values[i - 1])).doubleValue() / elapsed;
+                } catch (ArithmeticException e) {
+                    rates[i] = Double.NaN;
+                }
+            }
+            return rates;
+        }
+    }
+
+    public static class Result {
+        private final long[] timestamps;
+        private final double[][] values;
+
+        private Result(long[] timestamps, double[][] values) {
+            this.timestamps = timestamps;
+            this.values = values;
+        }
+
+        public long[] getTimestamps() {
+            return timestamps;
+        }
+
+        /** @return the aggregated values of the series with the given index, in the order they were added */
+        public double[] getValues(int series) {
+            return values[series];
+        }
+    }
+
+    public static class ColumnarSampleAggregatorBuilder {
+        private Instant start;
+        private Instant end;
+        private LateAggregationParams lateAggregationParams;
+        private int parallelism = 1;
+        private final List<Series> series = new ArrayList<>();
+
+        ColumnarSampleAggregatorBuilder() {
+        }
+
+        public ColumnarSampleAggregatorBuilder start(Instant start) {
+            this.start = start;
+            return this;
+        }
+
+        public ColumnarSampleAggregatorBuilder end(Instant end) {
+            this.end = end;
+            return this;
+        }
+
+        public ColumnarSampleAggregatorBuilder lag(final LateAggregationParams lateAggregationParams) {
+            this.lateAggregationParams = lateAggregationParams;
+            return this;
+        }
+
+        public ColumnarSampleAggregatorBuilder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        public ColumnarSampleAggregatorBuilder series(TimeSeriesData data, String aggregation) {
+            final AggregationFunction function = AggregationFunction.fromString(aggregation);
+            final List<DataPoint> dataPoints = data.getDataPoints();
+            final long[] timestamps = new long[dataPoints.size()];
+            final double[] values = new double[dataPoints.size()];
+            for (int i = 0; i < timestamps.length; i++) {
+                final DataPoint dataPoint = dataPoints.get(i);
+                timestamps[i] = dataPoint.getTime().toEpochMilli();
+                values[i] = dataPoint.getValue();
+            }
+            final boolean counter = !dataPoints.isEmpty() && isCounter(data.getMetric());
+            this.series.add(new Series(timestamps, values, counter, function));
+            return this;
+        }
+
+        private static boolean isCounter(Metric metric) {
+            final Metric.Mtype type = Metric.Mtype.valueOf(metric.getFirstTagByKey(MetaTagNames.mtype).getValue());
+            if (Metric.Mtype.count == type) {
+                return true;
+            } else if (Metric.Mtype.gauge == type) {
+                return false;
+            } else {
+                throw new IllegalArgumentException(String.format("I don't know how to map %s to MetricType", type));
+            }
+        }
+
+        public ColumnarSampleAggregator build() {
+            return new ColumnarSampleAggregator(start, end, lateAggregationParams, parallelism, new ArrayList<>(series));
+        }
+
+        @Override
+        public String toString() {
+            return new StringJoiner(", ", ColumnarSampleAggregatorBuilder.class.getSimpleName() + "[", "]")
+                    .add("start=" + start)
+                    .add("end=" + end)
+                    .add("lateAggregationParams=" + lateAggregationParams)
+                    .add("parallelism=" + parallelism)
+                    .add("series=" + series.size())
+                    .toString();
+        }
+    }
+}
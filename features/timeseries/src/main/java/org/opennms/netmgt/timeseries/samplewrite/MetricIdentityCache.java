@@ -0,0 +1,160 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.samplewrite;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.opennms.core.cache.Cache;
+import org.opennms.core.cache.CacheBuilder;
+import org.opennms.core.cache.CacheConfig;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Keeps the {@link Metric}s built for the collected attributes, so that they don't need to be rebuilt for
+ * every sample.
+ *
+ * The metrics are keyed by resource id, attribute name and type. A cached metric is only reused if the
+ * meta tags and the resource and metric level string attributes it was built from are the same as the
+ * current ones, so changes to the meta tag configuration or to the node meta-data are picked up by the
+ * next collection without having to invalidate the cache explicitly.
+ */
+public class MetricIdentityCache {
+
+    private final Cache<Key, Entry> cache;
+
+    private volatile Consumer<Metric> metricListener = metric -> {};
+
+    public MetricIdentityCache(final CacheConfig cacheConfig) {
+        this.cache = new CacheBuilder<Key, Entry>()
+                .withConfig(cacheConfig)
+                .withCacheLoader(new CacheLoader<Key, Entry>() {
+                    @Override
+                    public Entry load(final Key key) {
+                        // Entries are only ever added with put() since they depend on more than the key
+                        throw new UnsupportedOperationException();
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Sets a callback invoked with every metric built by the cache, that is for new attributes
+     * and for attributes whose tags changed.
+     */
+    public void setMetricListener(final Consumer<Metric> metricListener) {
+        this.metricListener = Objects.requireNonNull(metricListener);
+    }
+
+    /**
+     * Returns the metric for the given attribute, building it only if it isn't cached or if any of its tags changed.
+     *
+     * @param resourceId the id of the resource the attribute belongs to
+     * @param name the name of the attribute
+     * @param type the mtype meta tag of the attribute
+     * @param metaTags the additional meta tags configured for the resource
+     * @param resourceLevelTags the resource level string attributes, as external tags
+     * @param metricLevelAttributes the metric level string attributes, may be null
+     */
+    public Metric getMetric(final String resourceId, final String name, final Tag type,
+                            final Set<Tag> metaTags, final Set<Tag> resourceLevelTags,
+                            final Map<String, String> metricLevelAttributes) {
+        final Key key = new Key(resourceId, name, type);
+        final Entry cached = cache.getIfCached(key);
+        if (cached != null && cached.metaTags.equals(metaTags)
+                && cached.resourceLevelTags.equals(resourceLevelTags)
+                && Objects.equals(cached.metricLevelAttributes, metricLevelAttributes)) {
+            return cached.metric;
+        }
+
+        final ImmutableMetric.MetricBuilder builder = ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.resourceId, resourceId)
+                .intrinsicTag(IntrinsicTagNames.name, name)
+                .metaTag(type);
+        // add resource level string attributes
+        metaTags.forEach(builder::metaTag);
+        resourceLevelTags.forEach(builder::externalTag);
+        // add metric level string attributes
+        if (metricLevelAttributes != null) {
+            metricLevelAttributes.forEach(builder::externalTag);
+        }
+        final Metric metric = builder.build();
+        cache.put(key, new Entry(metric, metaTags, resourceLevelTags, metricLevelAttributes));
+        metricListener.accept(metric);
+        return metric;
+    }
+
+    private static final class Key {
+        private final String resourceId;
+        private final String name;
+        private final Tag type;
+        private final int hashCode;
+
+        private Key(final String resourceId, final String name, final Tag type) {
+            this.resourceId = resourceId;
+            this.name = name;
+            this.type = type;
+            this.hashCode = Objects.hash(resourceId, name, type);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return resourceId.equals(other.resourceId) && name.equals(other.name) && type.equals(other.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class Entry {
+        private final Metric metric;
+        private final Set<Tag> metaTags;
+        private final Set<Tag> resourceLevelTags;
+        private final Map<String, String> metricLevelAttributes;
+
+        private Entry(final Metric metric, final Set<Tag> metaTags, final Set<Tag> resourceLevelTags,
+                      final Map<String, String> metricLevelAttributes) {
+            this.metric = metric;
+            this.metaTags = ImmutableSet.copyOf(metaTags);
+            this.resourceLevelTags = ImmutableSet.copyOf(resourceLevelTags);
+            this.metricLevelAttributes = metricLevelAttributes != null ? ImmutableMap.copyOf(metricLevelAttributes) : null;
+        }
+    }
+}
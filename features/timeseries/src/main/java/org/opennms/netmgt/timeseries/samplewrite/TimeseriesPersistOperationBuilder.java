@@ -22,6 +22,7 @@
 package org.opennms.netmgt.timeseries.samplewrite;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -53,7 +54,6 @@ import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
@@ -64,6 +64,9 @@ import com.google.common.collect.Sets;
 public class TimeseriesPersistOperationBuilder implements PersistOperationBuilder {
     private static final Logger LOG = LoggerFactory.getLogger(TimeseriesPersistOperationBuilder.class);
 
+    private static final Tag MTYPE_COUNT = new ImmutableTag(MetaTagNames.mtype, ImmutableMetric.Mtype.count.name());
+    private static final Tag MTYPE_GAUGE = new ImmutableTag(MetaTagNames.mtype, ImmutableMetric.Mtype.gauge.name());
+
     private final TimeseriesWriter writer;
     private final RrdRepository rrepository;
     private final String groupName;
@@ -73,6 +76,7 @@ public class TimeseriesPersistOperationBuilder implements PersistOperationBuilde
     private final Set<Tag> configuredAdditionalMetaTags;
     private final Map<ResourcePath, Map<String, String>> stringAttributesByPath;
     private final Map<Set<Tag>, Map<String, String>> stringAttributesByResourceIdAndName = Maps.newLinkedHashMap();
+    private final MetricIdentityCache metricIdentityCache;
     private final Timer commitTimer;
 
     private TimeKeeper timeKeeper = new DefaultTimeKeeper();
@@ -81,6 +85,7 @@ public class TimeseriesPersistOperationBuilder implements PersistOperationBuilde
                                              ResourceIdentifier resource, String groupName,
                                              Set<Tag> configuredAdditionalMetaTags,
                                              final Map<ResourcePath, Map<String, String>> stringAttributesByPath,
+                                             MetricIdentityCache metricIdentityCache,
                                              MetricRegistry metricRegistry) {
         this.writer = writer;
         rrepository = repository;
@@ -88,6 +93,7 @@ public class TimeseriesPersistOperationBuilder implements PersistOperationBuilde
         this.groupName = groupName;
         this.configuredAdditionalMetaTags = configuredAdditionalMetaTags;
         this.stringAttributesByPath = stringAttributesByPath;
+        this.metricIdentityCache = metricIdentityCache;
         this.commitTimer = metricRegistry.timer("samples.write.integration");
     }
 
@@ -137,7 +143,7 @@ public class TimeseriesPersistOperationBuilder implements PersistOperationBuilde
 
     public List<Sample> getSamplesToInsert() {
         final Set<Tag> resourceIdLevelExternalData = Sets.newHashSet();
-        final List<Sample> samples = Lists.newLinkedList();
+        final List<Sample> samples = new ArrayList<>(declarations.size());
         ResourcePath path = ResourceTypeUtils.getResourcePathWithRepository(rrepository, ResourcePath.get(resource.getPath(), groupName));
 
         // Collect resource and group level attributes
@@ -173,23 +179,16 @@ public class TimeseriesPersistOperationBuilder implements PersistOperationBuilde
                 continue;
             }
 
-            ImmutableMetric.MetricBuilder builder = ImmutableMetric.builder()
-                    .intrinsicTag(IntrinsicTagNames.resourceId, resourceId)
-                    .intrinsicTag(IntrinsicTagNames.name, attrType.getName())
-                    .metaTag(type);
-
-            // add resource level string attributes
-            this.configuredAdditionalMetaTags.forEach(builder::metaTag);
-            resourceIdLevelExternalData.forEach(builder::externalTag);
-
-            // add metric level string attributes
-            Map<String, String> metricLevelAttributes = stringAttributesByResourceIdAndName.get(builder.build().getIntrinsicTags());
-            if (metricLevelAttributes != null) {
-                for (Entry<String, String> entry2 : stringAttributesByResourceIdAndName.get(builder.build().getIntrinsicTags()).entrySet()) {
-                    builder.externalTag(entry2.getKey(), entry2.getValue());
-                }
+            // metric level string attributes
+            Map<String, String> metricLevelAttributes = null;
+            if (!stringAttributesByResourceIdAndName.isEmpty()) {
+                metricLevelAttributes = stringAttributesByResourceIdAndName.get(Set.of(
+                        new ImmutableTag(IntrinsicTagNames.resourceId, resourceId),
+                        new ImmutableTag(IntrinsicTagNames.name, attrType.getName())));
             }
-            final ImmutableMetric metric = builder.build();
+
+            final Metric metric = metricIdentityCache.getMetric(resourceId, attrType.getName(), type,
+                    configuredAdditionalMetaTags, resourceIdLevelExternalData, metricLevelAttributes);
             final Double sampleValue = value.doubleValue();
             samples.add(ImmutableSample.builder().metric(metric).time(time).value(sampleValue).build());
         }
@@ -202,19 +201,16 @@ public class TimeseriesPersistOperationBuilder implements PersistOperationBuilde
      * @return
      */
     private Tag typeToTag(final AttributeType type) {
-        ImmutableMetric.Mtype mtype;
-
         if(type == AttributeType.COUNTER) {
-            mtype = ImmutableMetric.Mtype.count;
+            return MTYPE_COUNT;
         } else if (type == AttributeType.GAUGE) {
-            mtype = ImmutableMetric.Mtype.gauge;
+            return MTYPE_GAUGE;
         } else if(type == AttributeType.STRING) {
             return null;
         } else {
-            mtype = ImmutableMetric.Mtype.gauge;
+            // types handling is in NewtsConverterUtils.toNewtsValue
+            return MTYPE_GAUGE;
         }
-        // types handling is in NewtsConverterUtils.toNewtsValue
-        return new ImmutableTag(MetaTagNames.mtype, mtype.name());
     }
 
     /**
@@ -71,6 +71,7 @@ public class TimeseriesPersister extends AbstractPersister {
     private final TimeseriesWriter writer;
     private final MetaTagDataLoader metaDataLoader;
     private final Cache<ResourcePath, Set<Tag>> configuredAdditionalMetaTagCache;
+    private final MetricIdentityCache metricIdentityCache;
     private TimeseriesPersistOperationBuilder currentBuilder; // builds a group of attributes
     private List<TimeseriesPersistOperationBuilder> allBuilders; // we need to keep track for commit
     private Map<ResourcePath, Map<String, String>> resourceLevelStringAttributes;
@@ -78,12 +79,13 @@ public class TimeseriesPersister extends AbstractPersister {
 
     protected TimeseriesPersister(ServiceParameters params, RrdRepository repository, TimeseriesWriter timeseriesWriter,
                                   MetaTagDataLoader metaDataLoader, Cache<ResourcePath, Set<Tag>> configuredAdditionalMetaTagCache,
-                                  MetricRegistry metricRegistry) {
+                                  MetricIdentityCache metricIdentityCache, MetricRegistry metricRegistry) {
         super(params, repository);
         this.repository = repository;
         writer = timeseriesWriter;
         this.metaDataLoader = metaDataLoader;
         this.configuredAdditionalMetaTagCache = configuredAdditionalMetaTagCache;
+        this.metricIdentityCache = Objects.requireNonNull(metricIdentityCache, "metricIdentityCache can not be null");
         this.metricRegistry = Objects.requireNonNull(metricRegistry, "metricRegistry can not be null");
     }
 
@@ -105,7 +107,7 @@ public class TimeseriesPersister extends AbstractPersister {
             CollectionResource resource = group.getResource();
             Set<Tag> metaTags = getUserDefinedMetaTags(resource);
             currentBuilder = new TimeseriesPersistOperationBuilder(writer, repository, resource, group.getName(), metaTags,
-                    resourceLevelStringAttributes, this.metricRegistry);
+                    resourceLevelStringAttributes, this.metricIdentityCache, this.metricRegistry);
             if (resource.getTimeKeeper() != null) {
                 currentBuilder.setTimeKeeper(resource.getTimeKeeper());
             }
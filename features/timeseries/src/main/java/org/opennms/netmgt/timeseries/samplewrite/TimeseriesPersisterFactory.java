@@ -38,6 +38,7 @@ import org.opennms.netmgt.rrd.RrdRepository;
 
 import com.codahale.metrics.MetricRegistry;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManager;
+import org.opennms.netmgt.timeseries.resource.TimeseriesSearcher;
 import org.opennms.netmgt.timeseries.stats.StatisticsCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,6 +55,7 @@ public class TimeseriesPersisterFactory implements PersisterFactory {
     private final TimeseriesWriter timeseriesWriter;
     private final MetaTagDataLoader metaTagDataLoader;
     private final Cache<ResourcePath, Set<Tag>> configuredAdditionalMetaTagCache;
+    private final MetricIdentityCache metricIdentityCache;
     private final MetricRegistry registry;
 
     @Inject
@@ -61,6 +63,7 @@ public class TimeseriesPersisterFactory implements PersisterFactory {
                                       final StatisticsCollector stats,
                                       @Named("timeseriesStorageManager") final TimeseriesStorageManager timeseriesStorageManager,
                                       @Named("timeseriesPersisterMetaTagCache") final CacheConfig cacheConfig,
+                                      @Named("timeseriesMetricIdentityCache") final CacheConfig metricIdentityCacheConfig,
                                       @Named("timeseriesMetricRegistry") MetricRegistry registry,
                                       @Named("timeseriesWriterConfig") TimeseriesWriterConfig timeseriesWriterConfig) {
         if (timeseriesWriterConfig.getBufferType() == TimeseriesWriterConfig.BufferType.OFFHEAP) {
@@ -76,9 +79,19 @@ public class TimeseriesPersisterFactory implements PersisterFactory {
                 .withConfig(cacheConfig)
                 .withCacheLoader(metaTagDataLoader)
                 .build();
+        this.metricIdentityCache = new MetricIdentityCache(metricIdentityCacheConfig);
         this.registry = registry;
     }
 
+    /**
+     * Adds the metrics of new resources to the searcher as they are written, so that
+     * they can be browsed without waiting for the searcher's cache to expire.
+     */
+    @Autowired(required = false)
+    public void setSearcher(final TimeseriesSearcher searcher) {
+        metricIdentityCache.setMetricListener(searcher::add);
+    }
+
     @Override
     public Persister createPersister(ServiceParameters params, RrdRepository repository) {
         return createPersister(params, repository, false, false, false);
@@ -89,7 +102,7 @@ public class TimeseriesPersisterFactory implements PersisterFactory {
                                      boolean forceStoreByGroup, boolean dontReorderAttributes) {
         // We ignore the forceStoreByGroup flag since we always store by group, and we ignore
         // the dontReorderAttributes flag since attribute order does not matter
-        TimeseriesPersister persister = new TimeseriesPersister(params, repository, timeseriesWriter, metaTagDataLoader, configuredAdditionalMetaTagCache, registry);
+        TimeseriesPersister persister = new TimeseriesPersister(params, repository, timeseriesWriter, metaTagDataLoader, configuredAdditionalMetaTagCache, metricIdentityCache, registry);
         persister.setIgnorePersist(dontPersistCounters);
         return persister;
     }
@@ -0,0 +1,144 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.resource;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.core.cache.CacheConfig;
+import org.opennms.integration.api.v1.timeseries.InMemoryStorage;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.StorageException;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesStorage;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableSample;
+import org.opennms.netmgt.model.OnmsAttribute;
+import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.timeseries.TimeseriesStorageManager;
+
+/**
+ * Use the Java Microbenchmarking Harness (JMH) to measure the time it takes to load the
+ * resource tree of a node with 10k interfaces, that is to list the interfaces and to
+ * retrieve the attributes of every one of them.
+ * <p>
+ * Compare the results when loading the attributes resource by resource and all at once
+ * with {@link TimeseriesResourceStorageDao#getAttributesWithin(ResourcePath, int)}, with
+ * and without the metrics of the node being cached by the searcher.
+ */
+public class TimeseriesResourceStorageDaoBenchmark {
+
+    private static final ResourcePath NODE = ResourcePath.get("snmp", "1");
+    private static final int NUM_INTERFACES = 10000;
+    private static final int NUM_ATTRIBUTES_PER_INTERFACE = 10;
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"true", "false"})
+        public boolean bulk;
+
+        @Param({"true", "false"})
+        public boolean cached;
+
+        private TimeseriesStorageManager storageManager;
+        private TimeseriesResourceStorageDao dao;
+
+        @Setup
+        public void setup() throws StorageException {
+            final TimeSeriesStorage storage = new InMemoryStorage();
+            final List<Sample> samples = new ArrayList<>();
+            for (int i = 0; i < NUM_ATTRIBUTES_PER_INTERFACE; i++) {
+                samples.add(sample("snmp/1/mib2-host-resources", "hrMetric" + i));
+            }
+            for (int ifIndex = 1; ifIndex <= NUM_INTERFACES; ifIndex++) {
+                for (int i = 0; i < NUM_ATTRIBUTES_PER_INTERFACE; i++) {
+                    samples.add(sample("snmp/1/eth" + ifIndex + "/mib2-X-interfaces", "ifHCMetric" + i));
+                }
+            }
+            storage.store(samples);
+
+            storageManager = mock(TimeseriesStorageManager.class);
+            when(storageManager.get()).thenReturn(storage);
+            dao = newDao();
+        }
+
+        private TimeseriesResourceStorageDao newDao() {
+            final TimeseriesResourceStorageDao dao = new TimeseriesResourceStorageDao();
+            dao.setSearcher(new TimeseriesSearcher(storageManager, new CacheConfig("timeseriesSearcherCache")));
+            return dao;
+        }
+
+        private static Sample sample(final String resourceId, final String name) {
+            return ImmutableSample.builder()
+                    .metric(ImmutableMetric.builder()
+                            .intrinsicTag(IntrinsicTagNames.resourceId, resourceId)
+                            .intrinsicTag(IntrinsicTagNames.name, name)
+                            .build())
+                    .time(Instant.now())
+                    .value(1.0)
+                    .build();
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(4)
+    public int loadResourceTree(BState state) {
+        final TimeseriesResourceStorageDao dao = state.cached ? state.dao : state.newDao();
+        final Set<ResourcePath> interfaces = dao.children(NODE, 1);
+        int numAttributes = 0;
+        if (state.bulk) {
+            final Map<ResourcePath, Set<OnmsAttribute>> attributes = dao.getAttributesWithin(NODE, 1);
+            for (ResourcePath intf : interfaces) {
+                numAttributes += attributes.getOrDefault(intf, Collections.emptySet()).size();
+            }
+        } else {
+            for (ResourcePath intf : interfaces) {
+                numAttributes += dao.getAttributes(intf).size();
+            }
+        }
+        return numAttributes;
+    }
+}
@@ -30,11 +30,13 @@ import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.opennms.netmgt.timeseries.util.TimeseriesUtils.toResourceId;
 import static org.opennms.netmgt.timeseries.util.TimeseriesUtils.toSearchRegex;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -200,6 +202,27 @@ public class TimeseriesResourceStorageDaoTest {
         verify(searcher, atLeastOnce()).search(any(ResourcePath.class), anyInt());
     }
 
+    @Test
+    public void getAttributesWithin() throws StorageException {
+        index(ResourcePath.get("a", "bucket"), Sets.newHashSet("metric"));
+        index(ResourcePath.get("a", "b", "bucket1"), Sets.newHashSet("metric11", "metric12"));
+        index(ResourcePath.get("a", "b", "bucket2"), Sets.newHashSet("metric21"));
+        index(ResourcePath.get("a", "c", "bucket"), Sets.newHashSet("metric"));
+        index(ResourcePath.get("a", "c", "d", "bucket"), Sets.newHashSet("metric"));
+        replay();
+
+        // The attributes should be the same as the ones retrieved path by path
+        Map<ResourcePath, Set<OnmsAttribute>> attributes = resourceStorageDao.getAttributesWithin(ResourcePath.get("a"), 1);
+        for (ResourcePath path : Arrays.asList(ResourcePath.get("a"), ResourcePath.get("a", "b"), ResourcePath.get("a", "c"))) {
+            assertEquals(resourceStorageDao.getAttributes(path), attributes.get(path));
+        }
+        assertEquals(3, attributes.get(ResourcePath.get("a", "b")).size());
+        assertFalse(attributes.containsKey(ResourcePath.get("a", "c", "d")));
+
+        verify(searcher, atLeastOnce()).search(any(ResourcePath.class), anyInt());
+        verify(searcher, times(1)).searchWithin(any(ResourcePath.class), anyInt());
+    }
+
     @Test
     public void getResponseTimeAttributes() throws StorageException {
         index(ResourcePath.get(ResourceTypeUtils.RESPONSE_DIRECTORY, "127.0.0.1", "strafeping"), Sets.newHashSet("ping1", "ping2"));
@@ -251,5 +274,24 @@ public class TimeseriesResourceStorageDaoTest {
             }
             
         }).when(searcher).search(any(ResourcePath.class), anyInt());
+
+        doAnswer(invocation -> {
+            ResourcePath resourcePath = invocation.getArgument(0);
+            int depth = invocation.getArgument(1);
+
+            Map<ResourcePath, Set<Metric>> metrics = Maps.newHashMap();
+            for (Entry<ResourcePath, Set<String>> entry : indexedPaths.entrySet()) {
+                int relativeDepth = resourcePath.relativeDepth(entry.getKey());
+                if (relativeDepth >= 0 && relativeDepth <= depth + 1) {
+                    for (String name : entry.getValue()) {
+                        metrics.computeIfAbsent(entry.getKey(), p -> new HashSet<>()).add(ImmutableMetric.builder()
+                                .intrinsicTag(IntrinsicTagNames.resourceId, toResourceId(entry.getKey()))
+                                .intrinsicTag(IntrinsicTagNames.name, name)
+                                .build());
+                    }
+                }
+            }
+            return metrics;
+        }).when(searcher).searchWithin(any(ResourcePath.class), anyInt());
     }
 }
@@ -33,6 +33,7 @@ import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.Before;
@@ -128,6 +129,41 @@ public class TimeseriesSearcherTest {
         verify(searcher, times(2)).buildCache(any());
     }
 
+    @Test
+    public void shouldFindMetricsWithin() throws StorageException {
+        Metric loadavg1m = createAndAddMetric("snmp/2/node-stats", "loadavg1m");
+        Metric ifHcInOctects = createAndAddMetric("snmp/2/eth0/mib2-stats", "ifHcInOctects");
+        Metric ifHcOutOctects = createAndAddMetric("snmp/2/eth0/mib2-stats", "ifHcOutOctects");
+        Metric dskUsage = createAndAddMetric("snmp/2/dskIndex/C_/disk-stats", "dskUsage");
+
+        Map<ResourcePath, Set<Metric>> metrics = searcher.searchWithin(ResourcePath.fromString("snmp/2"), 1);
+        assertEquals(2, metrics.size());
+        assertEquals(Collections.singleton(loadavg1m), metrics.get(ResourcePath.fromString("snmp/2/node-stats")));
+        assertEquals(new HashSet<>(Arrays.asList(ifHcInOctects, ifHcOutOctects)), metrics.get(ResourcePath.fromString("snmp/2/eth0/mib2-stats")));
+
+        metrics = searcher.searchWithin(ResourcePath.fromString("snmp/2/dskIndex"), 1);
+        assertEquals(Collections.singleton(dskUsage), metrics.get(ResourcePath.fromString("snmp/2/dskIndex/C_/disk-stats")));
+
+        // all from the same node
+        verify(storage, times(1)).findMetrics(any());
+    }
+
+    @Test
+    public void shouldKeepCacheCurrent() throws StorageException {
+        Metric ifHcInOctects = createAndAddMetric("snmp/2/eth0/mib2-stats", "ifHcInOctects");
+        test("snmp/2/eth0", ifHcInOctects);
+
+        // written after the node was cached
+        Metric eth1 = createAndAddMetric("snmp/2/eth1/mib2-stats", "ifHcInOctects");
+        searcher.add(eth1);
+        test("snmp/2/eth1", eth1);
+
+        searcher.remove(ifHcInOctects);
+        test("snmp/2/eth0");
+
+        verify(storage, times(1)).findMetrics(any());
+    }
+
     private void test(String path, Metric...expectedMetrics) throws StorageException {
         Set<Metric> foundMetrics = searcher.search(ResourcePath.fromString(path), 0);
         Set<Metric> expectedMetricsSet = new HashSet<>(Arrays.asList(expectedMetrics));
@@ -0,0 +1,206 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.sampleread;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.integration.api.v1.timeseries.DataPoint;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.MetaTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.StorageException;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesFetchRequest;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesStorage;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableDataPoint;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTimeSeriesData;
+import org.opennms.netmgt.dao.api.ResourceDao;
+import org.opennms.netmgt.measurements.api.DefaultMeasurementsService;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.FilterEngine;
+import org.opennms.netmgt.measurements.api.MeasurementsExport;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.opennms.netmgt.measurements.model.QueryResponse;
+import org.opennms.netmgt.measurements.model.Source;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsResource;
+import org.opennms.netmgt.model.OnmsResourceType;
+import org.opennms.netmgt.model.ResourceId;
+import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.model.RrdGraphAttribute;
+import org.opennms.netmgt.timeseries.TimeseriesStorageManagerImpl;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Sets;
+
+/**
+ * Verifies that the chunks of an export, which are aggregated separately by the {@link TimeseriesFetchStrategy},
+ * hold the same rows as a single query of the whole range.
+ */
+public class TimeseriesMeasurementsExportTest {
+
+    private static final String NEWTS_RESOURCE_ID = "snmp:1:mib2-interfaces:eth0";
+
+    private static final ResourceId NODE_ID = ResourceId.get("node", "1");
+
+    private static final ResourceId INTERFACE_ID = NODE_ID.resolve("interfaceSnmp", "eth0");
+
+    private static final String[] AGGREGATIONS = {"AVERAGE", "MIN", "MAX"};
+
+    private static final Instant END = Instant.parse("2022-06-01T00:00:00Z");
+
+    private final Random random = new Random(1234);
+
+    private final Map<String, List<DataPoint>> samplesByName = new HashMap<>();
+
+    private TimeseriesFetchStrategy fetchStrategy;
+
+    @Before
+    public void setUp() throws StorageException {
+        samplesByName.put("ifInOctets", samples(true));
+        samplesByName.put("ifInErrors", samples(true));
+        samplesByName.put("ifInDiscards", samples(false));
+
+        final TimeSeriesStorage storage = mock(TimeSeriesStorage.class);
+        when(storage.supportsAggregation(any())).thenReturn(false);
+        when(storage.getTimeSeriesData(any())).thenAnswer(invocation -> {
+            final TimeSeriesFetchRequest request = invocation.getArgument(0);
+            final String name = request.getMetric().getFirstTagByKey(IntrinsicTagNames.name).getValue();
+            return ImmutableTimeSeriesData.builder()
+                    .metric(ImmutableMetric.builder()
+                            .intrinsicTag(IntrinsicTagNames.resourceId, NEWTS_RESOURCE_ID)
+                            .intrinsicTag(IntrinsicTagNames.name, name)
+                            .metaTag(MetaTagNames.mtype, name.equals("ifInDiscards") ? Metric.Mtype.gauge.name() : Metric.Mtype.count.name())
+                            .build())
+                    .dataPoints(samplesByName.get(name).stream()
+                            .filter(d -> !d.getTime().isBefore(request.getStart()) && !d.getTime().isAfter(request.getEnd()))
+                            .collect(Collectors.toList()))
+                    .build();
+        });
+        final TimeseriesStorageManagerImpl storageManager = mock(TimeseriesStorageManagerImpl.class);
+        when(storageManager.get()).thenReturn(storage);
+
+        final OnmsResourceType type = mock(OnmsResourceType.class);
+        when(type.getName()).thenReturn("interfaceSnmp");
+        when(type.getLabel()).thenReturn("SNMP Interface Data");
+        final OnmsNode node = new OnmsNode();
+        node.setId(1);
+        node.setLabel("node1");
+        final OnmsResource parent = new OnmsResource("1", "node1", type, Sets.newHashSet(), ResourcePath.get("snmp", "1"));
+        parent.setEntity(node);
+        final OnmsResource resource = new OnmsResource("eth0", "eth0", type, Sets.newHashSet(), ResourcePath.get("snmp", "1", "eth0"));
+        resource.setParent(parent);
+        for (final String name : samplesByName.keySet()) {
+            resource.getAttributes().add(new RrdGraphAttribute(name, "", NEWTS_RESOURCE_ID));
+        }
+        final ResourceDao resourceDao = mock(ResourceDao.class);
+        when(resourceDao.getResourceById(NODE_ID)).thenReturn(parent);
+        when(resourceDao.getResourceById(INTERFACE_ID)).thenReturn(resource);
+
+        fetchStrategy = new TimeseriesFetchStrategy();
+        fetchStrategy.setResourceDao(resourceDao);
+        fetchStrategy.setTimeseriesStorageManager(storageManager);
+        fetchStrategy.setMetricRegistry(new MetricRegistry());
+    }
+
+    @Test
+    public void shouldExportTheRowsOfTheQuery() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            final QueryRequest request = new QueryRequest();
+            request.setStart(END.minus(6, ChronoUnit.DAYS).toEpochMilli() - random.nextInt(86_400_000));
+            request.setEnd(END.minus(1, ChronoUnit.DAYS).toEpochMilli() + random.nextInt(86_400_000));
+            request.setStep((1L + random.nextInt(6)) * 300_000L);
+            if (random.nextBoolean()) {
+                request.setInterval(300_000L);
+                request.setHeartbeat((2L + random.nextInt(4)) * 300_000L);
+            }
+            final List<Source> sources = new ArrayList<>();
+            for (final String name : samplesByName.keySet()) {
+                final Source source = new Source(name, INTERFACE_ID.toString(), name, null, false);
+                source.setAggregation(AGGREGATIONS[random.nextInt(AGGREGATIONS.length)]);
+                sources.add(source);
+            }
+            request.setSources(sources);
+
+            // Chunks of a few dozen rows, so that there are many chunk boundaries
+            final DefaultMeasurementsService service = new DefaultMeasurementsService(fetchStrategy, (r, results) -> {}, new FilterEngine(), 1, (10 + random.nextInt(100)) * sources.size()) {};
+            final QueryResponse response = service.query(request);
+
+            final List<Long> timestamps = new ArrayList<>();
+            final Map<String, List<Double>> columns = new HashMap<>();
+            try (MeasurementsExport export = service.export(request)) {
+                FetchResults chunk;
+                while ((chunk = export.nextChunk()) != null) {
+                    Arrays.stream(chunk.getTimestamps()).forEach(timestamps::add);
+                    for (final Map.Entry<String, double[]> column : chunk.getColumns().entrySet()) {
+                        Arrays.stream(column.getValue()).forEach(columns.computeIfAbsent(column.getKey(), k -> new ArrayList<>())::add);
+                    }
+                }
+            }
+
+            assertArrayEquals(response.getTimestamps(), timestamps.stream().mapToLong(Long::longValue).toArray());
+            for (int j = 0; j < response.getLabels().length; j++) {
+                final double[] expected = response.getColumns()[j].getList();
+                final List<Double> values = columns.get(response.getLabels()[j]);
+                assertEquals(expected.length, values.size());
+                for (int k = 0; k < expected.length; k++) {
+                    // compare the bits, not just the values
+                    assertEquals(Double.doubleToLongBits(expected[k]), Double.doubleToLongBits(values.get(k)));
+                }
+            }
+        }
+    }
+
+    /** Collected every 5 minutes with some jitter and gaps. */
+    private List<DataPoint> samples(boolean counter) {
+        final List<DataPoint> dataPoints = new ArrayList<>();
+        double counterValue = 0;
+        for (long time = END.minus(8, ChronoUnit.DAYS).toEpochMilli(); time < END.toEpochMilli(); ) {
+            counterValue += random.nextInt(1_000_000);
+            dataPoints.add(ImmutableDataPoint.builder()
+                    .time(Instant.ofEpochMilli(time))
+                    .value(counter ? counterValue : random.nextGaussian() * 100)
+                    .build());
+            time += 300_000L + random.nextInt(10_000) - 5_000;
+            if (random.nextInt(300) == 0) {
+                time += 300_000L * random.nextInt(3);
+            }
+        }
+        return dataPoints;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.sampleread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.integration.api.v1.timeseries.Aggregation;
+import org.opennms.integration.api.v1.timeseries.DataPoint;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.StorageException;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesData;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesFetchRequest;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesStorage;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableDataPoint;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTimeSeriesData;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTimeSeriesFetchRequest;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class TimeseriesQueryCacheTest {
+
+    private static final Duration STEP = Duration.ofMinutes(5);
+
+    private static final Duration LATENESS = Duration.ofMinutes(15);
+
+    private final Metric metric = ImmutableMetric.builder()
+            .intrinsicTag(IntrinsicTagNames.resourceId, "snmp:1:mib2")
+            .intrinsicTag(IntrinsicTagNames.name, "ifInOctets")
+            .build();
+
+    private final List<TimeSeriesFetchRequest> requests = new ArrayList<>();
+
+    private Instant now;
+    private TimeSeriesStorage storage;
+    private MetricRegistry registry;
+    private TimeseriesQueryCache cache;
+
+    @Before
+    public void setUp() throws StorageException {
+        now = Instant.now();
+        storage = mock(TimeSeriesStorage.class);
+        // Samples every step over the last day, the range is exclusive like the in memory storage
+        when(storage.getTimeSeriesData(any())).thenAnswer(invocation -> {
+            final TimeSeriesFetchRequest request = invocation.getArgument(0);
+            synchronized (requests) {
+                requests.add(request);
+            }
+            return samples(request);
+        });
+        registry = new MetricRegistry();
+        cache = new TimeseriesQueryCache(registry, 1024 * 1024, Duration.ofMinutes(5), LATENESS);
+    }
+
+    @After
+    public void tearDown() {
+        requests.clear();
+    }
+
+    @Test
+    public void shouldServeFinalRangeFromCache() throws StorageException {
+        final TimeSeriesFetchRequest request = request(now.minus(Duration.ofHours(6)), now.minus(Duration.ofHours(1)), Aggregation.NONE);
+
+        final TimeSeriesData first = cache.getTimeSeriesData(storage, request);
+        final TimeSeriesData second = cache.getTimeSeriesData(storage, request);
+
+        assertEquals(1, requests.size());
+        assertEquals(first.getDataPoints(), second.getDataPoints());
+        assertEquals(samples(request).getDataPoints(), second.getDataPoints());
+        assertEquals(1, registry.meter("samples.read.cache.hits").getCount());
+        assertEquals(1, registry.meter("samples.read.cache.misses").getCount());
+    }
+
+    @Test
+    public void shouldServeRangeEndingOnASampleFromCache() throws StorageException {
+        final Instant start = now.minus(Duration.ofHours(6));
+        cache.getTimeSeriesData(storage, request(start, now.minus(Duration.ofHours(1)), Aggregation.NONE));
+
+        // Ends right on a final sample, within the cached range
+        final Instant end = Instant.ofEpochSecond(now.minus(Duration.ofHours(2)).getEpochSecond() / STEP.getSeconds() * STEP.getSeconds());
+        final TimeSeriesFetchRequest shorter = request(start, end, Aggregation.NONE);
+        final TimeSeriesData data = cache.getTimeSeriesData(storage, shorter);
+
+        assertEquals(1, requests.size());
+        assertEquals(samples(shorter).getDataPoints(), data.getDataPoints());
+        assertEquals(1, registry.meter("samples.read.cache.hits").getCount());
+        assertEquals(0, registry.meter("samples.read.cache.partial-hits").getCount());
+
+        // The shorter request did not replace the cached series
+        final TimeSeriesFetchRequest longer = request(start, now.minus(Duration.ofHours(1)), Aggregation.NONE);
+        assertEquals(samples(longer).getDataPoints(), cache.getTimeSeriesData(storage, longer).getDataPoints());
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void shouldOnlyFetchTheHead() throws StorageException {
+        final Instant start = now.minus(Duration.ofHours(6));
+        cache.getTimeSeriesData(storage, request(start, now, Aggregation.NONE));
+
+        // Dashboard refresh, the range moves along a bit
+        final TimeSeriesFetchRequest refresh = request(start.plusSeconds(7), now.plus(STEP), Aggregation.NONE);
+        final TimeSeriesData data = cache.getTimeSeriesData(storage, refresh);
+
+        assertEquals(2, requests.size());
+        final TimeSeriesFetchRequest head = requests.get(1);
+        assertEquals(refresh.getEnd(), head.getEnd());
+        assertTrue(head.getStart().isAfter(now.minus(LATENESS).minusSeconds(1)));
+        assertEquals(samples(refresh).getDataPoints(), data.getDataPoints());
+        assertEquals(1, registry.meter("samples.read.cache.partial-hits").getCount());
+    }
+
+    @Test
+    public void shouldNotCacheAggregatedRequests() throws StorageException {
+        final TimeSeriesFetchRequest request = request(now.minus(Duration.ofHours(6)), now.minus(Duration.ofHours(1)), Aggregation.AVERAGE);
+
+        cache.getTimeSeriesData(storage, request);
+        cache.getTimeSeriesData(storage, request);
+
+        assertEquals(2, requests.size());
+    }
+
+    @Test
+    public void shouldCoalesceConcurrentRequests() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            final TimeSeriesFetchRequest request = invocation.getArgument(0);
+            synchronized (requests) {
+                requests.add(request);
+            }
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return samples(request);
+        }).when(storage).getTimeSeriesData(any());
+
+        final TimeSeriesFetchRequest request = request(now.minus(Duration.ofHours(6)), now, Aggregation.AVERAGE);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<TimeSeriesData> leader = executor.submit(() -> cache.getTimeSeriesData(storage, request));
+            started.await(10, TimeUnit.SECONDS);
+            final Future<TimeSeriesData> follower = executor.submit(() -> cache.getTimeSeriesData(storage, request));
+            // Give the follower a chance to wait on the leader before the storage answers
+            while (registry.meter("samples.read.cache.coalesced").getCount() < 1) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            assertEquals(leader.get(10, TimeUnit.SECONDS), follower.get(10, TimeUnit.SECONDS));
+            assertEquals(1, requests.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldShareTheRegistryWithOtherCaches() throws StorageException {
+        final TimeseriesQueryCache other = new TimeseriesQueryCache(registry, 1024 * 1024, Duration.ofMinutes(5), LATENESS);
+        final TimeSeriesFetchRequest request = request(now.minus(Duration.ofHours(6)), now.minus(Duration.ofHours(1)), Aggregation.NONE);
+        other.getTimeSeriesData(storage, request);
+        cache.getTimeSeriesData(storage, request);
+
+        assertEquals(2, registry.meter("samples.read.cache.misses").getCount());
+        assertEquals(1024L * 1024L, registry.getGauges().get("samples.read.cache.max-bytes").getValue());
+    }
+
+    @Test
+    public void shouldReportTheGaugesOfTheLatestCache() throws StorageException {
+        final TimeSeriesFetchRequest request = request(now.minus(Duration.ofHours(6)), now.minus(Duration.ofHours(1)), Aggregation.NONE);
+        cache.getTimeSeriesData(storage, request);
+        assertTrue((Long) registry.getGauges().get("samples.read.cache.bytes").getValue() > 0);
+
+        final TimeseriesQueryCache other = new TimeseriesQueryCache(registry, 2 * 1024 * 1024, Duration.ofMinutes(5), LATENESS);
+        assertEquals(0L, registry.getGauges().get("samples.read.cache.bytes").getValue());
+        assertEquals(2L * 1024L * 1024L, registry.getGauges().get("samples.read.cache.max-bytes").getValue());
+
+        // Closing the replaced cache leaves the gauges of the other one alone
+        cache.close();
+        assertEquals(2L * 1024L * 1024L, registry.getGauges().get("samples.read.cache.max-bytes").getValue());
+
+        other.close();
+        assertFalse(registry.getGauges().containsKey("samples.read.cache.bytes"));
+        assertFalse(registry.getGauges().containsKey("samples.read.cache.max-bytes"));
+    }
+
+    private TimeSeriesFetchRequest request(final Instant start, final Instant end, final Aggregation aggregation) {
+        return ImmutableTimeSeriesFetchRequest.builder()
+                .metric(metric)
+                .start(start)
+                .end(end)
+                .step(STEP)
+                .aggregation(aggregation)
+                .build();
+    }
+
+    private TimeSeriesData samples(final TimeSeriesFetchRequest request) {
+        final List<DataPoint> dataPoints = new ArrayList<>();
+        final long first = now.minus(Duration.ofDays(1)).getEpochSecond() / STEP.getSeconds() * STEP.getSeconds();
+        for (Instant time = Instant.ofEpochSecond(first); time.isBefore(now.plus(Duration.ofHours(1))); time = time.plus(STEP)) {
+            if (time.isAfter(request.getStart()) && time.isBefore(request.getEnd())) {
+                dataPoints.add(ImmutableDataPoint.builder()
+                        .time(time)
+                        .value((double) time.getEpochSecond())
+                        .build());
+            }
+        }
+        return ImmutableTimeSeriesData.builder()
+                .metric(request.getMetric())
+                .dataPoints(dataPoints)
+                .build();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.sampleread.aggregation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.opennms.netmgt.timeseries.sampleread.aggregation.NewtsConverterUtils.samplesToNewtsRowIterator;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opennms.integration.api.v1.timeseries.DataPoint;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.MetaTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesData;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableDataPoint;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTimeSeriesData;
+import org.opennms.netmgt.measurements.model.Source;
+import org.opennms.netmgt.timeseries.sampleread.LateAggregationParams;
+
+public class ColumnarSampleAggregatorTest {
+
+    private static final String[] AGGREGATIONS = {"AVERAGE", "MIN", "MAX"};
+
+    private final Random random = new Random(1234);
+
+    @Test
+    public void shouldAggregateLikeNewts() {
+        final Instant end = Instant.parse("2022-06-01T00:00:00Z");
+        final Instant start = end.minus(7, ChronoUnit.DAYS);
+        for (int i = 0; i < 50; i++) {
+            final LateAggregationParams lag = LateAggregationParams.builder()
+                    .step((1L + random.nextInt(120)) * 60_000L)
+                    .interval(random.nextBoolean() ? 300_000L : null)
+                    .heartbeat(random.nextBoolean() ? 600_000L : null)
+                    .build();
+            final Instant from = start.plusMillis(random.nextInt(3_600_000));
+            final Instant to = end.minusMillis(random.nextInt(3_600_000));
+            final List<TimeSeriesData> series = new ArrayList<>();
+            final List<String> aggregations = new ArrayList<>();
+            for (int j = 0; j < 3; j++) {
+                series.add(series(start.minus(1, ChronoUnit.DAYS), end.plus(1, ChronoUnit.DAYS), random.nextBoolean()));
+                aggregations.add(AGGREGATIONS[random.nextInt(AGGREGATIONS.length)]);
+            }
+            verify(from, to, lag, series, aggregations, 1);
+            verify(from, to, lag, series, aggregations, 4);
+        }
+    }
+
+    @Test
+    public void shouldAggregateSeriesCoveringPartOfTheRange() {
+        final Instant end = Instant.parse("2022-06-01T00:00:00Z");
+        final Instant start = end.minus(7, ChronoUnit.DAYS);
+        final long range = end.toEpochMilli() - start.toEpochMilli();
+        for (int i = 0; i < 50; i++) {
+            final LateAggregationParams lag = LateAggregationParams.builder()
+                    .step((1L + random.nextInt(120)) * 60_000L)
+                    .interval(random.nextBoolean() ? 300_000L : null)
+                    .heartbeat(random.nextBoolean() ? 600_000L : null)
+                    .build();
+            final List<TimeSeriesData> series = new ArrayList<>();
+            final List<String> aggregations = new ArrayList<>();
+            for (int j = 0; j < 4; j++) {
+                // starts inside the range (or just outside of it) and stops before its end
+                final Instant from = start.plusMillis((long) (random.nextDouble() * range * 1.2) - range / 10);
+                final Instant to = from.plusMillis((long) (random.nextDouble() * Math.max(end.toEpochMilli() - from.toEpochMilli(), 300_000L)));
+                series.add(series(from, to, random.nextBoolean()));
+                aggregations.add(AGGREGATIONS[random.nextInt(AGGREGATIONS.length)]);
+            }
+            verify(start, end, lag, series, aggregations, 1);
+            verify(start, end, lag, series, aggregations, 4);
+            verify(start, end, lag, series, aggregations, 16);
+        }
+    }
+
+    @Test
+    public void shouldAggregateEmptySeries() {
+        final LateAggregationParams lag = LateAggregationParams.builder().step(300_000L).build();
+        final Instant end = Instant.parse("2022-06-01T00:00:00Z");
+        final TimeSeriesData series = ImmutableTimeSeriesData.builder()
+                .metric(metric(true))
+                .dataPoints(Collections.emptyList())
+                .build();
+        verify(end.minus(1, ChronoUnit.DAYS), end, lag, Collections.singletonList(series), Collections.singletonList("AVERAGE"), 4);
+    }
+
+    private void verify(Instant start, Instant end, LateAggregationParams lag, List<TimeSeriesData> series, List<String> aggregations, int parallelism) {
+        final ColumnarSampleAggregator.ColumnarSampleAggregatorBuilder builder = ColumnarSampleAggregator.builder()
+                .start(start)
+                .end(end)
+                .lag(lag)
+                .parallelism(parallelism);
+        for (int i = 0; i < series.size(); i++) {
+            builder.series(series.get(i), aggregations.get(i));
+        }
+        final ColumnarSampleAggregator.Result result = builder.build().process();
+
+        for (int i = 0; i < series.size(); i++) {
+            final Source source = new Source();
+            source.setAttribute("metric");
+            source.setLabel("metric");
+            source.setAggregation(aggregations.get(i));
+            final List<DataPoint> expected = NewtsLikeSampleAggregator.builder()
+                    .resource("resource")
+                    .start(start)
+                    .end(end)
+                    .metric(series.get(i).getMetric())
+                    .currentSources(Collections.singletonList(source))
+                    .lag(lag)
+                    .build().process(samplesToNewtsRowIterator(series.get(i))).getDataPoints();
+
+            assertArrayEquals(expected.stream().mapToLong(d -> d.getTime().toEpochMilli()).toArray(), result.getTimestamps());
+            final double[] values = result.getValues(i);
+            assertEquals(expected.size(), values.length);
+            for (int j = 0; j < values.length; j++) {
+                // compare the bits, not just the values
+                assertEquals(Double.doubleToLongBits(expected.get(j).getValue()), Double.doubleToLongBits(values[j]));
+            }
+        }
+    }
+
+    /** Collected every 5 minutes with some jitter, gaps, duplicates and counter wraps. */
+    private TimeSeriesData series(Instant start, Instant end, boolean counter) {
+        final List<DataPoint> dataPoints = new ArrayList<>();
+        double counterValue = random.nextInt(1000);
+        for (long time = start.toEpochMilli(); time < end.toEpochMilli(); ) {
+            double value;
+            if (counter) {
+                counterValue += random.nextInt(100_000_000);
+                if (counterValue > 4294967295d) {
+                    counterValue -= 4294967296d;
+                }
+                value = counterValue;
+            } else {
+                value = random.nextInt(100) == 0 ? Double.NaN : random.nextGaussian() * 100;
+            }
+            dataPoints.add(ImmutableDataPoint.builder().time(Instant.ofEpochMilli(time)).value(value).build());
+
+            final int gap = random.nextInt(200);
+            if (gap == 0) {
+                time += 300_000L * (2 + random.nextInt(50));
+            } else if (gap > 1) {
+                time += 300_000L + random.nextInt(10_000) - 5_000;
+            }
+        }
+        return ImmutableTimeSeriesData.builder()
+                .metric(metric(counter))
+                .dataPoints(dataPoints)
+                .build();
+    }
+
+    private static Metric metric(boolean counter) {
+        return ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.resourceId, "resource")
+                .intrinsicTag(IntrinsicTagNames.name, "metric")
+                .metaTag(MetaTagNames.mtype, counter ? Metric.Mtype.count.name() : Metric.Mtype.gauge.name())
+                .build();
+    }
+}
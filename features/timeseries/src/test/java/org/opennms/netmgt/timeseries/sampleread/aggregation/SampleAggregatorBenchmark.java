@@ -0,0 +1,159 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.sampleread.aggregation;
+
+import static org.opennms.netmgt.timeseries.sampleread.aggregation.NewtsConverterUtils.samplesToNewtsRowIterator;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.integration.api.v1.timeseries.DataPoint;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.MetaTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesData;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableDataPoint;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTimeSeriesData;
+import org.opennms.netmgt.measurements.model.Source;
+import org.opennms.netmgt.timeseries.sampleread.LateAggregationParams;
+
+/**
+ * Use the Java Microbenchmarking Harness (JMH) to compare the {@link NewtsLikeSampleAggregator}
+ * with the {@link ColumnarSampleAggregator}.
+ * <p>
+ * Every source holds one year of samples collected every 5 minutes, half of them counters.
+ * The step of 5 minutes is the one of a full resolution export, the one of 8 hours the one of a graph.
+ */
+public class SampleAggregatorBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"1", "10"})
+        public int numSources;
+
+        @Param({"300000", "28800000"})
+        public long step;
+
+        @Param({"1", "4"})
+        public int parallelism;
+
+        private Instant start;
+        private Instant end;
+        private LateAggregationParams lag;
+        private List<TimeSeriesData> series;
+        private List<Source> sources;
+
+        @Setup
+        public void setup() {
+            end = Instant.parse("2022-06-01T00:00:00Z");
+            start = end.minus(365, ChronoUnit.DAYS);
+            lag = LateAggregationParams.builder().step(step).build();
+
+            final Random random = new Random(42);
+            series = new ArrayList<>(numSources);
+            sources = new ArrayList<>(numSources);
+            for (int i = 0; i < numSources; i++) {
+                final boolean counter = i % 2 == 0;
+                final List<DataPoint> dataPoints = new ArrayList<>();
+                long value = 0;
+                for (long time = start.toEpochMilli(); time <= end.toEpochMilli(); time += 300_000L) {
+                    value += random.nextInt(1_000_000);
+                    dataPoints.add(ImmutableDataPoint.builder()
+                            .time(Instant.ofEpochMilli(time + random.nextInt(2_000)))
+                            .value(counter ? value : random.nextDouble() * 100)
+                            .build());
+                }
+                series.add(ImmutableTimeSeriesData.builder()
+                        .metric(ImmutableMetric.builder()
+                                .intrinsicTag(IntrinsicTagNames.resourceId, "snmp:1:eth0")
+                                .intrinsicTag(IntrinsicTagNames.name, "metric" + i)
+                                .metaTag(MetaTagNames.mtype, counter ? Metric.Mtype.count.name() : Metric.Mtype.gauge.name())
+                                .build())
+                        .dataPoints(dataPoints)
+                        .build());
+
+                final Source source = new Source();
+                source.setAttribute("metric" + i);
+                source.setLabel("metric" + i);
+                source.setAggregation("AVERAGE");
+                sources.add(source);
+            }
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(4)
+    public List<TimeSeriesData> newtsLike(BState state) {
+        final List<TimeSeriesData> results = new ArrayList<>(state.numSources);
+        for (int i = 0; i < state.numSources; i++) {
+            final TimeSeriesData series = state.series.get(i);
+            results.add(NewtsLikeSampleAggregator.builder()
+                    .resource("snmp:1:eth0")
+                    .start(state.start)
+                    .end(state.end)
+                    .metric(series.getMetric())
+                    .currentSources(Collections.singletonList(state.sources.get(i)))
+                    .lag(state.lag)
+                    .build().process(samplesToNewtsRowIterator(series)));
+        }
+        return results;
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(4)
+    public ColumnarSampleAggregator.Result columnar(BState state) {
+        final ColumnarSampleAggregator.ColumnarSampleAggregatorBuilder builder = ColumnarSampleAggregator.builder()
+                .start(state.start)
+                .end(state.end)
+                .lag(state.lag)
+                .parallelism(state.parallelism);
+        for (int i = 0; i < state.numSources; i++) {
+            builder.series(state.series.get(i), state.sources.get(i).getAggregation());
+        }
+        return builder.build().process();
+    }
+}
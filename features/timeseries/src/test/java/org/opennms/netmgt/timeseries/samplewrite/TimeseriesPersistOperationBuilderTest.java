@@ -24,10 +24,12 @@ package org.opennms.netmgt.timeseries.samplewrite;
 import com.codahale.metrics.MetricRegistry;
 import org.junit.Assert;
 import org.junit.Test;
+import org.opennms.core.cache.CacheConfig;
 import org.opennms.integration.api.v1.timeseries.MetaTagNames;
 import org.opennms.integration.api.v1.timeseries.Metric;
 import org.opennms.integration.api.v1.timeseries.Sample;
 import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTag;
 import org.opennms.netmgt.collectd.NumericAttributeType;
 import org.opennms.netmgt.collectd.ResourceType;
 import org.opennms.netmgt.collection.api.AttributeGroupType;
@@ -49,7 +51,13 @@ import static org.mockito.Mockito.when;
 
 public class TimeseriesPersistOperationBuilderTest {
 
+    private final MetricIdentityCache metricIdentityCache = new MetricIdentityCache(new CacheConfig("metricIdentityCache"));
+
     private TimeseriesPersistOperationBuilder getBuilder() {
+        return getBuilder(new HashSet<>());
+    }
+
+    private TimeseriesPersistOperationBuilder getBuilder(Set<Tag> tags) {
         Map<ResourcePath, Map<String, String>> stringAttributesByPath = new HashMap<>();
         RrdRepository rrdRepository = new RrdRepository();
 
@@ -57,10 +65,9 @@ public class TimeseriesPersistOperationBuilderTest {
         MetricRegistry metricRegistry = new MetricRegistry();
         ResourceIdentifier resourceIdentifier = mock(ResourceIdentifier.class);
         when(resourceIdentifier.getPath()).thenReturn(new ResourcePath("foo"));
-        Set<Tag> tags = new HashSet<>();
 
         var builder = new TimeseriesPersistOperationBuilder(null, rrdRepository, resourceIdentifier,
-                "groupName", tags, stringAttributesByPath, metricRegistry);
+                "groupName", tags, stringAttributesByPath, metricIdentityCache, metricRegistry);
 
 
         return builder;
@@ -86,6 +93,40 @@ public class TimeseriesPersistOperationBuilderTest {
         testDataType(numericAttributeType, Metric.Mtype.gauge, 1);
     }
 
+    @Test
+    public void testMetricIsReused() {
+        MibObject mibObject = mock(MibObject.class);
+        when(mibObject.getType()).thenReturn("counter");
+        when(mibObject.getAlias()).thenReturn("counterAlias");
+        NumericAttributeType numericAttributeType = new NumericAttributeType(mock(ResourceType.class), "some-collection", mibObject, new AttributeGroupType("mibGroup", AttributeGroupType.IF_TYPE_IGNORE));
+
+        Metric first = getMetric(getBuilder(), numericAttributeType);
+        Metric second = getMetric(getBuilder(), numericAttributeType);
+        Assert.assertSame(first, second);
+
+        // Changed meta tags lead to a new metric
+        Set<Tag> tags = new HashSet<>();
+        tags.add(new ImmutableTag("cat_Routers", "Routers"));
+        Metric third = getMetric(getBuilder(tags), numericAttributeType);
+        Assert.assertNotSame(first, third);
+        Assert.assertEquals(2, third.getMetaTags().size());
+        Assert.assertSame(third, getMetric(getBuilder(tags), numericAttributeType));
+
+        // Metric level string attributes are part of the metric
+        TimeseriesPersistOperationBuilder builder = getBuilder(tags);
+        builder.persistStringAttributeForMetricLevel(ResourcePath.get("tmp", "foo", "groupName"), numericAttributeType.getName(), "ifName", "eth0");
+        Metric fourth = getMetric(builder, numericAttributeType);
+        Assert.assertNotSame(third, fourth);
+        Assert.assertEquals("eth0", fourth.getFirstTagByKey("ifName").getValue());
+    }
+
+    private Metric getMetric(TimeseriesPersistOperationBuilder builder, CollectionAttributeType attributeType) {
+        builder.setAttributeValue(attributeType, 1);
+        List<Sample> samples = builder.getSamplesToInsert();
+        Assert.assertEquals(1, samples.size());
+        return samples.get(0).getMetric();
+    }
+
     private void testDataType(CollectionAttributeType attributeType, Metric.Mtype mtype, Number value) {
         TimeseriesPersistOperationBuilder builder = this.getBuilder();
         builder.setAttributeValue(attributeType, value);
@@ -0,0 +1,158 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.timeseries.samplewrite;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.core.cache.Cache;
+import org.opennms.core.cache.CacheBuilder;
+import org.opennms.core.cache.CacheConfig;
+import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTag;
+import org.opennms.netmgt.collection.api.AttributeType;
+import org.opennms.netmgt.collection.api.CollectionAgent;
+import org.opennms.netmgt.collection.api.CollectionResource;
+import org.opennms.netmgt.collection.api.ServiceParameters;
+import org.opennms.netmgt.collection.dto.CollectionSetDTO;
+import org.opennms.netmgt.collection.support.builder.CollectionSetBuilder;
+import org.opennms.netmgt.collection.support.builder.InterfaceLevelResource;
+import org.opennms.netmgt.collection.support.builder.NodeLevelResource;
+import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.rrd.RrdRepository;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Use the Java Microbenchmarking Harness (JMH) to measure the throughput of the
+ * {@link TimeseriesPersister} when visiting a collection set.
+ * <p>
+ * The collection set holds 200 numeric attributes, spread over the node and 19 interfaces, with
+ * resource level string attributes and meta tags like the ones of a typical SNMP collection. The
+ * samples are discarded by the writer. Compare the results with and without the metric identity cache.
+ */
+public class TimeseriesPersisterBenchmark {
+
+    private static final int NUM_INTERFACES = 19;
+    private static final int NUM_ATTRIBUTES_PER_RESOURCE = 10;
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"true", "false"})
+        public boolean metricIdentityCacheEnabled;
+
+        private final AtomicLong samples = new AtomicLong();
+
+        private CollectionSetDTO collectionSet;
+        private TimeseriesWriter writer;
+        private RrdRepository repository;
+        private MetaTagDataLoader metaTagDataLoader;
+        private Cache<ResourcePath, Set<Tag>> metaTagCache;
+        private MetricIdentityCache metricIdentityCache;
+
+        @Setup
+        public void setup() {
+            final CollectionAgent agent = mock(CollectionAgent.class);
+            when(agent.getStorageResourcePath()).thenReturn(ResourcePath.get("1"));
+            final NodeLevelResource node = new NodeLevelResource(1);
+
+            final CollectionSetBuilder builder = new CollectionSetBuilder(agent)
+                    .withStringAttribute(node, "mib2-system", "sysName", "host1");
+            for (int i = 0; i < NUM_ATTRIBUTES_PER_RESOURCE; i++) {
+                builder.withNumericAttribute(node, "mib2-host-resources", "hrMetric" + i, i, AttributeType.GAUGE);
+            }
+            for (int ifIndex = 1; ifIndex <= NUM_INTERFACES; ifIndex++) {
+                final InterfaceLevelResource intf = new InterfaceLevelResource(node, Integer.toString(ifIndex));
+                builder.withStringAttribute(intf, "mib2-X-interfaces", "ifName", "eth" + ifIndex);
+                for (int i = 0; i < NUM_ATTRIBUTES_PER_RESOURCE; i++) {
+                    builder.withNumericAttribute(intf, "mib2-X-interfaces", "ifHCMetric" + i, ifIndex * 1000 + i, AttributeType.COUNTER);
+                }
+            }
+            collectionSet = builder.withTimestamp(new Date()).build();
+
+            writer = new TimeseriesWriter() {
+                @Override
+                public void insert(List<Sample> s) {
+                    samples.addAndGet(s.size());
+                }
+
+                @Override
+                public void destroy() {
+                }
+            };
+
+            repository = new RrdRepository();
+            repository.setRrdBaseDir(new File("snmp"));
+
+            final Set<Tag> metaTags = ImmutableSet.of(new ImmutableTag("nodelabel", "host1"),
+                    new ImmutableTag("sysObjectID", ".1.3.6.1.4.1.8072.3.2.10"),
+                    new ImmutableTag("cat_Servers", "Servers"));
+            metaTagDataLoader = mock(MetaTagDataLoader.class);
+            when(metaTagDataLoader.load(any(CollectionResource.class))).thenReturn(metaTags);
+            metaTagCache = new CacheBuilder<ResourcePath, Set<Tag>>()
+                    .withConfig(new CacheConfig("metaTagCache"))
+                    .withCacheLoader(metaTagDataLoader)
+                    .build();
+
+            final CacheConfig metricIdentityCacheConfig = new CacheConfig("metricIdentityCache");
+            metricIdentityCacheConfig.setEnabled(metricIdentityCacheEnabled);
+            metricIdentityCache = new MetricIdentityCache(metricIdentityCacheConfig);
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(4)
+    public long visit(BState state) {
+        final TimeseriesPersister persister = new TimeseriesPersister(new ServiceParameters(Collections.emptyMap()),
+                state.repository, state.writer, state.metaTagDataLoader, state.metaTagCache,
+                state.metricIdentityCache, new MetricRegistry());
+        state.collectionSet.visit(persister);
+        return state.samples.get();
+    }
+}
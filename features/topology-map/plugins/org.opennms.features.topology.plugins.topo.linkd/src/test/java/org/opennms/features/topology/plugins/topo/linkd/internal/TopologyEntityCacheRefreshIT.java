@@ -0,0 +1,161 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.features.topology.plugins.topo.linkd.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.enlinkd.generator.TopologyGenerator;
+import org.opennms.enlinkd.generator.TopologyPersister;
+import org.opennms.enlinkd.generator.TopologySettings;
+import org.opennms.netmgt.dao.api.GenericPersistenceAccessor;
+import org.opennms.netmgt.enlinkd.persistence.api.TopologyEntityDao;
+import org.opennms.netmgt.enlinkd.persistence.impl.TopologyEntityCacheImpl;
+import org.opennms.test.JUnitConfigurationEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Measures the refresh latency and the database load of the {@link TopologyEntityCacheImpl} on a topology created
+ * by the enlinkd generator. A full refresh, as run by the node, bridge and user defined link updaters, is compared
+ * with the refresh the LLDP updater runs before matching. The database load is recorded as the number of
+ * {@link TopologyEntityDao} queries and the number of entities they returned.
+ */
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations={
+        "classpath:/META-INF/opennms/applicationContext-soa.xml",
+        "classpath:/META-INF/opennms/applicationContext-commonConfigs.xml",
+        "classpath:/META-INF/opennms/applicationContext-LinkdTopologyProviderTestIT.xml"
+})
+@JUnitConfigurationEnvironment
+@JUnitTemporaryDatabase
+public class TopologyEntityCacheRefreshIT {
+
+    private final static Logger LOG = LoggerFactory.getLogger(TopologyEntityCacheRefreshIT.class);
+
+    @Autowired
+    GenericPersistenceAccessor genericPersistenceAccessor;
+
+    @Autowired
+    TopologyEntityDao topologyEntityDao;
+
+    @Test
+    @Transactional
+    public void testLldpRefreshLoadsOnlyLldpAndNodeTables() {
+        TopologyGenerator.ProgressCallback progressCallback = new TopologyGenerator.ProgressCallback(LOG::debug);
+        TopologyGenerator generator = TopologyGenerator.builder()
+                .persister(new TopologyPersister(genericPersistenceAccessor, progressCallback))
+                .progressCallback(progressCallback).build();
+        TopologySettings settings = TopologySettings.builder()
+                .protocol(TopologyGenerator.Protocol.lldp)
+                .amountNodes(200)
+                .amountLinks(400)
+                .build();
+        generator.generateTopology(settings);
+
+        CountingTopologyEntityDao counter = new CountingTopologyEntityDao(topologyEntityDao);
+        TopologyEntityCacheImpl cache = new TopologyEntityCacheImpl();
+        cache.setTopologyEntityDao(counter.getProxy());
+
+        // warm up the hibernate mappings and the connection pool
+        cache.refresh();
+        counter.reset();
+
+        long start = System.nanoTime();
+        cache.refresh();
+        long fullRefreshNanos = System.nanoTime() - start;
+        Map<String, Integer> fullRefresh = counter.reset();
+
+        start = System.nanoTime();
+        cache.refreshNodeTopologyEntities();
+        cache.refreshLldpTopologyEntities();
+        long lldpRefreshNanos = System.nanoTime() - start;
+        Map<String, Integer> lldpRefresh = counter.reset();
+
+        LOG.info("full refresh: {} ms, {} queries, {} entities {}", fullRefreshNanos / 1000000,
+                fullRefresh.size(), sum(fullRefresh.values()), fullRefresh);
+        LOG.info("lldp refresh: {} ms, {} queries, {} entities {}", lldpRefreshNanos / 1000000,
+                lldpRefresh.size(), sum(lldpRefresh.values()), lldpRefresh);
+
+        assertEquals(11, fullRefresh.size());
+        assertEquals(5, lldpRefresh.size());
+        assertTrue(fullRefresh.keySet().containsAll(lldpRefresh.keySet()));
+        assertEquals(settings.getAmountNodes(), (int) lldpRefresh.get("getNodeTopologyEntities"));
+        assertEquals(settings.getAmountLinks(), (int) lldpRefresh.get("getLldpLinkTopologyEntities"));
+        assertEquals(settings.getAmountElements(), (int) lldpRefresh.get("getLldpElementTopologyEntities"));
+    }
+
+    private static int sum(Collection<Integer> values) {
+        int sum = 0;
+        for (Integer value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    /** Records each {@link TopologyEntityDao} query together with the number of entities it returned. */
+    private static class CountingTopologyEntityDao {
+
+        private final TopologyEntityDao proxy;
+
+        private Map<String, Integer> entitiesByQuery = new TreeMap<>();
+
+        private CountingTopologyEntityDao(TopologyEntityDao delegate) {
+            proxy = (TopologyEntityDao) Proxy.newProxyInstance(TopologyEntityDao.class.getClassLoader(),
+                    new Class<?>[]{TopologyEntityDao.class}, (target, method, args) -> {
+                        final Object result;
+                        try {
+                            result = method.invoke(delegate, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                        if (result instanceof Collection) {
+                            entitiesByQuery.merge(method.getName(), ((Collection<?>) result).size(), Integer::sum);
+                        }
+                        return result;
+                    });
+        }
+
+        private TopologyEntityDao getProxy() {
+            return proxy;
+        }
+
+        private Map<String, Integer> reset() {
+            Map<String, Integer> recorded = entitiesByQuery;
+            entitiesByQuery = new TreeMap<>();
+            return recorded;
+        }
+    }
+}
@@ -21,6 +21,9 @@
  */
 package org.opennms.netmgt.alarmd;
 
+import java.util.List;
+import java.util.stream.Collectors;
+
 import org.opennms.netmgt.model.OnmsAlarm;
 import org.opennms.netmgt.xml.event.Event;
 
@@ -40,4 +43,16 @@ public interface AlarmPersister {
      */
     OnmsAlarm persist(Event event);
 
+    /**
+     * Persists the given events in order.
+     *
+     * Implementations may reduce all of the events in a single transaction.
+     *
+     * @param events the events to persist
+     * @return the new/updated {@link OnmsAlarm}s, in the order of the events
+     */
+    default List<OnmsAlarm> persist(List<Event> events) {
+        return events.stream().map(this::persist).collect(Collectors.toList());
+    }
+
 }
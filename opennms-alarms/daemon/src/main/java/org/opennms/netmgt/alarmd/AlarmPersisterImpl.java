@@ -22,15 +22,18 @@
 package org.opennms.netmgt.alarmd;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.locks.Lock;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 import org.opennms.core.sysprops.SystemProperties;
@@ -123,13 +126,123 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return alarm;
     }
 
+    /**
+     * Reduces all of the given events in a single transaction, in order.
+     *
+     * The locks for the keys of all of the events are held for the duration of the transaction.
+     * If the transaction fails, the events are reduced again one at a time, so that a single
+     * bad event does not prevent the others from being persisted.
+     *
+     * The entity notifier callbacks of the batch are only issued once it has been committed, so that
+     * the alarms of a batch which is rolled back are never announced. The extensions are invoked
+     * before the alarms are saved, as usual. They are invoked again for the events which are reduced
+     * one at a time after a failure, since their changes to the alarms were rolled back too.
+     */
+    @Override
+    public List<OnmsAlarm> persist(List<Event> events) {
+        final List<OnmsAlarm> alarms = new ArrayList<>(Collections.nCopies(events.size(), null));
+        final List<Integer> indices = new ArrayList<>(events.size());
+        final Set<String> lockKeys = new LinkedHashSet<>();
+        for (int i = 0; i < events.size(); i++) {
+            final Event event = Objects.requireNonNull(events.get(i), "Cannot create alarm from null event.");
+            try {
+                if (!checkEventSanityAndDoWeProcess(event)) {
+                    continue;
+                }
+            } catch (IllegalArgumentException e) {
+                LOG.warn("Skipping event {}: {}", event, e.getMessage());
+                continue;
+            }
+            indices.add(i);
+            lockKeys.addAll(getLockKeys(event));
+        }
+        if (indices.isEmpty()) {
+            return alarms;
+        }
+
+        // The stripes are returned in ascending order, so batches with overlapping keys can not deadlock
+        final Iterable<Lock> locks = lockStripes.bulkGet(lockKeys);
+        final List<DeferredNotification> notifications = new ArrayList<>();
+        try {
+            locks.forEach(Lock::lock);
+            try {
+                m_transactionOperations.execute((action) -> {
+                    for (final int i : indices) {
+                        final Event event = events.get(i);
+                        final OnmsEvent persistedEvent = m_eventDao.get(event.getDbid());
+                        if (persistedEvent == null) {
+                            // Skip it here rather than failing, which would roll back the whole batch
+                            LOG.warn("Event with id {} was deleted before we could retrieve it and create an alarm.", event.getDbid());
+                            continue;
+                        }
+                        alarms.set(i, addOrReduceEventAsAlarm(persistedEvent, event, notifications));
+                    }
+                    return null;
+                });
+            } catch (Exception e) {
+                LOG.warn("Exception while reducing {} events to alarms, reducing them one at a time", indices.size(), e);
+                notifications.clear();
+                Collections.fill(alarms, null);
+                for (final int i : indices) {
+                    final Event event = events.get(i);
+                    try {
+                        alarms.set(i, m_transactionOperations.execute((action) -> addOrReduceEventAsAlarm(event)));
+                    } catch (Exception ex) {
+                        LOG.warn("Exception while reducing event {} to alarm", event, ex);
+                    }
+                }
+            }
+            if (!notifications.isEmpty()) {
+                notifyCommitted(notifications);
+            }
+        } finally {
+            locks.forEach(Lock::unlock);
+        }
+        return alarms;
+    }
+
     private OnmsAlarm addOrReduceEventAsAlarm(Event event) throws IllegalStateException {
         
         final OnmsEvent persistedEvent = m_eventDao.get(event.getDbid());
         if (persistedEvent == null) {
             throw new IllegalStateException("Event with id " + event.getDbid() + " was deleted before we could retrieve it and create an alarm.");
         }
+        return addOrReduceEventAsAlarm(persistedEvent, event, null);
+    }
 
+    /**
+     * Issues the entity notifier callbacks of a committed batch in a new transaction, with the alarms
+     * as they were committed, so that the listeners can still load their associations.
+     */
+    private void notifyCommitted(List<DeferredNotification> notifications) {
+        try {
+            m_transactionOperations.execute((action) -> {
+                for (final DeferredNotification notification : notifications) {
+                    final OnmsAlarm alarm = m_alarmDao.get(notification.alarm.getId());
+                    if (alarm != null) {
+                        notification.callback.accept(m_alarmEntityNotifier, alarm);
+                    }
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            LOG.warn("Exception while notifying the listeners of {} reduced events", notifications.size(), e);
+        }
+    }
+
+    /**
+     * Issues the given entity notifier callback right away, or once the batch has been committed
+     * if <code>deferred</code> is set.
+     */
+    private void notifyOrDefer(List<DeferredNotification> deferred, OnmsAlarm alarm, BiConsumer<AlarmEntityNotifier, OnmsAlarm> callback) {
+        if (deferred != null) {
+            deferred.add(new DeferredNotification(alarm, callback));
+        } else {
+            callback.accept(m_alarmEntityNotifier, alarm);
+        }
+    }
+
+    private OnmsAlarm addOrReduceEventAsAlarm(OnmsEvent persistedEvent, Event event, List<DeferredNotification> deferredNotifications) {
         final String reductionKey = event.getAlarmData().getReductionKey();
         LOG.debug("addOrReduceEventAsAlarm: looking for existing reduction key: {}", reductionKey);
         
@@ -161,7 +274,7 @@ public class AlarmPersisterImpl implements AlarmPersister {
                 m_alarmDao.save(alarm);
                 m_alarmDao.flush();
 
-                m_alarmEntityNotifier.didArchiveAlarm(alarm, reductionKey);
+                notifyOrDefer(deferredNotifications, alarm, (notifier, archived) -> notifier.didArchiveAlarm(archived, reductionKey));
             }
 
             alarm = createNewAlarm(persistedEvent, event);
@@ -177,7 +290,7 @@ public class AlarmPersisterImpl implements AlarmPersister {
             m_alarmDao.save(alarm);
             m_eventDao.saveOrUpdate(persistedEvent);
 
-            m_alarmEntityNotifier.didCreateAlarm(alarm);
+            notifyOrDefer(deferredNotifications, alarm, AlarmEntityNotifier::didCreateAlarm);
         } else {
             LOG.debug("addOrReduceEventAsAlarm: reductionKey:{} found, reducing event to existing alarm: {}", reductionKey, alarm.getId());
             reduceEvent(persistedEvent, alarm, event);
@@ -197,7 +310,7 @@ public class AlarmPersisterImpl implements AlarmPersister {
                 m_eventDao.deletePreviousEventsForAlarm(alarm.getId(), persistedEvent);
             }
 
-            m_alarmEntityNotifier.didUpdateAlarmWithReducedEvent(alarm);
+            notifyOrDefer(deferredNotifications, alarm, AlarmEntityNotifier::didUpdateAlarmWithReducedEvent);
         }
         return alarm;
     }
@@ -421,6 +534,23 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return true;
     }
 
+    /**
+     * @return the index of the lock stripe guarding the given key
+     */
+    protected int getLockStripe(String key) {
+        final Lock lock = lockStripes.get(key);
+        for (int i = 0; i < lockStripes.size(); i++) {
+            if (lockStripes.getAt(i) == lock) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("No stripe found for key " + key);
+    }
+
+    protected int getNumLockStripes() {
+        return lockStripes.size();
+    }
+
     private static Collection<String> getLockKeys(Event event) {
         if (event.getAlarmData().getClearKey() == null) {
             return Collections.singletonList(event.getAlarmData().getReductionKey());
@@ -523,4 +653,14 @@ public class AlarmPersisterImpl implements AlarmPersister {
     public void setLegacyAlarmState(boolean legacyAlarmState) {
         m_legacyAlarmState = legacyAlarmState;
     }
+
+    private static class DeferredNotification {
+        private final OnmsAlarm alarm;
+        private final BiConsumer<AlarmEntityNotifier, OnmsAlarm> callback;
+
+        private DeferredNotification(OnmsAlarm alarm, BiConsumer<AlarmEntityNotifier, OnmsAlarm> callback) {
+            this.alarm = alarm;
+            this.callback = callback;
+        }
+    }
 }
@@ -0,0 +1,255 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.alarmd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.xml.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.jmx.JmxReporter;
+
+/**
+ * Reduces events to alarms on a fixed number of partitions, each of them served by a single thread.
+ *
+ * Events are assigned to the partition owning the lock stripe of their reduction key, or of their
+ * clear key for resolution events, so that the events of an alarm are always processed in the order
+ * in which they were submitted. Every worker takes the events waiting in its queue, up to the
+ * maximum batch size, and hands them to the {@link AlarmPersisterImpl} to be reduced in a single
+ * transaction.
+ */
+public class AlarmPersisterPipeline {
+    private static final Logger LOG = LoggerFactory.getLogger(AlarmPersisterPipeline.class);
+
+    private static final String JMX_DOMAIN = "org.opennms.netmgt.alarmd.pipeline";
+
+    private final AlarmPersisterImpl m_persister;
+    private final int m_maxBatchSize;
+    private final int[] m_partitionsByStripe;
+    private final List<Partition> m_partitions = new ArrayList<>();
+    private final MetricRegistry m_metrics = new MetricRegistry();
+
+    private JmxReporter m_metricsReporter;
+    private volatile boolean m_running = false;
+
+    /**
+     * Held while events are queued, so that the pipeline can not be stopped between the check
+     * whether it is running and the event being queued.
+     */
+    private final ReadWriteLock m_runningLock = new ReentrantReadWriteLock();
+
+    public AlarmPersisterPipeline(AlarmPersisterImpl persister, int numPartitions, int queueSize, int maxBatchSize) {
+        m_persister = Objects.requireNonNull(persister);
+        if (numPartitions < 1 || queueSize < 1 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("The number of partitions, the queue size and the batch size must be positive.");
+        }
+        m_maxBatchSize = maxBatchSize;
+
+        // Partitions can not share a stripe, use fewer if there aren't enough of them
+        final int numStripes = persister.getNumLockStripes();
+        if (numPartitions > numStripes) {
+            LOG.warn("Only {} of the {} partitions can be used with {} lock stripes.", numStripes, numPartitions, numStripes);
+        }
+        final int partitions = Math.min(numPartitions, numStripes);
+        m_partitionsByStripe = new int[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            m_partitionsByStripe[i] = i % partitions;
+        }
+
+        for (int i = 0; i < partitions; i++) {
+            final Partition partition = new Partition(i, queueSize);
+            m_metrics.register(MetricRegistry.name("partition", Integer.toString(i), "queue-depth"), (Gauge<Integer>) () -> partition.m_queue.size());
+            m_partitions.add(partition);
+        }
+    }
+
+    public synchronized void start() {
+        if (m_running) {
+            return;
+        }
+        m_running = true;
+        for (final Partition partition : m_partitions) {
+            partition.start();
+        }
+
+        m_metricsReporter = JmxReporter.forRegistry(m_metrics)
+                .inDomain(JMX_DOMAIN)
+                .build();
+        try {
+            m_metricsReporter.start();
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Failed to start metrics reporter. JMX metrics may not be available for the alarm persister pipeline.");
+        }
+    }
+
+    /**
+     * Stops the workers once the events which were already submitted have been processed.
+     */
+    public synchronized void stop() {
+        if (!m_running) {
+            return;
+        }
+        m_runningLock.writeLock().lock();
+        try {
+            m_running = false;
+        } finally {
+            m_runningLock.writeLock().unlock();
+        }
+        for (final Partition partition : m_partitions) {
+            partition.join();
+            // Reduce what the worker left behind, i.e. when it was interrupted
+            partition.drain();
+        }
+        if (m_metricsReporter != null) {
+            m_metricsReporter.close();
+            m_metricsReporter = null;
+        }
+    }
+
+    /**
+     * Queues the event for the partition of its alarm, blocking while the queue is full.
+     *
+     * Events submitted while the pipeline is not running are reduced on the calling thread.
+     */
+    public void submit(Event event) {
+        Objects.requireNonNull(event, "Cannot create alarm from null event.");
+        if (event.getAlarmData() == null) {
+            // Nothing to do
+            return;
+        }
+        final Partition partition = m_partitions.get(getPartition(event));
+        m_runningLock.readLock().lock();
+        try {
+            if (m_running) {
+                partition.m_queue.put(event);
+                return;
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while queuing event {}, it will not be reduced to an alarm.", event);
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            m_runningLock.readLock().unlock();
+        }
+        m_persister.persist(event);
+    }
+
+    protected int getPartition(Event event) {
+        return m_partitionsByStripe[m_persister.getLockStripe(getPartitionKey(event))];
+    }
+
+    public int getNumPartitions() {
+        return m_partitions.size();
+    }
+
+    public MetricRegistry getMetrics() {
+        return m_metrics;
+    }
+
+    /**
+     * Resolution events reduce to the alarm of their clear key, when they have one.
+     */
+    private static String getPartitionKey(Event event) {
+        final String clearKey = event.getAlarmData().getClearKey();
+        if (clearKey != null && Objects.equals(event.getAlarmData().getAlarmType(), OnmsAlarm.RESOLUTION_TYPE)) {
+            return clearKey;
+        }
+        return event.getAlarmData().getReductionKey();
+    }
+
+    private class Partition implements Runnable {
+        private final int m_index;
+        private final BlockingQueue<Event> m_queue;
+        private final Histogram m_batchSize;
+        private Thread m_thread;
+
+        private Partition(int index, int queueSize) {
+            m_index = index;
+            m_queue = new ArrayBlockingQueue<>(queueSize);
+            m_batchSize = m_metrics.histogram(MetricRegistry.name("partition", Integer.toString(index), "batch-size"));
+        }
+
+        private void start() {
+            m_thread = new Thread(this, "alarmd-pipeline-" + m_index);
+            m_thread.start();
+        }
+
+        private void join() {
+            try {
+                m_thread.join();
+            } catch (InterruptedException e) {
+                LOG.warn("Interrupted while waiting for partition {} to drain.", m_index);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void drain() {
+            final List<Event> batch = new ArrayList<>(m_maxBatchSize);
+            while (m_queue.drainTo(batch, m_maxBatchSize) > 0) {
+                LOG.info("Reducing {} events left in partition {}.", batch.size(), m_index);
+                persist(batch);
+            }
+        }
+
+        private void persist(List<Event> batch) {
+            m_batchSize.update(batch.size());
+            try {
+                m_persister.persist(batch);
+            } catch (Exception e) {
+                LOG.warn("Exception while reducing {} events to alarms", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+
+        @Override
+        public void run() {
+            final List<Event> batch = new ArrayList<>(m_maxBatchSize);
+            while (m_running || !m_queue.isEmpty()) {
+                try {
+                    final Event event = m_queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (event == null) {
+                        continue;
+                    }
+                    batch.add(event);
+                } catch (InterruptedException e) {
+                    LOG.warn("Partition {} was interrupted, {} events will be reduced once the pipeline is stopped.", m_index, m_queue.size());
+                    return;
+                }
+                m_queue.drainTo(batch, m_maxBatchSize - 1);
+                persist(batch);
+            }
+        }
+    }
+}
@@ -49,8 +49,19 @@ public class Alarmd extends AbstractServiceDaemon implements ThreadAwareEventLis
 
     protected static final Integer THREADS = SystemProperties.getInteger("org.opennms.alarmd.threads", 4);
 
+    /**
+     * Number of partitions used to reduce the events to alarms in batches, 0 to reduce them synchronously.
+     */
+    protected static final Integer PIPELINE_PARTITIONS = SystemProperties.getInteger("org.opennms.alarmd.pipeline.partitions", 0);
+
+    protected static final Integer PIPELINE_QUEUE_SIZE = SystemProperties.getInteger("org.opennms.alarmd.pipeline.queue.size", 10000);
+
+    protected static final Integer PIPELINE_BATCH_SIZE = SystemProperties.getInteger("org.opennms.alarmd.pipeline.batch.size", 100);
+
     private AlarmPersister m_persister;
 
+    private volatile AlarmPersisterPipeline m_pipeline;
+
     @Autowired
     private AlarmLifecycleListenerManager m_alm;
 
@@ -77,7 +88,12 @@ public class Alarmd extends AbstractServiceDaemon implements ThreadAwareEventLis
            handleReloadEvent(e);
            return;
     	}
-    	m_persister.persist(Event.copyFrom(e));
+    	final AlarmPersisterPipeline pipeline = m_pipeline;
+    	if (pipeline != null) {
+    	    pipeline.submit(Event.copyFrom(e));
+    	} else {
+    	    m_persister.persist(Event.copyFrom(e));
+    	}
     }
 
     private synchronized void handleReloadEvent(IEvent e) {
@@ -116,10 +132,28 @@ public class Alarmd extends AbstractServiceDaemon implements ThreadAwareEventLis
     public synchronized void onStart() {
         // Start the Drools context
         m_droolsAlarmContext.start();
+
+        // Start the pipeline, if enabled
+        if (PIPELINE_PARTITIONS > 0) {
+            if (m_persister instanceof AlarmPersisterImpl) {
+                final AlarmPersisterPipeline pipeline = new AlarmPersisterPipeline((AlarmPersisterImpl)m_persister,
+                        PIPELINE_PARTITIONS, PIPELINE_QUEUE_SIZE, PIPELINE_BATCH_SIZE);
+                pipeline.start();
+                m_pipeline = pipeline;
+            } else {
+                LOG.warn("The pipeline is not supported by {}, events will be reduced synchronously.", m_persister);
+            }
+        }
     }
 
     @Override
     public synchronized void onStop() {
+        // Drain the pipeline
+        if (m_pipeline != null) {
+            final AlarmPersisterPipeline pipeline = m_pipeline;
+            m_pipeline = null;
+            pipeline.stop();
+        }
         // Stop the northbound interfaces
         m_northbounderManager.stop();
         // Stop the Drools context
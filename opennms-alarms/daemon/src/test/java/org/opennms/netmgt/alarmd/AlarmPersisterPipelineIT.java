@@ -0,0 +1,346 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.alarmd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.sysprops.SystemProperties;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.db.MockDatabase;
+import org.opennms.core.test.db.TemporaryDatabaseAware;
+import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.netmgt.alarmd.api.AlarmPersisterExtension;
+import org.opennms.netmgt.dao.api.AlarmDao;
+import org.opennms.netmgt.dao.api.DefaultAlarmEntityListener;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.dao.api.MonitoringLocationDao;
+import org.opennms.netmgt.dao.api.NodeDao;
+import org.opennms.netmgt.dao.support.AlarmEntityNotifierImpl;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.AlarmData;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.test.JUnitConfigurationEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+
+import com.codahale.metrics.Histogram;
+import com.google.common.util.concurrent.RateLimiter;
+
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations={
+        "classpath:/META-INF/opennms/applicationContext-soa.xml",
+        "classpath:/META-INF/opennms/applicationContext-commonConfigs.xml",
+        "classpath:/META-INF/opennms/applicationContext-minimal-conf.xml",
+        "classpath:/META-INF/opennms/applicationContext-dao.xml",
+        "classpath:/META-INF/opennms/applicationContext-mockConfigManager.xml",
+        "classpath*:/META-INF/opennms/component-dao.xml",
+        "classpath:/META-INF/opennms/applicationContext-daemon.xml",
+        "classpath:/META-INF/opennms/mockEventIpcManager.xml",
+        "classpath:/META-INF/opennms/applicationContext-alarmd.xml"
+})
+@JUnitConfigurationEnvironment
+@JUnitTemporaryDatabase(tempDbClass=MockDatabase.class,reuseDatabase=false)
+public class AlarmPersisterPipelineIT implements TemporaryDatabaseAware<MockDatabase> {
+    private static final Logger LOG = LoggerFactory.getLogger(AlarmPersisterPipelineIT.class);
+
+    @Autowired
+    private Alarmd m_alarmd;
+
+    @Autowired
+    private MonitoringLocationDao m_locationDao;
+
+    @Autowired
+    private NodeDao m_nodeDao;
+
+    @Autowired
+    private AlarmDao m_alarmDao;
+
+    @Autowired
+    private AlarmPersisterImpl m_alarmPersister;
+
+    @Autowired
+    private DistPollerDao m_distPollerDao;
+
+    @Autowired
+    private AlarmEntityNotifierImpl m_alarmEntityNotifier;
+
+    private MockDatabase m_database;
+
+    @Before
+    public void setUp() {
+        // Events need database IDs to make alarmd happy
+        m_database.setDistPoller(m_distPollerDao.whoami().getId());
+
+        // Events need to real nodes too
+        final OnmsNode node = new OnmsNode(m_locationDao.getDefaultLocation(), "node1");
+        node.setId(1);
+        m_nodeDao.save(node);
+
+        m_alarmd.start();
+    }
+
+    @After
+    public void tearDown() {
+        m_alarmd.destroy();
+    }
+
+    @Test
+    public void canReduceEventsInOrder() {
+        final int numKeys = 10;
+        final int numTriggers = 20;
+
+        final List<Event> events = new ArrayList<>();
+        for (int i = 0; i < numTriggers; i++) {
+            for (int key = 0; key < numKeys; key++) {
+                events.add(createEvent(key, false));
+            }
+        }
+        for (int key = 0; key < numKeys; key++) {
+            events.add(createEvent(key, true));
+        }
+
+        final AlarmPersisterPipeline pipeline = new AlarmPersisterPipeline(m_alarmPersister, 4, 1000, 10);
+        pipeline.start();
+        events.forEach(pipeline::submit);
+        pipeline.stop();
+
+        for (int key = 0; key < numKeys; key++) {
+            final OnmsAlarm alarm = m_alarmDao.findByReductionKey(getReductionKey(key));
+            assertEquals(Integer.valueOf(numTriggers), alarm.getCounter());
+            assertEquals(OnmsSeverity.CLEARED, alarm.getSeverity());
+        }
+    }
+
+    @Test
+    public void canIssueExtensionCallbacksInBatches() {
+        final List<String> callbacks = new ArrayList<>();
+        final AlarmPersisterExtension extension = new AlarmPersisterExtension() {
+            @Override
+            public void afterAlarmCreated(OnmsAlarm alarm, Event event, OnmsEvent dbEvent) {
+                callbacks.add("create " + alarm.getReductionKey());
+                alarm.setManagedObjectType("create");
+            }
+
+            @Override
+            public void afterAlarmUpdated(OnmsAlarm alarm, Event event, OnmsEvent dbEvent) {
+                callbacks.add("update " + alarm.getReductionKey());
+                alarm.setManagedObjectType("update");
+            }
+        };
+        m_alarmPersister.onExtensionRegistered(extension, Collections.emptyMap());
+        try {
+            m_alarmPersister.persist(Arrays.asList(createEvent(0, false), createEvent(1, false), createEvent(0, false)));
+        } finally {
+            m_alarmPersister.onExtensionUnregistered(extension, Collections.emptyMap());
+        }
+
+        assertEquals(Arrays.asList("create " + getReductionKey(0), "create " + getReductionKey(1), "update " + getReductionKey(0)), callbacks);
+        // The changes made by the extensions are persisted
+        assertEquals("update", m_alarmDao.findByReductionKey(getReductionKey(0)).getManagedObjectType());
+        assertEquals("create", m_alarmDao.findByReductionKey(getReductionKey(1)).getManagedObjectType());
+    }
+
+    @Test
+    public void shouldOnlyNotifyCommittedAlarmsWhenBatchFails() {
+        final int badKey = 2;
+        // Alarms without an UEI can not be saved, which fails the batch and then the event on its own
+        final AlarmPersisterExtension extension = new AlarmPersisterExtension() {
+            @Override
+            public void afterAlarmCreated(OnmsAlarm alarm, Event event, OnmsEvent dbEvent) {
+                if (getReductionKey(badKey).equals(alarm.getReductionKey())) {
+                    alarm.setUei(null);
+                }
+            }
+
+            @Override
+            public void afterAlarmUpdated(OnmsAlarm alarm, Event event, OnmsEvent dbEvent) {
+                // pass
+            }
+        };
+        final List<Integer> createdAlarmIds = new ArrayList<>();
+        final DefaultAlarmEntityListener listener = new DefaultAlarmEntityListener() {
+            @Override
+            public void onAlarmCreated(OnmsAlarm alarm) {
+                createdAlarmIds.add(alarm.getId());
+            }
+        };
+
+        final List<Event> events = new ArrayList<>();
+        for (int key = 0; key < 5; key++) {
+            events.add(createEvent(key, false));
+        }
+        final List<OnmsAlarm> alarms;
+        m_alarmPersister.onExtensionRegistered(extension, Collections.emptyMap());
+        m_alarmEntityNotifier.onListenerRegistered(listener, Collections.emptyMap());
+        try {
+            alarms = m_alarmPersister.persist(events);
+        } finally {
+            m_alarmEntityNotifier.onListenerUnregistered(listener, Collections.emptyMap());
+            m_alarmPersister.onExtensionUnregistered(extension, Collections.emptyMap());
+        }
+
+        for (int key = 0; key < 5; key++) {
+            if (key == badKey) {
+                assertNull(alarms.get(key));
+                assertNull(m_alarmDao.findByReductionKey(getReductionKey(key)));
+            } else {
+                assertNotNull(alarms.get(key));
+            }
+        }
+        // Every committed alarm was announced once, with the id it was committed with
+        assertEquals(4, m_alarmDao.countAll());
+        assertEquals(m_alarmDao.findAll().stream().map(OnmsAlarm::getId).sorted().collect(Collectors.toList()),
+                createdAlarmIds.stream().sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void shouldReduceEventsSubmittedWhileStopping() throws Exception {
+        final int numEvents = 500;
+        final int numKeys = 10;
+        final List<Event> events = new ArrayList<>(numEvents);
+        for (int i = 0; i < numEvents; i++) {
+            events.add(createEvent(i % numKeys, false));
+        }
+
+        final AlarmPersisterPipeline pipeline = new AlarmPersisterPipeline(m_alarmPersister, 4, 10, 5);
+        pipeline.start();
+        final CountDownLatch submitting = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<?> submitter = executor.submit(() -> {
+                for (int i = 0; i < numEvents; i++) {
+                    if (i == numEvents / 10) {
+                        submitting.countDown();
+                    }
+                    pipeline.submit(events.get(i));
+                }
+            });
+            submitting.await(1, TimeUnit.MINUTES);
+            pipeline.stop();
+            submitter.get(1, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Events submitted once the pipeline was stopped are reduced right away
+        pipeline.submit(createEvent(0, false));
+
+        assertEquals(numKeys, m_alarmDao.countAll());
+        assertEquals(numEvents + 1, m_alarmDao.findAll().stream().mapToInt(OnmsAlarm::getCounter).sum());
+    }
+
+    /**
+     * Drives the pipeline at the given rate, 20k events per second by default.
+     */
+    @Test
+    public void canKeepUpWithHighEventRates() {
+        final int rate = SystemProperties.getInteger("org.opennms.alarmd.pipeline.benchmark.rate", 20000);
+        final int numEvents = SystemProperties.getInteger("org.opennms.alarmd.pipeline.benchmark.events", rate);
+        final int numKeys = 1000;
+
+        // Write the events beforehand, eventd would have done so already
+        final List<Event> events = new ArrayList<>(numEvents);
+        for (int i = 0; i < numEvents; i++) {
+            events.add(createEvent(i % numKeys, false));
+        }
+
+        final AlarmPersisterPipeline pipeline = new AlarmPersisterPipeline(m_alarmPersister, Alarmd.THREADS, 10000, 100);
+        pipeline.start();
+        final RateLimiter rateLimiter = RateLimiter.create(rate);
+        final long start = System.nanoTime();
+        for (final Event event : events) {
+            rateLimiter.acquire();
+            pipeline.submit(event);
+        }
+        pipeline.stop();
+        final long elapsed = System.nanoTime() - start;
+
+        LOG.info("Reduced {} events in {} ms, {} events per second.", numEvents, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                numEvents * TimeUnit.SECONDS.toNanos(1) / elapsed);
+        for (int i = 0; i < pipeline.getNumPartitions(); i++) {
+            final Histogram batchSize = pipeline.getMetrics().histogram("partition." + i + ".batch-size");
+            LOG.info("Partition {}: {} batches, mean batch size {}", i, batchSize.getCount(), batchSize.getSnapshot().getMean());
+        }
+
+        assertEquals(Math.min(numKeys, numEvents), m_alarmDao.countAll());
+        assertEquals(numEvents, m_alarmDao.findAll().stream().mapToInt(OnmsAlarm::getCounter).sum());
+    }
+
+    private Event createEvent(int key, boolean clear) {
+        final EventBuilder builder = new EventBuilder(clear ? EventConstants.NODE_UP_EVENT_UEI : EventConstants.NODE_DOWN_EVENT_UEI, "test");
+        builder.setTime(new Date());
+        builder.setNodeid(1);
+        builder.setSeverity(clear ? OnmsSeverity.NORMAL.getLabel() : OnmsSeverity.MAJOR.getLabel());
+
+        final AlarmData data = new AlarmData();
+        if (clear) {
+            data.setAlarmType(OnmsAlarm.RESOLUTION_TYPE);
+            data.setReductionKey(String.format("%s:%d", EventConstants.NODE_UP_EVENT_UEI, key));
+            data.setClearKey(getReductionKey(key));
+        } else {
+            data.setAlarmType(OnmsAlarm.PROBLEM_TYPE);
+            data.setReductionKey(getReductionKey(key));
+        }
+        builder.setAlarmData(data);
+
+        builder.setLogDest("logndisplay");
+        builder.setLogMessage("testing");
+
+        final Event event = builder.getEvent();
+        m_database.writeEvent(event);
+        return event;
+    }
+
+    private static String getReductionKey(int key) {
+        return String.format("%s:%d", EventConstants.NODE_DOWN_EVENT_UEI, key);
+    }
+
+    @Override
+    public void setTemporaryDatabase(final MockDatabase database) {
+        m_database = database;
+    }
+}
@@ -67,6 +67,17 @@ public interface FilterDao {
 
     void flushActiveIpAddressListCache();
 
+    /**
+     * Signals that the given node, its interfaces, services or categories changed.
+     *
+     * Implementations which evaluate the rules against a copy of the inventory must
+     * no longer use it for this node. The others can ignore it.
+     *
+     * @param nodeId the ID of the node that changed
+     */
+    default void flushNode(int nodeId) {
+    }
+
     /**
      * Get the (non-deleted) IP addresses that match the specified rule.
      *
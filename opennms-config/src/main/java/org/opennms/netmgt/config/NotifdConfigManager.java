@@ -26,6 +26,9 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 import org.opennms.core.xml.JaxbUtils;
 import org.opennms.netmgt.config.notifd.AutoAcknowledge;
@@ -49,6 +52,13 @@ import org.slf4j.LoggerFactory;
 public abstract class NotifdConfigManager {
     private static final Logger LOG = LoggerFactory.getLogger(NotifdConfigManager.class);
 
+    /**
+     * Maximum number of compiled varbind value patterns kept around.
+     */
+    private static final int MAX_VARBIND_PATTERNS = 1000;
+
+    private final Map<String, Pattern> m_varbindPatterns = new ConcurrentHashMap<>();
+
     /**
      * 
      */
@@ -197,7 +207,7 @@ public abstract class NotifdConfigManager {
 
                 // regular expression should start with a '~'
                 if (notfValue.charAt(0) == '~') {
-                   if (parmContent.matches(notfValue.substring(1))) {
+                   if (getVarbindPattern(notfValue).matcher(parmContent).matches()) {
                        parmmatch = true;
                    }
                 } else {
@@ -213,6 +223,17 @@ public abstract class NotifdConfigManager {
         return parmmatch;
     }
 
+    private Pattern getVarbindPattern(final String notfValue) {
+        Pattern pattern = m_varbindPatterns.get(notfValue);
+        if (pattern == null) {
+            pattern = Pattern.compile(notfValue.substring(1));
+            if (m_varbindPatterns.size() < MAX_VARBIND_PATTERNS) {
+                m_varbindPatterns.put(notfValue, pattern);
+            }
+        }
+        return pattern;
+    }
+
     /**
      * <p>getNextUserNotifIdSql</p>
      *
@@ -0,0 +1,176 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.opennms.netmgt.config.notifications.Notification;
+import org.opennms.netmgt.config.notifications.Notifications;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the configured notifications by UEI, built whenever the notifications are loaded
+ * or saved.
+ *
+ * Notifications with an exact UEI are kept in a hash, the regular expressions and the severity
+ * patterns are compiled once, and the notifications matching a given UEI are cached. The
+ * candidates are always returned in configuration order, so that the first-match mode of
+ * {@link NotificationManager#getNotifForEvent(org.opennms.netmgt.xml.event.Event)} keeps
+ * returning the same notification.
+ */
+final class NotificationIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationIndex.class);
+
+    static final String MATCH_ANY_UEI = "MATCH-ANY-UEI";
+
+    /**
+     * Maximum number of UEIs for which the candidates are cached.
+     */
+    private static final int MAX_CACHED_UEIS = 10000;
+
+    static final class Entry {
+        private final int m_position;
+        private final Notification m_notification;
+        private final Pattern m_ueiPattern;
+        private final Pattern m_severityPattern;
+
+        private Entry(final int position, final Notification notification, final Pattern ueiPattern, final Pattern severityPattern) {
+            m_position = position;
+            m_notification = notification;
+            m_ueiPattern = ueiPattern;
+            m_severityPattern = severityPattern;
+        }
+
+        Notification getNotification() {
+            return m_notification;
+        }
+
+        /**
+         * @return true if the notification has no severity pattern or if it matches the severity
+         */
+        boolean matchesSeverity(final String severity) {
+            return m_severityPattern == null || m_severityPattern.matcher(severity.toLowerCase()).matches();
+        }
+    }
+
+    private final Notifications m_source;
+    private final int m_size;
+    private final Map<String, List<Entry>> m_exactEntries = new HashMap<>();
+    private final List<Entry> m_matchAnyEntries = new ArrayList<>();
+    private final List<Entry> m_regexEntries = new ArrayList<>();
+    private final Map<String, List<Entry>> m_candidates = new ConcurrentHashMap<>();
+
+    NotificationIndex(final Notifications notifications) {
+        m_source = notifications;
+        final List<Notification> notificationList = notifications.getNotifications();
+        m_size = notificationList.size();
+
+        for (int i = 0; i < notificationList.size(); i++) {
+            final Notification notification = notificationList.get(i);
+            final String uei = notification.getUei();
+            if (uei == null || uei.isEmpty()) {
+                continue;
+            }
+
+            Pattern ueiPattern = null;
+            if (uei.charAt(0) == '~') {
+                try {
+                    ueiPattern = Pattern.compile(uei.substring(1));
+                } catch (final PatternSyntaxException e) {
+                    LOG.error("Invalid regular expression {} in UEI of notification {}, it will only match the exact UEI.", uei, notification.getName(), e);
+                }
+            }
+
+            Pattern severityPattern = null;
+            if (notification.getEventSeverity().isPresent()) {
+                try {
+                    severityPattern = Pattern.compile(notification.getEventSeverity().get().toLowerCase());
+                } catch (final PatternSyntaxException e) {
+                    LOG.error("Invalid event severity {} in notification {}, it will never match.", notification.getEventSeverity().get(), notification.getName(), e);
+                    severityPattern = Pattern.compile("(?!)");
+                }
+            }
+
+            final Entry entry = new Entry(i, notification, ueiPattern, severityPattern);
+            if (MATCH_ANY_UEI.equals(uei)) {
+                m_matchAnyEntries.add(entry);
+            } else {
+                m_exactEntries.computeIfAbsent(uei, k -> new ArrayList<>(1)).add(entry);
+                if (ueiPattern != null) {
+                    m_regexEntries.add(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the index was built from the given notifications and none were added or removed since
+     */
+    boolean isBuiltFrom(final Notifications notifications) {
+        return m_source == notifications && m_size == notifications.getNotifications().size();
+    }
+
+    /**
+     * Returns the notifications whose UEI matches the given UEI, either exactly, by regular
+     * expression or because they match any UEI, in configuration order.
+     */
+    List<Entry> getCandidates(final String uei) {
+        List<Entry> candidates = m_candidates.get(uei);
+        if (candidates == null) {
+            candidates = findCandidates(uei);
+            if (m_candidates.size() < MAX_CACHED_UEIS) {
+                m_candidates.put(uei, candidates);
+            }
+        }
+        return candidates;
+    }
+
+    private List<Entry> findCandidates(final String uei) {
+        final List<Entry> exactEntries = m_exactEntries.get(uei);
+        final List<Entry> candidates = new ArrayList<>();
+        if (exactEntries != null) {
+            candidates.addAll(exactEntries);
+        }
+        candidates.addAll(m_matchAnyEntries);
+        for (final Entry entry : m_regexEntries) {
+            if (exactEntries != null && exactEntries.contains(entry)) {
+                continue;
+            }
+            if (entry.m_ueiPattern.matcher(uei).matches()) {
+                candidates.add(entry);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return Collections.emptyList();
+        }
+        candidates.sort((a, b) -> Integer.compare(a.m_position, b.m_position));
+        return Collections.unmodifiableList(candidates);
+    }
+}
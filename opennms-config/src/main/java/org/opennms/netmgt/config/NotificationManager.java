@@ -43,6 +43,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
 import javax.sql.DataSource;
 
@@ -66,6 +67,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+
 /**
  * <p>Abstract NotificationManager class.</p>
  *
@@ -79,11 +84,52 @@ public abstract class NotificationManager {
 
     private static final EventDatetimeFormatter FORMATTER = EventConstants.getEventDatetimeFormatter();
 
+    /**
+     * Number of milliseconds for which the result of a notification filter rule evaluated against the
+     * node, interface and service of an event is cached. Caching is disabled when set to 0.
+     */
+    public static final String RULE_MATCH_CACHE_MAX_AGE_KEY = "org.opennms.netmgt.notifd.ruleMatchCache.maxAge";
+
+    /**
+     * Maximum number of cached filter rule results.
+     */
+    private static final long RULE_MATCH_CACHE_MAX_SIZE = 10000;
+
+    /**
+     * Events after which the cached filter rule results may no longer be valid.
+     */
+    private static final Set<String> RULE_MATCH_CACHE_INVALIDATING_UEIS = ImmutableSet.of(
+            EventConstants.NODE_ADDED_EVENT_UEI,
+            EventConstants.NODE_UPDATED_EVENT_UEI,
+            EventConstants.NODE_DELETED_EVENT_UEI,
+            EventConstants.NODE_LABEL_CHANGED_EVENT_UEI,
+            EventConstants.NODE_INFO_CHANGED_EVENT_UEI,
+            EventConstants.NODE_LOCATION_CHANGED_EVENT_UEI,
+            EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI,
+            EventConstants.NODE_GAINED_INTERFACE_EVENT_UEI,
+            EventConstants.NODE_GAINED_SERVICE_EVENT_UEI,
+            EventConstants.INTERFACE_DELETED_EVENT_UEI,
+            EventConstants.INTERFACE_REPARENTED_EVENT_UEI,
+            EventConstants.REINITIALIZE_PRIMARY_SNMP_INTERFACE_EVENT_UEI,
+            EventConstants.SERVICE_DELETED_EVENT_UEI,
+            EventConstants.SERVICE_UNMANAGED_EVENT_UEI,
+            EventConstants.ASSET_INFO_CHANGED_EVENT_UEI);
+
     /**
      * Object containing all Notification objects parsed from the xml file
      */
     public Notifications m_notifications;
 
+    /**
+     * Index of the notifications by UEI, rebuilt whenever the notifications are loaded or saved
+     */
+    private volatile NotificationIndex m_index;
+
+    /**
+     * Results of the filter rules evaluated for events, null when caching is disabled
+     */
+    private final Cache<String, Boolean> m_ruleMatchCache = createRuleMatchCache();
+
     /**
      * Counters for exposure via JMX
      */
@@ -187,6 +233,7 @@ public abstract class NotificationManager {
     public synchronized void parseXML(final Reader reader) {
         m_notifications = JaxbUtils.unmarshal(Notifications.class, reader, true);
         oldHeader = m_notifications.getHeader();
+        rebuildIndex();
     }
 
     /**
@@ -200,6 +247,32 @@ public abstract class NotificationManager {
             m_notifications = JaxbUtils.unmarshal(Notifications.class, reader, true);
         }
         oldHeader = m_notifications.getHeader();
+        rebuildIndex();
+    }
+
+    private void rebuildIndex() {
+        m_index = new NotificationIndex(m_notifications);
+        if (m_ruleMatchCache != null) {
+            m_ruleMatchCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Returns the index of the current notifications, rebuilding it if notifications
+     * were added or removed without going through {@link #saveCurrent()}.
+     */
+    private NotificationIndex getIndex() {
+        NotificationIndex index = m_index;
+        if (index == null || !index.isBuiltFrom(m_notifications)) {
+            synchronized (this) {
+                index = m_index;
+                if (index == null || !index.isBuiltFrom(m_notifications)) {
+                    rebuildIndex();
+                    index = m_index;
+                }
+            }
+        }
+        return index;
     }
 
     /**
@@ -212,18 +285,7 @@ public abstract class NotificationManager {
     public boolean hasUei(final String uei) throws IOException {
         update();
 
-        for (Notification notif : m_notifications.getNotifications()) {
-            if (uei.equals(notif.getUei()) || "MATCH-ANY-UEI".equals(notif.getUei())) {
-                return true;
-            } else if (notif.getUei().charAt(0) == '~') {
-                if (uei.matches(notif.getUei().substring(1))) {
-                    return true;
-                }
-
-            }
-        }
-
-        return false;
+        return !getIndex().getCandidates(uei).isEmpty();
     }
 
     /**
@@ -249,27 +311,11 @@ public abstract class NotificationManager {
             return null;
         }
 
-        for (Notification curNotif : m_notifications.getNotifications()) {
-
-            LOG.trace("Checking notification {} against event {} with UEI {}", curNotif.getUei(), event.getDbid(), event.getUei());
+        // Only the notifications matching the UEI of the event, in configuration order
+        for (NotificationIndex.Entry entry : getIndex().getCandidates(event.getUei())) {
+            final Notification curNotif = entry.getNotification();
 
-            if (event.getUei().equals(curNotif.getUei()) || "MATCH-ANY-UEI".equals(curNotif.getUei())) {
-                // Match!
-            	LOG.debug("Exact match using notification UEI {} for event UEI: {}", curNotif.getUei(), event.getUei());
-            } else if (curNotif.getUei().charAt(0) == '~') {
-                if (event.getUei().matches(curNotif.getUei().substring(1))) {
-                	//Match!
-                    LOG.debug("Regex hit using notification UEI {} for event UEI: {}", curNotif.getUei(), event.getUei());
-                } else {
-
-                    LOG.trace("Notification regex {} failed to match event UEI: {}", event.getUei(), curNotif.getUei());
-                    continue;
-                }
-            } else {
-
-                LOG.debug("Notification UEI {} did not match UEI of event {}: {}", curNotif.getUei(), event.getDbid(), event.getUei());
-                continue;
-            }
+            LOG.debug("Notification UEI {} matches event {} with UEI {}", curNotif.getUei(), event.getDbid(), event.getUei());
 
             /**
              * Check if event severity matches pattern in notification
@@ -279,7 +325,7 @@ public abstract class NotificationManager {
             // parameter is optional, return true if not set
             if (!curNotif.getEventSeverity().isPresent()) {
                 // Skip matching on severity
-            } else if (event.getSeverity().toLowerCase().matches(curNotif.getEventSeverity().get().toLowerCase())) {
+            } else if (entry.matchesSeverity(event.getSeverity())) {
                 // Severities match
             } else {
 
@@ -388,14 +434,56 @@ public abstract class NotificationManager {
     }
 
     private boolean isRuleMatchingFilter(final Notification notif, final String rule) {
+        if (m_ruleMatchCache != null) {
+            final Boolean cached = m_ruleMatchCache.getIfPresent(rule);
+            if (cached != null) {
+                return cached;
+            }
+        }
         try {
-            return FilterDaoFactory.getInstance().isRuleMatching(rule);
+            final boolean matching = FilterDaoFactory.getInstance().isRuleMatching(rule);
+            if (m_ruleMatchCache != null) {
+                m_ruleMatchCache.put(rule, matching);
+            }
+            return matching;
         } catch (FilterParseException e) {
             LOG.error("Invalid filter rule for notification {}: {}", notif.getName(), notif.getRule().getContent(), e);
             throw e;
         }
     }
 
+    private static Cache<String, Boolean> createRuleMatchCache() {
+        final long maxAge = Long.getLong(RULE_MATCH_CACHE_MAX_AGE_KEY, 0L);
+        if (maxAge <= 0) {
+            return null;
+        }
+        return CacheBuilder.newBuilder()
+                .maximumSize(RULE_MATCH_CACHE_MAX_SIZE)
+                .expireAfterWrite(maxAge, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Drops the cached filter rule results if the given event may change the nodes,
+     * interfaces, services, categories or assets the notification rules are evaluated against.
+     *
+     * The node of the event is flushed from the filter DAO as well, before the notifications
+     * for the event itself are matched.
+     *
+     * @param event the received event
+     */
+    public void invalidateRuleMatchCache(final Event event) {
+        if (event.getUei() == null || !RULE_MATCH_CACHE_INVALIDATING_UEIS.contains(event.getUei())) {
+            return;
+        }
+        if (m_ruleMatchCache != null) {
+            m_ruleMatchCache.invalidateAll();
+        }
+        if (event.hasNodeid() && event.getNodeid() > 0) {
+            FilterDaoFactory.getInstance().flushNode(event.getNodeid().intValue());
+        }
+    }
+
     /**
      * @return
      * @throws SQLException
@@ -1124,6 +1212,7 @@ public abstract class NotificationManager {
         saveXML(xmlString);
 
         update();
+        rebuildIndex();
     }
 
     /**
@@ -0,0 +1,866 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+
+import org.opennms.netmgt.config.filter.Table;
+import org.opennms.netmgt.filter.FilterSnapshot.Interface;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A filter rule evaluated against a {@link FilterSnapshot} instead of the database.
+ *
+ * Rules are compiled from the WHERE clause generated by {@link JdbcFilterDao}, so the
+ * filter syntax is handled in a single place. Only a subset of the generated SQL is
+ * supported: comparisons, LIKE and IS NULL on the node, interface and service columns
+ * kept in the snapshot, IPv4 IPLIKE expressions, "catinc" expressions, and any
+ * combination of those using AND, OR, NOT and parentheses. NULL values are handled
+ * using the three-valued logic of SQL. {@link #compile(String, List)} returns
+ * {@code null} for any other rule, and the evaluation methods return {@code null}
+ * when the result can not be determined from the snapshot; the caller is expected
+ * to query the database in both cases. This includes the rules which depend on nodes
+ * that changed since the snapshot was taken.
+ */
+final class CompiledFilterRule {
+
+    private static final Set<String> TABLES = ImmutableSet.of("node", "ipInterface", "ifServices", "service");
+
+    private static final Pattern IPV4_IPLIKE_PATTERN = Pattern.compile("^[0-9*,-]+\\.[0-9*,-]+\\.[0-9*,-]+\\.[0-9*,-]+$");
+    private static final Pattern OCTET_PATTERN = Pattern.compile("[0-9]{1,3}");
+    private static final Pattern OCTET_RANGE_PATTERN = Pattern.compile("[0-9]{1,3}-[0-9]{1,3}");
+    private static final Pattern INTEGER_PATTERN = Pattern.compile("[0-9]{1,9}");
+
+    /**
+     * Sub-select generated for "catinc" expressions, the category name is the only string literal.
+     */
+    private static final List<Token> CATINC_TOKENS = tokenize("(SELECT category_node.nodeID FROM category_node, categories WHERE categories.categoryID = category_node.categoryID AND categories.categoryName = '')");
+
+    private enum Column {
+        NODE_ID,
+        NODE_LABEL,
+        NODE_SYS_OID,
+        NODE_SYS_NAME,
+        FOREIGN_SOURCE,
+        FOREIGN_ID,
+        LOCATION,
+        IP_ADDR,
+        IP_HOSTNAME,
+        SERVICE_NAME;
+
+        private String getText(final Interface iface, final String service) {
+            switch (this) {
+                case NODE_LABEL: return iface.node.label;
+                case NODE_SYS_OID: return iface.node.sysOid;
+                case NODE_SYS_NAME: return iface.node.sysName;
+                case FOREIGN_SOURCE: return iface.node.foreignSource;
+                case FOREIGN_ID: return iface.node.foreignId;
+                case LOCATION: return iface.node.location;
+                case IP_ADDR: return iface.ipAddr;
+                case IP_HOSTNAME: return iface.ipHostname;
+                case SERVICE_NAME: return service;
+                default: throw new IllegalStateException("Not a text column: " + this);
+            }
+        }
+    }
+
+    private static final Map<String, Column> COLUMNS = ImmutableMap.<String, Column>builder()
+            .put("node.nodeid", Column.NODE_ID)
+            .put("node.nodelabel", Column.NODE_LABEL)
+            .put("node.nodesysoid", Column.NODE_SYS_OID)
+            .put("node.nodesysname", Column.NODE_SYS_NAME)
+            .put("node.foreignsource", Column.FOREIGN_SOURCE)
+            .put("node.foreignid", Column.FOREIGN_ID)
+            .put("node.location", Column.LOCATION)
+            .put("ipinterface.ipaddr", Column.IP_ADDR)
+            .put("ipinterface.iphostname", Column.IP_HOSTNAME)
+            .put("service.servicename", Column.SERVICE_NAME)
+            .build();
+
+    /**
+     * Evaluates a condition for a single row, {@code null} stands for the SQL NULL value.
+     */
+    @FunctionalInterface
+    private interface Condition {
+        Boolean evaluate(Interface iface, String service);
+    }
+
+    /**
+     * One of the conditions combined with OR at the top level of the rule.
+     */
+    private static class Disjunct {
+        private final Condition condition;
+        /**
+         * Address or node the condition is restricted to, if any.
+         */
+        private final String ipAddr;
+        private final Integer nodeId;
+
+        private Disjunct(final Condition condition, final String ipAddr, final Integer nodeId) {
+            this.condition = condition;
+            this.ipAddr = ipAddr;
+            this.nodeId = nodeId;
+        }
+    }
+
+    /**
+     * Results of the disjuncts which require a full scan of the snapshot.
+     */
+    private static class Memo {
+        private final FilterSnapshot snapshot;
+        private final AtomicReferenceArray<Boolean> results;
+
+        private Memo(final FilterSnapshot snapshot, final int size) {
+            this.snapshot = snapshot;
+            this.results = new AtomicReferenceArray<>(size);
+        }
+    }
+
+    private static class UnsupportedEvaluationException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private UnsupportedEvaluationException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final List<Disjunct> m_disjuncts;
+    private final boolean m_services;
+    private final boolean m_managedReferenced;
+    private volatile Memo m_memo;
+
+    private CompiledFilterRule(final List<Disjunct> disjuncts, final boolean services, final boolean managedReferenced) {
+        m_disjuncts = disjuncts;
+        m_services = services;
+        m_managedReferenced = managedReferenced;
+    }
+
+    /**
+     * Compiles the WHERE clause generated for a filter rule.
+     *
+     * @param where the WHERE clause
+     * @param tables the tables referenced by the SELECT statement
+     * @return the compiled rule, or {@code null} if the rule must be evaluated by the database
+     */
+    static CompiledFilterRule compile(final String where, final List<Table> tables) {
+        if (where == null || !where.startsWith("WHERE ")) {
+            return null;
+        }
+        boolean services = false;
+        for (final Table table : tables) {
+            if (!TABLES.contains(table.getName())) {
+                return null;
+            }
+            services |= "service".equals(table.getName()) || "ifServices".equals(table.getName());
+        }
+
+        final List<Token> tokens = tokenize(where.substring(6));
+        if (tokens == null) {
+            return null;
+        }
+        final Parser parser = new Parser(tokens);
+        final List<Condition> disjuncts = parser.parseDisjunction();
+        if (disjuncts == null || !parser.atEnd()) {
+            return null;
+        }
+
+        final List<Disjunct> compiled = new ArrayList<>(disjuncts.size());
+        for (final Condition condition : disjuncts) {
+            String ipAddr = null;
+            Integer nodeId = null;
+            for (final Condition conjunct : condition instanceof And ? ((And) condition).terms : Collections.singletonList(condition)) {
+                if (conjunct instanceof Compare) {
+                    final Compare compare = (Compare) conjunct;
+                    if (compare.column == Column.IP_ADDR && compare.operator == Operator.EQ && ipAddr == null) {
+                        ipAddr = compare.text;
+                    } else if (compare.column == Column.NODE_ID && compare.operator == Operator.EQ && nodeId == null) {
+                        nodeId = (int) compare.number;
+                    }
+                }
+            }
+            compiled.add(new Disjunct(condition, ipAddr, nodeId));
+        }
+        // The active address queries skip the isManaged constraint in this case
+        return new CompiledFilterRule(Collections.unmodifiableList(compiled), services, where.contains("isManaged"));
+    }
+
+    /**
+     * Evaluates the rule like {@link JdbcFilterDao#isRuleMatching(String)}.
+     *
+     * @return whether at least one row matches the rule, or {@code null} if the database must be queried
+     */
+    Boolean isMatching(final FilterSnapshot snapshot) {
+        return isMatching(snapshot, Collections.emptySet());
+    }
+
+    /**
+     * Evaluates the rule like {@link JdbcFilterDao#isRuleMatching(String)}.
+     *
+     * @param changedNodes the nodes which changed since the snapshot was taken
+     * @return whether at least one row matches the rule, or {@code null} if the database must be queried
+     */
+    Boolean isMatching(final FilterSnapshot snapshot, final Set<Integer> changedNodes) {
+        try {
+            for (int i = 0; i < m_disjuncts.size(); i++) {
+                if (matches(snapshot, i, changedNodes)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (final UnsupportedEvaluationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Evaluates the rule like {@link JdbcFilterDao#isValid(String, String)}.
+     *
+     * The query used by the latter appends the active interface and address constraints to
+     * the WHERE clause, so they only apply to the last condition combined with OR at the top
+     * level of the rule. This is reproduced here in order to return the same results.
+     *
+     * @return whether the address matches the rule, or {@code null} if the database must be queried
+     */
+    Boolean isValid(final FilterSnapshot snapshot, final String ipAddr) {
+        return isValid(snapshot, ipAddr, Collections.emptySet());
+    }
+
+    /**
+     * Evaluates the rule like {@link JdbcFilterDao#isValid(String, String)}.
+     *
+     * @param changedNodes the nodes which changed since the snapshot was taken
+     * @return whether the address matches the rule, or {@code null} if the database must be queried
+     */
+    Boolean isValid(final FilterSnapshot snapshot, final String ipAddr, final Set<Integer> changedNodes) {
+        final List<Interface> interfaces = snapshot.getInterfacesByAddress(ipAddr);
+        if (m_managedReferenced || interfaces == null || isChanged(interfaces, changedNodes)) {
+            // The address may have been added or its node may have changed since the snapshot was taken
+            return null;
+        }
+        try {
+            final int last = m_disjuncts.size() - 1;
+            for (int i = 0; i < last; i++) {
+                if (matches(snapshot, i, changedNodes)) {
+                    return true;
+                }
+            }
+            final Condition condition = m_disjuncts.get(last).condition;
+            for (final Interface iface : interfaces) {
+                if (iface.isActive() && matches(iface, condition)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (final UnsupportedEvaluationException e) {
+            return null;
+        }
+    }
+
+    private boolean matches(final FilterSnapshot snapshot, final int index, final Set<Integer> changedNodes) {
+        final Disjunct disjunct = m_disjuncts.get(index);
+        if (disjunct.ipAddr != null || disjunct.nodeId != null) {
+            final List<Interface> interfaces = disjunct.ipAddr != null
+                    ? snapshot.getInterfacesByAddress(disjunct.ipAddr)
+                    : snapshot.getInterfacesByNode(disjunct.nodeId);
+            if (interfaces == null || (disjunct.nodeId != null && changedNodes.contains(disjunct.nodeId))
+                    || isChanged(interfaces, changedNodes)) {
+                throw new UnsupportedEvaluationException();
+            }
+            return matches(interfaces, disjunct.condition);
+        }
+        if (!changedNodes.isEmpty()) {
+            // Any of the changed nodes could match now, or not anymore
+            throw new UnsupportedEvaluationException();
+        }
+
+        Memo memo = m_memo;
+        if (memo == null || memo.snapshot != snapshot) {
+            memo = new Memo(snapshot, m_disjuncts.size());
+            m_memo = memo;
+        }
+        Boolean result = memo.results.get(index);
+        if (result == null) {
+            result = matches(snapshot.getInterfaces(), disjunct.condition);
+            memo.results.set(index, result);
+        }
+        return result;
+    }
+
+    private static boolean isChanged(final List<Interface> interfaces, final Set<Integer> changedNodes) {
+        if (changedNodes.isEmpty()) {
+            return false;
+        }
+        for (final Interface iface : interfaces) {
+            if (changedNodes.contains(iface.node.id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matches(final List<Interface> interfaces, final Condition condition) {
+        for (final Interface iface : interfaces) {
+            if (matches(iface, condition)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matches(final Interface iface, final Condition condition) {
+        if (!m_services) {
+            return Boolean.TRUE.equals(condition.evaluate(iface, null));
+        }
+        // One row per service, interfaces without services are not part of the join
+        for (final String service : iface.services) {
+            if (Boolean.TRUE.equals(condition.evaluate(iface, service))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private enum Operator {
+        EQ, NE, LT, GT, LE, GE;
+
+        private static Operator of(final String text) {
+            switch (text) {
+                case "=": return EQ;
+                case "!=":
+                case "<>": return NE;
+                case "<": return LT;
+                case ">": return GT;
+                case "<=": return LE;
+                case ">=": return GE;
+                default: return null;
+            }
+        }
+
+        private boolean test(final int comparison) {
+            switch (this) {
+                case EQ: return comparison == 0;
+                case NE: return comparison != 0;
+                case LT: return comparison < 0;
+                case GT: return comparison > 0;
+                case LE: return comparison <= 0;
+                default: return comparison >= 0;
+            }
+        }
+    }
+
+    private static class And implements Condition {
+        private final List<Condition> terms;
+
+        private And(final List<Condition> terms) {
+            this.terms = terms;
+        }
+
+        @Override
+        public Boolean evaluate(final Interface iface, final String service) {
+            boolean unknown = false;
+            for (final Condition term : terms) {
+                final Boolean value = term.evaluate(iface, service);
+                if (value == null) {
+                    unknown = true;
+                } else if (!value) {
+                    return false;
+                }
+            }
+            return unknown ? null : true;
+        }
+    }
+
+    private static class Or implements Condition {
+        private final List<Condition> terms;
+
+        private Or(final List<Condition> terms) {
+            this.terms = terms;
+        }
+
+        @Override
+        public Boolean evaluate(final Interface iface, final String service) {
+            boolean unknown = false;
+            for (final Condition term : terms) {
+                final Boolean value = term.evaluate(iface, service);
+                if (value == null) {
+                    unknown = true;
+                } else if (value) {
+                    return true;
+                }
+            }
+            return unknown ? null : false;
+        }
+    }
+
+    private static class Not implements Condition {
+        private final Condition term;
+
+        private Not(final Condition term) {
+            this.term = term;
+        }
+
+        @Override
+        public Boolean evaluate(final Interface iface, final String service) {
+            final Boolean value = term.evaluate(iface, service);
+            return value == null ? null : !value;
+        }
+    }
+
+    private static class Compare implements Condition {
+        private final Column column;
+        private final Operator operator;
+        private final String text;
+        private final long number;
+
+        private Compare(final Column column, final Operator operator, final String text, final long number) {
+            this.column = column;
+            this.operator = operator;
+            this.text = text;
+            this.number = number;
+        }
+
+        @Override
+        public Boolean evaluate(final Interface iface, final String service) {
+            if (column == Column.NODE_ID) {
+                return operator.test(Long.compare(iface.node.id, number));
+            }
+            final String value = column.getText(iface, service);
+            if (value == null) {
+                return null;
+            }
+            return operator.test(value.equals(text) ? 0 : 1);
+        }
+    }
+
+    private static class Like implements Condition {
+        private final Column column;
+        private final Pattern pattern;
+        private final boolean negated;
+
+        private Like(final Column column, final Pattern pattern, final boolean negated) {
+            this.column = column;
+            this.pattern = pattern;
+            this.negated = negated;
+        }
+
+        @Override
+        public Boolean evaluate(final Interface iface, final String service) {
+            final String value = column.getText(iface, service);
+            if (value == null) {
+                return null;
+            }
+            return pattern.matcher(value).matches() != negated;
+        }
+    }
+
+    private static class IsNull implements Condition {
+        private final Column column;
+        private final boolean negated;
+
+        private IsNull(final Column column, final boolean negated) {
+            this.column = column;
+            this.negated = negated;
+        }
+
+        @Override
+        public Boolean evaluate(final Interface iface, final String service) {
+            final boolean isNull = column != Column.NODE_ID && column.getText(iface, service) == null;
+            return isNull != negated;
+        }
+    }
+
+    private static class InCategory implements Condition {
+        private final String category;
+
+        private InCategory(final String category) {
+            this.category = category;
+        }
+
+        @Override
+        public Boolean evaluate(final Interface iface, final String service) {
+            return iface.node.categories.contains(category);
+        }
+    }
+
+    /**
+     * Same results as the IPLIKE stored procedure, for IPv4 rules.
+     */
+    private static class IpLike implements Condition {
+        /**
+         * Octets matched by each field of the rule, or {@code null} if the rule matches any address.
+         */
+        private final boolean[][] octets;
+
+        private IpLike(final boolean[][] octets) {
+            this.octets = octets;
+        }
+
+        @Override
+        public Boolean evaluate(final Interface iface, final String service) {
+            if (iface.ipAddr == null) {
+                return false;
+            }
+            if (octets == null) {
+                return true;
+            }
+            switch (iface.ipv4State) {
+                case FilterSnapshot.IPV4:
+                    for (int i = 0; i < 4; i++) {
+                        if (!octets[i][iface.getOctet(i)]) {
+                            return false;
+                        }
+                    }
+                    return true;
+                case FilterSnapshot.NOT_IPV4:
+                    return false;
+                default:
+                    throw new UnsupportedEvaluationException();
+            }
+        }
+
+        private static IpLike of(final String rule) {
+            if ("*.*.*.*".equals(rule) || "*:*:*:*:*:*:*:*".equals(rule)) {
+                return new IpLike(null);
+            }
+            if (!IPV4_IPLIKE_PATTERN.matcher(rule).matches()) {
+                return null;
+            }
+            final String[] fields = rule.split("\\.");
+            final boolean[][] octets = new boolean[4][256];
+            for (int i = 0; i < 4; i++) {
+                for (final String element : fields[i].split(",", -1)) {
+                    if ("*".equals(element)) {
+                        Arrays.fill(octets[i], true);
+                    } else if (OCTET_PATTERN.matcher(element).matches()) {
+                        final int octet = Integer.parseInt(element);
+                        if (octet < 256) {
+                            octets[i][octet] = true;
+                        }
+                    } else if (OCTET_RANGE_PATTERN.matcher(element).matches()) {
+                        final int dash = element.indexOf('-');
+                        final int begin = Integer.parseInt(element.substring(0, dash));
+                        final int end = Math.min(255, Integer.parseInt(element.substring(dash + 1)));
+                        for (int octet = begin; octet <= end; octet++) {
+                            octets[i][octet] = true;
+                        }
+                    } else {
+                        return null;
+                    }
+                }
+            }
+            return new IpLike(octets);
+        }
+    }
+
+    /**
+     * Translates a LIKE pattern, using the default escape character, to a regular expression.
+     */
+    private static Pattern likePattern(final String like) {
+        final StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < like.length(); i++) {
+            final char c = like.charAt(i);
+            if (c == '\\') {
+                if (++i == like.length()) {
+                    // Rejected by the database
+                    return null;
+                }
+                regex.append(Pattern.quote(String.valueOf(like.charAt(i))));
+            } else if (c == '%') {
+                regex.append(".*");
+            } else if (c == '_') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    private enum TokenType {
+        WORD, STRING, NUMBER, OPERATOR, LEFT, RIGHT, COMMA
+    }
+
+    private static class Token {
+        private final TokenType type;
+        private final String text;
+
+        private Token(final TokenType type, final String text) {
+            this.type = type;
+            this.text = text;
+        }
+
+        private boolean is(final TokenType type, final String text) {
+            return this.type == type && this.text.equals(text);
+        }
+
+        private boolean isWord(final String word) {
+            return type == TokenType.WORD && text.equalsIgnoreCase(word);
+        }
+    }
+
+    /**
+     * @return the tokens of the expression, or {@code null} if it contains unsupported characters
+     */
+    private static List<Token> tokenize(final String expression) {
+        final List<Token> tokens = new ArrayList<>();
+        int pos = 0;
+        while (pos < expression.length()) {
+            final char c = expression.charAt(pos);
+            if (Character.isWhitespace(c)) {
+                pos++;
+            } else if (c == '(' || c == ')' || c == ',') {
+                tokens.add(new Token(c == '(' ? TokenType.LEFT : c == ')' ? TokenType.RIGHT : TokenType.COMMA, String.valueOf(c)));
+                pos++;
+            } else if (c == '\'') {
+                final StringBuilder text = new StringBuilder();
+                pos++;
+                while (true) {
+                    final int end = expression.indexOf('\'', pos);
+                    if (end < 0) {
+                        return null;
+                    }
+                    text.append(expression, pos, end);
+                    pos = end + 1;
+                    if (pos < expression.length() && expression.charAt(pos) == '\'') {
+                        text.append('\'');
+                        pos++;
+                    } else {
+                        break;
+                    }
+                }
+                tokens.add(new Token(TokenType.STRING, text.toString()));
+            } else if (c >= '0' && c <= '9') {
+                final int start = pos;
+                while (pos < expression.length() && Character.isDigit(expression.charAt(pos))) {
+                    pos++;
+                }
+                if (pos < expression.length() && (Character.isLetter(expression.charAt(pos)) || expression.charAt(pos) == '.' || expression.charAt(pos) == '_')) {
+                    return null;
+                }
+                tokens.add(new Token(TokenType.NUMBER, expression.substring(start, pos)));
+            } else if (Character.isLetter(c) || c == '_') {
+                final int start = pos;
+                while (pos < expression.length() && (Character.isLetterOrDigit(expression.charAt(pos)) || expression.charAt(pos) == '_' || expression.charAt(pos) == '.')) {
+                    pos++;
+                }
+                tokens.add(new Token(TokenType.WORD, expression.substring(start, pos)));
+            } else if (c == '=' || c == '!' || c == '<' || c == '>') {
+                final int start = pos++;
+                if (pos < expression.length() && (expression.charAt(pos) == '=' || (c == '<' && expression.charAt(pos) == '>'))) {
+                    pos++;
+                }
+                final String operator = expression.substring(start, pos);
+                if (Operator.of(operator) == null) {
+                    return null;
+                }
+                tokens.add(new Token(TokenType.OPERATOR, operator));
+            } else {
+                return null;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Recursive descent parser for the supported subset of the generated SQL.
+     * All of the parse methods return {@code null} when the expression is not supported.
+     */
+    private static class Parser {
+        private final List<Token> tokens;
+        private int pos = 0;
+
+        private Parser(final List<Token> tokens) {
+            this.tokens = tokens;
+        }
+
+        private boolean atEnd() {
+            return pos == tokens.size();
+        }
+
+        private Token peek() {
+            return pos < tokens.size() ? tokens.get(pos) : null;
+        }
+
+        private Token next() {
+            return pos < tokens.size() ? tokens.get(pos++) : null;
+        }
+
+        private boolean acceptWord(final String word) {
+            final Token token = peek();
+            if (token != null && token.isWord(word)) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean accept(final TokenType type) {
+            final Token token = peek();
+            if (token != null && token.type == type) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private List<Condition> parseDisjunction() {
+            final List<Condition> terms = new ArrayList<>();
+            do {
+                final Condition term = parseConjunction();
+                if (term == null) {
+                    return null;
+                }
+                terms.add(term);
+            } while (acceptWord("OR"));
+            return terms;
+        }
+
+        private Condition parseConjunction() {
+            final List<Condition> terms = new ArrayList<>();
+            do {
+                final Condition term = parseNegation();
+                if (term == null) {
+                    return null;
+                }
+                if (term instanceof And) {
+                    terms.addAll(((And) term).terms);
+                } else {
+                    terms.add(term);
+                }
+            } while (acceptWord("AND"));
+            return terms.size() == 1 ? terms.get(0) : new And(terms);
+        }
+
+        private Condition parseNegation() {
+            if (acceptWord("NOT")) {
+                final Condition term = parseNegation();
+                return term == null ? null : new Not(term);
+            }
+            return parsePrimary();
+        }
+
+        private Condition parsePrimary() {
+            if (accept(TokenType.LEFT)) {
+                final List<Condition> terms = parseDisjunction();
+                if (terms == null || !accept(TokenType.RIGHT)) {
+                    return null;
+                }
+                return terms.size() == 1 ? terms.get(0) : new Or(terms);
+            }
+            if (acceptWord("IPLIKE")) {
+                return parseIpLike();
+            }
+            final Token token = next();
+            if (token == null || token.type != TokenType.WORD) {
+                return null;
+            }
+            final Column column = COLUMNS.get(token.text.toLowerCase(Locale.ROOT));
+            return column == null ? null : parsePredicate(column);
+        }
+
+        private Condition parseIpLike() {
+            if (!accept(TokenType.LEFT)) {
+                return null;
+            }
+            final Token column = next();
+            if (column == null || column.type != TokenType.WORD || COLUMNS.get(column.text.toLowerCase(Locale.ROOT)) != Column.IP_ADDR) {
+                return null;
+            }
+            if (!accept(TokenType.COMMA)) {
+                return null;
+            }
+            final Token rule = next();
+            if (rule == null || rule.type != TokenType.STRING || !accept(TokenType.RIGHT)) {
+                return null;
+            }
+            return IpLike.of(rule.text);
+        }
+
+        private Condition parsePredicate(final Column column) {
+            final Token token = next();
+            if (token == null) {
+                return null;
+            }
+            if (token.type == TokenType.OPERATOR) {
+                return parseComparison(column, Operator.of(token.text));
+            } else if (token.isWord("IS")) {
+                final boolean negated = acceptWord("NOT");
+                return acceptWord("NULL") ? new IsNull(column, negated) : null;
+            } else if (token.isWord("LIKE") || (token.isWord("NOT") && acceptWord("LIKE"))) {
+                final Token pattern = next();
+                if (column == Column.NODE_ID || pattern == null || pattern.type != TokenType.STRING) {
+                    return null;
+                }
+                final Pattern regex = likePattern(pattern.text);
+                return regex == null ? null : new Like(column, regex, token.isWord("NOT"));
+            } else if (token.isWord("IN") && column == Column.NODE_ID) {
+                return parseCategorySubselect();
+            }
+            return null;
+        }
+
+        private Condition parseComparison(final Column column, final Operator operator) {
+            final Token value = next();
+            if (value == null) {
+                return null;
+            }
+            if (column == Column.NODE_ID) {
+                // String literals are cast to the type of the column
+                if ((value.type != TokenType.NUMBER && value.type != TokenType.STRING) || !INTEGER_PATTERN.matcher(value.text).matches()) {
+                    return null;
+                }
+                return new Compare(column, operator, null, Long.parseLong(value.text));
+            }
+            // Ordering of text values depends on the collation of the database
+            if (value.type != TokenType.STRING || (operator != Operator.EQ && operator != Operator.NE)) {
+                return null;
+            }
+            return new Compare(column, operator, value.text, 0);
+        }
+
+        private Condition parseCategorySubselect() {
+            String category = null;
+            for (final Token expected : CATINC_TOKENS) {
+                final Token token = next();
+                if (token == null || token.type != expected.type) {
+                    return null;
+                }
+                if (token.type == TokenType.STRING) {
+                    category = token.text;
+                } else if (!token.is(expected.type, expected.text)) {
+                    return null;
+                }
+            }
+            return new InCategory(category);
+        }
+    }
+}
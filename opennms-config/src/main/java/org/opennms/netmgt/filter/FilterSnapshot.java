@@ -0,0 +1,282 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.filter;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import org.opennms.core.utils.DBUtils;
+
+/**
+ * Immutable copy of the node, interface, service and category rows which
+ * can be referenced by the filter rules supported by {@link CompiledFilterRule}.
+ */
+final class FilterSnapshot {
+
+    private static final String INTERFACE_QUERY = "SELECT ipInterface.id, ipInterface.ipAddr, ipInterface.ipHostname, ipInterface.isManaged, "
+            + "node.nodeID, node.nodeLabel, node.nodeSysOID, node.nodeSysName, node.foreignSource, node.foreignID, node.location "
+            + "FROM ipInterface JOIN node ON (ipInterface.nodeID = node.nodeID)";
+
+    private static final String SERVICE_QUERY = "SELECT ifServices.ipInterfaceId, service.serviceName "
+            + "FROM ifServices JOIN service ON (ifServices.serviceID = service.serviceID)";
+
+    private static final String CATEGORY_QUERY = "SELECT category_node.nodeID, categories.categoryName "
+            + "FROM category_node JOIN categories ON (category_node.categoryID = categories.categoryID)";
+
+    /**
+     * Same as the expression used by the IPLIKE stored procedure to recognize IPv4 addresses.
+     */
+    private static final Pattern IPV4_PATTERN = Pattern.compile("^([0-9]+)\\.([0-9]+)\\.([0-9]+)\\.([0-9]+)$");
+
+    /**
+     * Number of queries issued by {@link #load(DataSource)}.
+     */
+    static final int QUERIES = 3;
+
+    static final byte IPV4 = 0;
+    static final byte NOT_IPV4 = 1;
+    static final byte UNSUPPORTED_IPV4 = 2;
+
+    static final class Node {
+        final int id;
+        final String label;
+        final String sysOid;
+        final String sysName;
+        final String foreignSource;
+        final String foreignId;
+        final String location;
+        final Set<String> categories = new HashSet<>();
+
+        private Node(final int id, final String label, final String sysOid, final String sysName,
+                     final String foreignSource, final String foreignId, final String location) {
+            this.id = id;
+            this.label = label;
+            this.sysOid = sysOid;
+            this.sysName = sysName;
+            this.foreignSource = foreignSource;
+            this.foreignId = foreignId;
+            this.location = location;
+        }
+    }
+
+    static final class Interface {
+        final Node node;
+        final String ipAddr;
+        final String ipHostname;
+        final String isManaged;
+        final List<String> services = new ArrayList<>(2);
+        /**
+         * Octets of the address, one per byte, when {@link #ipv4State} is {@link #IPV4}.
+         */
+        final int ipv4;
+        final byte ipv4State;
+
+        private Interface(final Node node, final String ipAddr, final String ipHostname, final String isManaged) {
+            this.node = node;
+            this.ipAddr = ipAddr;
+            this.ipHostname = ipHostname;
+            this.isManaged = isManaged;
+
+            final Matcher m = ipAddr == null ? null : IPV4_PATTERN.matcher(ipAddr);
+            if (m == null || !m.matches()) {
+                this.ipv4 = 0;
+                this.ipv4State = NOT_IPV4;
+                return;
+            }
+            int octets = 0;
+            byte state = IPV4;
+            for (int i = 1; i <= 4; i++) {
+                if (m.group(i).length() > 3) {
+                    // Not parsed the same way by the stored procedure
+                    state = UNSUPPORTED_IPV4;
+                    break;
+                }
+                final int octet = Integer.parseInt(m.group(i));
+                if (octet > 255) {
+                    // Never matched by IPLIKE
+                    state = NOT_IPV4;
+                    break;
+                }
+                octets = (octets << 8) | octet;
+            }
+            this.ipv4 = octets;
+            this.ipv4State = state;
+        }
+
+        int getOctet(final int index) {
+            return (ipv4 >>> (24 - 8 * index)) & 0xff;
+        }
+
+        /**
+         * Same as the "(ipInterface.isManaged != 'D' or ipInterface.isManaged IS NULL)"
+         * constraint added to the queries for active interfaces.
+         */
+        boolean isActive() {
+            return isManaged == null || !"D".equals(isManaged.trim());
+        }
+    }
+
+    private final long m_createdAt;
+    private final List<Interface> m_interfaces;
+    private final Map<String, List<Interface>> m_interfacesByAddress;
+    private final Map<Integer, List<Interface>> m_interfacesByNode;
+
+    private FilterSnapshot(final long createdAt, final List<Interface> interfaces) {
+        m_createdAt = createdAt;
+        m_interfaces = Collections.unmodifiableList(interfaces);
+        m_interfacesByAddress = new HashMap<>();
+        m_interfacesByNode = new HashMap<>();
+        for (final Interface iface : interfaces) {
+            if (iface.ipAddr != null) {
+                m_interfacesByAddress.computeIfAbsent(iface.ipAddr, k -> new ArrayList<>(1)).add(iface);
+            }
+            m_interfacesByNode.computeIfAbsent(iface.node.id, k -> new ArrayList<>(1)).add(iface);
+        }
+    }
+
+    long getCreatedAt() {
+        return m_createdAt;
+    }
+
+    List<Interface> getInterfaces() {
+        return m_interfaces;
+    }
+
+    /**
+     * @return the interfaces with the given address, or {@code null} if there are none
+     */
+    List<Interface> getInterfacesByAddress(final String ipAddr) {
+        return m_interfacesByAddress.get(ipAddr);
+    }
+
+    /**
+     * @return the interfaces of the given node, or {@code null} if there are none
+     */
+    List<Interface> getInterfacesByNode(final int nodeId) {
+        return m_interfacesByNode.get(nodeId);
+    }
+
+    static FilterSnapshot load(final DataSource dataSource) throws SQLException {
+        // Changes made while loading may or may not be part of the snapshot
+        final long createdAt = System.currentTimeMillis();
+        final Builder builder = new Builder();
+        final DBUtils d = new DBUtils(FilterSnapshot.class);
+        try {
+            final Connection conn = dataSource.getConnection();
+            d.watch(conn);
+            final Statement stmt = conn.createStatement();
+            d.watch(stmt);
+
+            ResultSet rset = stmt.executeQuery(INTERFACE_QUERY);
+            d.watch(rset);
+            while (rset.next()) {
+                final int nodeId = rset.getInt(5);
+                if (!builder.hasNode(nodeId)) {
+                    builder.node(nodeId, rset.getString(6), rset.getString(7), rset.getString(8),
+                            rset.getString(9), rset.getString(10), rset.getString(11));
+                }
+                builder.ipInterface(rset.getInt(1), nodeId, rset.getString(2), rset.getString(3), rset.getString(4));
+            }
+
+            rset = stmt.executeQuery(SERVICE_QUERY);
+            d.watch(rset);
+            while (rset.next()) {
+                builder.service(rset.getInt(1), rset.getString(2));
+            }
+
+            rset = stmt.executeQuery(CATEGORY_QUERY);
+            d.watch(rset);
+            while (rset.next()) {
+                builder.category(rset.getInt(1), rset.getString(2));
+            }
+        } finally {
+            d.cleanUp();
+        }
+        return builder.build(createdAt);
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    static final class Builder {
+        private final Map<Integer, Node> m_nodes = new HashMap<>();
+        private final Map<Integer, Interface> m_interfaces = new HashMap<>();
+        private final List<Interface> m_interfaceList = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        boolean hasNode(final int nodeId) {
+            return m_nodes.containsKey(nodeId);
+        }
+
+        Builder node(final int nodeId, final String label, final String sysOid, final String sysName,
+                     final String foreignSource, final String foreignId, final String location) {
+            m_nodes.put(nodeId, new Node(nodeId, label, sysOid, sysName, foreignSource, foreignId, location));
+            return this;
+        }
+
+        Builder category(final int nodeId, final String categoryName) {
+            final Node node = m_nodes.get(nodeId);
+            if (node != null && categoryName != null) {
+                node.categories.add(categoryName);
+            }
+            return this;
+        }
+
+        Builder ipInterface(final int id, final int nodeId, final String ipAddr, final String ipHostname, final String isManaged) {
+            final Node node = m_nodes.get(nodeId);
+            if (node != null) {
+                final Interface iface = new Interface(node, ipAddr, ipHostname, isManaged);
+                m_interfaces.put(id, iface);
+                m_interfaceList.add(iface);
+            }
+            return this;
+        }
+
+        Builder service(final int ipInterfaceId, final String serviceName) {
+            final Interface iface = m_interfaces.get(ipInterfaceId);
+            if (iface != null) {
+                iface.services.add(serviceName);
+            }
+            return this;
+        }
+
+        FilterSnapshot build(final long createdAt) {
+            return new FilterSnapshot(createdAt, new ArrayList<>(m_interfaceList));
+        }
+    }
+}
@@ -34,10 +34,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -58,8 +60,11 @@ import org.springframework.cache.annotation.Cacheable;
 import org.springframework.util.Assert;
 
 import com.codahale.metrics.jmx.JmxReporter;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * <p>JdbcFilterDao class.</p>
@@ -69,6 +74,21 @@ import com.codahale.metrics.Timer;
  */
 public class JdbcFilterDao implements FilterDao, InitializingBean {
     private static final Logger LOG = LoggerFactory.getLogger(JdbcFilterDao.class);
+
+    /**
+     * Evaluate {@link #isValid(String, String)} and {@link #isRuleMatching(String)} against
+     * an in-memory snapshot of the nodes, interfaces, services and categories when possible.
+     */
+    public static final String IN_MEMORY_EVALUATION_KEY = "org.opennms.netmgt.filter.inMemory.enabled";
+
+    /**
+     * Maximum age of the snapshot in milliseconds. The snapshot is also reloaded after
+     * {@link #flushActiveIpAddressListCache()} is called.
+     */
+    public static final String SNAPSHOT_MAX_AGE_KEY = "org.opennms.netmgt.filter.inMemory.maxAge";
+
+    private static final long DEFAULT_SNAPSHOT_MAX_AGE = 60000;
+
     private static final Pattern SQL_KEYWORD_PATTERN = Pattern.compile("\\s+(?:AND|OR|(?:NOT )?(?:LIKE|IN)|IS (?:NOT )?DISTINCT FROM)\\s+|(?:\\s+IS (?:NOT )?NULL|::(?:TIMESTAMP|INET))(?!\\w)|(?<!\\w)(?:NOT\\s+|IPLIKE(?=\\())", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
     private static final Pattern SQL_QUOTE_PATTERN = Pattern.compile("'(?:[^']|'')*'|\"(?:[^\"]|\"\")*\"");
 	private static final Pattern SQL_ESCAPED_PATTERN = Pattern.compile("###@(\\d+)@###");
@@ -83,9 +103,36 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
 
     private JmxReporter jmxReporter;
     private final Timer getIpListTimer;
+    private final Timer snapshotLoadTimer;
+    private final Meter databaseQueries;
+    private final Meter inMemoryEvaluations;
+    private final Meter inMemoryFallbacks;
+
+    private boolean m_inMemoryEvaluation = Boolean.getBoolean(IN_MEMORY_EVALUATION_KEY);
+    private long m_snapshotMaxAge = Long.getLong(SNAPSHOT_MAX_AGE_KEY, DEFAULT_SNAPSHOT_MAX_AGE);
+    private volatile FilterSnapshot m_snapshot;
+    private volatile boolean m_snapshotStale = true;
+    /**
+     * Nodes which changed since the current snapshot was taken, by the time they were flushed.
+     * Rules which depend on them are evaluated by the database until the snapshot is reloaded.
+     */
+    private final Map<Integer, Long> m_flushedNodes = new ConcurrentHashMap<>();
+    private final Object m_snapshotLock = new Object();
+
+    /**
+     * Rules built by the notification manager contain the node, interface and service of
+     * the event, so compiled rules are only kept for a while.
+     */
+    private final Cache<String, Optional<CompiledFilterRule>> m_compiledRules = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .build();
 
     public JdbcFilterDao() {
         getIpListTimer = metricRegistry.timer("getIPAddressListForFilter");
+        snapshotLoadTimer = metricRegistry.timer("snapshotLoad");
+        databaseQueries = metricRegistry.meter("databaseQueries");
+        inMemoryEvaluations = metricRegistry.meter("inMemoryEvaluations");
+        inMemoryFallbacks = metricRegistry.meter("inMemoryFallbacks");
     }
 
     /**
@@ -124,6 +171,29 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
         return m_databaseSchemaConfigFactory;
     }
 
+    public void setInMemoryEvaluation(final boolean inMemoryEvaluation) {
+        m_inMemoryEvaluation = inMemoryEvaluation;
+    }
+
+    public boolean isInMemoryEvaluation() {
+        return m_inMemoryEvaluation;
+    }
+
+    public void setSnapshotMaxAge(final long snapshotMaxAge) {
+        m_snapshotMaxAge = snapshotMaxAge;
+    }
+
+    public long getSnapshotMaxAge() {
+        return m_snapshotMaxAge;
+    }
+
+    /**
+     * @return the number of queries issued by all filter DAOs
+     */
+    public long getDatabaseQueryCount() {
+        return databaseQueries.getCount();
+    }
+
     /**
      * <p>afterPropertiesSet</p>
      */
@@ -173,6 +243,7 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
             // execute query
             final Statement stmt = conn.createStatement();
             d.watch(stmt);
+            databaseQueries.mark();
             final ResultSet rset = stmt.executeQuery(sqlString);
             d.watch(rset);
 
@@ -235,6 +306,7 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
             // execute query
             final Statement stmt = conn.createStatement();
             d.watch(stmt);
+            databaseQueries.mark();
             final ResultSet rset = stmt.executeQuery(sqlString);
             d.watch(rset);
 
@@ -274,7 +346,16 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
 
     @Override
     @CacheEvict(value="activeIpAddressList", allEntries=true)
-    public void flushActiveIpAddressListCache() {}
+    public void flushActiveIpAddressListCache() {
+        m_snapshotStale = true;
+    }
+
+    @Override
+    public void flushNode(final int nodeId) {
+        if (m_inMemoryEvaluation) {
+            m_flushedNodes.put(nodeId, System.currentTimeMillis());
+        }
+    }
 
     /**
      * {@inheritDoc}
@@ -336,6 +417,7 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
 
             // execute query and return the list of ip addresses
             final ResultSet rset;
+            databaseQueries.mark();
             if (filterByAddress) {
                 final PreparedStatement preparedStatement = conn.prepareStatement(sqlString);
                 preparedStatement.setString(1, address);
@@ -385,14 +467,37 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
     public boolean isValid(final String addr, final String rule) throws FilterParseException {
         if (rule.length() == 0) {
             return true;
-        } else {
-            return getActiveIPAddress(rule, addr) != null;
         }
+        final CompiledFilterRule compiledRule = getCompiledRule(rule);
+        if (compiledRule != null) {
+            final FilterSnapshot snapshot = getSnapshot();
+            final Boolean valid = snapshot != null ? compiledRule.isValid(snapshot, addr, m_flushedNodes.keySet()) : null;
+            if (valid != null) {
+                inMemoryEvaluations.mark();
+                return valid;
+            }
+            inMemoryFallbacks.mark();
+        }
+        return getActiveIPAddress(rule, addr) != null;
     }
 
     /** {@inheritDoc} */
     @Override
     public boolean isRuleMatching(final String rule) throws FilterParseException {
+        final CompiledFilterRule compiledRule = getCompiledRule(rule);
+        if (compiledRule != null) {
+            final FilterSnapshot snapshot = getSnapshot();
+            final Boolean matches = snapshot != null ? compiledRule.isMatching(snapshot, m_flushedNodes.keySet()) : null;
+            if (matches != null) {
+                inMemoryEvaluations.mark();
+                return matches;
+            }
+            inMemoryFallbacks.mark();
+        }
+        return isRuleMatchingInDatabase(rule);
+    }
+
+    private boolean isRuleMatchingInDatabase(final String rule) throws FilterParseException {
         boolean matches = false;
         String sqlString;
 
@@ -413,6 +518,7 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
             // execute query and return the list of ip addresses
             final Statement stmt = conn.createStatement();
             d.watch(stmt);
+            databaseQueries.mark();
             final ResultSet rset = stmt.executeQuery(sqlString);
             d.watch(rset);
 
@@ -441,7 +547,71 @@ public class JdbcFilterDao implements FilterDao, InitializingBean {
     public void validateRule(final String rule) throws FilterParseException {
         // Since parseRule does not do complete syntax checking,
         // we need to call a function that will actually execute the generated SQL
-        isRuleMatching(rule);
+        isRuleMatchingInDatabase(rule);
+    }
+
+    /**
+     * Returns the compiled version of the rule, or {@code null} if the in-memory evaluation
+     * is disabled or if the rule can only be evaluated by the database.
+     */
+    private CompiledFilterRule getCompiledRule(final String rule) {
+        if (!m_inMemoryEvaluation) {
+            return null;
+        }
+        Optional<CompiledFilterRule> compiledRule = m_compiledRules.getIfPresent(rule);
+        if (compiledRule == null) {
+            try {
+                compiledRule = Optional.ofNullable(compileRule(rule));
+            } catch (final FilterParseException e) {
+                // Let the database path report the error
+                return null;
+            }
+            m_compiledRules.put(rule, compiledRule);
+        }
+        return compiledRule.orElse(null);
+    }
+
+    /**
+     * Compiles the WHERE clause of the statement built by {@link #getSQLStatement(String)}.
+     */
+    CompiledFilterRule compileRule(final String rule) throws FilterParseException {
+        final List<Table> tables = new ArrayList<>();
+        m_databaseSchemaConfigFactory.addColumn(tables, "ipAddr");
+        return CompiledFilterRule.compile(parseRule(tables, rule), tables);
+    }
+
+    /**
+     * Returns the current snapshot, reloading it if it was flushed or if it is older than
+     * the maximum age.
+     *
+     * @return the snapshot, or {@code null} if it could not be loaded
+     */
+    private FilterSnapshot getSnapshot() {
+        FilterSnapshot snapshot = m_snapshot;
+        if (snapshot != null && !m_snapshotStale && System.currentTimeMillis() - snapshot.getCreatedAt() < m_snapshotMaxAge) {
+            return snapshot;
+        }
+        synchronized (m_snapshotLock) {
+            snapshot = m_snapshot;
+            if (snapshot == null || m_snapshotStale || System.currentTimeMillis() - snapshot.getCreatedAt() >= m_snapshotMaxAge) {
+                // Flushes received while loading apply to the next snapshot
+                m_snapshotStale = false;
+                try (final Timer.Context ctx = snapshotLoadTimer.time()) {
+                    databaseQueries.mark(FilterSnapshot.QUERIES);
+                    snapshot = FilterSnapshot.load(getDataSource());
+                } catch (final SQLException e) {
+                    m_snapshotStale = true;
+                    LOG.warn("SQL Exception occurred loading the filter snapshot.", e);
+                    return null;
+                }
+                LOG.debug("Loaded filter snapshot with {} interfaces.", snapshot.getInterfaces().size());
+                m_snapshot = snapshot;
+                // Nodes flushed after the snapshot was started may not be part of it
+                final long createdAt = snapshot.getCreatedAt();
+                m_flushedNodes.values().removeIf(flushedAt -> flushedAt < createdAt);
+            }
+            return snapshot;
+        }
     }
 
     /**
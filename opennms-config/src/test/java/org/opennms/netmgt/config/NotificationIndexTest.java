@@ -0,0 +1,110 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.netmgt.config.notifications.Notification;
+import org.opennms.netmgt.config.notifications.Notifications;
+
+public class NotificationIndexTest {
+
+    private static Notification notification(final String name, final String uei, final String severity) {
+        final Notification notification = new Notification();
+        notification.setName(name);
+        notification.setUei(uei);
+        notification.setStatus("on");
+        notification.setEventSeverity(severity);
+        return notification;
+    }
+
+    private static List<String> names(final NotificationIndex index, final String uei) {
+        return index.getCandidates(uei).stream()
+                .map(e -> e.getNotification().getName())
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void testCandidatesAreInConfigurationOrder() {
+        final Notifications notifications = new Notifications();
+        notifications.addNotification(notification("regex", "~^uei.opennms.org/nodes/node.*", null));
+        notifications.addNotification(notification("exact", "uei.opennms.org/nodes/nodeDown", null));
+        notifications.addNotification(notification("other", "uei.opennms.org/nodes/nodeUp", null));
+        notifications.addNotification(notification("any", NotificationIndex.MATCH_ANY_UEI, null));
+        notifications.addNotification(notification("exact again", "uei.opennms.org/nodes/nodeDown", null));
+
+        final NotificationIndex index = new NotificationIndex(notifications);
+
+        assertEquals(List.of("regex", "exact", "any", "exact again"), names(index, "uei.opennms.org/nodes/nodeDown"));
+        assertEquals(List.of("regex", "other", "any"), names(index, "uei.opennms.org/nodes/nodeUp"));
+        assertEquals(List.of("any"), names(index, "uei.opennms.org/internal/reloadDaemonConfig"));
+        // Cached candidates are the same
+        assertEquals(List.of("regex", "exact", "any", "exact again"), names(index, "uei.opennms.org/nodes/nodeDown"));
+    }
+
+    @Test
+    public void testRegexMatchesTheWholeUei() {
+        final Notifications notifications = new Notifications();
+        notifications.addNotification(notification("regex", "~.*nodeDown", null));
+        notifications.addNotification(notification("invalid", "~.*(", null));
+
+        final NotificationIndex index = new NotificationIndex(notifications);
+
+        assertEquals(List.of("regex"), names(index, "uei.opennms.org/nodes/nodeDown"));
+        assertTrue(index.getCandidates("uei.opennms.org/nodes/nodeDownAgain").isEmpty());
+        // Invalid expressions only match the exact value of the UEI
+        assertEquals(List.of("invalid"), names(index, "~.*("));
+    }
+
+    @Test
+    public void testSeverity() {
+        final Notifications notifications = new Notifications();
+        notifications.addNotification(notification("major or critical", "uei.opennms.org/nodes/nodeDown", "Major|CRITICAL"));
+        notifications.addNotification(notification("any severity", "uei.opennms.org/nodes/nodeDown", null));
+
+        final List<NotificationIndex.Entry> entries = new NotificationIndex(notifications).getCandidates("uei.opennms.org/nodes/nodeDown");
+
+        assertTrue(entries.get(0).matchesSeverity("Critical"));
+        assertTrue(entries.get(0).matchesSeverity("major"));
+        assertFalse(entries.get(0).matchesSeverity("Minor"));
+        assertTrue(entries.get(1).matchesSeverity("Minor"));
+    }
+
+    @Test
+    public void testIsBuiltFrom() {
+        final Notifications notifications = new Notifications();
+        notifications.addNotification(notification("exact", "uei.opennms.org/nodes/nodeDown", null));
+
+        final NotificationIndex index = new NotificationIndex(notifications);
+        assertTrue(index.isBuiltFrom(notifications));
+        assertFalse(index.isBuiltFrom(new Notifications()));
+
+        notifications.addNotification(notification("other", "uei.opennms.org/nodes/nodeUp", null));
+        assertFalse(index.isBuiltFrom(notifications));
+    }
+}
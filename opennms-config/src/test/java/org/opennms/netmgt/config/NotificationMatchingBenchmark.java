@@ -0,0 +1,176 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.config;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.netmgt.config.notifd.NotifdConfiguration;
+import org.opennms.netmgt.config.notifications.Notification;
+import org.opennms.netmgt.config.notifications.Notifications;
+import org.opennms.netmgt.config.notifications.Rule;
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * Use the Java Microbenchmarking Harness (JMH) to measure the throughput of
+ * {@link NotificationManager#getNotifForEvent(Event)} against a large generated notification
+ * configuration.
+ * <p>
+ * A stream of events is replayed against the notifications. Most of the notifications use exact
+ * UEIs, some use regular expressions and severity patterns, like in large installations. The events
+ * have no node, so the filter rules are not evaluated and only the matching of the notifications is
+ * measured. The "linearScan" benchmark walks the notifications the way they used to be matched.
+ */
+public class NotificationMatchingBenchmark {
+
+    private static final int NUM_EVENTS = 10000;
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"150", "1500"})
+        public int numNotifications;
+
+        @Param({"false", "true"})
+        public boolean matchAll;
+
+        private NotificationManager manager;
+        private Event[] events;
+
+        @Setup
+        public void setup() throws Exception {
+            final Random random = new Random(123456L);
+            final String[] severities = {"Critical", "Major", "Minor", "Warning", "Normal"};
+            final int numUeis = numNotifications / 2;
+
+            final Notifications notifications = new Notifications();
+            for (int i = 0; i < numNotifications; i++) {
+                final Notification notification = new Notification();
+                notification.setName("notification" + i);
+                notification.setStatus(random.nextInt(10) > 0 ? "on" : "off");
+                if (i % 20 == 0) {
+                    notification.setUei("~^uei.opennms.org/vendor/trap" + random.nextInt(10) + ".*");
+                } else {
+                    notification.setUei("uei.opennms.org/vendor/trap" + random.nextInt(numUeis));
+                }
+                if (i % 4 == 0) {
+                    notification.setEventSeverity("Major|Critical");
+                }
+                final Rule rule = new Rule();
+                rule.setContent("IPADDR != '0.0.0.0'");
+                notification.setRule(rule);
+                notification.setDestinationPath("Email-Admin");
+                notification.setTextMessage("Event %uei% received");
+                notifications.addNotification(notification);
+            }
+
+            final NotifdConfiguration configuration = new NotifdConfiguration();
+            configuration.setMatchAll(matchAll);
+            final NotifdConfigManager configManager = new NotifdConfigManager() {
+                {
+                    this.configuration = configuration;
+                }
+
+                @Override
+                protected void update() throws IOException {
+                }
+
+                @Override
+                protected void saveXml(String xml) throws IOException {
+                }
+            };
+
+            manager = new NotificationManager(configManager, null) {
+                @Override
+                protected void saveXML(String xmlString) throws IOException {
+                }
+
+                @Override
+                public void update() throws IOException {
+                }
+            };
+            manager.m_notifications = notifications;
+
+            events = new Event[NUM_EVENTS];
+            for (int i = 0; i < NUM_EVENTS; i++) {
+                final Event event = new Event();
+                // Some events do not match any notification
+                event.setUei("uei.opennms.org/vendor/trap" + random.nextInt(numUeis * 2));
+                event.setSeverity(severities[random.nextInt(severities.length)]);
+                events[i] = event;
+            }
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(4)
+    public Notification[] getNotifForEvent(BState state) throws IOException {
+        final Event event = state.events[(int) (Math.random() * state.events.length)];
+        if (!state.manager.hasUei(event.getUei())) {
+            return null;
+        }
+        return state.manager.getNotifForEvent(event);
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(4)
+    public int linearScan(BState state) {
+        final Event event = state.events[(int) (Math.random() * state.events.length)];
+        int matches = 0;
+        for (final Notification notification : state.manager.m_notifications.getNotifications()) {
+            final String uei = notification.getUei();
+            if (!event.getUei().equals(uei) && !(uei.charAt(0) == '~' && event.getUei().matches(uei.substring(1)))) {
+                continue;
+            }
+            if (notification.getEventSeverity().isPresent()
+                    && !event.getSeverity().toLowerCase().matches(notification.getEventSeverity().get().toLowerCase())) {
+                continue;
+            }
+            if ("on".equals(notification.getStatus())) {
+                matches++;
+                if (!state.matchAll) {
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+}
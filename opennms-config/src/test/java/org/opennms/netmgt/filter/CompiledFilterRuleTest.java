@@ -0,0 +1,177 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.config.DatabaseSchemaConfigFactory;
+
+public class CompiledFilterRuleTest {
+
+    private JdbcFilterDao m_dao;
+    private FilterSnapshot m_snapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        m_dao = new JdbcFilterDao();
+        m_dao.setDatabaseSchemaConfigFactory(new DatabaseSchemaConfigFactory());
+
+        m_snapshot = FilterSnapshot.builder()
+                .node(1, "router", ".1.3.6.1.4.1.9.1.1", "router", "Network", "r1", "Default")
+                .category(1, "Routers")
+                .category(1, "Production")
+                .ipInterface(11, 1, "192.168.1.1", "router.example.org", "M")
+                .service(11, "ICMP")
+                .service(11, "SNMP")
+                .ipInterface(12, 1, "10.0.0.1", null, "M")
+                .service(12, "ICMP")
+                .node(2, "server", null, null, null, null, "Default")
+                .category(2, "Servers")
+                .ipInterface(21, 2, "192.168.1.2", null, "M")
+                .service(21, "ICMP")
+                .service(21, "HTTP")
+                .ipInterface(22, 2, "192.168.1.3", null, "D")
+                .service(22, "ICMP")
+                .node(3, "printer", ".1.3.6.1.4.1.11.2.3", null, null, null, "Default")
+                .ipInterface(31, 3, "172.16.0.1", null, null)
+                .build(System.currentTimeMillis());
+    }
+
+    private CompiledFilterRule compile(final String rule) {
+        final CompiledFilterRule compiledRule = m_dao.compileRule(rule);
+        assertNotNull("Rule should be supported: " + rule, compiledRule);
+        return compiledRule;
+    }
+
+    private Boolean isValid(final String ipAddr, final String rule) {
+        return compile(rule).isValid(m_snapshot, ipAddr);
+    }
+
+    private Boolean isMatching(final String rule) {
+        return compile(rule).isMatching(m_snapshot);
+    }
+
+    @Test
+    public void testUnsupportedRules() {
+        assertNull(m_dao.compileRule("notisICMP"));
+        assertNull(m_dao.compileRule("snmpIfType == 6"));
+        assertNull(m_dao.compileRule("categoryName == 'Routers'"));
+        assertNull(m_dao.compileRule("ipaddr iplike fe80:*:*:*:*:*:*:*"));
+        assertNull(m_dao.compileRule("nodeLabel > 'a'"));
+        assertNull(m_dao.compileRule("nodeLabel == 5"));
+        assertNull(m_dao.compileRule("nodeId == 'a'"));
+        assertNull(m_dao.compileRule("nodeId IS DISTINCT FROM 1"));
+    }
+
+    @Test
+    public void testIpLike() {
+        assertEquals(true, isValid("192.168.1.1", "IPADDR IPLIKE 192.168.1.*"));
+        assertEquals(false, isValid("10.0.0.1", "IPADDR IPLIKE 192.168.1.*"));
+        assertEquals(true, isValid("192.168.1.2", "ipaddr iplike 192.168.1.1-2,5"));
+        assertEquals(true, isValid("172.16.0.1", "IPLIKE(ipaddr, '172.*.0-10.1')"));
+        assertEquals(false, isValid("172.16.0.1", "IPADDR IPLIKE 172.16.0.2-255"));
+        assertEquals(true, isValid("172.16.0.1", "IPADDR IPLIKE *:*:*:*:*:*:*:*"));
+    }
+
+    @Test
+    public void testDeletedInterfaces() {
+        // Only the active interfaces are considered by isValid()
+        assertEquals(false, isValid("192.168.1.3", "IPADDR IPLIKE 192.168.1.*"));
+        assertEquals(true, isMatching("IPADDR IPLIKE 192.168.1.3"));
+    }
+
+    @Test
+    public void testServices() {
+        assertEquals(true, isValid("192.168.1.1", "isSNMP"));
+        assertEquals(false, isValid("10.0.0.1", "isSNMP"));
+        assertEquals(true, isValid("10.0.0.1", "!isSNMP"));
+        // Every row of the join has a single service
+        assertEquals(false, isMatching("isICMP & isSNMP"));
+        // Interfaces without services are not part of the join
+        assertEquals(false, isValid("172.16.0.1", "!isSNMP"));
+        assertEquals(true, isValid("172.16.0.1", "nodeLabel == 'printer'"));
+    }
+
+    @Test
+    public void testCategories() {
+        assertEquals(true, isValid("10.0.0.1", "catincRouters"));
+        assertEquals(false, isValid("192.168.1.2", "catincRouters"));
+        assertEquals(true, isValid("192.168.1.2", "catincServers & !catincRouters"));
+        assertEquals(false, isValid("10.0.0.1", "catincRouters & isSNMP"));
+    }
+
+    @Test
+    public void testNullValues() {
+        assertEquals(true, isValid("192.168.1.1", "nodeSysOID LIKE '.1.3.6.1.4.1.9.%'"));
+        assertEquals(false, isValid("192.168.1.2", "nodeSysOID LIKE '.1.3.6.1.4.1.9.%'"));
+        // NOT NULL is still NULL
+        assertEquals(false, isValid("192.168.1.2", "!(nodeSysOID LIKE '.1.3.6.1.4.1.9.%')"));
+        assertEquals(false, isValid("192.168.1.2", "nodeSysOID NOT LIKE '.1.3.6.1.4.1.9.%'"));
+        assertEquals(true, isValid("192.168.1.2", "nodeSysOID IS NULL"));
+        assertEquals(true, isValid("192.168.1.2", "nodeSysOID IS NULL | nodeSysOID != '.1'"));
+        assertEquals(true, isValid("172.16.0.1", "nodeSysOID IS NOT NULL & nodeSysOID != '.1'"));
+    }
+
+    @Test
+    public void testOperatorPrecedence() {
+        // The address is only checked against the last condition combined with OR, like the SQL query does
+        assertEquals(true, isValid("192.168.1.1", "isHTTP | IPADDR IPLIKE 10.*.*.*"));
+        assertEquals(false, isValid("192.168.1.1", "IPADDR IPLIKE 11.*.*.* | isHTTP"));
+        assertEquals(true, isValid("192.168.1.1", "(isHTTP | IPADDR IPLIKE 192.*.*.*) & nodeId == 1"));
+    }
+
+    @Test
+    public void testNotificationRules() {
+        assertEquals(true, isMatching("((isICMP) & (nodeId == 2) & (ipAddr == '192.168.1.2') & (serviceName == 'ICMP'))"));
+        assertEquals(false, isMatching("((isICMP) & (nodeId == '2') & (ipAddr == '192.168.1.2') & (serviceName == 'SNMP'))"));
+        assertEquals(false, isMatching("((catincRouters) & (nodeId == 2))"));
+    }
+
+    @Test
+    public void testUnknownEntities() {
+        // Entities which are not part of the snapshot may have been added since it was taken
+        assertNull(isValid("1.2.3.4", "isICMP"));
+        assertNull(isMatching("((isICMP) & (nodeId == 99))"));
+        assertNull(isMatching("((isICMP) & (ipAddr == '1.2.3.4'))"));
+    }
+
+    @Test
+    public void testChangedNodes() {
+        // The services or categories of node 2 may have changed since the snapshot was taken
+        final Set<Integer> changedNodes = Collections.singleton(2);
+        assertNull(compile("isICMP").isValid(m_snapshot, "192.168.1.2", changedNodes));
+        assertEquals(true, compile("isICMP").isValid(m_snapshot, "192.168.1.1", changedNodes));
+        assertNull(compile("((isSNMP) & (nodeId == 2) & (ipAddr == '192.168.1.2') & (serviceName == 'SNMP'))").isMatching(m_snapshot, changedNodes));
+        assertNull(compile("((catincRouters) & (nodeId == 2))").isMatching(m_snapshot, changedNodes));
+        assertEquals(true, compile("((catincRouters) & (nodeId == 1))").isMatching(m_snapshot, changedNodes));
+        // Rules which are not restricted to a node or address may match any of the changed nodes
+        assertNull(compile("isHTTP").isMatching(m_snapshot, changedNodes));
+        assertEquals(true, isMatching("isHTTP"));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.filter;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.netmgt.config.DatabaseSchemaConfigFactory;
+
+/**
+ * Use the Java Microbenchmarking Harness (JMH) to measure the throughput of the in-memory
+ * evaluation of filter rules.
+ * <p>
+ * The "isValid" benchmark checks a random address against a rule, like the collection adapters and
+ * the flow classification do. The "notification" benchmark compiles and evaluates a rule built for a
+ * random interface, like the notification manager does for every event. Compare with the number of
+ * queries per second the database can sustain for the same rules, every operation used to be a query.
+ */
+public class FilterRuleEvaluationBenchmark {
+
+    private static final int NUM_NODES = 10000;
+    private static final int NUM_INTERFACES_PER_NODE = 4;
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(args);
+    }
+
+    @State(Scope.Benchmark)
+    public static class BState {
+
+        @Param({"IPADDR IPLIKE 10.*.1-100.*", "catincRouters & isSNMP", "nodeSysOID LIKE '.1.3.6.1.4.1.9.%' & !isHTTP"})
+        public String rule;
+
+        private JdbcFilterDao dao;
+        private FilterSnapshot snapshot;
+        private CompiledFilterRule compiledRule;
+        private String[] addresses;
+
+        @Setup
+        public void setup() throws Exception {
+            dao = new JdbcFilterDao();
+            dao.setDatabaseSchemaConfigFactory(new DatabaseSchemaConfigFactory());
+
+            final Random random = new Random(123456L);
+            final String[] categories = {"Routers", "Switches", "Servers", "Production", "Development"};
+            final String[] services = {"ICMP", "SNMP", "HTTP", "SSH"};
+            final FilterSnapshot.Builder builder = FilterSnapshot.builder();
+            addresses = new String[NUM_NODES * NUM_INTERFACES_PER_NODE];
+            for (int nodeId = 1; nodeId <= NUM_NODES; nodeId++) {
+                builder.node(nodeId, "node" + nodeId, random.nextBoolean() ? ".1.3.6.1.4.1.9.1." + nodeId : ".1.3.6.1.4.1.8072.3.2.10",
+                        null, "Servers", Integer.toString(nodeId), "Default");
+                builder.category(nodeId, categories[random.nextInt(categories.length)]);
+                for (int i = 0; i < NUM_INTERFACES_PER_NODE; i++) {
+                    final int id = (nodeId - 1) * NUM_INTERFACES_PER_NODE + i;
+                    addresses[id] = String.format("10.%d.%d.%d", i, (nodeId >> 8) & 0xff, nodeId & 0xff);
+                    builder.ipInterface(id, nodeId, addresses[id], null, "M");
+                    for (final String service : services) {
+                        if (random.nextInt(3) > 0) {
+                            builder.service(id, service);
+                        }
+                    }
+                }
+            }
+            snapshot = builder.build(System.currentTimeMillis());
+            compiledRule = dao.compileRule(rule);
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(4)
+    public Boolean isValid(BState state) {
+        final String address = state.addresses[(int) (Math.random() * state.addresses.length)];
+        return state.compiledRule.isValid(state.snapshot, address);
+    }
+
+    @Benchmark
+    @Fork(value = 1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 2)
+    @Threads(4)
+    public Boolean notification(BState state) {
+        final int id = (int) (Math.random() * state.addresses.length);
+        final String rule = String.format("((%s) & (nodeId == %d) & (ipAddr == '%s') & (serviceName == 'ICMP'))",
+                state.rule, id / NUM_INTERFACES_PER_NODE + 1, state.addresses[id]);
+        return state.dao.compileRule(rule).isMatching(state.snapshot);
+    }
+}
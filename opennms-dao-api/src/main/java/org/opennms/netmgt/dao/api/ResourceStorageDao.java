@@ -21,6 +21,8 @@
  */
 package org.opennms.netmgt.dao.api;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -108,6 +110,39 @@ public interface ResourceStorageDao {
      */
     public Set<OnmsAttribute> getAttributes(ResourcePath path);
 
+    /**
+     * Retrieves the (resource-level) attributes of the given path and of all
+     * the paths bellow it, up to the given depth.
+     * <p>
+     * The result is the same as calling {@link #getAttributes(ResourcePath)} on
+     * every one of these paths, but implementations that can fetch a whole subtree
+     * at once should do so, since resource types with many instances (i.e. the
+     * interfaces of a large router) are listed with all of their attributes.
+     *
+     * @param path resource path used as the root of the subtree
+     * @param depth a non-negative integer
+     * @return the attributes keyed by resource path, paths without attributes are omitted
+     */
+    public default Map<ResourcePath, Set<OnmsAttribute>> getAttributesWithin(ResourcePath path, int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must be non-negative");
+        }
+
+        final Map<ResourcePath, Set<OnmsAttribute>> attributes = new HashMap<>();
+        final Set<OnmsAttribute> pathAttributes = getAttributes(path);
+        if (!pathAttributes.isEmpty()) {
+            attributes.put(path, pathAttributes);
+        }
+        final Set<ResourcePath> children = new HashSet<>();
+        for (int i = 1; i <= depth; i++) {
+            children.addAll(children(path, i));
+        }
+        for (final ResourcePath child : children) {
+            attributes.putAll(getAttributesWithin(child, depth - 1));
+        }
+        return attributes;
+    }
+
     /**
      * Sets the specified (resource-level) attribute at the given path.
      * Should not be called directly but only through the BasePersister.
@@ -36,6 +36,8 @@ import org.hibernate.Session;
 import org.hibernate.transform.ResultTransformer;
 import org.hibernate.type.StringType;
 import org.opennms.netmgt.dao.api.AlarmDao;
+import org.opennms.netmgt.dao.support.AlarmSummaryRollup;
+import org.opennms.netmgt.model.FilterManager;
 import org.opennms.netmgt.model.HeatMapElement;
 import org.opennms.netmgt.model.OnmsAlarm;
 import org.opennms.netmgt.model.OnmsCategory;
@@ -60,10 +62,26 @@ import com.google.common.collect.Lists;
  */
 public class AlarmDaoHibernate extends AbstractDaoHibernate<OnmsAlarm, Integer> implements AlarmDao {
 
+    private AlarmSummaryRollup m_alarmSummaryRollup;
+
     public AlarmDaoHibernate() {
         super(OnmsAlarm.class);
     }
 
+    public void setAlarmSummaryRollup(final AlarmSummaryRollup alarmSummaryRollup) {
+        m_alarmSummaryRollup = alarmSummaryRollup;
+    }
+
+    /**
+     * The summaries can be served by the rollup once it is loaded, unless the
+     * session is restricted to the nodes the user is authorized to see.
+     */
+    private boolean useAlarmSummaryRollup() {
+        return m_alarmSummaryRollup != null
+                && m_alarmSummaryRollup.isReady()
+                && getHibernateTemplate().execute(session -> session.getEnabledFilter(FilterManager.AUTH_FILTER_NAME) == null);
+    }
+
     /** {@inheritDoc} */
     @Override
     public OnmsAlarm findByReductionKey(String reductionKey) {
@@ -77,6 +95,9 @@ public class AlarmDaoHibernate extends AbstractDaoHibernate<OnmsAlarm, Integer>
         if (nodeIds.isEmpty()) {
             return Collections.emptyList();
         }
+        if (useAlarmSummaryRollup()) {
+            return m_alarmSummaryRollup.getNodeAlarmSummariesIncludeAcknowledgedOnes(nodeIds);
+        }
         final StringBuilder sql = new StringBuilder();
         //count(*) - count(alarm.alarmAckTime) counts only the unacknowledged alarms
         sql.append("SELECT DISTINCT new org.opennms.netmgt.model.alarm.AlarmSummary( node.id, node.label, min(alarm.lastEventTime), max(alarm.severity), (count(*) - count(alarm.alarmAckTime)) ) ");
@@ -104,6 +125,9 @@ public class AlarmDaoHibernate extends AbstractDaoHibernate<OnmsAlarm, Integer>
     /** {@inheritDoc} */
     @Override
     public List<AlarmSummary> getNodeAlarmSummaries() {
+        if (useAlarmSummaryRollup()) {
+            return m_alarmSummaryRollup.getNodeAlarmSummaries();
+        }
         final StringBuilder sql = new StringBuilder();
         sql.append("SELECT DISTINCT new org.opennms.netmgt.model.alarm.AlarmSummary(node.id, node.label, min(alarm.lastEventTime), max(alarm.severity), count(*)) ");
         sql.append("FROM OnmsAlarm AS alarm ");
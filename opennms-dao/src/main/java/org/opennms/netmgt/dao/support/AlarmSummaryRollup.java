@@ -0,0 +1,471 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.dao.support;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.SessionFactory;
+import org.opennms.netmgt.dao.api.DefaultAlarmEntityListener;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.model.alarm.AlarmSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.orm.hibernate3.HibernateTemplate;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Maintains the per node alarm summaries in memory, so that the node status of the
+ * topology maps, the alarm summary dashlets and the REST API do not have to aggregate
+ * the alarm table on every request.
+ *
+ * The rollup is updated incrementally from the {@link org.opennms.netmgt.dao.api.AlarmEntityNotifier}
+ * callbacks, once the transaction which notified them is committed. Changes which are not notified, like alarms modified directly in the database
+ * or renamed nodes, are caught up by reloading the alarms periodically. The number of nodes
+ * whose alarms differed from the database on the last reload is kept as a measure of drift.
+ *
+ * The rollup is disabled unless {@code org.opennms.alarms.summary.rollup.enabled} is set.
+ */
+public class AlarmSummaryRollup extends DefaultAlarmEntityListener implements InitializingBean, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AlarmSummaryRollup.class);
+
+    public static final String ENABLED_KEY = "org.opennms.alarms.summary.rollup.enabled";
+
+    public static final String RECHECK_INTERVAL_KEY = "org.opennms.alarms.summary.rollup.recheckInterval";
+
+    public static final long DEFAULT_RECHECK_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String LOAD_QUERY = "SELECT alarm.id, node.id, node.label, alarm.severity, alarm.alarmAckTime, alarm.lastEventTime "
+            + "FROM OnmsAlarm AS alarm JOIN alarm.node AS node";
+
+    private final boolean m_enabled;
+
+    private final long m_recheckIntervalMs;
+
+    private HibernateTemplate m_template;
+
+    private TransactionOperations m_transactionOperations;
+
+    private ScheduledExecutorService m_scheduler;
+
+    private final Map<Integer, AlarmState> m_alarms = new HashMap<>();
+
+    private final Map<Integer, Map<Integer, AlarmState>> m_alarmsByNode = new HashMap<>();
+
+    /**
+     * Ids of the alarms notified while a reload is running, these are more recent than the loaded ones.
+     */
+    private Set<Integer> m_touchedDuringReload;
+
+    private boolean m_ready = false;
+
+    private long m_reloads = 0;
+
+    private long m_lastReloadTime = 0;
+
+    private long m_lastReloadDurationMs = 0;
+
+    private int m_driftedNodes = 0;
+
+    public AlarmSummaryRollup() {
+        this(Boolean.getBoolean(ENABLED_KEY), Long.getLong(RECHECK_INTERVAL_KEY, DEFAULT_RECHECK_INTERVAL_MS));
+    }
+
+    public AlarmSummaryRollup(final boolean enabled, final long recheckIntervalMs) {
+        m_enabled = enabled;
+        m_recheckIntervalMs = recheckIntervalMs;
+    }
+
+    public void setSessionFactory(final SessionFactory sessionFactory) {
+        m_template = new HibernateTemplate(sessionFactory);
+    }
+
+    public void setTransactionOperations(final TransactionOperations transactionOperations) {
+        m_transactionOperations = transactionOperations;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!m_enabled) {
+            return;
+        }
+        Objects.requireNonNull(m_template, "sessionFactory must be set");
+        Objects.requireNonNull(m_transactionOperations, "transactionOperations must be set");
+        m_scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("alarm-summary-rollup-%d")
+                .setDaemon(true)
+                .build());
+        m_scheduler.scheduleWithFixedDelay(this::reload, 0, m_recheckIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (m_scheduler != null) {
+            m_scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * @return true once the alarms were loaded, the summaries must not be used before
+     */
+    public synchronized boolean isReady() {
+        return m_ready;
+    }
+
+    /**
+     * Same as {@link org.opennms.netmgt.dao.api.AlarmDao#getNodeAlarmSummaries()}: the unacknowledged
+     * alarms with a severity above normal, by node.
+     */
+    public List<AlarmSummary> getNodeAlarmSummaries() {
+        final List<AlarmSummary> summaries = new ArrayList<>();
+        synchronized (this) {
+            for (final Map.Entry<Integer, Map<Integer, AlarmState>> entry : m_alarmsByNode.entrySet()) {
+                final AlarmSummary summary = summarize(entry.getKey(), entry.getValue().values(), false);
+                if (summary != null) {
+                    summaries.add(summary);
+                }
+            }
+        }
+        summaries.sort(Comparator.comparing(AlarmSummary::getMinLastEventDate, Comparator.nullsLast(Comparator.<Date>naturalOrder())).reversed()
+                .thenComparing(AlarmSummary::getNodeLabel));
+        return summaries;
+    }
+
+    /**
+     * Same as {@link org.opennms.netmgt.dao.api.AlarmDao#getNodeAlarmSummariesIncludeAcknowledgedOnes(List)}:
+     * all of the alarms which are not cleared, by node, and the number of unacknowledged ones.
+     */
+    public synchronized List<AlarmSummary> getNodeAlarmSummariesIncludeAcknowledgedOnes(final List<Integer> nodeIds) {
+        final List<AlarmSummary> summaries = new ArrayList<>();
+        for (final Integer nodeId : new HashSet<>(nodeIds)) {
+            final Map<Integer, AlarmState> alarms = m_alarmsByNode.get(nodeId);
+            if (alarms != null) {
+                final AlarmSummary summary = summarize(nodeId, alarms.values(), true);
+                if (summary != null) {
+                    summaries.add(summary);
+                }
+            }
+        }
+        return summaries;
+    }
+
+    private static AlarmSummary summarize(final int nodeId, final Collection<AlarmState> alarms, final boolean includeAcknowledged) {
+        String nodeLabel = null;
+        long minLastEventTime = Long.MAX_VALUE;
+        int maxSeverity = 0;
+        long count = 0;
+        boolean matched = false;
+        for (final AlarmState alarm : alarms) {
+            if (includeAcknowledged) {
+                if (alarm.severity == OnmsSeverity.CLEARED.getId()) {
+                    continue;
+                }
+            } else if (alarm.severity <= OnmsSeverity.NORMAL.getId() || alarm.acknowledged) {
+                continue;
+            }
+            matched = true;
+            nodeLabel = alarm.nodeLabel;
+            minLastEventTime = Math.min(minLastEventTime, alarm.lastEventTime);
+            maxSeverity = Math.max(maxSeverity, alarm.severity);
+            if (!alarm.acknowledged) {
+                count++;
+            }
+        }
+        if (!matched) {
+            return null;
+        }
+        return new AlarmSummary(nodeId, nodeLabel, minLastEventTime == Long.MAX_VALUE ? null : new Date(minLastEventTime),
+                OnmsSeverity.get(maxSeverity), count);
+    }
+
+    public synchronized int getAlarmCount() {
+        return m_alarms.size();
+    }
+
+    public synchronized int getNodeCount() {
+        return m_alarmsByNode.size();
+    }
+
+    public synchronized long getReloads() {
+        return m_reloads;
+    }
+
+    public synchronized long getLastReloadTime() {
+        return m_lastReloadTime;
+    }
+
+    public synchronized long getLastReloadDurationMs() {
+        return m_lastReloadDurationMs;
+    }
+
+    /**
+     * @return the number of nodes whose alarms differed from the database on the last reload
+     */
+    public synchronized int getDriftedNodes() {
+        return m_driftedNodes;
+    }
+
+    public boolean isEnabled() {
+        return m_enabled;
+    }
+
+    /**
+     * Reloads the alarms from the database and counts the nodes that drifted.
+     */
+    protected void reload() {
+        startReload();
+        final long start = System.currentTimeMillis();
+        final List<AlarmState> alarms;
+        try {
+            alarms = load();
+        } catch (final RuntimeException e) {
+            LOG.warn("Failed to load the alarms. The alarm summaries will be reloaded in {}ms.", m_recheckIntervalMs, e);
+            synchronized (this) {
+                m_touchedDuringReload = null;
+            }
+            return;
+        }
+        reload(alarms, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Starts tracking the alarms notified until the loaded alarms are applied.
+     */
+    protected synchronized void startReload() {
+        m_touchedDuringReload = new HashSet<>();
+    }
+
+    protected synchronized void reload(final List<AlarmState> alarms, final long durationMs) {
+        final Map<Integer, AlarmState> loaded = new HashMap<>();
+        for (final AlarmState alarm : alarms) {
+            if (m_touchedDuringReload == null || !m_touchedDuringReload.contains(alarm.alarmId)) {
+                loaded.put(alarm.alarmId, alarm);
+            }
+        }
+        if (m_touchedDuringReload != null) {
+            for (final Integer alarmId : m_touchedDuringReload) {
+                final AlarmState alarm = m_alarms.get(alarmId);
+                if (alarm != null) {
+                    loaded.put(alarmId, alarm);
+                }
+            }
+            m_touchedDuringReload = null;
+        }
+
+        final Set<Integer> driftedNodes = new HashSet<>();
+        if (m_ready) {
+            for (final AlarmState alarm : m_alarms.values()) {
+                if (!alarm.equals(loaded.get(alarm.alarmId))) {
+                    driftedNodes.add(alarm.nodeId);
+                }
+            }
+            for (final AlarmState alarm : loaded.values()) {
+                if (!m_alarms.containsKey(alarm.alarmId)) {
+                    driftedNodes.add(alarm.nodeId);
+                }
+            }
+            if (!driftedNodes.isEmpty()) {
+                LOG.info("The alarm summaries of {} nodes differed from the database.", driftedNodes.size());
+            }
+        }
+
+        m_alarms.clear();
+        m_alarmsByNode.clear();
+        loaded.values().forEach(this::put);
+        m_driftedNodes = driftedNodes.size();
+        m_reloads++;
+        m_lastReloadTime = System.currentTimeMillis();
+        m_lastReloadDurationMs = durationMs;
+        m_ready = true;
+        LOG.debug("Loaded {} alarms on {} nodes in {}ms.", m_alarms.size(), m_alarmsByNode.size(), durationMs);
+    }
+
+    private List<AlarmState> load() {
+        return m_transactionOperations.execute(status -> {
+            final List<AlarmState> alarms = new ArrayList<>();
+            for (final Object row : m_template.find(LOAD_QUERY)) {
+                final Object[] columns = (Object[]) row;
+                alarms.add(new AlarmState((Integer) columns[0], (Integer) columns[1], (String) columns[2],
+                        (OnmsSeverity) columns[3], columns[4] != null, (Date) columns[5]));
+            }
+            return alarms;
+        });
+    }
+
+    private void update(final OnmsAlarm alarm) {
+        if (!m_enabled || alarm.getId() == null) {
+            return;
+        }
+        // Take the state now, the alarm may still change until the transaction is committed
+        final int alarmId = alarm.getId();
+        final Integer nodeId = alarm.getNodeId();
+        final AlarmState state = nodeId == null ? null : new AlarmState(alarmId, nodeId, alarm.getNodeLabel(),
+                alarm.getSeverity(), alarm.getAlarmAckTime() != null, alarm.getLastEventTime());
+        afterCommit(() -> apply(alarmId, state));
+    }
+
+    private void delete(final OnmsAlarm alarm) {
+        if (!m_enabled || alarm.getId() == null) {
+            return;
+        }
+        final int alarmId = alarm.getId();
+        afterCommit(() -> apply(alarmId, null));
+    }
+
+    private static void afterCommit(final Runnable runnable) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Alarmd notifies us from within its transaction, changes which are rolled back must not show up
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    runnable.run();
+                }
+            });
+        } else {
+            runnable.run();
+        }
+    }
+
+    private synchronized void apply(final int alarmId, final AlarmState state) {
+        if (m_touchedDuringReload != null) {
+            m_touchedDuringReload.add(alarmId);
+        }
+        remove(alarmId);
+        if (state != null) {
+            put(state);
+        }
+    }
+
+    private void put(final AlarmState alarm) {
+        m_alarms.put(alarm.alarmId, alarm);
+        m_alarmsByNode.computeIfAbsent(alarm.nodeId, k -> new HashMap<>()).put(alarm.alarmId, alarm);
+    }
+
+    private void remove(final int alarmId) {
+        final AlarmState alarm = m_alarms.remove(alarmId);
+        if (alarm != null) {
+            final Map<Integer, AlarmState> alarmsOnNode = m_alarmsByNode.get(alarm.nodeId);
+            alarmsOnNode.remove(alarmId);
+            if (alarmsOnNode.isEmpty()) {
+                m_alarmsByNode.remove(alarm.nodeId);
+            }
+        }
+    }
+
+    @Override
+    public void onAlarmCreated(final OnmsAlarm alarm) {
+        update(alarm);
+    }
+
+    @Override
+    public void onAlarmUpdatedWithReducedEvent(final OnmsAlarm alarm) {
+        update(alarm);
+    }
+
+    @Override
+    public void onAlarmAcknowledged(final OnmsAlarm alarm, final String previousAckUser, final Date previousAckTime) {
+        update(alarm);
+    }
+
+    @Override
+    public void onAlarmUnacknowledged(final OnmsAlarm alarm, final String previousAckUser, final Date previousAckTime) {
+        update(alarm);
+    }
+
+    @Override
+    public void onAlarmSeverityUpdated(final OnmsAlarm alarm, final OnmsSeverity previousSeverity) {
+        update(alarm);
+    }
+
+    @Override
+    public void onAlarmArchived(final OnmsAlarm alarm, final String previousReductionKey) {
+        update(alarm);
+    }
+
+    @Override
+    public void onAlarmDeleted(final OnmsAlarm alarm) {
+        delete(alarm);
+    }
+
+    /**
+     * The fields of an alarm used by the summaries.
+     */
+    protected static final class AlarmState {
+        private final int alarmId;
+        private final int nodeId;
+        private final String nodeLabel;
+        private final int severity;
+        private final boolean acknowledged;
+        private final long lastEventTime;
+
+        protected AlarmState(final int alarmId, final int nodeId, final String nodeLabel, final OnmsSeverity severity,
+                             final boolean acknowledged, final Date lastEventTime) {
+            this.alarmId = alarmId;
+            this.nodeId = nodeId;
+            this.nodeLabel = nodeLabel;
+            this.severity = severity != null ? severity.getId() : OnmsSeverity.INDETERMINATE.getId();
+            this.acknowledged = acknowledged;
+            this.lastEventTime = lastEventTime != null ? lastEventTime.getTime() : Long.MAX_VALUE;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof AlarmState)) {
+                return false;
+            }
+            final AlarmState other = (AlarmState) obj;
+            return alarmId == other.alarmId
+                    && nodeId == other.nodeId
+                    && severity == other.severity
+                    && acknowledged == other.acknowledged
+                    && lastEventTime == other.lastEventTime
+                    && Objects.equals(nodeLabel, other.nodeLabel);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(alarmId, nodeId, nodeLabel, severity, acknowledged, lastEventTime);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.dao.support;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.opennms.core.collections.LazySet;
+import org.opennms.netmgt.dao.api.ResourceStorageDao;
+import org.opennms.netmgt.model.OnmsAttribute;
+import org.opennms.netmgt.model.ResourcePath;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+
+/**
+ * Loads the attributes of all of the children of a resource path with a single call to
+ * {@link ResourceStorageDao#getAttributesWithin(ResourcePath, int)}.
+ *
+ * Used when listing resource types which may have many instances on a node, where loading
+ * the attributes of each resource with {@link LazyResourceAttributeLoader} would result
+ * in one search per resource. The attributes of the first child are still loaded on their
+ * own, so that looking at a single resource of the list doesn't fetch all of them.
+ */
+public class BulkResourceAttributeLoader {
+
+    private final ResourceStorageDao m_resourceStorageDao;
+
+    private final Supplier<Map<ResourcePath, Set<OnmsAttribute>>> m_attributes;
+
+    private final AtomicBoolean m_loadedChild = new AtomicBoolean(false);
+
+    public BulkResourceAttributeLoader(ResourceStorageDao resourceStorageDao, ResourcePath parent) {
+        m_resourceStorageDao = resourceStorageDao;
+        m_attributes = Suppliers.memoize(() -> resourceStorageDao.getAttributesWithin(parent, 1));
+    }
+
+    /**
+     * Returns a loader for the attributes of the given child path.
+     */
+    public LazySet.Loader<OnmsAttribute> getLoader(ResourcePath path) {
+        return () -> {
+            if (m_loadedChild.compareAndSet(false, true)) {
+                return m_resourceStorageDao.getAttributes(path);
+            }
+            final Set<OnmsAttribute> attributes = m_attributes.get().get(path);
+            // The sets are modified by some of the loaders, so every resource gets its own copy
+            return attributes != null ? new HashSet<>(attributes) : new HashSet<>();
+        };
+    }
+}
@@ -151,6 +151,9 @@ public class DefaultFilterWatcher implements FilterWatcher, InitializingBean, Di
             EventConstants.RESUME_POLLING_SERVICE_EVENT_UEI
     })
     public void inventoryChangeEventHandler(final IEvent event) {
+        if (event.getNodeid() != null && event.getNodeid() > 0) {
+            filterDao.flushNode(event.getNodeid().intValue());
+        }
         // Filters can depend on arbitrary node fields & relationships so we need to refresh these periodically
         sessionByRule.values().forEach(FilterSession::requestRefresh);
     }
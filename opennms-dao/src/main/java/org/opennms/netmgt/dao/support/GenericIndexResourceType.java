@@ -135,9 +135,13 @@ public final class GenericIndexResourceType implements OnmsResourceType {
 
         List<OnmsResource> resources = Lists.newArrayList();
 
-        List<String> indexes = getQueryableIndexes(new ResourcePath(parent.getPath(), m_name));
+        final ResourcePath path = new ResourcePath(parent.getPath(), m_name);
+        final List<String> indexes = getQueryableIndexes(path);
+        // The labels may reference the attributes, so load the attributes of all indexes at once
+        final BulkResourceAttributeLoader loader = new BulkResourceAttributeLoader(m_resourceStorageDao, path);
         for (String index : indexes) {
-            resources.add(getResourceByPath(new ResourcePath(parent.getPath(), m_name, index), parent));
+            final ResourcePath indexPath = new ResourcePath(path, index);
+            resources.add(getResourceByPath(indexPath, parent, loader.getLoader(indexPath)));
         }
 
         return OnmsResource.sortIntoResourceList(resources);
@@ -178,7 +182,11 @@ public final class GenericIndexResourceType implements OnmsResourceType {
     }
 
     public OnmsResource getResourceByPath(final ResourcePath path, final OnmsResource parent) {
-        final Set<OnmsAttribute> set = new LazySet<OnmsAttribute>(new LazyResourceAttributeLoader(m_resourceStorageDao, path));
+        return getResourceByPath(path, parent, new LazyResourceAttributeLoader(m_resourceStorageDao, path));
+    }
+
+    private OnmsResource getResourceByPath(final ResourcePath path, final OnmsResource parent, final LazySet.Loader<OnmsAttribute> loader) {
+        final Set<OnmsAttribute> set = new LazySet<OnmsAttribute>(loader);
         final String index = path.getName();
         String label;
         if (m_resourceLabelExpression == null) {
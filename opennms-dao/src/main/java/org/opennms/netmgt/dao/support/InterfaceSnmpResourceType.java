@@ -113,9 +113,9 @@ public class InterfaceSnmpResourceType implements OnmsResourceType {
         final Set<String> ifaces = getQueryableInterfaces(parent);
         if (NodeResourceType.isNode(parent)) {
             OnmsNode node = ResourceTypeUtils.getNodeFromResource(parent);
-            return getNodeResources(parent.getPath(), ifaces, node);
+            return getNodeResources(parent.getPath(), ifaces, node, new BulkResourceAttributeLoader(m_resourceStorageDao, parent.getPath()));
         } else if (DomainResourceType.isDomain(parent)) {
-            return getDomainResources(parent.getPath(), ifaces);
+            return getDomainResources(parent.getPath(), ifaces, new BulkResourceAttributeLoader(m_resourceStorageDao, parent.getPath()));
         } else {
             return Collections.emptyList();
         }
@@ -145,7 +145,7 @@ public class InterfaceSnmpResourceType implements OnmsResourceType {
         }
 
         // Leverage the existing function for retrieving the resource list
-        final List<OnmsResource> resources = getNodeResources(parent.getPath(), Sets.newHashSet(name), node);
+        final List<OnmsResource> resources = getNodeResources(parent.getPath(), Sets.newHashSet(name), node, null);
         if (resources.size() != 1) {
             throw new ObjectRetrievalFailureException(OnmsResource.class, "No resource with name '" + name + "' found.");
         }
@@ -196,7 +196,10 @@ public class InterfaceSnmpResourceType implements OnmsResourceType {
 	return desc;
     }
 
-    private List<OnmsResource> getNodeResources(ResourcePath parent, Set<String> intfNames, OnmsNode node) {
+    /**
+     * @param bulkLoader used to load the attributes of all interfaces at once, or null to load them one by one
+     */
+    private List<OnmsResource> getNodeResources(ResourcePath parent, Set<String> intfNames, OnmsNode node, BulkResourceAttributeLoader bulkLoader) {
             
         ArrayList<OnmsResource> resources = new ArrayList<>();
 
@@ -270,7 +273,7 @@ public class InterfaceSnmpResourceType implements OnmsResourceType {
                 label = descr.toString();
             }
 
-            OnmsResource resource = getResourceByParentPathAndInterface(parent, intfName, label, snmpInterface);
+            OnmsResource resource = getResourceByParentPathAndInterface(parent, intfName, label, snmpInterface, bulkLoader);
             if (snmpInterface != null) {
                 Set<OnmsIpInterface> ipInterfaces = snmpInterface.getIpInterfaces();
                 if (ipInterfaces.size() > 0) {
@@ -294,10 +297,10 @@ public class InterfaceSnmpResourceType implements OnmsResourceType {
         return resources; 
     }
 
-    private List<OnmsResource> getDomainResources(ResourcePath parent, Set<String> intfNames) {
+    private List<OnmsResource> getDomainResources(ResourcePath parent, Set<String> intfNames, BulkResourceAttributeLoader bulkLoader) {
         final List<OnmsResource> resources = Lists.newLinkedList();
         for (String intfName : intfNames) {
-            OnmsResource resource = getResourceByParentPathAndInterface(parent, intfName); 
+            OnmsResource resource = getResourceByParentPathAndInterface(parent, intfName, bulkLoader);
             try {
                 resource.setLink("element/nodeList.htm?listInterfaces=true&snmpParm=ifAlias&snmpParmMatchType=contains&snmpParmValue=" + URLEncoder.encode(intfName, StandardCharsets.UTF_8.name()));
             } catch (UnsupportedEncodingException e) {
@@ -318,35 +321,33 @@ public class InterfaceSnmpResourceType implements OnmsResourceType {
                 .collect(Collectors.toSet());
     }
 
-    private OnmsResource getResourceByParentPathAndInterface(ResourcePath parent, String intf) {
+    private OnmsResource getResourceByParentPathAndInterface(ResourcePath parent, String intf, BulkResourceAttributeLoader bulkLoader) {
         final ResourcePath path = ResourcePath.get(parent, intf);
-        final LazyResourceAttributeLoader loader = new LazyResourceAttributeLoader(m_resourceStorageDao, path);
+        final LazySet.Loader<OnmsAttribute> loader = bulkLoader.getLoader(path);
         final Set<OnmsAttribute> set = new LazySet<OnmsAttribute>(loader);
         return new OnmsResource(intf, intf, this, set, path);
     }
 
-    private OnmsResource getResourceByParentPathAndInterface(ResourcePath parent, String intf, String label, OnmsSnmpInterface snmpInterface) throws DataAccessException {
+    private OnmsResource getResourceByParentPathAndInterface(ResourcePath parent, String intf, String label, OnmsSnmpInterface snmpInterface, BulkResourceAttributeLoader bulkLoader) throws DataAccessException {
         final ResourcePath path = ResourcePath.get(parent, intf);
-        final AttributeLoader loader = new AttributeLoader(m_resourceStorageDao, path, snmpInterface);
+        final LazySet.Loader<OnmsAttribute> attributeLoader = bulkLoader != null ? bulkLoader.getLoader(path) : new LazyResourceAttributeLoader(m_resourceStorageDao, path);
+        final AttributeLoader loader = new AttributeLoader(attributeLoader, snmpInterface);
         final Set<OnmsAttribute> set = new LazySet<OnmsAttribute>(loader);
         return new OnmsResource(intf, label, this, set, path);
     }
 
     private static class AttributeLoader implements LazySet.Loader<OnmsAttribute> {
-        private final ResourceStorageDao m_resourceStorageDao;
-        private final ResourcePath m_path;
+        private final LazySet.Loader<OnmsAttribute> m_attributeLoader;
         private final OnmsSnmpInterface m_snmpInterface;
 
-        public AttributeLoader(ResourceStorageDao resourceStorageDao, ResourcePath path,
-                OnmsSnmpInterface snmpInterface) {
-            m_resourceStorageDao = resourceStorageDao;
-            m_path = path;
+        public AttributeLoader(LazySet.Loader<OnmsAttribute> attributeLoader, OnmsSnmpInterface snmpInterface) {
+            m_attributeLoader = attributeLoader;
             m_snmpInterface = snmpInterface;
         }
 
         @Override
         public Set<OnmsAttribute> load() {
-            Set<OnmsAttribute> attributes = m_resourceStorageDao.getAttributes(m_path);
+            Set<OnmsAttribute> attributes = m_attributeLoader.load();
             if (m_snmpInterface != null) {
                 attributes.add(new ExternalValueAttribute("nodeId", m_snmpInterface.getNodeId().toString()));
                 attributes.add(new ExternalValueAttribute("ifIndex", m_snmpInterface.getIfIndex().toString()));
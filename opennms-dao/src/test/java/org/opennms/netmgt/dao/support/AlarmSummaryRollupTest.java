@@ -0,0 +1,185 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.netmgt.dao.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.dao.support.AlarmSummaryRollup.AlarmState;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.model.alarm.AlarmSummary;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+public class AlarmSummaryRollupTest {
+
+    private AlarmSummaryRollup m_rollup;
+
+    private OnmsNode m_node1;
+
+    private OnmsNode m_node2;
+
+    @Before
+    public void setUp() {
+        m_rollup = new AlarmSummaryRollup(true, Long.MAX_VALUE);
+        m_node1 = new OnmsNode();
+        m_node1.setId(1);
+        m_node1.setLabel("node1");
+        m_node2 = new OnmsNode();
+        m_node2.setId(2);
+        m_node2.setLabel("node2");
+    }
+
+    @Test
+    public void canSummarizeAlarms() {
+        m_rollup.reload(Collections.emptyList(), 0);
+        assertTrue(m_rollup.isReady());
+
+        final OnmsAlarm major = createAlarm(1, m_node1, OnmsSeverity.MAJOR, 2000);
+        final OnmsAlarm minor = createAlarm(2, m_node1, OnmsSeverity.MINOR, 1000);
+        final OnmsAlarm normal = createAlarm(3, m_node2, OnmsSeverity.NORMAL, 3000);
+        m_rollup.onAlarmCreated(major);
+        m_rollup.onAlarmCreated(minor);
+        m_rollup.onAlarmCreated(normal);
+
+        List<AlarmSummary> summaries = m_rollup.getNodeAlarmSummaries();
+        assertEquals(1, summaries.size());
+        assertSummary(summaries.get(0), 1, OnmsSeverity.MAJOR, 2, 1000);
+
+        // Acknowledged alarms only count when they are included
+        major.setAlarmAckTime(new Date());
+        major.setAlarmAckUser("admin");
+        m_rollup.onAlarmAcknowledged(major, null, null);
+        summaries = m_rollup.getNodeAlarmSummaries();
+        assertEquals(1, summaries.size());
+        assertSummary(summaries.get(0), 1, OnmsSeverity.MINOR, 1, 1000);
+
+        summaries = m_rollup.getNodeAlarmSummariesIncludeAcknowledgedOnes(Arrays.asList(1, 2, 3));
+        summaries.sort(null);
+        assertEquals(2, summaries.size());
+        assertSummary(summaries.get(0), 1, OnmsSeverity.MAJOR, 1, 1000);
+        assertSummary(summaries.get(1), 2, OnmsSeverity.NORMAL, 1, 3000);
+
+        // Cleared and deleted alarms are gone
+        minor.setSeverity(OnmsSeverity.CLEARED);
+        m_rollup.onAlarmSeverityUpdated(minor, OnmsSeverity.MINOR);
+        m_rollup.onAlarmDeleted(normal);
+        summaries = m_rollup.getNodeAlarmSummariesIncludeAcknowledgedOnes(Arrays.asList(1, 2));
+        assertEquals(1, summaries.size());
+        assertSummary(summaries.get(0), 1, OnmsSeverity.MAJOR, 0, 2000);
+        assertEquals(0, m_rollup.getNodeAlarmSummaries().size());
+        assertEquals(2, m_rollup.getAlarmCount());
+        assertEquals(1, m_rollup.getNodeCount());
+    }
+
+    @Test
+    public void canReloadAndCountDrift() {
+        assertFalse(m_rollup.isReady());
+        m_rollup.reload(Arrays.asList(
+                new AlarmState(1, 1, "node1", OnmsSeverity.MAJOR, false, new Date(1000)),
+                new AlarmState(2, 2, "node2", OnmsSeverity.MINOR, false, new Date(1000))), 0);
+        assertEquals(0, m_rollup.getDriftedNodes());
+
+        // The label of the second node changed in the database
+        m_rollup.reload(Arrays.asList(
+                new AlarmState(1, 1, "node1", OnmsSeverity.MAJOR, false, new Date(1000)),
+                new AlarmState(2, 2, "node2-renamed", OnmsSeverity.MINOR, false, new Date(1000))), 0);
+        assertEquals(1, m_rollup.getDriftedNodes());
+        assertEquals(2, m_rollup.getReloads());
+        assertEquals("node2-renamed", m_rollup.getNodeAlarmSummariesIncludeAcknowledgedOnes(Collections.singletonList(2)).get(0).getNodeLabel());
+    }
+
+    @Test
+    public void canKeepAlarmsNotifiedDuringReload() {
+        m_rollup.reload(Collections.emptyList(), 0);
+
+        // The reload starts, an alarm gets deleted before the loaded alarms are applied
+        final OnmsAlarm alarm = createAlarm(1, m_node1, OnmsSeverity.MAJOR, 1000);
+        m_rollup.onAlarmCreated(alarm);
+        m_rollup.startReload();
+        m_rollup.onAlarmDeleted(alarm);
+        m_rollup.reload(Collections.singletonList(new AlarmState(1, 1, "node1", OnmsSeverity.MAJOR, false, new Date(1000))), 0);
+
+        assertEquals(0, m_rollup.getAlarmCount());
+        assertEquals(0, m_rollup.getDriftedNodes());
+    }
+
+    @Test
+    public void appliesChangesOnlyOnceCommitted() {
+        m_rollup.reload(Collections.emptyList(), 0);
+
+        final OnmsAlarm alarm = createAlarm(1, m_node1, OnmsSeverity.MAJOR, 1000);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            m_rollup.onAlarmCreated(alarm);
+            assertEquals(0, m_rollup.getAlarmCount());
+            // Changes made to the alarm after the notification are not part of the committed state
+            alarm.setSeverity(OnmsSeverity.CRITICAL);
+            TransactionSynchronizationUtils.triggerAfterCommit();
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertEquals(1, m_rollup.getAlarmCount());
+        assertSummary(m_rollup.getNodeAlarmSummaries().get(0), 1, OnmsSeverity.MAJOR, 1, 1000);
+
+        // Rolled back changes never show up
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            m_rollup.onAlarmCreated(createAlarm(2, m_node2, OnmsSeverity.MINOR, 2000));
+            m_rollup.onAlarmDeleted(alarm);
+            TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+                    TransactionSynchronization.STATUS_ROLLED_BACK);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertEquals(1, m_rollup.getAlarmCount());
+        assertEquals(1, m_rollup.getNodeCount());
+        assertSummary(m_rollup.getNodeAlarmSummaries().get(0), 1, OnmsSeverity.MAJOR, 1, 1000);
+    }
+
+    private static void assertSummary(final AlarmSummary summary, final int nodeId, final OnmsSeverity severity, final long count, final long minLastEventTime) {
+        assertEquals(nodeId, summary.getNodeId());
+        assertEquals(severity, summary.getMaxSeverity());
+        assertEquals(count, summary.getAlarmCount());
+        assertEquals(new Date(minLastEventTime), summary.getMinLastEventDate());
+    }
+
+    private static OnmsAlarm createAlarm(final int id, final OnmsNode node, final OnmsSeverity severity, final long lastEventTime) {
+        final OnmsAlarm alarm = new OnmsAlarm();
+        alarm.setId(id);
+        alarm.setNode(node);
+        alarm.setSeverity(severity);
+        alarm.setLastEventTime(new Date(lastEventTime));
+        return alarm;
+    }
+}
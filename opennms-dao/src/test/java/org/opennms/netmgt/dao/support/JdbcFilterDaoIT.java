@@ -361,6 +361,76 @@ public class JdbcFilterDaoIT implements InitializingBean {
         m_dao.getInterfaceWithServiceStatement("serviceName == 'DiskUsage-/foo/bar'");
     }
 
+    @Test
+    public void testInMemoryEvaluationMatchesDatabase() {
+        final JdbcFilterDao inMemoryDao = createInMemoryDao();
+        final String[] rules = {
+                "IPADDR IPLIKE *.*.*.*",
+                "IPADDR IPLIKE 192.168.1.*",
+                "IPADDR IPLIKE 10.1.1-2.*,1",
+                "isICMP",
+                "isSNMP & isICMP",
+                "!isICMP",
+                "catincIMP_mid",
+                "catincIMP_mid & isSNMP",
+                "nodeLabel == 'node1'",
+                "nodeSysOID LIKE '.1.3.6.1.4.1.5813%'",
+                "nodeSysOID IS NULL",
+                "!(nodeSysOID LIKE '.1.3.%')",
+                "location == 'Default'",
+                "isHTTP | IPADDR IPLIKE 10.*.*.*",
+                "IPADDR IPLIKE 11.*.*.* | isHTTP",
+                String.format("(catincIMP_mid) & (catincDEV_AC) & (nodeId == '%s') & (ipAddr == '192.168.1.1') & (serviceName == 'ICMP')", m_populator.getNode1().getId())
+        };
+        final List<String> addresses = new ArrayList<>();
+        for (final OnmsIpInterface iface : m_interfaceDao.findAll()) {
+            addresses.add(InetAddressUtils.str(iface.getIpAddress()));
+        }
+        addresses.add("1.1.1.1");
+
+        for (final String rule : rules) {
+            assertEquals("isRuleMatching: " + rule, m_dao.isRuleMatching(rule), inMemoryDao.isRuleMatching(rule));
+            for (final String address : addresses) {
+                assertEquals("isValid: " + rule + " " + address, m_dao.isValid(address, rule), inMemoryDao.isValid(address, rule));
+            }
+        }
+    }
+
+    @Test
+    public void testDatabaseQueriesDuringNotificationStorm() {
+        final JdbcFilterDao inMemoryDao = createInMemoryDao();
+
+        // Same rules as the ones built by the notification manager for every event
+        final List<OnmsIpInterface> interfaces = m_interfaceDao.findAll();
+        final List<String> rules = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final OnmsIpInterface iface = interfaces.get(i % interfaces.size());
+            rules.add(String.format("((IPADDR IPLIKE *.*.*.*) & (nodeId == %d) & (ipAddr == '%s') & (serviceName == 'ICMP'))",
+                    iface.getNode().getId(), InetAddressUtils.str(iface.getIpAddress())));
+        }
+
+        long queries = m_dao.getDatabaseQueryCount();
+        for (final String rule : rules) {
+            m_dao.isRuleMatching(rule);
+        }
+        assertEquals(rules.size(), m_dao.getDatabaseQueryCount() - queries);
+
+        queries = inMemoryDao.getDatabaseQueryCount();
+        for (final String rule : rules) {
+            inMemoryDao.isRuleMatching(rule);
+        }
+        // The snapshot is loaded once
+        assertThat(inMemoryDao.getDatabaseQueryCount() - queries, Matchers.lessThanOrEqualTo(3L));
+    }
+
+    private JdbcFilterDao createInMemoryDao() {
+        final JdbcFilterDao dao = new JdbcFilterDao();
+        dao.setDataSource(m_dataSource);
+        dao.setDatabaseSchemaConfigFactory(DatabaseSchemaConfigFactory.getInstance());
+        dao.setInMemoryEvaluation(true);
+        return dao;
+    }
+
     // Verifies that if a bunch of interfaces exists, checking if an ip address is valid should be faster
     // than retrieving all interfaces.
     // See HZN-1161 for more details.
@@ -231,6 +231,9 @@ public final class BroadcastEventProcessor implements EventListener {
             return;
         }
 
+        // Node, interface and service changes may change the outcome of the notification rules
+        m_notificationManager.invalidateRuleMatchCache(event);
+
         if (event.getLogmsg() != null && event.getLogmsg().getDest().equalsIgnoreCase("donotpersist")) {
             LOG.debug("discarding event {}, the event has been configured as 'doNotPersist'.", event.getUei());
             return;
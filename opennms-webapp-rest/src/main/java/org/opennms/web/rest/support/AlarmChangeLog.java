@@ -0,0 +1,266 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.web.rest.support;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.opennms.netmgt.dao.api.AlarmEntityListener;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsMemo;
+import org.opennms.netmgt.model.OnmsReductionKeyMemo;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.model.TroubleTicketState;
+import org.opennms.web.rest.model.v2.AlarmChangeCollectionDTO;
+import org.opennms.web.rest.model.v2.AlarmChangeDTO;
+import org.opennms.web.rest.model.v2.AlarmChangeDTO.Action;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Keeps the most recent alarm changes in memory so that clients can follow
+ * the alarms incrementally instead of polling the complete list.
+ *
+ * Every change is assigned a sequence number. Clients ask for the changes after
+ * the last sequence number they have seen, at their own pace. When they fall behind
+ * by more than the capacity of the log, or the log was restarted, they are told to
+ * reload the alarms.
+ *
+ * Changes made within a transaction are only recorded once it committed, so
+ * changes which are rolled back never show up in the log.
+ */
+public class AlarmChangeLog implements AlarmEntityListener {
+
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("org.opennms.web.rest.alarms.changes.capacity", 10000);
+
+    private final AlarmChangeDTO[] m_changes;
+
+    /**
+     * Sequence number of the most recent change. Starts with a value derived from the
+     * current time so cursors handed out before a restart are detected as stale.
+     */
+    private long m_sequence;
+
+    private int m_size = 0;
+
+    public AlarmChangeLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public AlarmChangeLog(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        m_changes = new AlarmChangeDTO[capacity];
+        m_sequence = System.currentTimeMillis() * 1000L;
+    }
+
+    /**
+     * Retrieves the changes recorded after the given sequence number.
+     *
+     * Changes which do not match the filter are skipped, the returned sequence number
+     * always points to the last change that was looked at.
+     *
+     * @param since the sequence number of the last change seen by the client, or {@code null}
+     *              to only retrieve the current sequence number
+     * @param limit maximum number of changes to return
+     * @param filter the changes to include
+     */
+    public AlarmChangeCollectionDTO getChangesSince(final Long since, final int limit, final Predicate<AlarmChangeDTO> filter) {
+        return getChangesSince(since, limit, (Function<AlarmChangeDTO, AlarmChangeDTO>) change -> filter.test(change) ? change : null);
+    }
+
+    /**
+     * Retrieves the changes recorded after the given sequence number as seen through the given view.
+     *
+     * @param since the sequence number of the last change seen by the client, or {@code null}
+     *              to only retrieve the current sequence number
+     * @param limit maximum number of changes to return
+     * @param view maps each change to the change returned to the client, or to {@code null} to skip it
+     */
+    public synchronized AlarmChangeCollectionDTO getChangesSince(final Long since, final int limit, final Function<AlarmChangeDTO, AlarmChangeDTO> view) {
+        if (since == null) {
+            return new AlarmChangeCollectionDTO(new ArrayList<>(), m_sequence, false);
+        }
+        final long oldest = m_sequence - m_size;
+        if (since < oldest || since > m_sequence) {
+            return new AlarmChangeCollectionDTO(new ArrayList<>(), m_sequence, true);
+        }
+
+        final List<AlarmChangeDTO> changes = new ArrayList<>(Math.min(limit, (int)(m_sequence - since)));
+        long sequence = since;
+        while (sequence < m_sequence && changes.size() < limit) {
+            sequence++;
+            final AlarmChangeDTO change = view.apply(m_changes[(int)(sequence % m_changes.length)]);
+            if (change != null) {
+                changes.add(change);
+            }
+        }
+        return new AlarmChangeCollectionDTO(changes, sequence, false);
+    }
+
+    /**
+     * A view which only includes the alarms with at least the given severity.
+     *
+     * Updates which lower the severity of an alarm below the minimum are returned as
+     * deletions, since the client may know the alarm with a higher severity. Deleted
+     * alarms are always included. Clients must therefore expect updates for alarms they
+     * do not know yet, which raised the severity of an alarm above the minimum again.
+     */
+    public static Function<AlarmChangeDTO, AlarmChangeDTO> withMinimumSeverity(final OnmsSeverity minimum) {
+        return change -> {
+            if (change.getAction() == Action.DELETED
+                    || OnmsSeverity.get(change.getSeverity()).isGreaterThanOrEqual(minimum)) {
+                return change;
+            }
+            if (change.getAction() == Action.UPDATED) {
+                final AlarmChangeDTO removal = copy(change);
+                removal.setAction(Action.DELETED);
+                return removal;
+            }
+            return null;
+        };
+    }
+
+    private static AlarmChangeDTO copy(final AlarmChangeDTO change) {
+        final AlarmChangeDTO copy = new AlarmChangeDTO();
+        copy.setSequence(change.getSequence());
+        copy.setAction(change.getAction());
+        copy.setId(change.getId());
+        copy.setReductionKey(change.getReductionKey());
+        copy.setUei(change.getUei());
+        copy.setNodeId(change.getNodeId());
+        copy.setSeverity(change.getSeverity());
+        copy.setCount(change.getCount());
+        copy.setLastEventTime(change.getLastEventTime());
+        copy.setAckUser(change.getAckUser());
+        return copy;
+    }
+
+    private void record(final Action action, final OnmsAlarm alarm) {
+        final AlarmChangeDTO change = new AlarmChangeDTO();
+        change.setAction(action);
+        change.setId(alarm.getId());
+        change.setReductionKey(alarm.getReductionKey());
+        change.setUei(alarm.getUei());
+        change.setNodeId(alarm.getNodeId());
+        change.setSeverity(alarm.getSeverity() == null ? null : alarm.getSeverity().getLabel());
+        change.setCount(alarm.getCounter());
+        change.setLastEventTime(alarm.getLastEventTime());
+        change.setAckUser(alarm.getAlarmAckUser());
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Alarmd notifies us from within its transaction, wait until the change is visible in the database
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    append(change);
+                }
+            });
+        } else {
+            append(change);
+        }
+    }
+
+    private void append(final AlarmChangeDTO change) {
+        synchronized (this) {
+            m_sequence++;
+            change.setSequence(m_sequence);
+            m_changes[(int)(m_sequence % m_changes.length)] = change;
+            m_size = Math.min(m_size + 1, m_changes.length);
+        }
+    }
+
+    @Override
+    public void onAlarmCreated(final OnmsAlarm alarm) {
+        record(Action.CREATED, alarm);
+    }
+
+    @Override
+    public void onAlarmUpdatedWithReducedEvent(final OnmsAlarm alarm) {
+        record(Action.UPDATED, alarm);
+    }
+
+    @Override
+    public void onAlarmAcknowledged(final OnmsAlarm alarm, final String previousAckUser, final Date previousAckTime) {
+        record(Action.UPDATED, alarm);
+    }
+
+    @Override
+    public void onAlarmUnacknowledged(final OnmsAlarm alarm, final String previousAckUser, final Date previousAckTime) {
+        record(Action.UPDATED, alarm);
+    }
+
+    @Override
+    public void onAlarmSeverityUpdated(final OnmsAlarm alarm, final OnmsSeverity previousSeverity) {
+        record(Action.UPDATED, alarm);
+    }
+
+    @Override
+    public void onAlarmArchived(final OnmsAlarm alarm, final String previousReductionKey) {
+        record(Action.UPDATED, alarm);
+    }
+
+    @Override
+    public void onAlarmDeleted(final OnmsAlarm alarm) {
+        record(Action.DELETED, alarm);
+    }
+
+    @Override
+    public void onStickyMemoUpdated(final OnmsAlarm alarm, final String previousBody, final String previousAuthor, final Date previousUpdated) {
+        record(Action.UPDATED, alarm);
+    }
+
+    @Override
+    public void onReductionKeyMemoUpdated(final OnmsAlarm alarm, final String previousBody, final String previousAuthor, final Date previousUpdated) {
+        record(Action.UPDATED, alarm);
+    }
+
+    @Override
+    public void onStickyMemoDeleted(final OnmsAlarm alarm, final OnmsMemo memo) {
+        record(Action.UPDATED, alarm);
+    }
+
+    @Override
+    public void onReductionKeyMemoDeleted(final OnmsAlarm alarm, final OnmsReductionKeyMemo memo) {
+        record(Action.UPDATED, alarm);
+    }
+
+    @Override
+    public void onLastAutomationTimeUpdated(final OnmsAlarm alarm, final Date previousLastAutomationTime) {
+        record(Action.UPDATED, alarm);
+    }
+
+    @Override
+    public void onRelatedAlarmsUpdated(final OnmsAlarm alarm, final Set<OnmsAlarm> previousRelatedAlarms) {
+        record(Action.UPDATED, alarm);
+    }
+
+    @Override
+    public void onTicketStateChanged(final OnmsAlarm alarm, final TroubleTicketState previousState) {
+        record(Action.UPDATED, alarm);
+    }
+}
@@ -23,17 +23,22 @@ package org.opennms.web.rest.v2;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.function.Function;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -54,14 +59,19 @@ import org.opennms.core.resource.Vault;
 import org.opennms.netmgt.dao.api.AcknowledgmentDao;
 import org.opennms.netmgt.dao.api.AlarmDao;
 import org.opennms.netmgt.dao.api.AlarmRepository;
+import org.opennms.netmgt.dao.support.AlarmSummaryRollup;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.model.AckAction;
 import org.opennms.netmgt.model.OnmsAcknowledgment;
 import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsSeverity;
 import org.opennms.netmgt.model.TroubleTicketState;
+import org.opennms.web.api.Authentication;
 import org.opennms.web.rest.mapper.v2.AlarmMapper;
+import org.opennms.web.rest.model.v2.AlarmChangeDTO;
 import org.opennms.web.rest.model.v2.AlarmCollectionDTO;
 import org.opennms.web.rest.model.v2.AlarmDTO;
+import org.opennms.web.rest.support.AlarmChangeLog;
 import org.opennms.web.rest.support.Aliases;
 import org.opennms.web.rest.support.CriteriaBehavior;
 import org.opennms.web.rest.support.CriteriaBehaviors;
@@ -73,6 +83,7 @@ import org.opennms.web.rest.support.SecurityHelper;
 import org.opennms.web.svclayer.TroubleTicketProxy;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 /**
@@ -86,6 +97,10 @@ import org.springframework.transaction.annotation.Transactional;
 @Tag(name = "Alarms", description = "Alarms API")
 public class AlarmRestService extends AbstractDaoRestServiceWithDTO<OnmsAlarm,AlarmDTO,SearchBean,Integer,Integer> {
 
+    private static final int DEFAULT_CHANGES_LIMIT = 1000;
+
+    private static final int MAX_CHANGES_LIMIT = 10000;
+
     @Autowired
     private AlarmDao m_dao;
 
@@ -101,6 +116,12 @@ public class AlarmRestService extends AbstractDaoRestServiceWithDTO<OnmsAlarm,Al
     @Autowired
     private AlarmMapper m_alarmMapper;
 
+    @Autowired
+    private AlarmChangeLog m_alarmChangeLog;
+
+    @Autowired
+    private AlarmSummaryRollup m_alarmSummaryRollup;
+
     @Override
     protected AlarmDao getDao() {
         return m_dao;
@@ -244,6 +265,55 @@ public class AlarmRestService extends AbstractDaoRestServiceWithDTO<OnmsAlarm,Al
         return Response.noContent().build();
     }
 
+    /**
+     * Returns the alarm changes after the given sequence number, served from memory.
+     *
+     * Clients first call this without {@code since} to get the current sequence number,
+     * load the alarms, and then keep asking for the changes after the last sequence number
+     * they received. When {@code resync} is set in the response the alarms must be loaded again.
+     */
+    @GET
+    @Path("changes")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Response getChanges(@Context final SecurityContext securityContext, @QueryParam("since") final Long since, @QueryParam("limit") final Integer limit,
+                               @QueryParam("nodeId") final Integer nodeId, @QueryParam("severity") final String severity) {
+        SecurityHelper.assertUserReadCredentials(securityContext);
+        if (Boolean.getBoolean("org.opennms.web.aclsEnabled") && !securityContext.isUserInRole(Authentication.ROLE_ADMIN)) {
+            // The change log does not know which nodes the user is allowed to see
+            return Response.status(Status.NOT_IMPLEMENTED).entity("Alarm changes are not available when ACLs are enabled.").build();
+        }
+
+        final Function<AlarmChangeDTO, AlarmChangeDTO> severityView = severity == null
+                ? Function.identity() : AlarmChangeLog.withMinimumSeverity(OnmsSeverity.get(severity));
+        final Function<AlarmChangeDTO, AlarmChangeDTO> view = change ->
+                nodeId == null || nodeId.equals(change.getNodeId()) ? severityView.apply(change) : null;
+
+        final int maxChanges = limit == null || limit < 1 ? DEFAULT_CHANGES_LIMIT : Math.min(limit, MAX_CHANGES_LIMIT);
+        return Response.ok(m_alarmChangeLog.getChangesSince(since, maxChanges, view)).build();
+    }
+
+    /**
+     * Returns the state of the in-memory rollup serving the per node alarm summaries.
+     */
+    @GET
+    @Path("summaries/rollup")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public Response getSummaryRollup(@Context final SecurityContext securityContext) {
+        SecurityHelper.assertUserReadCredentials(securityContext);
+        final Map<String, Object> rollup = new LinkedHashMap<>();
+        rollup.put("enabled", m_alarmSummaryRollup.isEnabled());
+        rollup.put("ready", m_alarmSummaryRollup.isReady());
+        rollup.put("alarms", m_alarmSummaryRollup.getAlarmCount());
+        rollup.put("nodes", m_alarmSummaryRollup.getNodeCount());
+        rollup.put("reloads", m_alarmSummaryRollup.getReloads());
+        rollup.put("lastReloadTime", m_alarmSummaryRollup.getLastReloadTime());
+        rollup.put("lastReloadDurationMs", m_alarmSummaryRollup.getLastReloadDurationMs());
+        rollup.put("driftedNodes", m_alarmSummaryRollup.getDriftedNodes());
+        return Response.ok(rollup).build();
+    }
+
     @PUT
     @Path("{id}/memo")
     @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
@@ -0,0 +1,173 @@
+/*
+ * Licensed to The OpenNMS Group, Inc (TOG) under one or more
+ * contributor license agreements.  See the LICENSE.md file
+ * distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * TOG licenses this file to You under the GNU Affero General
+ * Public License Version 3 (the "License") or (at your option)
+ * any later version.  You may not use this file except in
+ * compliance with the License.  You may obtain a copy of the
+ * License at:
+ *
+ *      https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package org.opennms.web.rest.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.web.rest.model.v2.AlarmChangeCollectionDTO;
+import org.opennms.web.rest.model.v2.AlarmChangeDTO;
+import org.opennms.web.rest.model.v2.AlarmChangeDTO.Action;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+public class AlarmChangeLogTest {
+
+    @Test
+    public void canFollowChanges() {
+        final AlarmChangeLog log = new AlarmChangeLog(10);
+        final long start = log.getChangesSince(null, 100, c -> true).getSequence();
+
+        log.onAlarmCreated(alarm(1, OnmsSeverity.MAJOR));
+        log.onAlarmSeverityUpdated(alarm(1, OnmsSeverity.MINOR), OnmsSeverity.MAJOR);
+        log.onAlarmCreated(alarm(2, OnmsSeverity.WARNING));
+
+        AlarmChangeCollectionDTO changes = log.getChangesSince(start, 100, c -> true);
+        assertFalse(changes.isResync());
+        assertEquals(3, changes.size());
+        assertEquals(start + 3, changes.getSequence());
+        assertEquals(Action.CREATED, changes.get(0).getAction());
+        assertEquals(Action.UPDATED, changes.get(1).getAction());
+        assertEquals("Minor", changes.get(1).getSeverity());
+
+        log.onAlarmDeleted(alarm(1, OnmsSeverity.MINOR));
+        changes = log.getChangesSince(changes.getSequence(), 100, c -> true);
+        assertEquals(1, changes.size());
+        assertEquals(Action.DELETED, changes.get(0).getAction());
+        assertEquals(Integer.valueOf(1), changes.get(0).getId());
+
+        // Nothing new
+        changes = log.getChangesSince(changes.getSequence(), 100, c -> true);
+        assertEquals(0, changes.size());
+        assertEquals(start + 4, changes.getSequence());
+    }
+
+    @Test
+    public void canLimitAndFilterChanges() {
+        final AlarmChangeLog log = new AlarmChangeLog(10);
+        final long start = log.getChangesSince(null, 100, c -> true).getSequence();
+        for (int i = 1; i <= 6; i++) {
+            log.onAlarmCreated(alarm(i, i % 2 == 0 ? OnmsSeverity.CRITICAL : OnmsSeverity.NORMAL));
+        }
+
+        AlarmChangeCollectionDTO changes = log.getChangesSince(start, 2, c -> true);
+        assertEquals(2, changes.size());
+        assertEquals(start + 2, changes.getSequence());
+
+        changes = log.getChangesSince(start, 100, c -> "Critical".equals(c.getSeverity()));
+        assertEquals(start + 6, changes.getSequence());
+        assertEquals("2,4,6", changes.getObjects().stream()
+                .map(AlarmChangeDTO::getId)
+                .map(String::valueOf)
+                .collect(Collectors.joining(",")));
+    }
+
+    @Test
+    public void requestsResyncWhenChangesWereMissed() {
+        final AlarmChangeLog log = new AlarmChangeLog(3);
+        final long start = log.getChangesSince(null, 100, c -> true).getSequence();
+        for (int i = 1; i <= 4; i++) {
+            log.onAlarmCreated(alarm(i, OnmsSeverity.MAJOR));
+        }
+
+        // The first change was already overwritten
+        AlarmChangeCollectionDTO changes = log.getChangesSince(start, 100, c -> true);
+        assertTrue(changes.isResync());
+        assertEquals(0, changes.size());
+        assertEquals(start + 4, changes.getSequence());
+
+        changes = log.getChangesSince(start + 1, 100, c -> true);
+        assertFalse(changes.isResync());
+        assertEquals(3, changes.size());
+
+        // Unknown cursor, i.e. handed out before a restart
+        assertTrue(log.getChangesSince(start + 100, 100, c -> true).isResync());
+    }
+
+    @Test
+    public void reportsAlarmsDroppingBelowTheMinimumSeverityAsDeleted() {
+        final AlarmChangeLog log = new AlarmChangeLog(10);
+        final long start = log.getChangesSince(null, 100, c -> true).getSequence();
+
+        log.onAlarmCreated(alarm(1, OnmsSeverity.MAJOR));
+        log.onAlarmCreated(alarm(2, OnmsSeverity.NORMAL));
+        log.onAlarmSeverityUpdated(alarm(1, OnmsSeverity.NORMAL), OnmsSeverity.MAJOR);
+        log.onAlarmSeverityUpdated(alarm(1, OnmsSeverity.CRITICAL), OnmsSeverity.NORMAL);
+
+        final AlarmChangeCollectionDTO changes = log.getChangesSince(start, 100, AlarmChangeLog.withMinimumSeverity(OnmsSeverity.MAJOR));
+        assertEquals(3, changes.size());
+        assertEquals(Action.CREATED, changes.get(0).getAction());
+        assertEquals(Action.DELETED, changes.get(1).getAction());
+        assertEquals(Integer.valueOf(1), changes.get(1).getId());
+        assertEquals(start + 3, changes.get(1).getSequence().longValue());
+        assertEquals(Action.UPDATED, changes.get(2).getAction());
+        assertEquals("Critical", changes.get(2).getSeverity());
+
+        // The log itself is left untouched
+        assertEquals(Action.UPDATED, log.getChangesSince(start, 100, c -> true).get(2).getAction());
+    }
+
+    @Test
+    public void recordsChangesOnlyOnceCommitted() {
+        final AlarmChangeLog log = new AlarmChangeLog(10);
+        final long start = log.getChangesSince(null, 100, c -> true).getSequence();
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            log.onAlarmCreated(alarm(1, OnmsSeverity.MAJOR));
+            assertEquals(0, log.getChangesSince(start, 100, c -> true).size());
+            TransactionSynchronizationUtils.triggerAfterCommit();
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertEquals(1, log.getChangesSince(start, 100, c -> true).size());
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            log.onAlarmCreated(alarm(2, OnmsSeverity.MAJOR));
+            TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+                    TransactionSynchronization.STATUS_ROLLED_BACK);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        final AlarmChangeCollectionDTO changes = log.getChangesSince(start, 100, c -> true);
+        assertEquals(1, changes.size());
+        assertEquals(start + 1, changes.getSequence());
+    }
+
+    private static OnmsAlarm alarm(final int id, final OnmsSeverity severity) {
+        final OnmsAlarm alarm = new OnmsAlarm();
+        alarm.setId(id);
+        alarm.setUei("uei.opennms.org/test");
+        alarm.setReductionKey("uei.opennms.org/test::" + id);
+        alarm.setSeverity(severity);
+        alarm.setCounter(1);
+        return alarm;
+    }
+}